@@ -0,0 +1,59 @@
+/**
+ *
+ * BenchmarkActivity
+ * Cobalt
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Cobaltians
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+package org.cobaltians.cobalt.benchmark;
+
+import org.cobaltians.cobalt.activities.CobaltActivity;
+import org.cobaltians.cobalt.fragments.CobaltFragment;
+
+import android.support.annotation.Nullable;
+import android.support.v4.app.Fragment;
+
+/**
+ * Hosts a {@link BenchmarkFragment}
+ */
+public class BenchmarkActivity extends CobaltActivity
+{
+    @Override
+    protected CobaltFragment getFragment()
+    {
+        return new BenchmarkFragment();
+    }
+
+    /**
+     * Returns the fragment of the activity, once its transaction is committed
+     * @return the fragment of the activity, or null if not added yet.
+     */
+    @Nullable
+    public BenchmarkFragment getBenchmarkFragment()
+    {
+        Fragment fragment = getSupportFragmentManager().findFragmentById(getFragmentContainerId());
+        return fragment instanceof BenchmarkFragment ? (BenchmarkFragment) fragment : null;
+    }
+}
@@ -0,0 +1,158 @@
+/**
+ *
+ * BenchmarkFragment
+ * Cobalt
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Cobaltians
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+package org.cobaltians.cobalt.benchmark;
+
+import org.cobaltians.cobalt.Cobalt;
+import org.cobaltians.cobalt.R;
+import org.cobaltians.cobalt.bridge.BridgeLifecycle;
+import org.cobaltians.cobalt.bridge.BridgeMessage;
+import org.cobaltians.cobalt.bridge.BridgeTransport;
+import org.cobaltians.cobalt.bridge.LoopbackTransport;
+import org.cobaltians.cobalt.bridge.MessageDispatcher;
+import org.cobaltians.cobalt.bridge.ScriptedPage;
+import org.cobaltians.cobalt.fragments.CobaltFragment;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A fragment whose bridge delivers to a {@link ScriptedPage} over a {@link LoopbackTransport} instead of its Web view.
+ * Messages go through the whole bridge of the fragment: waiting queue, message batcher and transport one way,
+ * bridge message listener, bridge executor and message dispatcher the other way.
+ */
+public class BenchmarkFragment extends CobaltFragment implements BridgeBenchmark.Bridge
+{
+    /***********************************************************************************************
+     *
+     * MEMBERS
+     *
+     **********************************************************************************************/
+
+    private final ScriptedPage mPage = new ScriptedPage();
+    @Nullable
+    private LoopbackTransport mTransport;
+    @Nullable
+    private volatile BridgeBenchmark.AnswerListener mAnswerListener;
+
+    /***********************************************************************************************
+     *
+     * LIFECYCLE
+     *
+     **********************************************************************************************/
+
+    @Override
+    public void onDestroy()
+    {
+        super.onDestroy();
+
+        if (mTransport != null)
+        {
+            mTransport.close();
+            mTransport = null;
+        }
+    }
+
+    /***********************************************************************************************
+     *
+     * METHODS
+     *
+     **********************************************************************************************/
+
+    @NonNull
+    @Override
+    public ScriptedPage getScriptedPage()
+    {
+        return mPage;
+    }
+
+    @Override
+    public boolean isBridgeReady()
+    {
+        return getBridgeState() == BridgeLifecycle.State.READY;
+    }
+
+    @Override
+    public void setAnswerListener(@Nullable BridgeBenchmark.AnswerListener listener)
+    {
+        mAnswerListener = listener;
+    }
+
+    /**
+     * Sends cobaltIsReady through the bridge, as cobalt.js would once loaded
+     */
+    public void simulatePageReady()
+    {
+        try
+        {
+            JSONObject message = new JSONObject();
+            message.put(Cobalt.kJSType, Cobalt.JSTypeCobaltIsReady);
+            message.put(Cobalt.kJSVersion, getResources().getString(R.string.version_name));
+            getBridgeMessageListener().onMessage(message.toString());
+        }
+        catch (JSONException exception)
+        {
+            exception.printStackTrace();
+        }
+    }
+
+    @NonNull
+    @Override
+    protected BridgeTransport createBridgeTransport()
+    {
+        mTransport = new LoopbackTransport(mPage, getBridgeMessageListener());
+        return mTransport;
+    }
+
+    @Override
+    protected boolean isEarlyBridgeEnabled()
+    {
+        return false;
+    }
+
+    @Override
+    protected void onRegisterMessageHandlers(@NonNull MessageDispatcher dispatcher)
+    {
+        BridgeBenchmark.registerAnswerHandlers(dispatcher, new BridgeBenchmark.AnswerListener()
+        {
+            @Override
+            public void onAnswer(@NonNull BridgeMessage message) throws JSONException
+            {
+                BridgeBenchmark.AnswerListener listener = mAnswerListener;
+                if (listener != null)
+                {
+                    listener.onAnswer(message);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ *
+ * BridgeBenchmarkTest
+ * Cobalt
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Cobaltians
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+package org.cobaltians.cobalt.benchmark;
+
+import org.cobaltians.cobalt.Cobalt;
+import org.cobaltians.cobalt.bridge.BridgeLifecycle;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Runs the mixes of {@link BridgeBenchmark} on the bridge of a {@link BenchmarkFragment}, and logs their results
+ */
+@RunWith(AndroidJUnit4.class)
+public class BridgeBenchmarkTest
+{
+    private static final String TAG = BridgeBenchmarkTest.class.getSimpleName();
+
+    private static final int ROUND_TRIPS = 2000;
+    private static final int FAN_OUT = 8;
+    private static final long TIMEOUT = 30000;
+
+    @Rule
+    public final ActivityTestRule<BenchmarkActivity> mActivityRule = new ActivityTestRule<>(BenchmarkActivity.class);
+
+    private BridgeBenchmark mBenchmark;
+
+    @Before
+    public void setUp() throws InterruptedException
+    {
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+        BenchmarkFragment fragment = mActivityRule.getActivity().getBenchmarkFragment();
+        assertNotNull(fragment);
+
+        fragment.simulatePageReady();
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (fragment.getBridgeState() != BridgeLifecycle.State.READY
+               && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(10);
+        }
+        assertEquals(BridgeLifecycle.State.READY, fragment.getBridgeState());
+
+        mBenchmark = new BridgeBenchmark(fragment, FAN_OUT);
+    }
+
+    @Test
+    public void navigation() throws InterruptedException
+    {
+        assertCompleted(mBenchmark.run(BridgeBenchmark.Mix.NAVIGATION, ROUND_TRIPS, TIMEOUT));
+    }
+
+    @Test
+    public void pubsubFanOut() throws InterruptedException
+    {
+        assertCompleted(mBenchmark.run(BridgeBenchmark.Mix.PUBSUB_FANOUT, ROUND_TRIPS, TIMEOUT));
+    }
+
+    @Test
+    public void pluginCall() throws InterruptedException
+    {
+        assertCompleted(mBenchmark.run(BridgeBenchmark.Mix.PLUGIN_CALL, ROUND_TRIPS, TIMEOUT));
+    }
+
+    @Test
+    public void barsUpdate() throws InterruptedException
+    {
+        assertCompleted(mBenchmark.run(BridgeBenchmark.Mix.BARS_UPDATE, ROUND_TRIPS, TIMEOUT));
+    }
+
+    private static void assertCompleted(BridgeBenchmark.Result result)
+    {
+        Log.i(Cobalt.TAG, TAG + " - " + result);
+        assertEquals(result.getRoundTrips(), result.getCompletedRoundTrips());
+    }
+}
@@ -30,6 +30,9 @@
 package org.cobaltians.cobalt;
 
 import org.cobaltians.cobalt.activities.CobaltActivity;
+import org.cobaltians.cobalt.bundle.CobaltBundleManager;
+import org.cobaltians.cobalt.configuration.CobaltConfiguration;
+import org.cobaltians.cobalt.configuration.CobaltControllerIndex;
 import org.cobaltians.cobalt.customviews.BottomBar;
 import org.cobaltians.cobalt.fragments.CobaltFragment;
 import org.cobaltians.cobalt.plugin.CobaltAbstractPlugin;
@@ -38,10 +41,10 @@ import org.cobaltians.cobalt.pubsub.PubSub;
 import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
-import android.content.res.AssetManager;
 import android.content.res.ColorStateList;
 import android.content.res.Resources;
 import android.graphics.Color;
+import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.support.annotation.AttrRes;
@@ -51,14 +54,13 @@ import android.support.v7.app.ActionBar;
 import android.util.Log;
 import android.util.TypedValue;
 
-import java.io.*;
+import java.io.File;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.concurrent.Executor;
 
 import junit.framework.Assert;
 
 import org.cobaltians.cobalt.pubsub.PubSubInterface;
-import org.json.JSONException;
 import org.json.JSONObject;
 
 public class Cobalt {
@@ -87,10 +89,9 @@ public class Cobalt {
      **********************************************************************************************/
 
     public final static String CONF_FILE = "cobalt.json";
-    private final static String kControllers = "controllers";
-    private final static String kPlugins = "plugins";
-    private final static String kAndroid = "android";
-    private final static String kDefaultController = "default";
+    public final static String kControllers = "controllers";
+    public final static String kAndroid = "android";
+    public final static String kDefaultController = "default";
 
     public final static String kBars = "bars";
     public final static String kBarsVisible = "visible";
@@ -124,6 +125,9 @@ public class Cobalt {
     public final static String kActivity = "activity";
     public final static String kPopAsModal = "popAsModal";
     public final static String kPushAsModal = "pushAsModal";
+    // Handles of the navigation payloads, see NavigationPayloadStore
+    public final static String kDataHandle = "dataHandle";
+    public final static String kBarsHandle = "barsHandle";
     public final static String kPullToRefresh = "pullToRefresh";
     public final static String kInfiniteScroll = "infiniteScroll";
     public final static String kInfiniteScrollOffset = "infiniteScrollOffset";
@@ -138,6 +142,7 @@ public class Cobalt {
     public final static String kJSCallback = "callback";
     public final static String kJSCallbackChannel = "callbackChannel";
     public final static String kJSData = "data";
+    public final static String kJSError = "error";
     public final static String kJSMessage = "message";
     public final static String kJSPage = "page";
     public final static String kJSType = "type";
@@ -149,6 +154,10 @@ public class Cobalt {
 
     // COBALT IS READY
     public final static String JSTypeCobaltIsReady = "cobaltIsReady";
+    // Sent by the bridge bootstrap injected at document start, see BridgeBootstrap
+    public final static String JSTypeCobaltBootstrap = "cobaltBootstrap";
+    // Chunk of a message too large for one script evaluation, see MessageChunker
+    public final static String JSTypeCobaltChunk = "cobaltChunk";
 
     // EVENTS
     public final static String JSTypeEvent = "event";
@@ -159,6 +168,9 @@ public class Cobalt {
     public final static String JSEventOnAppBackground = "cobalt:onAppBackground";
     public final static String JSEventOnAppForeground = "cobalt:onAppForeground";
     public final static String JSEventOnPageShown = "cobalt:onPageShown";
+    // Sent when a message is rejected because the bridge queue of the fragment is full
+    public final static String JSEventOnBridgeOverflow = "cobalt:onBridgeOverflow";
+    public final static String JSErrorBridgeOverflow = "bridgeOverflow";
 
     // INTENT
     public final static String JSTypeIntent = "intent";
@@ -255,9 +267,12 @@ public class Cobalt {
 
     private static Cobalt sInstance;
     private static Context sContext;
-    private static JSONObject sCobaltConfiguration;
+    private static volatile CobaltConfiguration sConfiguration;
+    private static volatile CobaltWarmUp sWarmUp;
 
     private String mResourcePath = "www/";
+    private volatile boolean mEarlyBridgeEnabled;
+    private volatile boolean mWebMessagePortEnabled;
 
     private int mRunningActivities = 0;
     private boolean mFirstActivityStart = true;
@@ -279,21 +294,112 @@ public class Cobalt {
         return sInstance;
     }
 
+    /**********************************************************************************************
+     * WARM UP
+     **********************************************************************************************/
+
+    /**
+     * Starts running on the specified executor the initialization steps Cobalt would otherwise run lazily
+     * on the main thread: configuration parsing, plugin and font resolution, localStorage and WebView provider loading.
+     * Should be called from Application.onCreate, after the resource path is set.
+     * Calling it again returns the warm-up already started.
+     * @param context the application context.
+     * @param executor the executor to run steps on, several threads allowing steps to run in parallel.
+     * @return the warm-up, to wait for steps, get their timings or be notified on completion.
+     */
+    @NonNull
+    public static CobaltWarmUp warmUp(@NonNull Context context, @NonNull Executor executor) {
+        getInstance(context);
+
+        synchronized (Cobalt.class) {
+            if (sWarmUp == null) {
+                sWarmUp = new CobaltWarmUp(context);
+                sWarmUp.start(executor);
+            }
+
+            return sWarmUp;
+        }
+    }
+
+    /**
+     * Returns the warm-up started with {@link #warmUp(Context, Executor)}
+     * @return the warm-up, or null if not started.
+     */
+    @Nullable
+    public static CobaltWarmUp getWarmUp() {
+        return sWarmUp;
+    }
+
+    /**
+     * Waits for the specified warm-up steps not done yet, if a warm-up was started.
+     * Steps not started yet are run on the calling thread.
+     * @param steps the steps to wait for.
+     */
+    public static void awaitWarmUp(@NonNull CobaltWarmUp.Step... steps) {
+        CobaltWarmUp warmUp = sWarmUp;
+        if (warmUp != null) {
+            for (CobaltWarmUp.Step step : steps) {
+                if (! warmUp.isDone(step)) {
+                    warmUp.await(step);
+                }
+            }
+        }
+    }
+
     /**********************************************************************************************
      * GETTERS / SETTERS
      **********************************************************************************************/
 	
 	public String getResourcePath() {
+        File bundleDirectory = CobaltBundleManager.getInstance(sContext).getCurrentDirectory();
+        if (bundleDirectory != null) {
+            return Uri.fromFile(bundleDirectory).toString() + "/";
+        }
+
 		return ASSETS_PATH + mResourcePath;
 	}
 	
 	public void setResourcePath(String resourcePath) {
-        if (resourcePath != null) mResourcePath = resourcePath;
-        else mResourcePath = "";
+        if (resourcePath == null) resourcePath = "";
+
+        synchronized (Cobalt.class) {
+            if (! resourcePath.equals(mResourcePath)) {
+                mResourcePath = resourcePath;
+                // Configuration of the previous resource path is not valid anymore
+                sConfiguration = null;
+            }
+        }
 	}
 
     public String getResourcePathFromAsset() {return mResourcePath;}
 
+    /**
+     * Enables or disables the injection of the bridge bootstrap at the start of the local pages,
+     * which lets native messages be sent as soon as the page starts loading instead of once cobalt.js is ready.
+     * Only takes effect on Lollipop and later, for pages loaded afterwards.
+     * @param enabled true to inject the bootstrap, false otherwise (default).
+     */
+    public void setEarlyBridgeEnabled(boolean enabled) {
+        mEarlyBridgeEnabled = enabled;
+    }
+
+    public boolean isEarlyBridgeEnabled() {
+        return mEarlyBridgeEnabled;
+    }
+
+    /**
+     * Enables or disables carrying bridge messages over a WebMessagePort, on Marshmallow and later,
+     * instead of script evaluations and the JavascriptInterface. Only takes effect for fragments created afterwards.
+     * @param enabled true to use a WebMessagePort, false otherwise (default).
+     */
+    public void setWebMessagePortEnabled(boolean enabled) {
+        mWebMessagePortEnabled = enabled;
+    }
+
+    public boolean isWebMessagePortEnabled() {
+        return mWebMessagePortEnabled;
+    }
+
     public static Context getAppContext() {
         return sContext;
     }
@@ -348,95 +454,61 @@ public class Cobalt {
     public Intent getIntentForController(String controller, String page) {
         Intent intent = null;
 
-        Bundle configuration = getConfigurationForController(controller);
+        CobaltControllerIndex.Controller configuration = getControllerIndex().getController(controller);
 
-        if (! configuration.isEmpty()) {
-            String activity = configuration.getString(kActivity);
+        if (configuration != null) {
+            Class<? extends Activity> activityClass = configuration.getActivityClass();
 
-            // Creates intent
-            Class<?> pClass;
-            try {
-                pClass = Class.forName(activity);
-                // Instantiates intent only if class inherits from Activity
-                if (Activity.class.isAssignableFrom(pClass)) {
-                    configuration.putString(kPage, page);
+            // Instantiates intent only if class was found and inherits from Activity
+            if (activityClass != null) {
+                Bundle extras = configuration.newConfiguration(controller);
+                extras.putString(kPage, page);
 
-                    intent = new Intent(sContext, pClass);
-                    intent.putExtra(kExtras, configuration);
-                }
-                else if (Cobalt.DEBUG) Log.e(Cobalt.TAG, TAG + " - getIntentForController: " + activity + " does not inherit from Activity!");
-            }
-            catch (ClassNotFoundException exception) {
-                if (Cobalt.DEBUG) Log.e(Cobalt.TAG, TAG + " - getIntentForController: " + activity + " class not found for id " + controller + "!");
-                exception.printStackTrace();
+                intent = new Intent(sContext, activityClass);
+                intent.putExtra(kExtras, extras);
             }
+            else if (Cobalt.DEBUG) Log.e(Cobalt.TAG, TAG + " - getIntentForController: " + configuration.getActivityClassName() + " not found or does not inherit from Activity for id " + controller + "!");
         }
+        else if (Cobalt.DEBUG) logMissingController("getIntentForController", controller);
 
         return intent;
     }
 
     public Bundle getConfigurationForController(String controller) {
-        Bundle bundle = new Bundle();
+        CobaltControllerIndex.Controller configuration = getControllerIndex().getController(controller);
 
-        JSONObject configuration = getConfiguration();
+        if (configuration != null) {
+            return configuration.newConfiguration(controller);
+        }
 
-        // Gets configuration
-        try {
-            JSONObject controllers = configuration.getJSONObject(kControllers);
-
-            String activity;
-            JSONObject bars;
-            boolean enablePullToRefresh;
-            boolean enableInfiniteScroll;
-            int infiniteScrollOffset;
-            String backgroundColor;
-            // TODO: add enableGesture
-
-            if (controller != null
-                && controllers.has(controller)) {
-                activity = controllers.getJSONObject(controller).optString(kAndroid, null);
-                bars = controllers.getJSONObject(controller).optJSONObject(kBars);
-                enablePullToRefresh = controllers.getJSONObject(controller).optBoolean(kPullToRefresh);
-                enableInfiniteScroll = controllers.getJSONObject(controller).optBoolean(kInfiniteScroll);
-                infiniteScrollOffset = controllers.getJSONObject(controller).optInt(kInfiniteScrollOffset, INFINITE_SCROLL_OFFSET_DEFAULT_VALUE);
-                backgroundColor = controllers.getJSONObject(controller).optString(kBackgroundColor, BACKGROUND_COLOR_DEFAULT);
-            }
-            else {
-                activity = controllers.getJSONObject(kDefaultController).optString(kAndroid, null);
-                bars = controllers.getJSONObject(kDefaultController).optJSONObject(kBars);
-                enablePullToRefresh = controllers.getJSONObject(kDefaultController).optBoolean(kPullToRefresh);
-                enableInfiniteScroll = controllers.getJSONObject(kDefaultController).optBoolean(kInfiniteScroll);
-                infiniteScrollOffset = controllers.getJSONObject(kDefaultController).optInt(kInfiniteScrollOffset, INFINITE_SCROLL_OFFSET_DEFAULT_VALUE);
-                backgroundColor = controllers.getJSONObject(kDefaultController).optString(kBackgroundColor, BACKGROUND_COLOR_DEFAULT);
-            }
+        if (Cobalt.DEBUG) logMissingController("getConfigurationForController", controller);
 
-            if (activity == null)
-            {
-                activity = "org.cobaltians.cobalt.activities.CobaltActivity";
-            }
-            else if (activity.startsWith("."))
-            {
-                activity = sContext.getPackageName() + activity;
-            }
-    
-            bundle.putString(kController, controller);
-            bundle.putString(kActivity, activity);
-            if (bars != null) bundle.putString(kBars, bars.toString());
-            bundle.putBoolean(kPullToRefresh, enablePullToRefresh);
-            bundle.putBoolean(kInfiniteScroll, enableInfiniteScroll);
-            bundle.putInt(kInfiniteScrollOffset, infiniteScrollOffset);
-            bundle.putString(kBackgroundColor, backgroundColor);
-
-            return bundle;
-        }
-        catch (JSONException exception) {
-            if (Cobalt.DEBUG) Log.e(Cobalt.TAG,     TAG + " - getConfigurationForController: check cobalt.json. Known issues: \n "
-                                                    + "\t - controllers field not found or not a JSONObject \n "
-                                                    + "\t - " + controller + " controller not found and no " + kDefaultController + " controller defined \n ");
-            exception.printStackTrace();
-        }
+        return new Bundle();
+    }
+
+    /**
+     * Returns the activity class for the specified name, using the classes already resolved by the controller index when possible.
+     * @param className the fully qualified name of the activity.
+     * @return the activity class, or null if not found or if it does not inherit from Activity.
+     */
+    @Nullable
+    public Class<? extends Activity> getActivityClass(@NonNull String className) {
+        return getControllerIndex().getActivityClass(className);
+    }
 
-        return bundle;
+    /**
+     * Returns the index of the controllers declared in cobalt.json.
+     * @return the index of the controllers declared in cobalt.json.
+     */
+    @NonNull
+    public CobaltControllerIndex getControllerIndex() {
+        return getConfiguration().getControllerIndex();
+    }
+
+    private void logMissingController(String method, String controller) {
+        Log.e(Cobalt.TAG,     TAG + " - " + method + ": check cobalt.json. Known issues: \n "
+                              + "\t - " + kControllers + " field not found or not a JSONObject \n "
+                              + "\t - " + controller + " controller not found and no " + kDefaultController + " controller defined \n ");
     }
 
     /**********************************************************************************************
@@ -444,49 +516,7 @@ public class Cobalt {
      **********************************************************************************************/
 
     public HashMap<String, Class<? extends CobaltAbstractPlugin>> getPlugins() {
-        HashMap<String, Class<? extends CobaltAbstractPlugin>> pluginsMap = new HashMap<>();
-
-        try {
-            JSONObject configuration = getConfiguration();
-            JSONObject plugins = configuration.getJSONObject(kPlugins);
-            Iterator<String> pluginsIterator = plugins.keys();
-
-            while (pluginsIterator.hasNext()) {
-                String pluginName = pluginsIterator.next();
-                try {
-                    JSONObject plugin = plugins.getJSONObject(pluginName);
-                    String pluginClassName = plugin.getString(kAndroid);
-
-                    try {
-                        Class<?> pluginClass = Class.forName(pluginClassName);
-                        if (CobaltAbstractPlugin.class.isAssignableFrom(pluginClass)) {
-                            pluginsMap.put(pluginName, (Class<? extends CobaltAbstractPlugin>) pluginClass);
-                        }
-                        else if (Cobalt.DEBUG) Log.e(Cobalt.TAG, TAG + " - getPlugins: " + pluginClass + " does not inherit from CobaltAbstractActivity!\n" + pluginName + " plugin message will not be processed.");
-                    }
-                    catch (ClassNotFoundException exception) {
-                        if (Cobalt.DEBUG) {
-                            Log.e(Cobalt.TAG, TAG + " - getPlugins: " + pluginClassName + " class not found!\n" + pluginName + " plugin message will not be processed.");
-                            exception.printStackTrace();
-                        }
-                    }
-                }
-                catch (JSONException exception) {
-                    if (Cobalt.DEBUG) {
-                        Log.e(Cobalt.TAG, TAG + " - getPlugins: " + pluginName + " field is not a JSONObject or does not contain an android field or is not a String.\n" + pluginName + " plugin message will not be processed.");
-                        exception.printStackTrace();
-                    }
-                }
-            }
-        }
-        catch (JSONException exception) {
-            if (Cobalt.DEBUG) {
-                Log.w(Cobalt.TAG, TAG + " - getPlugins: plugins field of cobalt.json not found or not a JSONObject.");
-                exception.printStackTrace();
-            }
-        }
-
-        return pluginsMap;
+        return new HashMap<>(getConfiguration().getPlugins());
     }
     
     /**********************************************************************************************
@@ -524,44 +554,39 @@ public class Cobalt {
         PubSub.getInstance().unsubscribeFromChannel(channel, listener);
     }
 
-    private JSONObject getConfiguration() {
-        if (sCobaltConfiguration == null) {
-            String configuration = readFileFromAssets(mResourcePath + CONF_FILE);
-            try {
-                sCobaltConfiguration = new JSONObject(configuration);
-            }
-            catch (JSONException exception) {
-                if (Cobalt.DEBUG) Log.e(Cobalt.TAG, TAG + " - getConfiguration: check cobalt.json. File is missing or not at " + ASSETS_PATH + mResourcePath + CONF_FILE);
-                exception.printStackTrace();
-                return new JSONObject();
+    /**
+     * Returns the configuration registry of cobalt.json found in the current content bundle, or at the current resource path
+     * if served from the assets, loading it on first call.
+     * The registry is shared by all Cobalt subsystems and reloaded when the resource path changes.
+     * @return the configuration registry of cobalt.json.
+     */
+    @NonNull
+    public CobaltConfiguration getConfiguration() {
+        CobaltConfiguration configuration = sConfiguration;
+        if (configuration == null) {
+            synchronized (Cobalt.class) {
+                configuration = sConfiguration;
+                if (configuration == null) {
+                    File bundleDirectory = CobaltBundleManager.getInstance(sContext).getCurrentDirectory();
+                    configuration = bundleDirectory != null
+                                    ? CobaltConfiguration.load(sContext, bundleDirectory)
+                                    : CobaltConfiguration.load(sContext, mResourcePath);
+                    sConfiguration = configuration;
+                }
             }
         }
-        return sCobaltConfiguration;
-    }
 
-    private String readFileFromAssets(String file) {
-        try {
-            AssetManager assetManager = sContext.getAssets();
-            InputStream inputStream = assetManager.open(file);
-            BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(inputStream));
-            StringBuilder fileContent = new StringBuilder();
-            int character;
-
-            while ((character = bufferedReader.read()) != -1) {
-                fileContent.append((char) character);
-            }
+        return configuration;
+    }
 
-            return fileContent.toString();
-        }
-        catch (FileNotFoundException exception) {
-            if (Cobalt.DEBUG) Log.e(Cobalt.TAG, TAG + " - readFileFromAssets: " + file + "not found.");
-        }
-        catch (IOException exception) {
-            if (Cobalt.DEBUG) Log.e(Cobalt.TAG, TAG + " - readFileFromAssets: IOException");
-            exception.printStackTrace();
+    /**
+     * Drops the configuration registry, so that it is loaded again on next access.
+     * Called when the Web content is served from another content bundle.
+     */
+    public void resetConfiguration() {
+        synchronized (Cobalt.class) {
+            sConfiguration = null;
         }
-
-        return "";
     }
 
     /**
@@ -0,0 +1,645 @@
+/**
+ *
+ * CobaltMetrics
+ * Cobalt
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Cobaltians
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+package org.cobaltians.cobalt;
+
+import org.cobaltians.cobalt.scheduler.CobaltScheduler;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Records the latency and throughput of the bridge in histograms, per fragment and per message type,
+ * so that regressions can be caught from field data. Metrics are disabled by default:
+ * instrumented code then only reads a volatile flag. Once enabled, recording is lock-free and does not allocate
+ * after the first message of a fragment and type.
+ * Metrics can be read with {@link #snapshot(boolean)}, or pushed periodically to an {@link Exporter}.
+ */
+public final class CobaltMetrics
+{
+    private static final String TAG = CobaltMetrics.class.getSimpleName();
+
+    /***********************************************************************************************
+     *
+     * MEMBERS
+     *
+     **********************************************************************************************/
+
+    /**
+     * The metrics recorded. Times are in microseconds, sizes in characters.
+     */
+    public enum Metric
+    {
+        /**
+         * Size of the messages received from the Web
+         */
+        INBOUND_SIZE,
+        /**
+         * Time messages received from the Web waited in the bridge executor, per fragment only
+         */
+        INBOUND_QUEUE_TIME,
+        /**
+         * Time spent parsing messages received from the Web
+         */
+        PARSE_TIME,
+        /**
+         * Time spent dispatching messages received from the Web, including handlers run on the bridge thread
+         */
+        DISPATCH_TIME,
+        /**
+         * Time between posting a message or a plugin call to the main thread and running it
+         */
+        UI_HOP_WAIT,
+        /**
+         * Time spent in plugins, per plugin class
+         */
+        PLUGIN_TIME,
+        /**
+         * Size of the messages sent to the Web
+         */
+        OUTBOUND_SIZE,
+        /**
+         * Time messages sent to the Web waited for the page to be ready or the fragment to be resumed
+         */
+        OUTBOUND_QUEUE_TIME
+    }
+
+    /**
+     * An Interface to implement to send the metrics somewhere
+     */
+    public interface Exporter
+    {
+        /**
+         * Exports the specified snapshot, on the background thread of the {@link CobaltScheduler}
+         * @param snapshot the metrics recorded since the previous export.
+         */
+        void export(@NonNull Snapshot snapshot);
+    }
+
+    /**
+     * Exporter logging the snapshots as JSON
+     */
+    public static final Exporter LOG_EXPORTER = new Exporter()
+    {
+        @Override
+        public void export(@NonNull Snapshot snapshot)
+        {
+            Log.i(Cobalt.TAG, TAG + " - export: " + snapshot.toJSONObject());
+        }
+    };
+
+    /**
+     * Type of the metrics not broken down by message type
+     */
+    public static final String ANY_TYPE = "*";
+
+    /**
+     * Values are counted in power of two buckets: bucket i holds values from 2^(i-1) to 2^i - 1
+     */
+    private static final int BUCKET_COUNT = 40;
+
+    private static final Metric[] METRICS = Metric.values();
+
+    private static volatile boolean sEnabled;
+    private static volatile Recorders sRecorders = new Recorders();
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+    private static Exporter sExporter;
+    private static long sExportInterval;
+
+    private static final Runnable sExport = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            long exportInterval;
+            synchronized (CobaltMetrics.class)
+            {
+                if (sExporter == null)
+                {
+                    return;
+                }
+                exportInterval = sExportInterval;
+            }
+
+            CobaltScheduler.getInstance().schedule(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    export();
+                }
+            }, CobaltScheduler.PRIORITY_LOW, CobaltScheduler.Affinity.BACKGROUND);
+            sMainHandler.postDelayed(this, exportInterval);
+        }
+    };
+
+    /***********************************************************************************************
+     *
+     * CONSTRUCTORS
+     *
+     **********************************************************************************************/
+
+    private CobaltMetrics() { }
+
+    /***********************************************************************************************
+     *
+     * CONFIGURATION
+     *
+     **********************************************************************************************/
+
+    /**
+     * Enables or disables the recording of metrics. Metrics recorded so far are kept.
+     * @param enabled true to record metrics, false otherwise (default).
+     */
+    public static void setEnabled(boolean enabled)
+    {
+        sEnabled = enabled;
+    }
+
+    public static boolean isEnabled()
+    {
+        return sEnabled;
+    }
+
+    /**
+     * Sets the exporter the metrics are pushed to periodically, then reset, while metrics are enabled
+     * @param exporter the exporter, or null to stop exporting.
+     * @param interval the interval between two exports, in milliseconds.
+     */
+    public static void setExporter(@Nullable Exporter exporter, long interval)
+    {
+        synchronized (CobaltMetrics.class)
+        {
+            sExporter = exporter;
+            sExportInterval = interval;
+        }
+
+        sMainHandler.removeCallbacks(sExport);
+        if (exporter != null)
+        {
+            sMainHandler.postDelayed(sExport, interval);
+        }
+    }
+
+    /***********************************************************************************************
+     *
+     * RECORDING
+     *
+     **********************************************************************************************/
+
+    /**
+     * Returns the start time of a measure
+     * @return the current time in nanoseconds if metrics are enabled, 0 otherwise.
+     */
+    public static long start()
+    {
+        return sEnabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records the time elapsed since the specified start time, if metrics are enabled and were when it started
+     * @param metric the metric to record.
+     * @param scope the fragment the value was measured for, as returned by CobaltFragment.getMetricsScope().
+     * @param type the type of the message, or null if unknown.
+     * @param start the start time, as returned by {@link #start()}.
+     */
+    public static void recordSince(@NonNull Metric metric, @NonNull String scope, @Nullable String type, long start)
+    {
+        if (start != 0
+            && sEnabled)
+        {
+            sRecorders.get(scope, type, metric).record((System.nanoTime() - start) / 1000);
+        }
+    }
+
+    /**
+     * Records the specified value, if metrics are enabled
+     * @param metric the metric to record.
+     * @param scope the fragment the value was measured for, as returned by CobaltFragment.getMetricsScope().
+     * @param type the type of the message, or null if unknown.
+     * @param value the value, in microseconds for times, characters for sizes.
+     */
+    public static void record(@NonNull Metric metric, @NonNull String scope, @Nullable String type, long value)
+    {
+        if (sEnabled)
+        {
+            sRecorders.get(scope, type, metric).record(value);
+        }
+    }
+
+    /***********************************************************************************************
+     *
+     * READING
+     *
+     **********************************************************************************************/
+
+    /**
+     * Returns the metrics recorded since they were last reset
+     * @param reset true to reset the metrics, false otherwise.
+     * @return the metrics recorded.
+     */
+    @NonNull
+    public static Snapshot snapshot(boolean reset)
+    {
+        Recorders recorders = sRecorders;
+        if (reset)
+        {
+            // Values recorded in the previous recorders while swapping are lost, which is acceptable for metrics
+            sRecorders = new Recorders();
+        }
+
+        return recorders.snapshot();
+    }
+
+    /**
+     * Resets the metrics
+     */
+    public static void reset()
+    {
+        sRecorders = new Recorders();
+    }
+
+    /**
+     * Pushes the metrics recorded since the previous export to the exporter, then resets them.
+     * Does nothing if no exporter is set or metrics are disabled.
+     */
+    public static void export()
+    {
+        Exporter exporter;
+        synchronized (CobaltMetrics.class)
+        {
+            exporter = sExporter;
+        }
+        if (exporter == null
+            || ! sEnabled)
+        {
+            return;
+        }
+
+        try
+        {
+            exporter.export(snapshot(true));
+        }
+        catch (RuntimeException exception)
+        {
+            if (Cobalt.DEBUG) Log.e(Cobalt.TAG, TAG + " - export: exporter " + exporter + " failed.");
+            exception.printStackTrace();
+        }
+    }
+
+    /***********************************************************************************************
+     *
+     * SNAPSHOT
+     *
+     **********************************************************************************************/
+
+    /**
+     * The metrics recorded over a period
+     */
+    public static final class Snapshot
+    {
+        private final long mDuration;
+        private final List<Histogram> mHistograms;
+
+        private Snapshot(long duration, @NonNull List<Histogram> histograms)
+        {
+            mDuration = duration;
+            mHistograms = Collections.unmodifiableList(histograms);
+        }
+
+        /**
+         * Returns the duration of the period the metrics were recorded over
+         * @return the duration in milliseconds.
+         */
+        public long getDuration()
+        {
+            return mDuration;
+        }
+
+        /**
+         * Returns the histograms recorded, one per fragment, type and metric
+         * @return the histograms recorded.
+         */
+        @NonNull
+        public List<Histogram> getHistograms()
+        {
+            return mHistograms;
+        }
+
+        /**
+         * Returns the histogram of the specified fragment, type and metric
+         * @return the histogram, or null if no value was recorded.
+         */
+        @Nullable
+        public Histogram getHistogram(@NonNull String scope, @Nullable String type, @NonNull Metric metric)
+        {
+            String histogramType = type != null ? type : ANY_TYPE;
+            for (Histogram histogram : mHistograms)
+            {
+                if (histogram.mMetric == metric
+                    && histogram.mScope.equals(scope)
+                    && histogram.mType.equals(histogramType))
+                {
+                    return histogram;
+                }
+            }
+
+            return null;
+        }
+
+        @NonNull
+        public JSONObject toJSONObject()
+        {
+            JSONObject snapshot = new JSONObject();
+            try
+            {
+                JSONArray histograms = new JSONArray();
+                for (Histogram histogram : mHistograms)
+                {
+                    histograms.put(histogram.toJSONObject());
+                }
+
+                snapshot.put("duration", mDuration);
+                snapshot.put("histograms", histograms);
+            }
+            catch (JSONException exception)
+            {
+                exception.printStackTrace();
+            }
+
+            return snapshot;
+        }
+    }
+
+    /**
+     * The values of a metric recorded for a fragment and a message type over a period
+     */
+    public static final class Histogram
+    {
+        private final String mScope;
+        private final String mType;
+        private final Metric mMetric;
+        private final long mDuration;
+        private final long mCount;
+        private final long mSum;
+        private final long mMax;
+        private final long[] mBuckets;
+
+        private Histogram(@NonNull String scope, @NonNull String type, @NonNull Metric metric, long duration, @NonNull Recorder recorder)
+        {
+            mScope = scope;
+            mType = type;
+            mMetric = metric;
+            mDuration = duration;
+            mCount = recorder.mCount.get();
+            mSum = recorder.mSum.get();
+            mMax = recorder.mMax.get();
+            mBuckets = new long[BUCKET_COUNT];
+            for (int i = 0; i < BUCKET_COUNT; i++)
+            {
+                mBuckets[i] = recorder.mBuckets.get(i);
+            }
+        }
+
+        @NonNull
+        public String getScope()
+        {
+            return mScope;
+        }
+
+        @NonNull
+        public String getType()
+        {
+            return mType;
+        }
+
+        @NonNull
+        public Metric getMetric()
+        {
+            return mMetric;
+        }
+
+        public long getCount()
+        {
+            return mCount;
+        }
+
+        public long getSum()
+        {
+            return mSum;
+        }
+
+        public long getMax()
+        {
+            return mMax;
+        }
+
+        public long getMean()
+        {
+            return mCount > 0 ? mSum / mCount : 0;
+        }
+
+        /**
+         * Returns the number of values recorded per second over the period, i.e. messages per second
+         * @return the number of values recorded per second.
+         */
+        public double getRate()
+        {
+            return mDuration > 0 ? mCount * 1000.0 / mDuration : 0;
+        }
+
+        /**
+         * Returns an upper bound of the specified percentile, precise to a power of two
+         * @param percentile the percentile, between 0 and 100.
+         * @return the upper bound of the percentile, or 0 if no value was recorded.
+         */
+        public long getPercentile(double percentile)
+        {
+            long rank = (long) Math.ceil(mCount * percentile / 100);
+            long count = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++)
+            {
+                count += mBuckets[i];
+                if (count >= rank
+                    && count > 0)
+                {
+                    return Math.min(mMax, (1L << i) - 1);
+                }
+            }
+
+            return mMax;
+        }
+
+        @NonNull
+        public JSONObject toJSONObject()
+        {
+            JSONObject histogram = new JSONObject();
+            try
+            {
+                histogram.put("scope", mScope);
+                histogram.put("type", mType);
+                histogram.put("metric", mMetric.name());
+                histogram.put("count", mCount);
+                histogram.put("rate", getRate());
+                histogram.put("mean", getMean());
+                histogram.put("p50", getPercentile(50));
+                histogram.put("p90", getPercentile(90));
+                histogram.put("p99", getPercentile(99));
+                histogram.put("max", mMax);
+            }
+            catch (JSONException exception)
+            {
+                exception.printStackTrace();
+            }
+
+            return histogram;
+        }
+    }
+
+    /***********************************************************************************************
+     *
+     * HELPERS
+     *
+     **********************************************************************************************/
+
+    /**
+     * The live histograms of a period, by fragment, then by type, then by metric
+     */
+    private static final class Recorders
+    {
+        private final long mStartTime = SystemClock.elapsedRealtime();
+        private final ConcurrentHashMap<String, ConcurrentHashMap<String, AtomicReferenceArray<Recorder>>> mRecorders =
+            new ConcurrentHashMap<>();
+
+        @NonNull
+        private Recorder get(@NonNull String scope, @Nullable String type, @NonNull Metric metric)
+        {
+            ConcurrentHashMap<String, AtomicReferenceArray<Recorder>> scopeRecorders = mRecorders.get(scope);
+            if (scopeRecorders == null)
+            {
+                scopeRecorders = new ConcurrentHashMap<>();
+                ConcurrentHashMap<String, AtomicReferenceArray<Recorder>> previous = mRecorders.putIfAbsent(scope, scopeRecorders);
+                if (previous != null)
+                {
+                    scopeRecorders = previous;
+                }
+            }
+
+            String recorderType = type != null ? type : ANY_TYPE;
+            AtomicReferenceArray<Recorder> typeRecorders = scopeRecorders.get(recorderType);
+            if (typeRecorders == null)
+            {
+                typeRecorders = new AtomicReferenceArray<>(METRICS.length);
+                AtomicReferenceArray<Recorder> previous = scopeRecorders.putIfAbsent(recorderType, typeRecorders);
+                if (previous != null)
+                {
+                    typeRecorders = previous;
+                }
+            }
+
+            Recorder recorder = typeRecorders.get(metric.ordinal());
+            if (recorder == null)
+            {
+                typeRecorders.compareAndSet(metric.ordinal(), null, new Recorder());
+                recorder = typeRecorders.get(metric.ordinal());
+            }
+
+            return recorder;
+        }
+
+        @NonNull
+        private Snapshot snapshot()
+        {
+            long duration = SystemClock.elapsedRealtime() - mStartTime;
+            ArrayList<Histogram> histograms = new ArrayList<>();
+            for (Map.Entry<String, ConcurrentHashMap<String, AtomicReferenceArray<Recorder>>> scopeRecorders : mRecorders.entrySet())
+            {
+                for (Map.Entry<String, AtomicReferenceArray<Recorder>> typeRecorders : scopeRecorders.getValue().entrySet())
+                {
+                    for (Metric metric : METRICS)
+                    {
+                        Recorder recorder = typeRecorders.getValue().get(metric.ordinal());
+                        if (recorder != null)
+                        {
+                            histograms.add(new Histogram(scopeRecorders.getKey(), typeRecorders.getKey(), metric, duration, recorder));
+                        }
+                    }
+                }
+            }
+
+            return new Snapshot(duration, histograms);
+        }
+    }
+
+    /**
+     * A live histogram
+     */
+    private static final class Recorder
+    {
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mSum = new AtomicLong();
+        private final AtomicLong mMax = new AtomicLong();
+
+        private void record(long value)
+        {
+            long positiveValue = Math.max(0, value);
+            int bucket = Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(positiveValue));
+            mBuckets.incrementAndGet(bucket);
+            mCount.incrementAndGet();
+            mSum.addAndGet(positiveValue);
+
+            long max;
+            do
+            {
+                max = mMax.get();
+            }
+            while (positiveValue > max
+                   && ! mMax.compareAndSet(max, positiveValue));
+        }
+    }
+}
@@ -0,0 +1,381 @@
+/**
+ *
+ * CobaltWarmUp
+ * Cobalt
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Cobaltians
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+package org.cobaltians.cobalt;
+
+import org.cobaltians.cobalt.database.LocalStorage;
+import org.cobaltians.cobalt.font.CobaltFontManager;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.util.Log;
+import android.webkit.WebSettings;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the initialization steps Cobalt would otherwise run lazily on the main thread
+ * (see {@link Step}) in parallel on an Executor.
+ * A step is run once: whoever comes first, a background thread or a caller of {@link #await(Step)},
+ * runs it while the others wait for it, so awaiting a step not started yet never blocks on the executor.
+ * Started with {@link Cobalt#warmUp(Context, Executor)}.
+ */
+public final class CobaltWarmUp
+{
+    private static final String TAG = CobaltWarmUp.class.getSimpleName();
+
+    /***********************************************************************************************
+     *
+     * STEPS
+     *
+     **********************************************************************************************/
+
+    /**
+     * The initialization steps run by the warm-up
+     */
+    public enum Step
+    {
+        /**
+         * Loads cobalt.json and indexes its controllers
+         */
+        CONFIGURATION,
+        /**
+         * Resolves the plugin classes declared in cobalt.json
+         */
+        PLUGINS,
+        /**
+         * Resolves the font classes declared in cobalt.json and creates the typefaces of those annotated with
+         * {@link org.cobaltians.cobalt.font.CobaltFontFile}. Opt-in: other fonts are only resolved.
+         */
+        FONTS,
+        /**
+         * Opens the database backing the localStorage of the WebViews
+         */
+        LOCAL_STORAGE,
+        /**
+         * Loads the WebView provider
+         */
+        WEBVIEW
+    }
+
+    /**
+     * Listener notified on the main thread once all steps are done
+     */
+    public interface OnWarmUpCompleteListener
+    {
+        /**
+         * Called on the main thread once all steps are done
+         * @param timings the duration of each step in milliseconds.
+         */
+        void onWarmUpComplete(@NonNull Map<Step, Long> timings);
+    }
+
+    /***********************************************************************************************
+     *
+     * MEMBERS
+     *
+     **********************************************************************************************/
+
+    private final Context mContext;
+    private final EnumMap<Step, AtomicBoolean> mStarted = new EnumMap<>(Step.class);
+    private final EnumMap<Step, CountDownLatch> mDone = new EnumMap<>(Step.class);
+    private final EnumMap<Step, Long> mTimings = new EnumMap<>(Step.class);
+    private final AtomicInteger mRemainingSteps = new AtomicInteger(Step.values().length);
+    private final ArrayList<OnWarmUpCompleteListener> mListeners = new ArrayList<>();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /***********************************************************************************************
+     *
+     * CONSTRUCTORS
+     *
+     **********************************************************************************************/
+
+    CobaltWarmUp(@NonNull Context context)
+    {
+        mContext = context.getApplicationContext();
+
+        for (Step step : Step.values())
+        {
+            mStarted.put(step, new AtomicBoolean());
+            mDone.put(step, new CountDownLatch(1));
+        }
+    }
+
+    /***********************************************************************************************
+     *
+     * METHODS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Submits all steps to the specified executor.
+     * Steps rejected by the executor are run by the first caller awaiting them.
+     * @param executor the executor to run steps on.
+     */
+    void start(@NonNull Executor executor)
+    {
+        for (final Step step : Step.values())
+        {
+            try
+            {
+                executor.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        runOnce(step);
+                    }
+                });
+            }
+            catch (RejectedExecutionException exception)
+            {
+                if (Cobalt.DEBUG) Log.w(Cobalt.TAG, TAG + " - start: " + step + " rejected by executor, it will run when awaited.");
+            }
+        }
+    }
+
+    /**
+     * Returns whether the specified step is done
+     * @param step the step.
+     * @return true if the step is done, false otherwise.
+     */
+    public boolean isDone(@NonNull Step step)
+    {
+        return mDone.get(step).getCount() == 0;
+    }
+
+    /**
+     * Returns whether all steps are done
+     * @return true if all steps are done, false otherwise.
+     */
+    public boolean isComplete()
+    {
+        return mRemainingSteps.get() == 0;
+    }
+
+    /**
+     * Waits for the specified step to be done, running it on the calling thread if not started yet
+     * @param step the step to wait for.
+     */
+    public void await(@NonNull Step step)
+    {
+        if (runOnce(step))
+        {
+            return;
+        }
+
+        CountDownLatch done = mDone.get(step);
+        boolean interrupted = false;
+        while (done.getCount() > 0)
+        {
+            try
+            {
+                done.await();
+            }
+            catch (InterruptedException exception)
+            {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the duration of the specified step
+     * @param step the step.
+     * @return the duration of the step in milliseconds, or -1 if not done yet.
+     */
+    public long getTiming(@NonNull Step step)
+    {
+        synchronized (mTimings)
+        {
+            Long timing = mTimings.get(step);
+            return timing != null ? timing : -1;
+        }
+    }
+
+    /**
+     * Returns the duration of the steps done so far
+     * @return the duration of each step done in milliseconds.
+     */
+    @NonNull
+    public Map<Step, Long> getTimings()
+    {
+        synchronized (mTimings)
+        {
+            return new EnumMap<>(mTimings);
+        }
+    }
+
+    /**
+     * Adds a listener notified on the main thread once all steps are done.
+     * If all steps are already done, the listener is notified right away on the main thread.
+     * @param listener the listener to notify.
+     */
+    public void addOnWarmUpCompleteListener(@NonNull final OnWarmUpCompleteListener listener)
+    {
+        synchronized (mListeners)
+        {
+            if (! isComplete())
+            {
+                mListeners.add(listener);
+                return;
+            }
+        }
+
+        mMainHandler.post(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                listener.onWarmUpComplete(getTimings());
+            }
+        });
+    }
+
+    /***********************************************************************************************
+     *
+     * HELPERS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Runs the specified step if not started yet
+     * @param step the step to run.
+     * @return true if the step is done, false if it is running on another thread.
+     */
+    private boolean runOnce(@NonNull Step step)
+    {
+        if (! mStarted.get(step).compareAndSet(false, true))
+        {
+            return isDone(step);
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        try
+        {
+            run(step);
+        }
+        catch (RuntimeException exception)
+        {
+            // Warm-up is best effort, the step will be retried lazily when needed
+            if (Cobalt.DEBUG)
+            {
+                Log.e(Cobalt.TAG, TAG + " - runOnce: " + step + " failed.");
+                exception.printStackTrace();
+            }
+        }
+        long timing = SystemClock.elapsedRealtime() - start;
+
+        synchronized (mTimings)
+        {
+            mTimings.put(step, timing);
+        }
+        if (Cobalt.DEBUG) Log.i(Cobalt.TAG, TAG + " - " + step + " done in " + timing + "ms on " + Thread.currentThread().getName());
+
+        mDone.get(step).countDown();
+        if (mRemainingSteps.decrementAndGet() == 0)
+        {
+            onComplete();
+        }
+
+        return true;
+    }
+
+    private void run(@NonNull Step step)
+    {
+        Cobalt cobalt = Cobalt.getInstance(mContext);
+
+        switch (step)
+        {
+            case CONFIGURATION:
+                cobalt.getControllerIndex().getController(Cobalt.kDefaultController);
+                break;
+            case PLUGINS:
+                cobalt.getConfiguration().getPlugins();
+                break;
+            case FONTS:
+                CobaltFontManager.preloadFonts(mContext);
+                break;
+            case LOCAL_STORAGE:
+                LocalStorage.getInstance(mContext).getWritableDatabase();
+                break;
+            case WEBVIEW:
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
+                {
+                    // Loads the WebView provider without creating a WebView, which requires the main thread
+                    WebSettings.getDefaultUserAgent(mContext);
+                }
+                break;
+        }
+    }
+
+    private void onComplete()
+    {
+        final ArrayList<OnWarmUpCompleteListener> listeners;
+        synchronized (mListeners)
+        {
+            listeners = new ArrayList<>(mListeners);
+            mListeners.clear();
+        }
+
+        final Map<Step, Long> timings = getTimings();
+        if (Cobalt.DEBUG) Log.i(Cobalt.TAG, TAG + " - onComplete: " + timings);
+
+        if (! listeners.isEmpty())
+        {
+            mMainHandler.post(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    for (OnWarmUpCompleteListener listener : listeners)
+                    {
+                        listener.onWarmUpComplete(timings);
+                    }
+                }
+            });
+        }
+    }
+}
@@ -30,11 +30,16 @@
 package org.cobaltians.cobalt.activities;
 
 import org.cobaltians.cobalt.Cobalt;
+import org.cobaltians.cobalt.CobaltWarmUp;
 import org.cobaltians.cobalt.R;
+import org.cobaltians.cobalt.bridge.EnvelopeWriter;
+import org.cobaltians.cobalt.bundle.CobaltBundleManager;
 import org.cobaltians.cobalt.customviews.ActionViewMenuItem;
 import org.cobaltians.cobalt.customviews.ActionViewMenuItemListener;
 import org.cobaltians.cobalt.customviews.BottomBar;
+import org.cobaltians.cobalt.customviews.LayoutPreInflater;
 import org.cobaltians.cobalt.font.CobaltFontManager;
+import org.cobaltians.cobalt.navigation.NavigationPayloadStore;
 import org.cobaltians.cobalt.fragments.CobaltFragment;
 
 import android.app.Activity;
@@ -100,6 +105,14 @@ public class CobaltActivity extends AppCompatActivity implements ActionViewMenuI
 	protected void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
 
+        // Switches to the content bundle staged meanwhile, only when no page of the current one is displayed
+        if (sActivitiesArrayList.isEmpty()) {
+            CobaltBundleManager.getInstance(this).applyPendingBundle();
+        }
+
+        // Configuration and fonts are needed to set up the controller and its bars
+        Cobalt.awaitWarmUp(CobaltWarmUp.Step.CONFIGURATION, CobaltWarmUp.Step.FONTS);
+
 		setContentView(getLayoutToInflate());
         sActivitiesArrayList.add(this);
 
@@ -114,7 +127,10 @@ public class CobaltActivity extends AppCompatActivity implements ActionViewMenuI
             bundle.putBundle(Cobalt.kExtras, extras);
         }
 
-        if (bundle.containsKey(Cobalt.kJSData)) {
+        if (bundle.containsKey(Cobalt.kDataHandle)) {
+            mDataNavigation = NavigationPayloadStore.getInstance(this).get(bundle.getString(Cobalt.kDataHandle));
+        }
+        else if (bundle.containsKey(Cobalt.kJSData)) {
             try {
                 mDataNavigation = new JSONObject(bundle.getString(Cobalt.kJSData));
             } catch (JSONException e) {
@@ -134,6 +150,7 @@ public class CobaltActivity extends AppCompatActivity implements ActionViewMenuI
                 {
                     fragment.setArguments(extras);
                 }
+                fragment.preInflateLayout(this);
                 mAnimatedTransition = bundle.getBoolean(Cobalt.kJSAnimated, true);
 
                 if (mAnimatedTransition) {
@@ -162,9 +179,10 @@ public class CobaltActivity extends AppCompatActivity implements ActionViewMenuI
             }
         }
 
-        if (extras.containsKey(Cobalt.kBars)) {
+        if (hasBars(extras)) {
             try {
-                JSONObject actionBar = new JSONObject(extras.getString(Cobalt.kBars));
+                JSONObject actionBar = getBars(extras);
+                preInflateActionViews(actionBar);
                 Fragment currentFragment = getSupportFragmentManager().findFragmentById(getFragmentContainerId());
                 setupBars(actionBar,    currentFragment != null && CobaltFragment.class.isAssignableFrom(currentFragment.getClass()) ?
                         (CobaltFragment) currentFragment : mMenuListener);
@@ -241,7 +259,21 @@ public class CobaltActivity extends AppCompatActivity implements ActionViewMenuI
     protected void onDestroy() {
         super.onDestroy();
 
+        // Payloads are kept while the activity may be recreated, with the same Intent
+        if (isFinishing()) {
+            Bundle bundle = getIntent().getExtras();
+            if (bundle != null) {
+                NavigationPayloadStore navigationPayloadStore = NavigationPayloadStore.getInstance(this);
+                navigationPayloadStore.remove(bundle.getString(Cobalt.kDataHandle));
+                Bundle extras = bundle.getBundle(Cobalt.kExtras);
+                if (extras != null) {
+                    navigationPayloadStore.remove(extras.getString(Cobalt.kBarsHandle));
+                }
+            }
+        }
+
         sActivitiesArrayList.remove(this);
+        LayoutPreInflater.getInstance().clear(this);
     }
     
     @Nullable
@@ -294,9 +326,9 @@ public class CobaltActivity extends AppCompatActivity implements ActionViewMenuI
         if (extras == null) {
             extras = Cobalt.getInstance(getApplicationContext()).getConfigurationForController(getController());
         }
-        if (extras.containsKey(Cobalt.kBars)) {
+        if (hasBars(extras)) {
             try {
-                JSONObject bars = new JSONObject(extras.getString(Cobalt.kBars));
+                JSONObject bars = getBars(extras);
 
                 int colorInt = Cobalt.getInstance(this).getThemedBarIconColor(this);
                 String color = bars.optString(Cobalt.kBarsColor, null);
@@ -538,6 +570,32 @@ public class CobaltActivity extends AppCompatActivity implements ActionViewMenuI
         }
     }
 
+    /**
+     * Starts inflating in background the action views of the specified bars configuration,
+     * so that they are ready when the options menu is created.
+     * @param bars the bars configuration.
+     */
+    private void preInflateActionViews(JSONObject bars) {
+        JSONArray actions = bars.optJSONArray(Cobalt.kBarsActions);
+        if (actions == null) {
+            return;
+        }
+
+        int count = 0;
+        int length = actions.length();
+        for (int i = 0; i < length; i++) {
+            JSONObject action = actions.optJSONObject(i);
+            if (action != null) {
+                JSONArray groupActions = action.optJSONArray(Cobalt.kActionActions);
+                count += groupActions != null ? groupActions.length() : 1;
+            }
+        }
+
+        if (count > 0) {
+            LayoutPreInflater.getInstance().preInflate(this, R.layout.custom_action_view_menu_item, count);
+        }
+    }
+
     protected void setupOptionsMenu(Menu menu, int color, JSONArray actions) {
         ActionBar actionBar = getSupportActionBar();
         // TODO: use LinearLayout for bottomBar instead to handle groups
@@ -1007,8 +1065,8 @@ public class CobaltActivity extends AppCompatActivity implements ActionViewMenuI
             Bundle popToExtras = popToIntent.getBundleExtra(Cobalt.kExtras);
             String popToActivityClassName = popToExtras.getString(Cobalt.kActivity);
 
-            try {
-                Class<?> popToActivityClass = Class.forName(popToActivityClassName);
+            Class<? extends Activity> popToActivityClass = Cobalt.getInstance(this).getActivityClass(popToActivityClassName);
+            if (popToActivityClass != null) {
 
                 boolean popToControllerFound = false;
                 int popToControllerIndex = -1;
@@ -1047,9 +1105,7 @@ public class CobaltActivity extends AppCompatActivity implements ActionViewMenuI
                 }
                 else if (Cobalt.DEBUG) Log.w(Cobalt.TAG, TAG + " - popTo: controller " + controller + (page == null ? "" : " with page " + page) + " not found in history. Abort.");
             }
-            catch (ClassNotFoundException exception) {
-                exception.printStackTrace();
-            }
+            else if (Cobalt.DEBUG) Log.e(Cobalt.TAG, TAG + " - popTo: " + popToActivityClassName + " not found or does not inherit from Activity. Abort.");
         }
         else if (Cobalt.DEBUG) Log.e(Cobalt.TAG, TAG + " - popTo: unable to pop to null controller");
     }
@@ -1072,6 +1128,31 @@ public class CobaltActivity extends AppCompatActivity implements ActionViewMenuI
 
     public JSONObject getDataNavigation() { return mDataNavigation; }
 
+    private static boolean hasBars(Bundle extras) {
+        return extras.containsKey(Cobalt.kBarsHandle) || extras.containsKey(Cobalt.kBars);
+    }
+
+    /**
+     * Returns the bars of the specified configuration, passed through the navigation payload store or serialized
+     * @param extras: the configuration of the controller.
+     * @return the bars of the configuration.
+     * @throws JSONException if the bars were lost or could not be parsed.
+     */
+    private JSONObject getBars(Bundle extras) throws JSONException {
+        String barsHandle = extras.getString(Cobalt.kBarsHandle);
+        if (barsHandle != null) {
+            JSONObject bars = NavigationPayloadStore.getInstance(this).get(barsHandle);
+            // Evicted from the store, the default bars of the controller would be the wrong ones
+            if (bars == null) {
+                if (Cobalt.DEBUG) Log.e(Cobalt.TAG, TAG + " - getBars: bars " + barsHandle + " lost");
+                throw new JSONException("bars " + barsHandle + " lost");
+            }
+            return bars;
+        }
+
+        return new JSONObject(extras.getString(Cobalt.kBars));
+    }
+
     public void setDataNavigation(JSONObject data) {
         this.mDataNavigation = data;
     }
@@ -1086,19 +1167,12 @@ public class CobaltActivity extends AppCompatActivity implements ActionViewMenuI
     public void onPressed(String name) {
         CobaltFragment fragment = mMenuItemsHashMap.get(name).getFragmentHostingWebView();
         if (fragment != null) {
-            JSONObject message = new JSONObject();
-            JSONObject data = new JSONObject();
-            try {
-                message.put(Cobalt.kJSType, Cobalt.JSTypeUI);
-                message.put(Cobalt.kJSUIControl, Cobalt.JSControlBars);
-                data.put(Cobalt.kJSAction, Cobalt.JSActionActionPressed);
-                data.put(Cobalt.kJSActionName, name);
-                message.put(Cobalt.kJSData, data);
-                fragment.sendMessage(message);
-            }
-            catch (JSONException e) {
-                e.printStackTrace();
-            }
+            fragment.sendRawMessage(EnvelopeWriter.obtain().beginMessage(Cobalt.JSTypeUI)
+                                                           .field(Cobalt.kJSUIControl, Cobalt.JSControlBars)
+                                                           .beginObject(Cobalt.kJSData)
+                                                           .field(Cobalt.kJSAction, Cobalt.JSActionActionPressed)
+                                                           .field(Cobalt.kJSActionName, name)
+                                                           .finish());
         }
         else if (Cobalt.DEBUG) {
             Log.i(Cobalt.TAG, TAG + "onPressed " + name + ": fragment == null");
@@ -0,0 +1,223 @@
+/**
+ *
+ * BridgeBootstrap
+ * Cobalt
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Cobaltians
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+package org.cobaltians.cobalt.bridge;
+
+import org.cobaltians.cobalt.Cobalt;
+import org.cobaltians.cobalt.tools.Assets;
+import org.cobaltians.cobalt.tools.Files;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Injects a small bridge bootstrap at the start of the local Cobalt pages, before any script of the page runs.
+ * The bootstrap tells the native side the bridge is ready right away, and buffers the messages sent by the native
+ * side until the page has defined cobalt.private.execute and its document is parsed, then delivers them in order.
+ * Pages are served through WebViewClient.shouldInterceptRequest, so the bootstrap is only injected on Lollipop
+ * and later, for HTML pages of the resource path (assets or content bundle).
+ */
+public final class BridgeBootstrap
+{
+    private static final String TAG = BridgeBootstrap.class.getSimpleName();
+
+    /***********************************************************************************************
+     *
+     * MEMBERS
+     *
+     **********************************************************************************************/
+
+    private static final String ASSETS_URL = "file:///android_asset/";
+
+    private static final String SCRIPT =
+        "(function(){"
+        + "if(window.__cobaltBootstrap)return;"
+        + "var queue=[],real,original,hooked=false,drained=false,parsed=false;"
+        + "var placeholder={'private':{execute:function(m){queue.push(m);}}};"
+        + "function hook(){"
+        +   "if(hooked||!real||!real['private']||typeof real['private'].execute!=='function')return;"
+        +   "hooked=true;original=real['private'].execute;"
+        +   "real['private'].execute=function(m){if(drained)return original.apply(this,arguments);queue.push(m);};"
+        +   "var batch=real['private'].executeBatch;"
+        +   "if(typeof batch==='function')real['private'].executeBatch=function(m){"
+        +     "if(drained)return batch.apply(this,arguments);for(var i=0;i<m.length;i++)queue.push(m[i]);};"
+        + "}"
+        + "function flush(){"
+        +   "hook();if(!hooked||!parsed||drained)return;"
+        +   "drained=true;var messages=queue;queue=[];"
+        +   "for(var i=0;i<messages.length;i++){try{original.call(real['private'],messages[i]);}catch(e){console.error(e);}}"
+        + "}"
+        + "window.__cobaltBootstrap={flush:flush};"
+        + "Object.defineProperty(window,'cobalt',{configurable:true,"
+        +   "get:function(){return real||placeholder;},"
+        +   "set:function(value){real=value;hook();setTimeout(flush,0);}});"
+        + "document.addEventListener('DOMContentLoaded',function(){parsed=true;setTimeout(flush,0);});"
+        + "window.addEventListener('load',function(){setTimeout(flush,0);});"
+        + "Android.onCobaltMessage(JSON.stringify({type:'" + Cobalt.JSTypeCobaltBootstrap + "'}));"
+        + "})();";
+
+    private static final byte[] SCRIPT_TAG = ("<script>" + SCRIPT + "</script>").getBytes(Assets.UTF_8);
+
+    /***********************************************************************************************
+     *
+     * CONSTRUCTORS
+     *
+     **********************************************************************************************/
+
+    private BridgeBootstrap() { }
+
+    /***********************************************************************************************
+     *
+     * METHODS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Returns whether the bootstrap can be injected on this device
+     * @return true if the bootstrap can be injected, false otherwise.
+     */
+    public static boolean isSupported()
+    {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+    }
+
+    /**
+     * Returns the specified page with the bootstrap injected if it is a local HTML page of the resource path.
+     * To be called from WebViewClient.shouldInterceptRequest, on a background thread.
+     * @param context the context used to read assets.
+     * @param request the request intercepted.
+     * @return the page with the bootstrap injected, or null to let the WebView load the request.
+     */
+    @Nullable
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    public static WebResourceResponse intercept(@NonNull Context context, @NonNull WebResourceRequest request)
+    {
+        if (! request.isForMainFrame()
+            || ! "GET".equals(request.getMethod()))
+        {
+            return null;
+        }
+
+        Uri uri = request.getUrl();
+        String path = uri.getPath();
+        String url = uri.toString();
+        if (path == null
+            || ! (path.endsWith(".html") || path.endsWith(".htm"))
+            || ! url.startsWith(Cobalt.getInstance(context).getResourcePath()))
+        {
+            return null;
+        }
+
+        try
+        {
+            byte[] page = url.startsWith(ASSETS_URL)
+                          ? Assets.readBytes(context.getAssets(), path.substring(ASSETS_URL.length() - "file://".length()))
+                          : Files.readBytes(new File(path));
+
+            return new WebResourceResponse("text/html", "UTF-8", new ByteArrayInputStream(inject(page)));
+        }
+        catch (IOException exception)
+        {
+            if (Cobalt.DEBUG) Log.w(Cobalt.TAG, TAG + " - intercept: unable to read " + url + ", loading it without bootstrap.");
+            return null;
+        }
+    }
+
+    /***********************************************************************************************
+     *
+     * HELPERS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Inserts the bootstrap right after the head, html or doctype opening tag, in that order of preference,
+     * so that it runs before any script of the page without switching the page to quirks mode.
+     */
+    @NonNull
+    static byte[] inject(@NonNull byte[] page)
+    {
+        int offset = findTagEnd(page, "<head");
+        if (offset < 0) offset = findTagEnd(page, "<html");
+        if (offset < 0) offset = findTagEnd(page, "<!doctype");
+        if (offset < 0) offset = 0;
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(page.length + SCRIPT_TAG.length);
+        outputStream.write(page, 0, offset);
+        outputStream.write(SCRIPT_TAG, 0, SCRIPT_TAG.length);
+        outputStream.write(page, offset, page.length - offset);
+
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Returns the offset following the first opening tag with the specified lowercase prefix, ignoring case
+     * @return the offset following the tag, or -1 if not found.
+     */
+    private static int findTagEnd(@NonNull byte[] page, @NonNull String tag)
+    {
+        int length = tag.length();
+        for (int i = 0; i + length < page.length; i++)
+        {
+            boolean matches = true;
+            for (int j = 0; j < length && matches; j++)
+            {
+                matches = Character.toLowerCase((char) page[i + j]) == tag.charAt(j);
+            }
+
+            // Tag name must end there, i.e. <header> is not <head>
+            char next = (char) page[i + length];
+            if (matches
+                && (next == '>' || Character.isWhitespace(next)))
+            {
+                for (int k = i + length; k < page.length; k++)
+                {
+                    if (page[k] == '>')
+                    {
+                        return k + 1;
+                    }
+                }
+                return -1;
+            }
+        }
+
+        return -1;
+    }
+}
@@ -0,0 +1,501 @@
+/**
+ *
+ * BridgeExecutor
+ * Cobalt
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Cobaltians
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+package org.cobaltians.cobalt.bridge;
+
+import org.cobaltians.cobalt.Cobalt;
+import org.cobaltians.cobalt.CobaltMetrics;
+
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Processes the messages received from the Web by a fragment off the JavaBridge thread,
+ * so that parsing and routing them does not block the JavaScript of the page.
+ * Messages of a fragment are processed one at a time, in the order they were received, on a thread pool
+ * shared by all fragments. The queue of a fragment is bounded; when a page floods the bridge,
+ * the {@link Policy} of the executor decides what happens to new messages.
+ * While the executor is paused, messages keep being queued, within the same bound, but wait to be processed.
+ */
+public final class BridgeExecutor
+{
+    private static final String TAG = BridgeExecutor.class.getSimpleName();
+
+    /***********************************************************************************************
+     *
+     * MEMBERS
+     *
+     **********************************************************************************************/
+
+    /**
+     * What happens to a message received while the queue is full
+     */
+    public enum Policy
+    {
+        /**
+         * The JavaBridge thread waits for room in the queue, which also blocks the JavaScript of the page
+         */
+        BLOCK,
+        /**
+         * The oldest message of the queue is dropped to make room
+         */
+        DROP_OLDEST,
+        /**
+         * The message is rejected and the page is notified
+         */
+        REJECT
+    }
+
+    /**
+     * An Interface to implement to process the messages and be notified of those which are not
+     */
+    public interface MessageProcessor
+    {
+        /**
+         * Processes the specified message, on a thread of the executor
+         * @param message the message received from the Web.
+         */
+        void process(@NonNull String message);
+
+        /**
+         * Called on the JavaBridge thread when a message is dropped or rejected
+         * @param message the message dropped or rejected.
+         * @param policy the policy which discarded the message.
+         */
+        void onDiscarded(@NonNull String message, @NonNull Policy policy);
+    }
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    /**
+     * Maximum number of messages processed in a row for a fragment, before letting the other fragments in
+     */
+    private static final int MAX_MESSAGES_PER_RUN = 32;
+
+    private static final ThreadPoolExecutor sThreadPool;
+    static
+    {
+        int threads = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+        sThreadPool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                                             new LinkedBlockingQueue<Runnable>(),
+                                             new ThreadFactory()
+                                             {
+                                                 private final AtomicInteger mCount = new AtomicInteger();
+
+                                                 @Override
+                                                 public Thread newThread(@NonNull final Runnable runnable)
+                                                 {
+                                                     return new Thread(new Runnable()
+                                                     {
+                                                         @Override
+                                                         public void run()
+                                                         {
+                                                             Process.setThreadPriority(Process.THREAD_PRIORITY_FOREGROUND);
+                                                             runnable.run();
+                                                         }
+                                                     }, "CobaltBridge #" + mCount.incrementAndGet());
+                                                 }
+                                             });
+        sThreadPool.allowCoreThreadTimeOut(true);
+    }
+
+    private final int mCapacity;
+    private final Policy mPolicy;
+    private final MessageProcessor mProcessor;
+    @Nullable
+    private volatile String mMetricsScope;
+
+    /**
+     * Messages waiting to be processed with their enqueue time, guarded by itself
+     */
+    private final ArrayDeque<Entry> mQueue = new ArrayDeque<>();
+    private boolean mScheduled;
+    private boolean mPaused;
+    @Nullable
+    private Thread mProcessingThread;
+
+    private int mMaxQueueDepth;
+    private long mProcessedCount;
+    private long mTotalWaitTime;
+    private long mMaxWaitTime;
+    private long mDroppedCount;
+    private long mRejectedCount;
+
+    private final Runnable mProcessMessages = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            processMessages();
+        }
+    };
+
+    private static final class Entry
+    {
+        private final String mMessage;
+        private final long mEnqueueTime;
+
+        private Entry(@NonNull String message, long enqueueTime)
+        {
+            mMessage = message;
+            mEnqueueTime = enqueueTime;
+        }
+    }
+
+    /***********************************************************************************************
+     *
+     * CONSTRUCTORS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Creates an executor
+     * @param capacity the maximum number of messages waiting to be processed.
+     * @param policy what happens to a message received while the queue is full.
+     * @param processor the processor of the messages.
+     */
+    public BridgeExecutor(int capacity, @NonNull Policy policy, @NonNull MessageProcessor processor)
+    {
+        if (capacity < 1)
+        {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+
+        mCapacity = capacity;
+        mPolicy = policy;
+        mProcessor = processor;
+    }
+
+    /***********************************************************************************************
+     *
+     * METHODS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Enqueues the specified message for processing.
+     * Messages submitted from the processing thread itself are processed right away,
+     * so that a processor re-submitting messages never waits for itself.
+     * @param message the message received from the Web.
+     * @return true if the message was enqueued or processed, false if it was rejected.
+     */
+    public boolean submit(@NonNull String message)
+    {
+        String dropped = null;
+        boolean processingThread;
+
+        synchronized (mQueue)
+        {
+            processingThread = Thread.currentThread() == mProcessingThread;
+            if (! processingThread
+                && mQueue.size() >= mCapacity)
+            {
+                switch (mPolicy)
+                {
+                    case BLOCK:
+                        while (mQueue.size() >= mCapacity)
+                        {
+                            try
+                            {
+                                mQueue.wait();
+                            }
+                            catch (InterruptedException exception)
+                            {
+                                Thread.currentThread().interrupt();
+                                mRejectedCount++;
+                                dropped = message;
+                                break;
+                            }
+                        }
+                        break;
+                    case DROP_OLDEST:
+                        dropped = mQueue.poll().mMessage;
+                        mDroppedCount++;
+                        break;
+                    case REJECT:
+                    default:
+                        mRejectedCount++;
+                        dropped = message;
+                        break;
+                }
+            }
+
+            if (! processingThread
+                && dropped != message)
+            {
+                mQueue.offer(new Entry(message, System.nanoTime()));
+                mMaxQueueDepth = Math.max(mMaxQueueDepth, mQueue.size());
+
+                if (! mScheduled)
+                {
+                    mScheduled = true;
+                    sThreadPool.execute(mProcessMessages);
+                }
+            }
+        }
+
+        if (processingThread)
+        {
+            mProcessor.process(message);
+            return true;
+        }
+
+        if (dropped != null)
+        {
+            if (Cobalt.DEBUG) Log.w(Cobalt.TAG, TAG + " - submit: queue is full, " + (dropped == message ? "rejecting" : "dropping")
+                                                + " message.\n" + dropped);
+            mProcessor.onDiscarded(dropped, dropped == message ? Policy.REJECT : Policy.DROP_OLDEST);
+        }
+
+        return dropped != message;
+    }
+
+    /**
+     * Stops processing messages after the current one. Messages received meanwhile are queued,
+     * and the policy of the executor still applies when the queue is full.
+     */
+    public void pause()
+    {
+        synchronized (mQueue)
+        {
+            mPaused = true;
+        }
+    }
+
+    /**
+     * Resumes processing the queued messages, in order, on the thread pool. Never blocks, may be called from any thread.
+     */
+    public void resume()
+    {
+        synchronized (mQueue)
+        {
+            mPaused = false;
+            if (! mScheduled
+                && ! mQueue.isEmpty())
+            {
+                mScheduled = true;
+                sThreadPool.execute(mProcessMessages);
+            }
+        }
+    }
+
+    /**
+     * Puts the message being processed back at the head of the queue, so that it is processed first once resumed.
+     * Must be called by the processor, from the processing thread, typically when it finds the executor paused.
+     * @param message the message being processed.
+     */
+    public void putBack(@NonNull String message)
+    {
+        synchronized (mQueue)
+        {
+            if (Thread.currentThread() != mProcessingThread)
+            {
+                throw new IllegalStateException("putBack must be called from the processing thread");
+            }
+
+            mQueue.offerFirst(new Entry(message, System.nanoTime()));
+            mMaxQueueDepth = Math.max(mMaxQueueDepth, mQueue.size());
+        }
+    }
+
+    /**
+     * Sets the name the time messages wait in the queue is recorded under in {@link CobaltMetrics}
+     * @param scope the name of the metrics, or null not to record them.
+     */
+    public void setMetricsScope(@Nullable String scope)
+    {
+        mMetricsScope = scope;
+    }
+
+    /**
+     * Returns the number of messages waiting to be processed
+     * @return the number of messages waiting to be processed.
+     */
+    public int getQueueDepth()
+    {
+        synchronized (mQueue)
+        {
+            return mQueue.size();
+        }
+    }
+
+    /**
+     * Returns the highest number of messages which waited to be processed at once
+     * @return the highest number of messages which waited to be processed at once.
+     */
+    public int getMaxQueueDepth()
+    {
+        synchronized (mQueue)
+        {
+            return mMaxQueueDepth;
+        }
+    }
+
+    /**
+     * Returns the number of messages processed
+     * @return the number of messages processed.
+     */
+    public long getProcessedCount()
+    {
+        synchronized (mQueue)
+        {
+            return mProcessedCount;
+        }
+    }
+
+    /**
+     * Returns the average time messages waited in the queue before being processed
+     * @return the average wait time in milliseconds, or 0 if no message was processed.
+     */
+    public long getAverageWaitTime()
+    {
+        synchronized (mQueue)
+        {
+            return mProcessedCount > 0 ? mTotalWaitTime / mProcessedCount : 0;
+        }
+    }
+
+    /**
+     * Returns the longest time a message waited in the queue before being processed
+     * @return the longest wait time in milliseconds.
+     */
+    public long getMaxWaitTime()
+    {
+        synchronized (mQueue)
+        {
+            return mMaxWaitTime;
+        }
+    }
+
+    /**
+     * Returns the number of messages dropped by the DROP_OLDEST policy
+     * @return the number of messages dropped.
+     */
+    public long getDroppedCount()
+    {
+        synchronized (mQueue)
+        {
+            return mDroppedCount;
+        }
+    }
+
+    /**
+     * Returns the number of messages rejected by the REJECT policy, or interrupted while blocked
+     * @return the number of messages rejected.
+     */
+    public long getRejectedCount()
+    {
+        synchronized (mQueue)
+        {
+            return mRejectedCount;
+        }
+    }
+
+    /***********************************************************************************************
+     *
+     * HELPERS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Processes the queued messages in order, then reschedules itself if messages remain,
+     * so that a busy fragment does not hold a thread of the pool indefinitely
+     */
+    private void processMessages()
+    {
+        for (int i = 0; i < MAX_MESSAGES_PER_RUN; i++)
+        {
+            Entry entry;
+            synchronized (mQueue)
+            {
+                entry = mPaused ? null : mQueue.poll();
+                if (entry == null)
+                {
+                    mScheduled = false;
+                    return;
+                }
+
+                long waitTime = (System.nanoTime() - entry.mEnqueueTime) / 1000000;
+                mProcessedCount++;
+                mTotalWaitTime += waitTime;
+                mMaxWaitTime = Math.max(mMaxWaitTime, waitTime);
+                mProcessingThread = Thread.currentThread();
+
+                // Room for a blocked JavaBridge thread
+                mQueue.notifyAll();
+            }
+
+            String metricsScope = mMetricsScope;
+            if (metricsScope != null)
+            {
+                CobaltMetrics.record(CobaltMetrics.Metric.INBOUND_QUEUE_TIME, metricsScope, null,
+                                     (System.nanoTime() - entry.mEnqueueTime) / 1000);
+            }
+
+            try
+            {
+                mProcessor.process(entry.mMessage);
+            }
+            catch (RuntimeException exception)
+            {
+                if (Cobalt.DEBUG) Log.e(Cobalt.TAG, TAG + " - processMessages: unable to process message.\n" + entry.mMessage);
+                exception.printStackTrace();
+            }
+            finally
+            {
+                synchronized (mQueue)
+                {
+                    mProcessingThread = null;
+                }
+            }
+        }
+
+        synchronized (mQueue)
+        {
+            if (mPaused
+                || mQueue.isEmpty())
+            {
+                mScheduled = false;
+            }
+            else
+            {
+                sThreadPool.execute(mProcessMessages);
+            }
+        }
+    }
+}
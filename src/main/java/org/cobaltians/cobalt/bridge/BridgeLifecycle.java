@@ -0,0 +1,297 @@
+/**
+ *
+ * BridgeLifecycle
+ * Cobalt
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Cobaltians
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+package org.cobaltians.cobalt.bridge;
+
+import org.cobaltians.cobalt.Cobalt;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tracks the state of the bridge of a fragment, which the main thread and the bridge threads both update and read.
+ * The state is derived from three conditions: the fragment is attached, its page is ready, and it is resumed.
+ * Each condition is changed with an atomic compare-and-set of the whole state, so that every transition is seen
+ * by exactly one thread: the one making it, which notifies the listener.
+ * Messages to the Web are delivered in the READY state, and those of the lifecycle lane in the PAUSED state as well,
+ * so that the page learns the application went to background; messages from the Web are processed while not DETACHED.
+ */
+public final class BridgeLifecycle
+{
+    private static final String TAG = BridgeLifecycle.class.getSimpleName();
+
+    /***********************************************************************************************
+     *
+     * MEMBERS
+     *
+     **********************************************************************************************/
+
+    /**
+     * The states of the bridge
+     */
+    public enum State
+    {
+        /**
+         * The fragment is not attached to an activity, messages from the Web wait
+         */
+        DETACHED,
+        /**
+         * The page is loading, messages to the Web wait
+         */
+        LOADING,
+        /**
+         * The page is ready and the fragment resumed, messages are delivered
+         */
+        READY,
+        /**
+         * The page is ready but the fragment is paused, messages to the Web wait but those of the lifecycle lane
+         */
+        PAUSED
+    }
+
+    /**
+     * An Interface to implement to drain the waiting messages
+     */
+    public interface Listener
+    {
+        /**
+         * Called once on each transition out of DETACHED, on the thread making it
+         */
+        void onAttached();
+
+        /**
+         * Called once on each transition to PAUSED from DETACHED or LOADING, on the thread making it
+         */
+        void onPageReady();
+
+        /**
+         * Called once on each transition to READY, on the thread making it
+         */
+        void onReady();
+    }
+
+    private static final int ATTACHED = 1;
+    private static final int PAGE_READY = 1 << 1;
+    private static final int RESUMED = 1 << 2;
+
+    private final Listener mListener;
+    private final AtomicInteger mFlags = new AtomicInteger();
+
+    /***********************************************************************************************
+     *
+     * CONSTRUCTORS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Creates a lifecycle in the DETACHED state
+     * @param listener the listener notified of the transitions.
+     */
+    public BridgeLifecycle(@NonNull Listener listener)
+    {
+        mListener = listener;
+    }
+
+    /***********************************************************************************************
+     *
+     * METHODS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Returns the current state
+     * @return the current state.
+     */
+    @NonNull
+    public State getState()
+    {
+        return stateOf(mFlags.get());
+    }
+
+    /**
+     * Returns whether messages to the Web can be delivered
+     * @return true in the READY state, false otherwise.
+     */
+    public boolean isReady()
+    {
+        return stateOf(mFlags.get()) == State.READY;
+    }
+
+    /**
+     * Returns whether the page can receive messages, whether the fragment is resumed or not
+     * @return true in the READY and PAUSED states, false otherwise.
+     */
+    public boolean isPageReady()
+    {
+        return (mFlags.get() & (ATTACHED | PAGE_READY)) == (ATTACHED | PAGE_READY);
+    }
+
+    /**
+     * Returns whether the messages of the specified lane can be delivered to the Web
+     * @param lane the lane of the messages.
+     * @return true in the READY state, and in the PAUSED state for the lifecycle lane, false otherwise.
+     */
+    public boolean canDeliver(@NonNull WaitingMessageQueue.Lane lane)
+    {
+        State state = stateOf(mFlags.get());
+        return state == State.READY
+               || (state == State.PAUSED && lane == WaitingMessageQueue.Lane.LIFECYCLE);
+    }
+
+    /**
+     * Returns whether messages from the Web can be processed
+     * @return true if the fragment is attached, false otherwise.
+     */
+    public boolean isAttached()
+    {
+        return (mFlags.get() & ATTACHED) != 0;
+    }
+
+    /**
+     * Returns whether the fragment is resumed, whatever the state of its page
+     * @return true if the fragment is resumed, false otherwise.
+     */
+    public boolean isResumed()
+    {
+        return (mFlags.get() & RESUMED) != 0;
+    }
+
+    /**
+     * To be called when the fragment is attached to an activity
+     */
+    public void attach()
+    {
+        update(ATTACHED, 0);
+    }
+
+    /**
+     * To be called when the fragment is detached from its activity
+     */
+    public void detach()
+    {
+        update(0, ATTACHED);
+    }
+
+    /**
+     * To be called when a new page starts loading, or the Web view is released
+     */
+    public void pageLoading()
+    {
+        update(0, PAGE_READY);
+    }
+
+    /**
+     * To be called when the page can receive messages
+     */
+    public void pageReady()
+    {
+        update(PAGE_READY, 0);
+    }
+
+    /**
+     * To be called when the fragment is resumed
+     */
+    public void resume()
+    {
+        update(RESUMED, 0);
+    }
+
+    /**
+     * To be called when the fragment is paused
+     */
+    public void pause()
+    {
+        update(0, RESUMED);
+    }
+
+    /***********************************************************************************************
+     *
+     * HELPERS
+     *
+     **********************************************************************************************/
+
+    @NonNull
+    private static State stateOf(int flags)
+    {
+        if ((flags & ATTACHED) == 0)
+        {
+            return State.DETACHED;
+        }
+        if ((flags & PAGE_READY) == 0)
+        {
+            return State.LOADING;
+        }
+
+        return (flags & RESUMED) != 0 ? State.READY : State.PAUSED;
+    }
+
+    /**
+     * Atomically sets then clears the specified flags, and notifies the listener of the transition made, if any
+     */
+    private void update(int set, int clear)
+    {
+        int oldFlags;
+        int newFlags;
+        do
+        {
+            oldFlags = mFlags.get();
+            newFlags = (oldFlags | set) & ~clear;
+            if (newFlags == oldFlags)
+            {
+                return;
+            }
+        }
+        while (! mFlags.compareAndSet(oldFlags, newFlags));
+
+        State oldState = stateOf(oldFlags);
+        State newState = stateOf(newFlags);
+        if (oldState == newState)
+        {
+            return;
+        }
+
+        if (Cobalt.DEBUG) Log.d(Cobalt.TAG, TAG + " - update: " + oldState + " -> " + newState);
+
+        if (oldState == State.DETACHED)
+        {
+            mListener.onAttached();
+        }
+        if (newState == State.PAUSED
+            && (oldState == State.DETACHED || oldState == State.LOADING))
+        {
+            mListener.onPageReady();
+        }
+        if (newState == State.READY)
+        {
+            mListener.onReady();
+        }
+    }
+}
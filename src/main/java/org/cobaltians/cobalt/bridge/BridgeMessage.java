@@ -0,0 +1,756 @@
+/**
+ *
+ * BridgeMessage
+ * Cobalt
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Cobaltians
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+package org.cobaltians.cobalt.bridge;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.JsonReader;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A message received from the Web, parsed lazily.
+ * Parsing only locates the top-level fields of the message; string fields such as type, action or channel
+ * are decoded when read, and object or array fields such as data are kept as raw JSON slices
+ * which are only parsed if asked for, so that payloads which are only forwarded are never materialized.
+ * A message is not thread-safe but may be handed from a thread to another.
+ */
+public final class BridgeMessage
+{
+    /***********************************************************************************************
+     *
+     * MEMBERS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Maximum nesting of objects and arrays, so that a malicious message can not overflow the stack
+     */
+    private static final int MAX_DEPTH = 512;
+
+    private final String mSource;
+
+    /**
+     * Start and end offsets of the values in the source, by field name
+     */
+    private final HashMap<String, int[]> mFields = new HashMap<>();
+
+    /**
+     * Fields already parsed, by field name
+     */
+    private HashMap<String, Object> mParsedFields;
+    private JSONObject mJSONObject;
+
+    /***********************************************************************************************
+     *
+     * CONSTRUCTORS
+     *
+     **********************************************************************************************/
+
+    private BridgeMessage(@NonNull String source)
+    {
+        mSource = source;
+    }
+
+    /**
+     * Locates the top-level fields of the specified message
+     * @param source the JSON object received from the Web.
+     * @return the message.
+     * @throws JSONException if the source is not a well-formed JSON object.
+     */
+    @NonNull
+    public static BridgeMessage parse(@NonNull String source) throws JSONException
+    {
+        BridgeMessage message = new BridgeMessage(source);
+        message.scan();
+        return message;
+    }
+
+    /**
+     * Splits the specified batch of messages without parsing them
+     * @param source a JSON array of messages, as objects or as strings containing objects.
+     * @return the messages, in order.
+     * @throws JSONException if the source is not a well-formed JSON array.
+     */
+    @NonNull
+    public static List<String> split(@NonNull String source) throws JSONException
+    {
+        BridgeMessage batch = new BridgeMessage(source);
+        ArrayList<String> messages = new ArrayList<>();
+
+        int length = source.length();
+        int i = batch.skipWhitespaces(0);
+        if (i >= length
+            || source.charAt(i) != '[')
+        {
+            throw batch.syntaxError("expected [", i);
+        }
+
+        i = batch.skipWhitespaces(i + 1);
+        if (i < length
+            && source.charAt(i) == ']')
+        {
+            batch.checkEnd(i + 1);
+            return messages;
+        }
+
+        while (true)
+        {
+            int valueEnd = batch.skipValue(i);
+            messages.add(source.charAt(i) == '"'
+                         ? batch.decodeString(i, valueEnd)
+                         : source.substring(i, valueEnd));
+
+            i = batch.skipWhitespaces(valueEnd);
+            if (i >= length)
+            {
+                throw batch.syntaxError("unterminated array", i);
+            }
+
+            char c = source.charAt(i);
+            if (c == ']')
+            {
+                batch.checkEnd(i + 1);
+                return messages;
+            }
+            if (c != ',')
+            {
+                throw batch.syntaxError("expected , or ]", i);
+            }
+            i = batch.skipWhitespaces(i + 1);
+        }
+    }
+
+    /***********************************************************************************************
+     *
+     * METHODS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Returns whether the message has the specified field, even if null
+     * @param name the name of the field.
+     * @return true if the message has the field, false otherwise.
+     */
+    public boolean has(@NonNull String name)
+    {
+        return mFields.containsKey(name);
+    }
+
+    /**
+     * Returns the specified field as a string, decoding it without parsing the rest of the message.
+     * Numbers and booleans are returned as written.
+     * @param name the name of the field.
+     * @return the value of the field, or null if it is missing, null, an object or an array.
+     */
+    @Nullable
+    public String optString(@NonNull String name)
+    {
+        int[] range = mFields.get(name);
+        if (range == null)
+        {
+            return null;
+        }
+
+        char first = mSource.charAt(range[0]);
+        if (first == '"')
+        {
+            return decodeString(range[0], range[1]);
+        }
+        if (first == '{'
+            || first == '['
+            || mSource.startsWith("null", range[0]))
+        {
+            return null;
+        }
+
+        return mSource.substring(range[0], range[1]);
+    }
+
+    /**
+     * Returns the specified field as a string
+     * @param name the name of the field.
+     * @return the value of the field.
+     * @throws JSONException if the field is missing or is not a string, a number or a boolean.
+     */
+    @NonNull
+    public String getString(@NonNull String name) throws JSONException
+    {
+        String value = optString(name);
+        if (value == null)
+        {
+            throw new JSONException("No string value for " + name);
+        }
+
+        return value;
+    }
+
+    /**
+     * Returns the raw JSON of the specified field, without parsing it
+     * @param name the name of the field.
+     * @return the raw JSON of the field, or null if it is missing.
+     */
+    @Nullable
+    public String getRaw(@NonNull String name)
+    {
+        int[] range = mFields.get(name);
+        return range != null ? mSource.substring(range[0], range[1]) : null;
+    }
+
+    /**
+     * Returns the raw JSON of the specified field, which must be an object.
+     * The slice was validated as JSON when the message was parsed, so that it may be forwarded to another page as is.
+     * @param name the name of the field.
+     * @return the raw JSON of the object.
+     * @throws JSONException if the field is missing or is not an object.
+     */
+    @NonNull
+    public String getRawObject(@NonNull String name) throws JSONException
+    {
+        int[] range = mFields.get(name);
+        if (range == null
+            || mSource.charAt(range[0]) != '{')
+        {
+            throw new JSONException("No object value for " + name);
+        }
+
+        return mSource.substring(range[0], range[1]);
+    }
+
+    /**
+     * Returns the specified field as an object, parsing it on first call
+     * @param name the name of the field.
+     * @return the object, or null if the field is missing or is not an object.
+     */
+    @Nullable
+    public JSONObject optJSONObject(@NonNull String name)
+    {
+        try
+        {
+            Object value = parseField(name);
+            return value instanceof JSONObject ? (JSONObject) value : null;
+        }
+        catch (JSONException exception)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the specified field as an object, parsing it on first call
+     * @param name the name of the field.
+     * @return the object.
+     * @throws JSONException if the field is missing or is not an object.
+     */
+    @NonNull
+    public JSONObject getJSONObject(@NonNull String name) throws JSONException
+    {
+        Object value = parseField(name);
+        if (! (value instanceof JSONObject))
+        {
+            throw new JSONException("No object value for " + name);
+        }
+
+        return (JSONObject) value;
+    }
+
+    /**
+     * Returns the specified field as an array, parsing it on first call
+     * @param name the name of the field.
+     * @return the array, or null if the field is missing or is not an array.
+     */
+    @Nullable
+    public JSONArray optJSONArray(@NonNull String name)
+    {
+        try
+        {
+            Object value = parseField(name);
+            return value instanceof JSONArray ? (JSONArray) value : null;
+        }
+        catch (JSONException exception)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the whole message as an object, parsing it on first call.
+     * Handlers which only read a few fields should use the other getters instead.
+     * @return the message as an object.
+     * @throws JSONException if the message could not be parsed.
+     */
+    @NonNull
+    public JSONObject toJSONObject() throws JSONException
+    {
+        if (mJSONObject == null)
+        {
+            mJSONObject = new JSONObject(mSource);
+        }
+
+        return mJSONObject;
+    }
+
+    /**
+     * Returns the message as received from the Web
+     * @return the message as received from the Web.
+     */
+    @Override
+    public String toString()
+    {
+        return mSource;
+    }
+
+    /***********************************************************************************************
+     *
+     * HELPERS
+     *
+     **********************************************************************************************/
+
+    @Nullable
+    private Object parseField(@NonNull String name) throws JSONException
+    {
+        int[] range = mFields.get(name);
+        if (range == null)
+        {
+            throw new JSONException("No value for " + name);
+        }
+
+        if (mParsedFields == null)
+        {
+            mParsedFields = new HashMap<>();
+        }
+        else if (mParsedFields.containsKey(name))
+        {
+            return mParsedFields.get(name);
+        }
+
+        Object value;
+        char first = mSource.charAt(range[0]);
+        if (first == '{')
+        {
+            value = new JSONObject(mSource.substring(range[0], range[1]));
+        }
+        else if (first == '[')
+        {
+            value = new JSONArray(mSource.substring(range[0], range[1]));
+        }
+        else
+        {
+            value = optString(name);
+        }
+
+        mParsedFields.put(name, value);
+        return value;
+    }
+
+    /**
+     * Decodes the JSON string between the specified offsets, quotes included.
+     * Strings without escape sequences, i.e. most types, actions and channels, are only copied.
+     */
+    @NonNull
+    private String decodeString(int start, int end)
+    {
+        boolean escaped = false;
+        for (int i = start + 1; i < end - 1 && ! escaped; i++)
+        {
+            escaped = mSource.charAt(i) == '\\';
+        }
+        if (! escaped)
+        {
+            return mSource.substring(start + 1, end - 1);
+        }
+
+        JsonReader reader = new JsonReader(new StringReader(mSource.substring(start, end)));
+        // Allows a top-level string
+        reader.setLenient(true);
+        try
+        {
+            return reader.nextString();
+        }
+        catch (IOException exception)
+        {
+            // Not thrown by a StringReader, and the string was validated by scan
+            throw new IllegalStateException(exception);
+        }
+        finally
+        {
+            try
+            {
+                reader.close();
+            }
+            catch (IOException ignored) { }
+        }
+    }
+
+    /**
+     * Locates the top-level fields of the source, validating their values as JSON
+     */
+    private void scan() throws JSONException
+    {
+        int length = mSource.length();
+        int i = skipWhitespaces(0);
+        if (i >= length
+            || mSource.charAt(i) != '{')
+        {
+            throw syntaxError("expected {", i);
+        }
+
+        i = skipWhitespaces(i + 1);
+        if (i < length
+            && mSource.charAt(i) == '}')
+        {
+            checkEnd(i + 1);
+            return;
+        }
+
+        while (true)
+        {
+            if (i >= length
+                || mSource.charAt(i) != '"')
+            {
+                throw syntaxError("expected a field name", i);
+            }
+            int keyEnd = skipString(i);
+            String name = decodeString(i, keyEnd);
+
+            i = skipWhitespaces(keyEnd);
+            if (i >= length
+                || mSource.charAt(i) != ':')
+            {
+                throw syntaxError("expected :", i);
+            }
+
+            int valueStart = skipWhitespaces(i + 1);
+            int valueEnd = skipValue(valueStart);
+            mFields.put(name, new int[] {valueStart, valueEnd});
+
+            i = skipWhitespaces(valueEnd);
+            if (i >= length)
+            {
+                throw syntaxError("unterminated object", i);
+            }
+
+            char c = mSource.charAt(i);
+            if (c == '}')
+            {
+                checkEnd(i + 1);
+                return;
+            }
+            if (c != ',')
+            {
+                throw syntaxError("expected , or }", i);
+            }
+            i = skipWhitespaces(i + 1);
+        }
+    }
+
+    /**
+     * Returns the offset following the value starting at the specified offset, validating it as JSON.
+     * Values are validated strictly, so that a slice of the source forwarded to another page is always plain JSON
+     * and can not carry a script.
+     */
+    private int skipValue(int start) throws JSONException
+    {
+        return skipValue(start, 0);
+    }
+
+    private int skipValue(int start, int depth) throws JSONException
+    {
+        if (start >= mSource.length())
+        {
+            throw syntaxError("expected a value", start);
+        }
+
+        switch (mSource.charAt(start))
+        {
+            case '"':
+                return skipString(start);
+            case '{':
+                return skipObject(start, depth + 1);
+            case '[':
+                return skipArray(start, depth + 1);
+            case 't':
+                return skipLiteral(start, "true");
+            case 'f':
+                return skipLiteral(start, "false");
+            case 'n':
+                return skipLiteral(start, "null");
+            default:
+                return skipNumber(start);
+        }
+    }
+
+    private int skipObject(int start, int depth) throws JSONException
+    {
+        if (depth > MAX_DEPTH)
+        {
+            throw syntaxError("value nested too deeply", start);
+        }
+
+        int length = mSource.length();
+        int i = skipWhitespaces(start + 1);
+        if (i < length
+            && mSource.charAt(i) == '}')
+        {
+            return i + 1;
+        }
+
+        while (true)
+        {
+            if (i >= length
+                || mSource.charAt(i) != '"')
+            {
+                throw syntaxError("expected a field name", i);
+            }
+            i = skipWhitespaces(skipString(i));
+            if (i >= length
+                || mSource.charAt(i) != ':')
+            {
+                throw syntaxError("expected :", i);
+            }
+
+            i = skipWhitespaces(skipValue(skipWhitespaces(i + 1), depth));
+            if (i >= length)
+            {
+                throw syntaxError("unterminated object", start);
+            }
+
+            char c = mSource.charAt(i);
+            if (c == '}')
+            {
+                return i + 1;
+            }
+            if (c != ',')
+            {
+                throw syntaxError("expected , or }", i);
+            }
+            i = skipWhitespaces(i + 1);
+        }
+    }
+
+    private int skipArray(int start, int depth) throws JSONException
+    {
+        if (depth > MAX_DEPTH)
+        {
+            throw syntaxError("value nested too deeply", start);
+        }
+
+        int length = mSource.length();
+        int i = skipWhitespaces(start + 1);
+        if (i < length
+            && mSource.charAt(i) == ']')
+        {
+            return i + 1;
+        }
+
+        while (true)
+        {
+            i = skipWhitespaces(skipValue(i, depth));
+            if (i >= length)
+            {
+                throw syntaxError("unterminated array", start);
+            }
+
+            char c = mSource.charAt(i);
+            if (c == ']')
+            {
+                return i + 1;
+            }
+            if (c != ',')
+            {
+                throw syntaxError("expected , or ]", i);
+            }
+            i = skipWhitespaces(i + 1);
+        }
+    }
+
+    private int skipLiteral(int start, @NonNull String literal) throws JSONException
+    {
+        if (! mSource.startsWith(literal, start))
+        {
+            throw syntaxError("expected " + literal, start);
+        }
+        return start + literal.length();
+    }
+
+    /**
+     * Returns the offset following the number starting at the specified offset, as defined by RFC 8259
+     */
+    private int skipNumber(int start) throws JSONException
+    {
+        int i = start;
+        if (charAt(i) == '-')
+        {
+            i++;
+        }
+
+        if (charAt(i) == '0')
+        {
+            i++;
+        }
+        else
+        {
+            i = skipDigits(i);
+        }
+
+        if (charAt(i) == '.')
+        {
+            i = skipDigits(i + 1);
+        }
+
+        char c = charAt(i);
+        if (c == 'e'
+            || c == 'E')
+        {
+            i++;
+            c = charAt(i);
+            if (c == '+'
+                || c == '-')
+            {
+                i++;
+            }
+            i = skipDigits(i);
+        }
+
+        return i;
+    }
+
+    /**
+     * Returns the offset following the digits starting at the specified offset, of which there must be one at least
+     */
+    private int skipDigits(int start) throws JSONException
+    {
+        int i = start;
+        while (isDigit(charAt(i)))
+        {
+            i++;
+        }
+        if (i == start)
+        {
+            throw syntaxError("expected a digit", start);
+        }
+        return i;
+    }
+
+    /**
+     * Returns the offset following the string starting with a quote at the specified offset
+     */
+    private int skipString(int start) throws JSONException
+    {
+        int length = mSource.length();
+        for (int i = start + 1; i < length; i++)
+        {
+            char c = mSource.charAt(i);
+            if (c == '"')
+            {
+                return i + 1;
+            }
+            if (c < 0x20)
+            {
+                throw syntaxError("control character in string", i);
+            }
+            if (c == '\\')
+            {
+                i++;
+                switch (charAt(i))
+                {
+                    case '"': case '\\': case '/': case 'b': case 'f': case 'n': case 'r': case 't':
+                        break;
+                    case 'u':
+                        for (int j = 1; j <= 4; j++)
+                        {
+                            if (Character.digit(charAt(i + j), 16) < 0)
+                            {
+                                throw syntaxError("invalid unicode escape", i);
+                            }
+                        }
+                        i += 4;
+                        break;
+                    default:
+                        throw syntaxError("invalid escape", i);
+                }
+            }
+        }
+
+        throw syntaxError("unterminated string", start);
+    }
+
+    /**
+     * Returns the character at the specified offset, or 0 past the end of the source
+     */
+    private char charAt(int offset)
+    {
+        return offset < mSource.length() ? mSource.charAt(offset) : 0;
+    }
+
+    private static boolean isDigit(char c)
+    {
+        return c >= '0' && c <= '9';
+    }
+
+    private int skipWhitespaces(int start)
+    {
+        int i = start;
+        while (i < mSource.length()
+               && isWhitespace(mSource.charAt(i)))
+        {
+            i++;
+        }
+        return i;
+    }
+
+    private void checkEnd(int end) throws JSONException
+    {
+        int i = skipWhitespaces(end);
+        if (i < mSource.length())
+        {
+            throw syntaxError("unexpected content after the object", i);
+        }
+    }
+
+    private static boolean isWhitespace(char c)
+    {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    @NonNull
+    private JSONException syntaxError(@NonNull String error, int offset)
+    {
+        return new JSONException(error + " at character " + offset);
+    }
+}
@@ -0,0 +1,354 @@
+/**
+ *
+ * BridgeRecorder
+ * Cobalt
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Cobaltians
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+package org.cobaltians.cobalt.bridge;
+
+import org.cobaltians.cobalt.Cobalt;
+import org.cobaltians.cobalt.scheduler.CobaltScheduler;
+import org.cobaltians.cobalt.tools.Assets;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.Executor;
+
+/**
+ * Records the messages crossing the bridge to an append-only file, to replay a session with the BridgeReplayer of the tests.
+ * Each message is written on its own line, as its direction (I for messages received from the Web,
+ * O for messages sent to the Web), the time since the recording started in microseconds, the id of the recording thread,
+ * the metrics scope of the fragment and the JSON message, separated by tabs.
+ * Records are buffered in memory and written on the background thread of the {@link CobaltScheduler},
+ * so that recording never blocks the bridge; records are dropped while more than MAX_PENDING_LENGTH characters wait.
+ * A recorder may be shared by several fragments.
+ */
+public final class BridgeRecorder
+{
+    private static final String TAG = BridgeRecorder.class.getSimpleName();
+
+    /***********************************************************************************************
+     *
+     * MEMBERS
+     *
+     **********************************************************************************************/
+
+    /**
+     * First line of a recording, followed by the format version and the wall clock time of the start in milliseconds
+     */
+    static final String HEADER = "#cobalt-bridge-recording";
+    static final int VERSION = 1;
+
+    static final char INBOUND = 'I';
+    static final char OUTBOUND = 'O';
+
+    /**
+     * Maximum length of the records waiting to be written, in characters
+     */
+    private static final int MAX_PENDING_LENGTH = 1024 * 1024;
+
+    private final File mFile;
+    private final Executor mWriteExecutor;
+    private final long mStartTime = System.nanoTime();
+
+    /**
+     * Records waiting to be written, guarded by mLock
+     */
+    private final Object mLock = new Object();
+    private StringBuilder mPending = new StringBuilder();
+    private boolean mFlushScheduled;
+    private boolean mStopped;
+    private long mRecordedCount;
+    private long mDroppedCount;
+
+    /**
+     * Accessed on the write executor only
+     */
+    private Writer mWriter;
+
+    private final Runnable mFlush = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            flush();
+        }
+    };
+
+    /***********************************************************************************************
+     *
+     * CONSTRUCTORS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Creates a recorder appending to the specified file, created if needed
+     * @param file the file to record to.
+     */
+    public BridgeRecorder(@NonNull File file)
+    {
+        this(file, new Executor()
+        {
+            @Override
+            public void execute(@NonNull Runnable runnable)
+            {
+                CobaltScheduler.getInstance().schedule(runnable, CobaltScheduler.PRIORITY_NORMAL, CobaltScheduler.Affinity.BACKGROUND);
+            }
+        });
+    }
+
+    /**
+     * Creates a recorder appending to the specified file, created if needed, on the specified executor
+     * @param file the file to record to.
+     * @param writeExecutor the executor writing the records, one task at a time.
+     */
+    BridgeRecorder(@NonNull File file, @NonNull Executor writeExecutor)
+    {
+        mFile = file;
+        mWriteExecutor = writeExecutor;
+        synchronized (mLock)
+        {
+            mPending.append(HEADER).append(' ').append(VERSION).append(' ').append(System.currentTimeMillis()).append('\n');
+            scheduleFlush();
+        }
+    }
+
+    /***********************************************************************************************
+     *
+     * METHODS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Records a message received from the Web. May be called from any thread.
+     * @param scope the metrics scope of the fragment, i.e. CobaltFragment.getMetricsScope().
+     * @param message the JSON message.
+     */
+    public void recordInbound(@NonNull String scope, @NonNull String message)
+    {
+        record(INBOUND, scope, message);
+    }
+
+    /**
+     * Records a message sent to the Web. May be called from any thread.
+     * @param scope the metrics scope of the fragment, i.e. CobaltFragment.getMetricsScope().
+     * @param message the JSON message.
+     */
+    public void recordOutbound(@NonNull String scope, @NonNull String message)
+    {
+        record(OUTBOUND, scope, message);
+    }
+
+    /**
+     * Writes the records left and closes the file. Records are ignored from then.
+     */
+    public void stop()
+    {
+        synchronized (mLock)
+        {
+            if (mStopped)
+            {
+                return;
+            }
+            mStopped = true;
+        }
+
+        mWriteExecutor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                flush();
+                close();
+            }
+        });
+    }
+
+    /**
+     * Returns the file the recorder writes to
+     * @return the file the recorder writes to.
+     */
+    @NonNull
+    public File getFile()
+    {
+        return mFile;
+    }
+
+    /**
+     * Returns the number of messages recorded
+     * @return the number of messages recorded.
+     */
+    public long getRecordedCount()
+    {
+        synchronized (mLock)
+        {
+            return mRecordedCount;
+        }
+    }
+
+    /**
+     * Returns the number of messages dropped because too many records were waiting to be written
+     * @return the number of messages dropped.
+     */
+    public long getDroppedCount()
+    {
+        synchronized (mLock)
+        {
+            return mDroppedCount;
+        }
+    }
+
+    /***********************************************************************************************
+     *
+     * HELPERS
+     *
+     **********************************************************************************************/
+
+    private void record(char direction, @NonNull String scope, @NonNull String message)
+    {
+        long time = (System.nanoTime() - mStartTime) / 1000;
+        long threadId = Thread.currentThread().getId();
+
+        synchronized (mLock)
+        {
+            if (mStopped)
+            {
+                return;
+            }
+            if (mPending.length() + message.length() > MAX_PENDING_LENGTH)
+            {
+                mDroppedCount++;
+                return;
+            }
+
+            mPending.append(direction).append('\t')
+                    .append(time).append('\t')
+                    .append(threadId).append('\t')
+                    .append(scope).append('\t');
+            appendMessage(mPending, message);
+            mPending.append('\n');
+            mRecordedCount++;
+
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Appends the specified message without its line breaks, so that it fits on one line.
+     * JSON only allows line breaks as whitespace between tokens, so they are dropped.
+     */
+    private static void appendMessage(@NonNull StringBuilder builder, @NonNull String message)
+    {
+        int start = 0;
+        for (int i = 0, length = message.length(); i < length; i++)
+        {
+            char c = message.charAt(i);
+            if (c == '\n'
+                || c == '\r')
+            {
+                builder.append(message, start, i);
+                start = i + 1;
+            }
+        }
+        builder.append(message, start, message.length());
+    }
+
+    /**
+     * Must be called holding mLock
+     */
+    private void scheduleFlush()
+    {
+        if (! mFlushScheduled)
+        {
+            mFlushScheduled = true;
+            mWriteExecutor.execute(mFlush);
+        }
+    }
+
+    /**
+     * Writes the pending records. Runs on the write executor.
+     */
+    private void flush()
+    {
+        StringBuilder pending;
+        synchronized (mLock)
+        {
+            mFlushScheduled = false;
+            if (mPending.length() == 0)
+            {
+                return;
+            }
+            pending = mPending;
+            mPending = new StringBuilder();
+        }
+
+        try
+        {
+            if (mWriter == null)
+            {
+                File directory = mFile.getParentFile();
+                if (directory != null
+                    && ! directory.isDirectory()
+                    && ! directory.mkdirs())
+                {
+                    throw new IOException("Unable to create " + directory);
+                }
+                mWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(mFile, true), Assets.UTF_8));
+            }
+            mWriter.append(pending);
+            mWriter.flush();
+        }
+        catch (IOException exception)
+        {
+            if (Cobalt.DEBUG) Log.e(Cobalt.TAG, TAG + " - flush: unable to write to " + mFile + ", " + pending.length() + " characters lost.");
+            exception.printStackTrace();
+        }
+    }
+
+    private void close()
+    {
+        if (mWriter != null)
+        {
+            try
+            {
+                mWriter.close();
+            }
+            catch (IOException exception)
+            {
+                if (Cobalt.DEBUG) Log.e(Cobalt.TAG, TAG + " - close: unable to close " + mFile);
+                exception.printStackTrace();
+            }
+            mWriter = null;
+        }
+    }
+}
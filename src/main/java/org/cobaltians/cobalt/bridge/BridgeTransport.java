@@ -0,0 +1,64 @@
+/**
+ *
+ * BridgeTransport
+ * Cobalt
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Cobaltians
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+package org.cobaltians.cobalt.bridge;
+
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+import android.webkit.WebView;
+
+import java.util.List;
+
+/**
+ * An Interface to implement to deliver the messages of the bridge to the page of a Web view.
+ * Transports carrying the messages of the page as well hand them to a {@link MessageListener}.
+ */
+public interface BridgeTransport
+{
+    /**
+     * An Interface to implement to receive the messages sent by the page through a transport
+     */
+    interface MessageListener
+    {
+        /**
+         * Called when the page sends a message through the transport, on a thread depending on the transport
+         * @param message the message, or the JSON array of messages of a batch,
+         *                as it would have been sent to the JavascriptInterface.
+         */
+        void onMessage(@NonNull String message);
+    }
+
+    /**
+     * Delivers the specified messages, in order, to the page of the specified Web view
+     * @param webView the Web view to deliver the messages to.
+     * @param messages the messages, serialized by {@link ScriptEncoder}.
+     */
+    @MainThread
+    void deliver(@NonNull WebView webView, @NonNull List<String> messages);
+}
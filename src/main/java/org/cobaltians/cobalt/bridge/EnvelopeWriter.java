@@ -0,0 +1,355 @@
+/**
+ *
+ * EnvelopeWriter
+ * Cobalt
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Cobaltians
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+package org.cobaltians.cobalt.bridge;
+
+import org.cobaltians.cobalt.Cobalt;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Writes the messages sent to the Web straight into a pooled buffer, without building a JSONObject for the envelope.
+ * Each thread has its own writer, obtained with obtain(), whose buffer is reused from a message to another.
+ * Output is escaped as by {@link ScriptEncoder}, so that it can be evaluated as is.
+ * As with JSONObject.put, a field whose value is null is omitted.
+ * Parameterless events and pubsub notifications, such as onBackButtonPressed or onAppForeground,
+ * are serialized once and then returned as is by event(String) and pubsub(String).
+ */
+public final class EnvelopeWriter
+{
+    /***********************************************************************************************
+     *
+     * MEMBERS
+     *
+     **********************************************************************************************/
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    /**
+     * Above this capacity, the buffer is not kept after a message, so that a large payload does not pin memory
+     */
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    private static final ThreadLocal<EnvelopeWriter> sWriters = new ThreadLocal<EnvelopeWriter>()
+    {
+        @Override
+        protected EnvelopeWriter initialValue()
+        {
+            return new EnvelopeWriter();
+        }
+    };
+
+    /**
+     * Serialized parameterless events, by event name
+     */
+    private static final ConcurrentHashMap<String, String> sEventTemplates = new ConcurrentHashMap<>();
+
+    /**
+     * Serialized pubsub messages without content, by channel
+     */
+    private static final ConcurrentHashMap<String, String> sPubSubTemplates = new ConcurrentHashMap<>();
+
+    static
+    {
+        event(Cobalt.JSEventOnBackButtonPressed);
+        pubsub(Cobalt.JSEventOnAppForeground);
+        pubsub(Cobalt.JSEventOnAppBackground);
+    }
+
+    private StringBuilder mBuffer = new StringBuilder(INITIAL_CAPACITY);
+    private int mDepth;
+    private boolean mNeedsComma;
+
+    /***********************************************************************************************
+     *
+     * CONSTRUCTORS
+     *
+     **********************************************************************************************/
+
+    private EnvelopeWriter() { }
+
+    /**
+     * Returns the writer of the current thread, emptied. The writer must not be kept once finish() is called.
+     * @return the writer of the current thread.
+     */
+    @NonNull
+    public static EnvelopeWriter obtain()
+    {
+        EnvelopeWriter writer = sWriters.get();
+        writer.reset();
+        return writer;
+    }
+
+    /***********************************************************************************************
+     *
+     * TEMPLATES
+     *
+     **********************************************************************************************/
+
+    /**
+     * Returns the serialized event with the specified name, without data nor callback
+     * @param event the name of the event.
+     * @return the serialized event.
+     */
+    @NonNull
+    public static String event(@NonNull String event)
+    {
+        String message = sEventTemplates.get(event);
+        if (message == null)
+        {
+            message = obtain().beginMessage(Cobalt.JSTypeEvent)
+                              .field(Cobalt.kJSEvent, event)
+                              .finish();
+            sEventTemplates.putIfAbsent(event, message);
+        }
+
+        return message;
+    }
+
+    /**
+     * Returns the serialized pubsub message of the specified channel, without content
+     * @param channel the channel.
+     * @return the serialized pubsub message.
+     */
+    @NonNull
+    public static String pubsub(@NonNull String channel)
+    {
+        String message = sPubSubTemplates.get(channel);
+        if (message == null)
+        {
+            message = obtain().beginMessage(Cobalt.JSTypePubsub)
+                              .field(Cobalt.kJSChannel, channel)
+                              .finish();
+            sPubSubTemplates.putIfAbsent(channel, message);
+        }
+
+        return message;
+    }
+
+    /***********************************************************************************************
+     *
+     * METHODS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Opens the message and writes its type
+     * @param type the type of the message, i.e. Cobalt.JSTypeEvent.
+     * @return this writer.
+     */
+    @NonNull
+    public EnvelopeWriter beginMessage(@NonNull String type)
+    {
+        beginObject();
+        return field(Cobalt.kJSType, type);
+    }
+
+    /**
+     * Opens an object, as the value of the field named before or as the message itself
+     * @return this writer.
+     */
+    @NonNull
+    public EnvelopeWriter beginObject()
+    {
+        mBuffer.append('{');
+        mDepth++;
+        mNeedsComma = false;
+        return this;
+    }
+
+    /**
+     * Opens an object as the value of the specified field
+     * @param name the name of the field.
+     * @return this writer.
+     */
+    @NonNull
+    public EnvelopeWriter beginObject(@NonNull String name)
+    {
+        name(name);
+        return beginObject();
+    }
+
+    /**
+     * Closes the last object opened
+     * @return this writer.
+     */
+    @NonNull
+    public EnvelopeWriter endObject()
+    {
+        if (mDepth == 0)
+        {
+            throw new IllegalStateException("No object to close.");
+        }
+
+        mBuffer.append('}');
+        mDepth--;
+        mNeedsComma = true;
+        return this;
+    }
+
+    /**
+     * Writes the specified string field, omitted if value is null
+     * @param name the name of the field.
+     * @param value the value of the field.
+     * @return this writer.
+     */
+    @NonNull
+    public EnvelopeWriter field(@NonNull String name, @Nullable String value)
+    {
+        if (value != null)
+        {
+            name(name);
+            ScriptEncoder.writeString(mBuffer, value);
+            mNeedsComma = true;
+        }
+        return this;
+    }
+
+    /**
+     * Writes the specified integer field
+     * @param name the name of the field.
+     * @param value the value of the field.
+     * @return this writer.
+     */
+    @NonNull
+    public EnvelopeWriter field(@NonNull String name, long value)
+    {
+        name(name);
+        mBuffer.append(value);
+        mNeedsComma = true;
+        return this;
+    }
+
+    /**
+     * Writes the specified boolean field
+     * @param name the name of the field.
+     * @param value the value of the field.
+     * @return this writer.
+     */
+    @NonNull
+    public EnvelopeWriter field(@NonNull String name, boolean value)
+    {
+        name(name);
+        mBuffer.append(value);
+        mNeedsComma = true;
+        return this;
+    }
+
+    /**
+     * Writes the specified field, omitted if value is null
+     * @param name the name of the field.
+     * @param value a JSONObject, JSONArray, String, Number, Boolean, Map, Collection, array or null.
+     * @return this writer.
+     * @throws JSONException if the value contains a non-finite number.
+     */
+    @NonNull
+    public EnvelopeWriter field(@NonNull String name, @Nullable Object value) throws JSONException
+    {
+        if (value != null)
+        {
+            name(name);
+            ScriptEncoder.writeValue(mBuffer, value);
+            mNeedsComma = true;
+        }
+        return this;
+    }
+
+    /**
+     * Writes the specified field, whose value is already serialized as JSON and escaped for a script
+     * @param name the name of the field.
+     * @param json the serialized value of the field.
+     * @return this writer.
+     */
+    @NonNull
+    public EnvelopeWriter rawField(@NonNull String name, @NonNull String json)
+    {
+        name(name);
+        mBuffer.append(json);
+        mNeedsComma = true;
+        return this;
+    }
+
+    /**
+     * Closes the objects left open and returns the message, then empties the writer
+     * @return the serialized message, safe to embed in a script.
+     */
+    @NonNull
+    public String finish()
+    {
+        while (mDepth > 0)
+        {
+            endObject();
+        }
+
+        String message = mBuffer.toString();
+        reset();
+        return message;
+    }
+
+    /***********************************************************************************************
+     *
+     * HELPERS
+     *
+     **********************************************************************************************/
+
+    private void name(@NonNull String name)
+    {
+        if (mDepth == 0)
+        {
+            throw new IllegalStateException("Fields must be written in an object.");
+        }
+
+        if (mNeedsComma)
+        {
+            mBuffer.append(',');
+        }
+        ScriptEncoder.writeString(mBuffer, name);
+        mBuffer.append(':');
+    }
+
+    private void reset()
+    {
+        if (mBuffer.capacity() > MAX_RETAINED_CAPACITY)
+        {
+            mBuffer = new StringBuilder(INITIAL_CAPACITY);
+        }
+        else
+        {
+            mBuffer.setLength(0);
+        }
+        mDepth = 0;
+        mNeedsComma = false;
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ *
+ * LoadUrlTransport
+ * Cobalt
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Cobaltians
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+package org.cobaltians.cobalt.bridge;
+
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.webkit.WebView;
+
+/**
+ * Delivers scripts by loading javascript: URLs, for Web views which do not support evaluateJavascript.
+ * Since KitKat, javascript: URLs are URL-decoded before evaluation, so percent signs are encoded first.
+ */
+public class LoadUrlTransport extends ScriptTransport
+{
+    private static final String JAVASCRIPT_SCHEME = "javascript:";
+
+    @Override
+    protected void evaluate(@NonNull WebView webView, @NonNull String script)
+    {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+            && script.indexOf('%') >= 0)
+        {
+            StringBuilder url = new StringBuilder(JAVASCRIPT_SCHEME.length() + script.length() + 16);
+            url.append(JAVASCRIPT_SCHEME);
+            for (int i = 0, length = script.length(); i < length; i++)
+            {
+                char c = script.charAt(i);
+                if (c == '%')
+                {
+                    url.append("%25");
+                }
+                else
+                {
+                    url.append(c);
+                }
+            }
+            webView.loadUrl(url.toString());
+        }
+        else
+        {
+            webView.loadUrl(JAVASCRIPT_SCHEME + script);
+        }
+    }
+}
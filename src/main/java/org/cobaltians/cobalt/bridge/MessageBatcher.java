@@ -0,0 +1,294 @@
+/**
+ *
+ * MessageBatcher
+ * Cobalt
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Cobaltians
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+package org.cobaltians.cobalt.bridge;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the messages sent to the Web by a fragment and delivers them once per frame,
+ * in a single transport call, instead of one UI thread post and one evaluation per message.
+ * Messages are always delivered in the order they were enqueued; a message enqueued as immediate
+ * is delivered without waiting for the next frame, along with the messages enqueued before it.
+ * A frame delivers up to MAX_FLUSH_LENGTH characters, so that the chunks of a large message are spread over several frames.
+ */
+public final class MessageBatcher
+{
+    /***********************************************************************************************
+     *
+     * MEMBERS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Delivers the batches of messages to the Web view
+     */
+    public interface MessageSink
+    {
+        /**
+         * Delivers the specified messages, in order. Called on the main thread.
+         * @param messages the serialized messages.
+         */
+        @MainThread
+        void deliver(@NonNull List<String> messages);
+    }
+
+    /**
+     * Maximum length delivered in one frame, in characters, unless a single message is longer
+     */
+    private static final int MAX_FLUSH_LENGTH = 2 * MessageChunker.CHUNK_LENGTH + 4096;
+
+    private final MessageSink mSink;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Choreographer mChoreographer;
+
+    /**
+     * Serialized messages waiting for the next flush, guarded by itself
+     */
+    private final ArrayList<String> mPendingMessages = new ArrayList<>();
+    private boolean mFrameScheduled;
+    private boolean mCleared;
+
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback()
+    {
+        @Override
+        public void doFrame(long frameTimeNanos)
+        {
+            synchronized (mPendingMessages)
+            {
+                mFrameScheduled = false;
+            }
+            flush();
+        }
+    };
+
+    private final Runnable mFlush = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            flush();
+        }
+    };
+
+    /***********************************************************************************************
+     *
+     * CONSTRUCTORS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Creates a batcher delivering messages to the specified sink. Must be called on the main thread.
+     * @param sink the sink of the batches.
+     */
+    @MainThread
+    public MessageBatcher(@NonNull MessageSink sink)
+    {
+        mSink = sink;
+        mChoreographer = Choreographer.getInstance();
+    }
+
+    /***********************************************************************************************
+     *
+     * METHODS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Enqueues the specified message for delivery. May be called from any thread.
+     * @param message the JSON message, already serialized and escaped for a script.
+     * @param immediate true to deliver the message (and those enqueued before it) as soon as possible
+     *                  on the main thread, false to wait for the next frame.
+     */
+    public void enqueue(@NonNull String message, boolean immediate)
+    {
+        synchronized (mPendingMessages)
+        {
+            if (mCleared)
+            {
+                return;
+            }
+
+            mPendingMessages.add(message);
+
+            if (immediate)
+            {
+                if (mFrameScheduled)
+                {
+                    mChoreographer.removeFrameCallback(mFrameCallback);
+                    mFrameScheduled = false;
+                }
+            }
+            else if (! mFrameScheduled)
+            {
+                mChoreographer.postFrameCallback(mFrameCallback);
+                mFrameScheduled = true;
+                return;
+            }
+            else
+            {
+                return;
+            }
+        }
+
+        if (Looper.myLooper() == Looper.getMainLooper())
+        {
+            flush();
+        }
+        else
+        {
+            mMainHandler.post(mFlush);
+        }
+    }
+
+    /**
+     * Enqueues the specified messages for delivery, with no other message in between. May be called from any thread.
+     * @param messages the JSON messages, already serialized and escaped for a script.
+     */
+    public void enqueueAll(@NonNull List<String> messages)
+    {
+        synchronized (mPendingMessages)
+        {
+            if (mCleared)
+            {
+                return;
+            }
+
+            mPendingMessages.addAll(messages);
+            scheduleFrame();
+        }
+    }
+
+    /**
+     * Drops the chunks of the chunked messages waiting for delivery,
+     * and tells the page to drop those it already received. May be called from any thread.
+     */
+    public void cancelChunkedMessages()
+    {
+        synchronized (mPendingMessages)
+        {
+            if (mCleared)
+            {
+                return;
+            }
+
+            MessageChunker.cancel(mPendingMessages);
+            if (! mPendingMessages.isEmpty())
+            {
+                scheduleFrame();
+            }
+        }
+    }
+
+    /**
+     * Drops the messages waiting for delivery and stops accepting new ones.
+     * Must be called when the Web view of the fragment is released.
+     */
+    public void clear()
+    {
+        synchronized (mPendingMessages)
+        {
+            mCleared = true;
+            mPendingMessages.clear();
+            if (mFrameScheduled)
+            {
+                mChoreographer.removeFrameCallback(mFrameCallback);
+                mFrameScheduled = false;
+            }
+        }
+        mMainHandler.removeCallbacks(mFlush);
+    }
+
+    /***********************************************************************************************
+     *
+     * HELPERS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Schedules a flush on the next frame, if none is. Must be called holding mPendingMessages.
+     */
+    private void scheduleFrame()
+    {
+        if (! mFrameScheduled)
+        {
+            mChoreographer.postFrameCallback(mFrameCallback);
+            mFrameScheduled = true;
+        }
+    }
+
+    /**
+     * Delivers the pending messages in a single batch, up to MAX_FLUSH_LENGTH characters.
+     * The following ones wait for the next frame.
+     */
+    @MainThread
+    private void flush()
+    {
+        ArrayList<String> messages;
+        synchronized (mPendingMessages)
+        {
+            int size = mPendingMessages.size();
+            if (size == 0)
+            {
+                return;
+            }
+
+            int count = 0;
+            int length = 0;
+            while (count < size
+                   && (count == 0 || length + mPendingMessages.get(count).length() <= MAX_FLUSH_LENGTH))
+            {
+                length += mPendingMessages.get(count).length();
+                count++;
+            }
+
+            if (count == size)
+            {
+                messages = new ArrayList<>(mPendingMessages);
+                mPendingMessages.clear();
+            }
+            else
+            {
+                List<String> batch = mPendingMessages.subList(0, count);
+                messages = new ArrayList<>(batch);
+                batch.clear();
+                scheduleFrame();
+            }
+        }
+
+        mSink.deliver(messages);
+    }
+}
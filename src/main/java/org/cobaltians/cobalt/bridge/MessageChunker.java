@@ -0,0 +1,209 @@
+/**
+ *
+ * MessageChunker
+ * Cobalt
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Cobaltians
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+package org.cobaltians.cobalt.bridge;
+
+import org.cobaltians.cobalt.Cobalt;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Splits the messages too large for a single script evaluation into sequenced chunks,
+ * which are regular messages of the cobaltChunk type delivered in order with the others.
+ * The batcher spreads them over several frames, and the page reassembles them with {@link #REASSEMBLER_SCRIPT}
+ * before dispatching the original message, so that a message sent after a chunked one is still dispatched after it.
+ * Chunks are formatted as {"type":"cobaltChunk","id":1,"index":0,"count":3,"data":"..."},
+ * a chunked message cancelled before all its chunks were delivered as {"type":"cobaltChunk","id":1,"cancel":true}.
+ */
+public final class MessageChunker
+{
+    /***********************************************************************************************
+     *
+     * MEMBERS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Length above which messages are chunked, in characters
+     */
+    public static final int DEFAULT_THRESHOLD = 256 * 1024;
+
+    /**
+     * Length of the data of a chunk, in characters
+     */
+    public static final int CHUNK_LENGTH = 128 * 1024;
+
+    private static final String PREFIX = "{\"" + Cobalt.kJSType + "\":\"" + Cobalt.JSTypeCobaltChunk + "\",\"id\":";
+    private static final String INDEX = ",\"index\":";
+
+    /**
+     * Script defining window.__cobaltDeliver, which delivers an array of messages to cobalt.js
+     * after reassembling the chunked ones
+     */
+    public static final String REASSEMBLER_SCRIPT =
+        "(function(){"
+        + "if(window.__cobaltDeliver)return;"
+        + "var chunks={};"
+        + "window.__cobaltDeliver=function(m){"
+        +   "var p=cobalt['private'],batch=[];"
+        +   "for(var i=0;i<m.length;i++){"
+        +     "var c=m[i];"
+        +     "if(!c||c.type!=='" + Cobalt.JSTypeCobaltChunk + "'){batch.push(c);continue;}"
+        +     "if(c.cancel){delete chunks[c.id];continue;}"
+        +     "var parts=chunks[c.id]||(chunks[c.id]=[]);"
+        +     "if(c.index!==parts.length){delete chunks[c.id];console.error('cobalt: chunk '+c.index+' of message '+c.id+' out of sequence');continue;}"
+        +     "parts.push(c.data);"
+        +     "if(parts.length===c.count){delete chunks[c.id];try{batch.push(JSON.parse(parts.join('')));}catch(e){console.error(e);}}"
+        +   "}"
+        +   "if(batch.length>1&&typeof p.executeBatch==='function')p.executeBatch(batch);"
+        +   "else for(var j=0;j<batch.length;j++)p.execute(batch[j]);"
+        + "};"
+        + "})();";
+
+    private static final AtomicLong sSequence = new AtomicLong();
+
+    /***********************************************************************************************
+     *
+     * CONSTRUCTORS
+     *
+     **********************************************************************************************/
+
+    private MessageChunker() { }
+
+    /***********************************************************************************************
+     *
+     * METHODS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Splits the specified message into chunks
+     * @param message the message, serialized by {@link ScriptEncoder}.
+     * @param chunkLength the maximum length of the data of a chunk, in characters.
+     * @return the chunks, serialized, to deliver in order.
+     */
+    @NonNull
+    public static List<String> split(@NonNull String message, int chunkLength)
+    {
+        long id = sSequence.incrementAndGet();
+        int length = message.length();
+
+        ArrayList<int[]> ranges = new ArrayList<>(length / chunkLength + 1);
+        for (int start = 0; start < length; )
+        {
+            int end = Math.min(length, start + chunkLength);
+            // Surrogate pairs are never split, so that each chunk is a valid string
+            if (end < length
+                && Character.isHighSurrogate(message.charAt(end - 1)))
+            {
+                end--;
+            }
+            ranges.add(new int[] {start, end});
+            start = end;
+        }
+
+        ArrayList<String> chunks = new ArrayList<>(ranges.size());
+        for (int i = 0; i < ranges.size(); i++)
+        {
+            int[] range = ranges.get(i);
+            StringBuilder chunk = new StringBuilder(range[1] - range[0] + 128);
+            chunk.append(PREFIX).append(id)
+                 .append(INDEX).append(i)
+                 .append(",\"count\":").append(ranges.size())
+                 .append(",\"data\":");
+            ScriptEncoder.writeString(chunk, message.substring(range[0], range[1]));
+            chunk.append('}');
+            chunks.add(chunk.toString());
+        }
+
+        return chunks;
+    }
+
+    /**
+     * Returns whether the specified messages contain chunks or cancellations of chunked messages
+     * @param messages the messages, serialized.
+     * @return true if the messages contain chunks or cancellations, false otherwise.
+     */
+    public static boolean containsChunks(@NonNull List<String> messages)
+    {
+        for (String message : messages)
+        {
+            if (message.startsWith(PREFIX))
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Removes the chunks from the specified list of messages waiting for delivery,
+     * and appends a cancellation for each chunked message the page already received chunks of
+     * @param messages the messages waiting for delivery, serialized.
+     */
+    public static void cancel(@NonNull List<String> messages)
+    {
+        HashSet<Long> cancelledIds = new HashSet<>();
+        HashSet<Long> unstartedIds = new HashSet<>();
+
+        Iterator<String> iterator = messages.iterator();
+        while (iterator.hasNext())
+        {
+            String message = iterator.next();
+            int indexStart = message.startsWith(PREFIX) ? message.indexOf(INDEX, PREFIX.length()) : -1;
+            // Not a chunk, or a cancellation
+            if (indexStart < 0)
+            {
+                continue;
+            }
+
+            long id = Long.parseLong(message.substring(PREFIX.length(), indexStart));
+            int indexEnd = message.indexOf(',', indexStart + INDEX.length());
+            if (Integer.parseInt(message.substring(indexStart + INDEX.length(), indexEnd)) == 0)
+            {
+                unstartedIds.add(id);
+            }
+            cancelledIds.add(id);
+            iterator.remove();
+        }
+
+        cancelledIds.removeAll(unstartedIds);
+        for (long id : cancelledIds)
+        {
+            messages.add(PREFIX + id + ",\"cancel\":true}");
+        }
+    }
+}
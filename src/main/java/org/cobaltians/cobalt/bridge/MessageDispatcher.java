@@ -0,0 +1,336 @@
+/**
+ *
+ * MessageDispatcher
+ * Cobalt
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Cobaltians
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+package org.cobaltians.cobalt.bridge;
+
+import org.cobaltians.cobalt.Cobalt;
+import org.cobaltians.cobalt.CobaltMetrics;
+import org.cobaltians.cobalt.fragments.CobaltFragment;
+import org.cobaltians.cobalt.scheduler.CobaltScheduler;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Routes the messages sent by the Web to the {@link MessageHandler} registered for their type and action or control.
+ * A handler registered for a type only receives the messages of this type no other handler is registered for.
+ * Dispatchers are chained: handlers not registered in a dispatcher are looked up in its parent,
+ * so that a fragment can add or override handlers without affecting the others.
+ */
+public final class MessageDispatcher
+{
+    private static final String TAG = MessageDispatcher.class.getSimpleName();
+
+    /***********************************************************************************************
+     *
+     * MEMBERS
+     *
+     **********************************************************************************************/
+
+    private static final char KEY_SEPARATOR = '\u0000';
+
+    @Nullable
+    private final MessageDispatcher mParent;
+    private final ConcurrentHashMap<String, Registration> mRegistrations = new ConcurrentHashMap<>();
+    private final Executor mMainThreadExecutor;
+
+    /**
+     * A handler with its statistics
+     */
+    private static final class Registration
+    {
+        private final MessageHandler mHandler;
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mTime = new AtomicLong();
+
+        private Registration(@NonNull MessageHandler handler)
+        {
+            mHandler = handler;
+        }
+    }
+
+    /***********************************************************************************************
+     *
+     * CONSTRUCTORS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Creates a dispatcher
+     * @param parent the dispatcher to look handlers up in when not registered in this one, may be null.
+     */
+    public MessageDispatcher(@Nullable MessageDispatcher parent)
+    {
+        this(parent, new Executor()
+        {
+            private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+            @Override
+            public void execute(@NonNull Runnable runnable)
+            {
+                mMainHandler.post(runnable);
+            }
+        });
+    }
+
+    /**
+     * Creates a dispatcher running the handlers with a UI affinity on the specified executor
+     * @param parent the dispatcher to look handlers up in when not registered in this one, may be null.
+     * @param mainThreadExecutor the executor standing for the main thread.
+     */
+    MessageDispatcher(@Nullable MessageDispatcher parent, @NonNull Executor mainThreadExecutor)
+    {
+        mParent = parent;
+        mMainThreadExecutor = mainThreadExecutor;
+    }
+
+    /***********************************************************************************************
+     *
+     * METHODS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Registers the specified handler, replacing the one registered in this dispatcher for the same key, if any
+     * @param type the type of the messages to handle.
+     * @param key the action or control of the messages to handle, or null for all the messages of the type.
+     * @param handler the handler.
+     */
+    public void register(@NonNull String type, @Nullable String key, @NonNull MessageHandler handler)
+    {
+        mRegistrations.put(buildKey(type, key), new Registration(handler));
+    }
+
+    /**
+     * Unregisters the handler registered in this dispatcher for the specified key, if any
+     * @param type the type of the messages.
+     * @param key the action or control of the messages, or null.
+     */
+    public void unregister(@NonNull String type, @Nullable String key)
+    {
+        mRegistrations.remove(buildKey(type, key));
+    }
+
+    /**
+     * Dispatches the specified message to its handler.
+     * Handlers with a UI or BACKGROUND affinity are considered to handle the message if they are found.
+     * @param fragment the fragment the message was sent to.
+     * @param message the message.
+     * @return true if the message was handled, false otherwise.
+     */
+    public boolean dispatch(@NonNull final CobaltFragment fragment, @NonNull final BridgeMessage message)
+    {
+        String type = message.optString(Cobalt.kJSType);
+        if (type == null)
+        {
+            return false;
+        }
+
+        String key = message.optString(Cobalt.kJSAction);
+        if (key == null)
+        {
+            key = message.optString(Cobalt.kJSUIControl);
+        }
+
+        Registration registration = key != null ? find(buildKey(type, key)) : null;
+        if (registration == null)
+        {
+            registration = find(buildKey(type, null));
+        }
+        if (registration == null)
+        {
+            return false;
+        }
+
+        final MessageHandler handler = registration.mHandler;
+        for (String field : handler.getRequiredFields())
+        {
+            if (! hasField(message, field))
+            {
+                if (Cobalt.DEBUG) Log.w(Cobalt.TAG, TAG + " - dispatch: " + field + " field is missing.\n" + message);
+                return false;
+            }
+        }
+
+        final Registration finalRegistration = registration;
+        switch (handler.getAffinity())
+        {
+            case UI:
+                final String finalType = type;
+                final long postTime = CobaltMetrics.start();
+                final boolean attached = fragment.getActivity() != null;
+                mMainThreadExecutor.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        CobaltMetrics.recordSince(CobaltMetrics.Metric.UI_HOP_WAIT, fragment.getMetricsScope(), finalType, postTime);
+
+                        // Fragment was detached meanwhile
+                        if (! attached
+                            || fragment.getActivity() != null)
+                        {
+                            MessageDispatcher.run(finalRegistration, fragment, message);
+                        }
+                    }
+                });
+                return true;
+            case BACKGROUND:
+                CobaltScheduler.getInstance().schedule(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        MessageDispatcher.run(finalRegistration, fragment, message);
+                    }
+                }, CobaltScheduler.PRIORITY_HIGH, CobaltScheduler.Affinity.BACKGROUND);
+                return true;
+            case BRIDGE:
+            default:
+                return run(registration, fragment, message);
+        }
+    }
+
+    /**
+     * Returns the number of messages handled by the handler registered in this dispatcher for the specified key
+     * @param type the type of the messages.
+     * @param key the action or control of the messages, or null.
+     * @return the number of messages handled, or 0 if no handler is registered.
+     */
+    public long getHandledCount(@NonNull String type, @Nullable String key)
+    {
+        Registration registration = mRegistrations.get(buildKey(type, key));
+        return registration != null ? registration.mCount.get() : 0;
+    }
+
+    /**
+     * Returns the time spent in the handler registered in this dispatcher for the specified key
+     * @param type the type of the messages.
+     * @param key the action or control of the messages, or null.
+     * @return the time spent in the handler in microseconds, or 0 if no handler is registered.
+     */
+    public long getHandlerTime(@NonNull String type, @Nullable String key)
+    {
+        Registration registration = mRegistrations.get(buildKey(type, key));
+        return registration != null ? registration.mTime.get() / 1000 : 0;
+    }
+
+    /***********************************************************************************************
+     *
+     * HELPERS
+     *
+     **********************************************************************************************/
+
+    @NonNull
+    private static String buildKey(@NonNull String type, @Nullable String key)
+    {
+        return key != null ? type + KEY_SEPARATOR + key : type;
+    }
+
+    @Nullable
+    private Registration find(@NonNull String key)
+    {
+        for (MessageDispatcher dispatcher = this; dispatcher != null; dispatcher = dispatcher.mParent)
+        {
+            Registration registration = dispatcher.mRegistrations.get(key);
+            if (registration != null)
+            {
+                return registration;
+            }
+        }
+
+        return null;
+    }
+
+    private static boolean hasField(@NonNull BridgeMessage message, @NonNull String field)
+    {
+        int dot = field.indexOf('.');
+        if (dot < 0)
+        {
+            return message.has(field);
+        }
+
+        // Only the top-level object of the path is parsed
+        JSONObject object = message.optJSONObject(field.substring(0, dot));
+        if (object == null)
+        {
+            return false;
+        }
+        int start = dot + 1;
+        while ((dot = field.indexOf('.', start)) >= 0)
+        {
+            object = object.optJSONObject(field.substring(start, dot));
+            if (object == null)
+            {
+                return false;
+            }
+            start = dot + 1;
+        }
+
+        return object.has(field.substring(start));
+    }
+
+    private static boolean run(@NonNull Registration registration, @NonNull CobaltFragment fragment,
+                               @NonNull BridgeMessage message)
+    {
+        long start = System.nanoTime();
+        try
+        {
+            boolean handled = registration.mHandler.handle(fragment, message);
+            if (! handled
+                && Cobalt.DEBUG
+                && registration.mHandler.getAffinity() != MessageHandler.Affinity.BRIDGE)
+            {
+                Log.e(Cobalt.TAG, TAG + " - run: message not handled.\n" + message);
+            }
+            return handled;
+        }
+        catch (JSONException exception)
+        {
+            if (Cobalt.DEBUG) Log.w(Cobalt.TAG, TAG + " - run: a field is missing or invalid.\n" + message);
+            exception.printStackTrace();
+            return false;
+        }
+        finally
+        {
+            registration.mCount.incrementAndGet();
+            registration.mTime.addAndGet(System.nanoTime() - start);
+        }
+    }
+}
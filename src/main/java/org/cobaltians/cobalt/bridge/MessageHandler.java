@@ -0,0 +1,118 @@
+/**
+ *
+ * MessageHandler
+ * Cobalt
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Cobaltians
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+package org.cobaltians.cobalt.bridge;
+
+import org.cobaltians.cobalt.fragments.CobaltFragment;
+
+import android.support.annotation.NonNull;
+
+import org.json.JSONException;
+
+/**
+ * Handles the messages of a type, and optionally of an action or control, sent by the Web to a fragment.
+ * A handler declares the thread it runs on and the fields it needs, so that the {@link MessageDispatcher}
+ * only calls it with complete messages, on the right thread.
+ */
+public abstract class MessageHandler
+{
+    /***********************************************************************************************
+     *
+     * MEMBERS
+     *
+     **********************************************************************************************/
+
+    /**
+     * The thread a handler runs on
+     */
+    public enum Affinity
+    {
+        /**
+         * The thread of the bridge executor processing the message, in order with the other messages of the fragment
+         */
+        BRIDGE,
+        /**
+         * The main thread, in a single post per message
+         */
+        UI,
+        /**
+         * The background thread of the CobaltScheduler
+         */
+        BACKGROUND
+    }
+
+    private final Affinity mAffinity;
+    private final String[] mRequiredFields;
+
+    /***********************************************************************************************
+     *
+     * CONSTRUCTORS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Creates a handler
+     * @param affinity the thread the handler runs on.
+     * @param requiredFields the fields the message must contain for the handler to be called.
+     *                       Fields of nested objects are separated by dots, i.e. data.url.
+     */
+    protected MessageHandler(@NonNull Affinity affinity, @NonNull String... requiredFields)
+    {
+        mAffinity = affinity;
+        mRequiredFields = requiredFields;
+    }
+
+    /***********************************************************************************************
+     *
+     * METHODS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Handles the specified message, on the thread of the affinity of the handler.
+     * Fields are parsed when read, so handlers should only read the fields they need.
+     * @param fragment the fragment the message was sent to.
+     * @param message the message, which contains the required fields.
+     * @return true if the message was handled, false otherwise.
+     * @throws JSONException if a field of the message is missing or invalid.
+     */
+    public abstract boolean handle(@NonNull CobaltFragment fragment, @NonNull BridgeMessage message) throws JSONException;
+
+    @NonNull
+    public final Affinity getAffinity()
+    {
+        return mAffinity;
+    }
+
+    @NonNull
+    public final String[] getRequiredFields()
+    {
+        return mRequiredFields;
+    }
+}
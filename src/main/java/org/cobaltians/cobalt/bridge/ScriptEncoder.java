@@ -0,0 +1,307 @@
+/**
+ *
+ * ScriptEncoder
+ * Cobalt
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Cobaltians
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+package org.cobaltians.cobalt.bridge;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Serializes JSON values into scripts in a single pass.
+ * Strings are escaped for JSON and line and paragraph separators, valid in JSON strings but not in JavaScript
+ * string literals before ES2019, are escaped as well, so that the output can be evaluated as is.
+ * An encoder reuses its buffer from a call to another, and is thread-safe.
+ */
+public final class ScriptEncoder
+{
+    /***********************************************************************************************
+     *
+     * MEMBERS
+     *
+     **********************************************************************************************/
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * Above this capacity, the buffer is not kept after a call, so that a large payload does not pin memory
+     */
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private StringBuilder mBuffer = new StringBuilder(INITIAL_CAPACITY);
+
+    /***********************************************************************************************
+     *
+     * METHODS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Serializes the specified object
+     * @param object the object to serialize.
+     * @return the JSON representation of the object, safe to embed in a script.
+     * @throws JSONException if the object contains a non-finite number.
+     */
+    @NonNull
+    public synchronized String encode(@NonNull JSONObject object) throws JSONException
+    {
+        try
+        {
+            writeObject(mBuffer, object);
+            return mBuffer.toString();
+        }
+        finally
+        {
+            if (mBuffer.capacity() > MAX_RETAINED_CAPACITY)
+            {
+                mBuffer = new StringBuilder(INITIAL_CAPACITY);
+            }
+            else
+            {
+                mBuffer.setLength(0);
+            }
+        }
+    }
+
+    /**
+     * Appends the JSON representation of the specified value to the specified builder
+     * @param builder the builder to append to.
+     * @param value a JSONObject, JSONArray, String, Number, Boolean, Map, Collection, array or null.
+     *              Other objects are written as their string representation.
+     * @throws JSONException if the value contains a non-finite number.
+     */
+    public static void writeValue(@NonNull StringBuilder builder, @Nullable Object value) throws JSONException
+    {
+        if (value == null
+            || value == JSONObject.NULL)
+        {
+            builder.append("null");
+        }
+        else if (value instanceof String)
+        {
+            writeString(builder, (String) value);
+        }
+        else if (value instanceof JSONObject)
+        {
+            writeObject(builder, (JSONObject) value);
+        }
+        else if (value instanceof JSONArray)
+        {
+            writeArray(builder, (JSONArray) value);
+        }
+        else if (value instanceof Boolean)
+        {
+            builder.append(((Boolean) value).booleanValue());
+        }
+        else if (value instanceof Integer
+                 || value instanceof Long
+                 || value instanceof Short
+                 || value instanceof Byte)
+        {
+            builder.append(((Number) value).longValue());
+        }
+        else if (value instanceof Number)
+        {
+            builder.append(JSONObject.numberToString((Number) value));
+        }
+        else if (value instanceof Map)
+        {
+            builder.append('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet())
+            {
+                if (! first) builder.append(',');
+                first = false;
+                writeString(builder, String.valueOf(entry.getKey()));
+                builder.append(':');
+                writeValue(builder, entry.getValue());
+            }
+            builder.append('}');
+        }
+        else if (value instanceof Collection)
+        {
+            builder.append('[');
+            boolean first = true;
+            for (Object item : (Collection<?>) value)
+            {
+                if (! first) builder.append(',');
+                first = false;
+                writeValue(builder, item);
+            }
+            builder.append(']');
+        }
+        else if (value.getClass().isArray())
+        {
+            writeValue(builder, new JSONArray(value));
+        }
+        else
+        {
+            writeString(builder, value.toString());
+        }
+    }
+
+    /**
+     * Escapes the line and paragraph separators of the specified JSON, i.e. as serialized by JSON.stringify,
+     * so that it can be embedded in a script
+     * @param json the JSON to escape.
+     * @return the escaped JSON, or json itself if it contains no separator.
+     */
+    @NonNull
+    public static String escapeSeparators(@NonNull String json)
+    {
+        int length = json.length();
+        int i = 0;
+        while (i < length
+               && json.charAt(i) != '\u2028'
+               && json.charAt(i) != '\u2029')
+        {
+            i++;
+        }
+        if (i == length)
+        {
+            return json;
+        }
+
+        // Separators are only valid inside strings, where they can be escaped
+        StringBuilder builder = new StringBuilder(length + 16);
+        builder.append(json, 0, i);
+        for (; i < length; i++)
+        {
+            char c = json.charAt(i);
+            if (c == '\u2028')
+            {
+                builder.append("\\u2028");
+            }
+            else if (c == '\u2029')
+            {
+                builder.append("\\u2029");
+            }
+            else
+            {
+                builder.append(c);
+            }
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Appends the specified string, quoted and escaped, to the specified builder
+     * @param builder the builder to append to.
+     * @param string the string to write.
+     */
+    public static void writeString(@NonNull StringBuilder builder, @NonNull String string)
+    {
+        builder.append('"');
+
+        // Unescaped runs are appended at once
+        int start = 0;
+        for (int i = 0, length = string.length(); i < length; i++)
+        {
+            char c = string.charAt(i);
+            String escape;
+            switch (c)
+            {
+                case '"':       escape = "\\\"";    break;
+                case '\\':      escape = "\\\\";    break;
+                case '\n':      escape = "\\n";     break;
+                case '\r':      escape = "\\r";     break;
+                case '\t':      escape = "\\t";     break;
+                case '\b':      escape = "\\b";     break;
+                case '\f':      escape = "\\f";     break;
+                case '\u2028': escape = "\\u2028"; break;
+                case '\u2029': escape = "\\u2029"; break;
+                default:
+                    if (c >= 0x20)
+                    {
+                        continue;
+                    }
+                    escape = null;
+                    break;
+            }
+
+            builder.append(string, start, i);
+            if (escape != null)
+            {
+                builder.append(escape);
+            }
+            else
+            {
+                builder.append("\\u00").append(HEX_DIGITS[c >> 4]).append(HEX_DIGITS[c & 0x0F]);
+            }
+            start = i + 1;
+        }
+        builder.append(string, start, string.length());
+
+        builder.append('"');
+    }
+
+    /***********************************************************************************************
+     *
+     * HELPERS
+     *
+     **********************************************************************************************/
+
+    private static void writeObject(@NonNull StringBuilder builder, @NonNull JSONObject object) throws JSONException
+    {
+        builder.append('{');
+        boolean first = true;
+        Iterator<String> keys = object.keys();
+        while (keys.hasNext())
+        {
+            String key = keys.next();
+            if (! first) builder.append(',');
+            first = false;
+            writeString(builder, key);
+            builder.append(':');
+            writeValue(builder, object.opt(key));
+        }
+        builder.append('}');
+    }
+
+    private static void writeArray(@NonNull StringBuilder builder, @NonNull JSONArray array) throws JSONException
+    {
+        builder.append('[');
+        for (int i = 0, length = array.length(); i < length; i++)
+        {
+            if (i > 0) builder.append(',');
+            writeValue(builder, array.opt(i));
+        }
+        builder.append(']');
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ *
+ * ScriptTransport
+ * Cobalt
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Cobaltians
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+package org.cobaltians.cobalt.bridge;
+
+import android.support.annotation.NonNull;
+import android.webkit.WebView;
+
+import java.util.List;
+
+/**
+ * Delivers messages by evaluating a script calling cobalt.private.execute in the page.
+ * Batches go through cobalt.private.executeBatch, falling back to cobalt.private.execute
+ * for each message with versions of cobalt.js which do not support batches.
+ * Batches containing chunks go through the reassembler of {@link MessageChunker}.
+ */
+public abstract class ScriptTransport implements BridgeTransport
+{
+    @Override
+    public void deliver(@NonNull WebView webView, @NonNull List<String> messages)
+    {
+        if (! messages.isEmpty())
+        {
+            evaluate(webView, buildScript(messages));
+        }
+    }
+
+    /**
+     * Evaluates the specified script in the page of the specified Web view
+     * @param webView the Web view to evaluate the script in.
+     * @param script the script to evaluate.
+     */
+    protected abstract void evaluate(@NonNull WebView webView, @NonNull String script);
+
+    /**
+     * Builds the script delivering the specified messages
+     * @param messages the messages, serialized by {@link ScriptEncoder}.
+     * @return the script delivering the messages.
+     */
+    @NonNull
+    public static String buildScript(@NonNull List<String> messages)
+    {
+        boolean chunked = MessageChunker.containsChunks(messages);
+        if (messages.size() == 1
+            && ! chunked)
+        {
+            return "cobalt.private.execute(" + messages.get(0) + ");";
+        }
+
+        int length = 128;
+        for (String message : messages)
+        {
+            length += message.length() + 1;
+        }
+
+        if (chunked)
+        {
+            StringBuilder script = new StringBuilder(length + MessageChunker.REASSEMBLER_SCRIPT.length());
+            script.append(MessageChunker.REASSEMBLER_SCRIPT).append("window.__cobaltDeliver(");
+            appendArray(script, messages);
+            script.append(");");
+
+            return script.toString();
+        }
+
+        StringBuilder script = new StringBuilder(length);
+        script.append("(function(m){var p=cobalt.private;if(typeof p.executeBatch==='function')p.executeBatch(m);")
+              .append("else for(var i=0;i<m.length;i++)p.execute(m[i]);})(");
+        appendArray(script, messages);
+        script.append(");");
+
+        return script.toString();
+    }
+
+    /**
+     * Appends the specified messages as a JSON array to the specified builder
+     * @param builder the builder to append to.
+     * @param messages the messages, serialized by {@link ScriptEncoder}.
+     */
+    public static void appendArray(@NonNull StringBuilder builder, @NonNull List<String> messages)
+    {
+        builder.append('[');
+        for (int i = 0; i < messages.size(); i++)
+        {
+            if (i > 0)
+            {
+                builder.append(',');
+            }
+            builder.append(messages.get(i));
+        }
+        builder.append(']');
+    }
+}
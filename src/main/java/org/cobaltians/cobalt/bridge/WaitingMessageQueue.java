@@ -0,0 +1,434 @@
+/**
+ *
+ * WaitingMessageQueue
+ * Cobalt
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Cobaltians
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+package org.cobaltians.cobalt.bridge;
+
+import org.cobaltians.cobalt.Cobalt;
+import org.cobaltians.cobalt.CobaltMetrics;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Holds the messages sent to the Web while the page is not ready or the fragment is in background.
+ * Messages are sorted in priority lanes and delivered lane by lane, in the order they were sent within a lane.
+ * Messages sharing a conflation key replace each other, so that only the latest is delivered, at the place of the first.
+ * The queue is bounded: when full, the overflow policy drops the oldest message of the lowest priority lane or the new one.
+ */
+public final class WaitingMessageQueue
+{
+    private static final String TAG = WaitingMessageQueue.class.getSimpleName();
+
+    /***********************************************************************************************
+     *
+     * MEMBERS
+     *
+     **********************************************************************************************/
+
+    /**
+     * The priority lanes, from the highest to the lowest priority
+     */
+    public enum Lane
+    {
+        /**
+         * Page and application lifecycle events
+         */
+        LIFECYCLE,
+        /**
+         * Callbacks, events and other messages
+         */
+        CALLBACK,
+        /**
+         * Messages published on pubsub channels
+         */
+        PUBSUB
+    }
+
+    /**
+     * What happens to a message sent while the queue is full
+     */
+    public enum Policy
+    {
+        /**
+         * The oldest message of the lowest priority lane is dropped to make room,
+         * unless that lane has a higher priority than the new message, which is dropped instead
+         */
+        DROP_OLDEST,
+        /**
+         * The new message is dropped
+         */
+        DROP_NEWEST
+    }
+
+    public static final int DEFAULT_CAPACITY = 512;
+
+    private static final String CONFLATION_KEY_APP_STATE = "appState";
+    private static final String CONFLATION_KEY_EVENT = "event:";
+    private static final String CONFLATION_KEY_CHANNEL = "channel:";
+
+    private static final Lane[] LANES = Lane.values();
+
+    private final int mCapacity;
+    private final Policy mPolicy;
+    @Nullable
+    private volatile String mMetricsScope;
+
+    /**
+     * Waiting messages by lane, and by conflation key, guarded by this
+     */
+    private final ArrayDeque<Entry>[] mLanes;
+    private final HashMap<String, Entry> mConflatedEntries = new HashMap<>();
+    private int mSize;
+
+    private long mDroppedCount;
+    private long mConflatedCount;
+
+    private static final class Entry
+    {
+        private JSONObject mMessage;
+        private final String mConflationKey;
+        private final long mEnqueueTime = CobaltMetrics.start();
+
+        private Entry(@NonNull JSONObject message, String conflationKey)
+        {
+            mMessage = message;
+            mConflationKey = conflationKey;
+        }
+    }
+
+    /***********************************************************************************************
+     *
+     * CONSTRUCTORS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Creates a waiting queue
+     * @param capacity the maximum number of waiting messages.
+     * @param policy what happens to a message sent while the queue is full.
+     */
+    @SuppressWarnings("unchecked")
+    public WaitingMessageQueue(int capacity, @NonNull Policy policy)
+    {
+        if (capacity <= 0)
+        {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+
+        mCapacity = capacity;
+        mPolicy = policy;
+        mLanes = new ArrayDeque[LANES.length];
+        for (int i = 0; i < LANES.length; i++)
+        {
+            mLanes[i] = new ArrayDeque<>();
+        }
+    }
+
+    /***********************************************************************************************
+     *
+     * METHODS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Enqueues the specified message, in the lane and with the conflation key derived from its content.
+     * May be called from any thread.
+     * @param message the message to send to the Web.
+     * @return true if the message was enqueued or replaced a waiting one, false if it was dropped.
+     */
+    public boolean offer(@NonNull JSONObject message)
+    {
+        return offer(message, laneOf(message), conflationKeyOf(message));
+    }
+
+    /**
+     * Enqueues the specified message. May be called from any thread.
+     * @param message the message to send to the Web.
+     * @param lane the lane of the message.
+     * @param conflationKey the key of the messages the message replaces, or null to keep them all.
+     * @return true if the message was enqueued or replaced a waiting one, false if it was dropped.
+     */
+    public synchronized boolean offer(@NonNull JSONObject message, @NonNull Lane lane, String conflationKey)
+    {
+        if (conflationKey != null)
+        {
+            Entry entry = mConflatedEntries.get(conflationKey);
+            if (entry != null)
+            {
+                entry.mMessage = message;
+                mConflatedCount++;
+                return true;
+            }
+        }
+
+        if (mSize >= mCapacity
+            && ! makeRoom(lane))
+        {
+            mDroppedCount++;
+            if (Cobalt.DEBUG) Log.w(Cobalt.TAG, TAG + " - offer: queue full, dropping " + message);
+            return false;
+        }
+
+        Entry entry = new Entry(message, conflationKey);
+        mLanes[lane.ordinal()].offer(entry);
+        if (conflationKey != null)
+        {
+            mConflatedEntries.put(conflationKey, entry);
+        }
+        mSize++;
+
+        return true;
+    }
+
+    /**
+     * Removes and returns all the waiting messages, lane by lane. May be called from any thread.
+     * @return the waiting messages, in delivery order.
+     */
+    @NonNull
+    public synchronized List<JSONObject> drain()
+    {
+        ArrayList<JSONObject> messages = new ArrayList<>(mSize);
+        for (Lane lane : LANES)
+        {
+            drainLane(lane, messages);
+        }
+
+        return messages;
+    }
+
+    /**
+     * Removes and returns the waiting messages of the specified lane. May be called from any thread.
+     * @param lane the lane to drain.
+     * @return the waiting messages of the lane, in delivery order.
+     */
+    @NonNull
+    public synchronized List<JSONObject> drain(@NonNull Lane lane)
+    {
+        ArrayList<JSONObject> messages = new ArrayList<>(mLanes[lane.ordinal()].size());
+        drainLane(lane, messages);
+
+        return messages;
+    }
+
+    /**
+     * Drops all the waiting messages. May be called from any thread.
+     */
+    public synchronized void clear()
+    {
+        for (ArrayDeque<Entry> lane : mLanes)
+        {
+            lane.clear();
+        }
+        mConflatedEntries.clear();
+        mSize = 0;
+    }
+
+    /**
+     * Sets the name the time messages wait in the queue is recorded under in {@link CobaltMetrics}
+     * @param scope the name of the metrics, or null not to record them.
+     */
+    public void setMetricsScope(@Nullable String scope)
+    {
+        mMetricsScope = scope;
+    }
+
+    /**
+     * Returns the number of waiting messages
+     * @return the number of waiting messages.
+     */
+    public synchronized int size()
+    {
+        return mSize;
+    }
+
+    /**
+     * Returns the number of messages dropped because the queue was full
+     * @return the number of messages dropped.
+     */
+    public synchronized long getDroppedCount()
+    {
+        return mDroppedCount;
+    }
+
+    /**
+     * Returns the number of waiting messages replaced by a later one with the same conflation key
+     * @return the number of messages conflated.
+     */
+    public synchronized long getConflatedCount()
+    {
+        return mConflatedCount;
+    }
+
+    /**
+     * Returns the lane of the specified message:
+     * onPageShown, onAppStarted, onAppForeground and onAppBackground events, sent as events or on their pubsub channel,
+     * go in the lifecycle lane, the other pubsub messages in the pubsub lane, everything else in the callback lane.
+     * @param message the message to send to the Web.
+     * @return the lane of the message.
+     */
+    @NonNull
+    public static Lane laneOf(@NonNull JSONObject message)
+    {
+        String type = message.optString(Cobalt.kJSType, null);
+        if (Cobalt.JSTypeEvent.equals(type))
+        {
+            return isLifecycleEvent(message.optString(Cobalt.kJSEvent, null)) ? Lane.LIFECYCLE : Lane.CALLBACK;
+        }
+        if (Cobalt.JSTypePubsub.equals(type))
+        {
+            return isLifecycleEvent(message.optString(Cobalt.kJSChannel, null)) ? Lane.LIFECYCLE : Lane.PUBSUB;
+        }
+
+        return Lane.CALLBACK;
+    }
+
+    /**
+     * Returns the conflation key of the specified message:
+     * onAppForeground and onAppBackground share a key, so that only the latest application state is delivered,
+     * the other lifecycle events have their own, as well as each pubsub channel. Other messages are never conflated.
+     * @param message the message to send to the Web.
+     * @return the conflation key of the message, or null if it must not be conflated.
+     */
+    public static String conflationKeyOf(@NonNull JSONObject message)
+    {
+        String type = message.optString(Cobalt.kJSType, null);
+        String name;
+        if (Cobalt.JSTypeEvent.equals(type))
+        {
+            name = message.optString(Cobalt.kJSEvent, null);
+            // Events with a callback expect an answer each
+            if (! isLifecycleEvent(name)
+                || ! message.isNull(Cobalt.kJSCallback))
+            {
+                return null;
+            }
+        }
+        else if (Cobalt.JSTypePubsub.equals(type))
+        {
+            name = message.optString(Cobalt.kJSChannel, null);
+            if (name == null)
+            {
+                return null;
+            }
+            if (! isLifecycleEvent(name))
+            {
+                return CONFLATION_KEY_CHANNEL + name;
+            }
+        }
+        else
+        {
+            return null;
+        }
+
+        if (Cobalt.JSEventOnAppForeground.equals(name)
+            || Cobalt.JSEventOnAppBackground.equals(name))
+        {
+            return CONFLATION_KEY_APP_STATE;
+        }
+
+        return CONFLATION_KEY_EVENT + name;
+    }
+
+    /***********************************************************************************************
+     *
+     * HELPERS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Moves the messages of the specified lane to the specified list. Must be called holding this.
+     */
+    private void drainLane(@NonNull Lane lane, @NonNull List<JSONObject> messages)
+    {
+        String metricsScope = mMetricsScope;
+        ArrayDeque<Entry> entries = mLanes[lane.ordinal()];
+        for (Entry entry : entries)
+        {
+            messages.add(entry.mMessage);
+            if (entry.mConflationKey != null)
+            {
+                mConflatedEntries.remove(entry.mConflationKey);
+            }
+            if (metricsScope != null
+                && entry.mEnqueueTime != 0)
+            {
+                CobaltMetrics.recordSince(CobaltMetrics.Metric.OUTBOUND_QUEUE_TIME, metricsScope,
+                                          entry.mMessage.optString(Cobalt.kJSType, null), entry.mEnqueueTime);
+            }
+        }
+        mSize -= entries.size();
+        entries.clear();
+    }
+
+    private static boolean isLifecycleEvent(String name)
+    {
+        return Cobalt.JSEventOnPageShown.equals(name)
+               || Cobalt.JSEventOnAppStarted.equals(name)
+               || Cobalt.JSEventOnAppForeground.equals(name)
+               || Cobalt.JSEventOnAppBackground.equals(name);
+    }
+
+    /**
+     * Drops a waiting message to make room for a message of the specified lane, according to the policy
+     * @return true if a message was dropped, false if the new message must be dropped instead.
+     */
+    private boolean makeRoom(@NonNull Lane lane)
+    {
+        if (mPolicy == Policy.DROP_NEWEST)
+        {
+            return false;
+        }
+
+        for (int i = LANES.length - 1; i >= lane.ordinal(); i--)
+        {
+            Entry entry = mLanes[i].poll();
+            if (entry != null)
+            {
+                if (entry.mConflationKey != null)
+                {
+                    mConflatedEntries.remove(entry.mConflationKey);
+                }
+                mSize--;
+                mDroppedCount++;
+                if (Cobalt.DEBUG) Log.w(Cobalt.TAG, TAG + " - makeRoom: queue full, dropping " + entry.mMessage);
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
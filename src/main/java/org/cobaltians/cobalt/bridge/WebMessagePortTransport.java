@@ -0,0 +1,322 @@
+/**
+ *
+ * WebMessagePortTransport
+ * Cobalt
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Cobaltians
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+package org.cobaltians.cobalt.bridge;
+
+import org.cobaltians.cobalt.Cobalt;
+
+import android.annotation.TargetApi;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import android.webkit.WebMessage;
+import android.webkit.WebMessagePort;
+import android.webkit.WebView;
+
+import java.security.SecureRandom;
+import java.util.List;
+
+/**
+ * Carries the messages of the bridge in both directions over a WebMessagePort, available since Marshmallow,
+ * instead of javascript: URLs or script evaluations one way and the JavaBridge the other way.
+ * Messages keep the same envelope, so handlers on both sides are unchanged.
+ * A port is opened for each page once it is loaded; until the page acknowledges it, and on older Web views,
+ * messages go through the fallback transport and the JavascriptInterface.
+ * The page only accepts the port from the Web view itself, which only hands it to the origin of the page,
+ * and native only trusts the port once the page acknowledges it with the token of the script it was given.
+ */
+@TargetApi(Build.VERSION_CODES.M)
+public class WebMessagePortTransport implements BridgeTransport
+{
+    private static final String TAG = WebMessagePortTransport.class.getSimpleName();
+
+    /***********************************************************************************************
+     *
+     * MEMBERS
+     *
+     **********************************************************************************************/
+
+    private static final String PORT_MESSAGE = "cobalt:port";
+    private static final String PORT_READY_MESSAGE = "cobalt:portReady:";
+
+    /**
+     * Waits for the port, then routes cobalt.private.execute calls from native and Android.onCobaltMessage calls
+     * from the page through it, and acknowledges it so that native stops using the fallback transport.
+     * Messages posted by the Web view have no source, unlike those posted by frames.
+     */
+    private static final String SCRIPT_START =
+        MessageChunker.REASSEMBLER_SCRIPT
+        + "(function(){"
+        + "if(window.__cobaltPort)return;window.__cobaltPort=true;"
+        + "window.addEventListener('message',function listener(e){"
+        +   "if(e.source!==null||e.data!=='" + PORT_MESSAGE + "'||!e.ports||!e.ports.length)return;"
+        +   "window.removeEventListener('message',listener);"
+        +   "var port=e.ports[0];"
+        +   "port.onmessage=function(m){"
+        +     "window.__cobaltDeliver(JSON.parse(m.data));"
+        +   "};"
+        +   "window.Android={"
+        +     "onCobaltMessage:function(message){port.postMessage(message);},"
+        +     "onCobaltMessages:function(messages){port.postMessage(messages);}"
+        +   "};"
+        +   "port.postMessage('" + PORT_READY_MESSAGE;
+    private static final String SCRIPT_END =
+        "');"
+        + "});"
+        + "})();";
+
+    private static final SecureRandom sRandom = new SecureRandom();
+
+    /**
+     * Receives the messages of the ports, so that submitting them to a full BridgeExecutor never blocks the main thread
+     */
+    private static final class PortThread
+    {
+        private static final Handler sHandler;
+        static
+        {
+            HandlerThread thread = new HandlerThread("CobaltBridgePort", Process.THREAD_PRIORITY_FOREGROUND);
+            thread.start();
+            sHandler = new Handler(thread.getLooper());
+        }
+    }
+
+    private final BridgeTransport mFallback;
+    private final MessageListener mListener;
+
+    @Nullable
+    private volatile WebMessagePort mPort;
+    private volatile boolean mPortReady;
+
+    /***********************************************************************************************
+     *
+     * CONSTRUCTORS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Creates a transport
+     * @param fallback the transport to use until the port is acknowledged by the page.
+     * @param listener the listener of the messages sent by the page over the port, called on a background thread.
+     */
+    public WebMessagePortTransport(@NonNull BridgeTransport fallback, @NonNull MessageListener listener)
+    {
+        mFallback = fallback;
+        mListener = listener;
+    }
+
+    /***********************************************************************************************
+     *
+     * METHODS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Returns whether the transport is supported on this device
+     * @return true if the transport is supported, false otherwise.
+     */
+    public static boolean isSupported()
+    {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.M;
+    }
+
+    /**
+     * Opens a port to the page of the specified Web view. Must be called once the page is loaded.
+     * @param webView the Web view.
+     */
+    @MainThread
+    public void open(@NonNull WebView webView)
+    {
+        close();
+
+        Uri targetOrigin = getOrigin(webView.getUrl());
+        if (targetOrigin == null)
+        {
+            if (Cobalt.DEBUG) Log.w(Cobalt.TAG, TAG + " - open: no origin for " + webView.getUrl() + ", using fallback transport.");
+            return;
+        }
+
+        WebMessagePort[] ports;
+        try
+        {
+            ports = webView.createWebMessageChannel();
+        }
+        catch (RuntimeException exception)
+        {
+            if (Cobalt.DEBUG) Log.w(Cobalt.TAG, TAG + " - open: unable to create a message channel, using fallback transport.");
+            exception.printStackTrace();
+            return;
+        }
+
+        final WebMessagePort port = ports[0];
+        final String portReadyMessage = PORT_READY_MESSAGE + newToken();
+        port.setWebMessageCallback(new WebMessagePort.WebMessageCallback()
+        {
+            @Override
+            public void onMessage(WebMessagePort messagePort, WebMessage message)
+            {
+                // Message from a port closed meanwhile
+                if (port != mPort)
+                {
+                    return;
+                }
+
+                String data = message.getData();
+                if (! mPortReady)
+                {
+                    // Whoever holds the port is not trusted until it proves it runs the script
+                    if (portReadyMessage.equals(data))
+                    {
+                        if (Cobalt.DEBUG) Log.i(Cobalt.TAG, TAG + " - open: port acknowledged by the page");
+                        mPortReady = true;
+                    }
+                    else if (Cobalt.DEBUG)
+                    {
+                        Log.w(Cobalt.TAG, TAG + " - open: message received before the port was acknowledged, ignored.");
+                    }
+                }
+                else if (data != null)
+                {
+                    mListener.onMessage(data);
+                }
+            }
+        }, PortThread.sHandler);
+        mPort = port;
+
+        webView.evaluateJavascript(SCRIPT_START + portReadyMessage + SCRIPT_END, null);
+        webView.postWebMessage(new WebMessage(PORT_MESSAGE, new WebMessagePort[] {ports[1]}), targetOrigin);
+    }
+
+    /**
+     * Closes the port of the current page, if any. Must be called when a new page starts loading.
+     */
+    @MainThread
+    public void close()
+    {
+        if (mPort != null)
+        {
+            mPort.close();
+            mPort = null;
+        }
+        mPortReady = false;
+    }
+
+    /**
+     * Returns whether messages currently go through the port
+     * @return true if the port was acknowledged by the current page, false otherwise.
+     */
+    public boolean isPortReady()
+    {
+        return mPortReady;
+    }
+
+    @Override
+    public void deliver(@NonNull WebView webView, @NonNull List<String> messages)
+    {
+        WebMessagePort port = mPort;
+        if (! mPortReady
+            || port == null)
+        {
+            mFallback.deliver(webView, messages);
+            return;
+        }
+
+        if (messages.isEmpty())
+        {
+            return;
+        }
+
+        int length = 2;
+        for (String message : messages)
+        {
+            length += message.length() + 1;
+        }
+        StringBuilder data = new StringBuilder(length);
+        ScriptTransport.appendArray(data, messages);
+
+        port.postMessage(new WebMessage(data.toString()));
+    }
+
+    /***********************************************************************************************
+     *
+     * HELPERS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Returns the origin to hand the port to, for the specified page
+     * @param url the URL of the page.
+     * @return the origin of the page, or "*" for local pages, whose origin is opaque and cannot be targeted,
+     * the page then being the only one able to acknowledge the port, or null if the URL is unknown.
+     */
+    @Nullable
+    private static Uri getOrigin(@Nullable String url)
+    {
+        if (url == null)
+        {
+            return null;
+        }
+
+        Uri uri = Uri.parse(url);
+        String scheme = uri.getScheme();
+        if ("http".equalsIgnoreCase(scheme)
+            || "https".equalsIgnoreCase(scheme))
+        {
+            return uri.getAuthority() != null ? Uri.parse(scheme + "://" + uri.getAuthority()) : null;
+        }
+        if ("file".equalsIgnoreCase(scheme)
+            || "content".equalsIgnoreCase(scheme))
+        {
+            return Uri.parse("*");
+        }
+
+        return null;
+    }
+
+    @NonNull
+    private static String newToken()
+    {
+        byte[] bytes = new byte[16];
+        sRandom.nextBytes(bytes);
+
+        StringBuilder token = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes)
+        {
+            token.append(Character.forDigit((b >> 4) & 0xF, 16))
+                 .append(Character.forDigit(b & 0xF, 16));
+        }
+        return token.toString();
+    }
+}
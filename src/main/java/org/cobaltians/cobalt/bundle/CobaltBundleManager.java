@@ -0,0 +1,665 @@
+/**
+ *
+ * CobaltBundleManager
+ * Cobalt
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Cobaltians
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+package org.cobaltians.cobalt.bundle;
+
+import org.cobaltians.cobalt.Cobalt;
+import org.cobaltians.cobalt.scheduler.CobaltScheduler;
+import org.cobaltians.cobalt.tools.Assets;
+import org.cobaltians.cobalt.tools.Files;
+
+import android.content.Context;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Serves the Web content from versioned bundles of the internal storage instead of the APK assets.
+ *
+ * A bundle is installed from a local zip archive holding a cobalt-bundle.json manifest and the files
+ * changed since its base, the APK assets or a previously installed bundle:
+ * <pre>
+ * {"version": "2", "base": "1", "files": {"index.html": "sha256 in hex", "js/app.js": "..."}}
+ * </pre>
+ * files lists the whole content of the new bundle. Files missing from the archive are taken from the base,
+ * hard-linked when possible so that unchanged files cost no I/O. Every file is checked against its hash
+ * before the bundle is staged.
+ * The staged bundle becomes current atomically at the next activity start, once no page of the previous
+ * bundle is displayed, and the configuration of the previous bundle is dropped.
+ */
+public final class CobaltBundleManager
+{
+    private static final String TAG = CobaltBundleManager.class.getSimpleName();
+
+    /***********************************************************************************************
+     *
+     * MEMBERS
+     *
+     **********************************************************************************************/
+
+    public static final String MANIFEST_FILE = "cobalt-bundle.json";
+    public static final String kVersion = "version";
+    public static final String kBase = "base";
+    public static final String kFiles = "files";
+
+    private static final String BUNDLES_DIRECTORY = "cobalt/bundles";
+    private static final String CURRENT_FILE = "current";
+    private static final String PENDING_FILE = "pending";
+    private static final String STAGING_PREFIX = ".staging-";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private static CobaltBundleManager sInstance;
+
+    private final Context mContext;
+    private final File mBundlesDirectory;
+    // Held by install during its disk I/O, so that switching bundles never waits for an installation
+    private final Object mInstallLock = new Object();
+    private volatile String mCurrentVersion;
+
+    /***********************************************************************************************
+     *
+     * CONSTRUCTORS
+     *
+     **********************************************************************************************/
+
+    private CobaltBundleManager(@NonNull Context context)
+    {
+        mContext = context.getApplicationContext();
+        mBundlesDirectory = new File(mContext.getFilesDir(), BUNDLES_DIRECTORY);
+        mCurrentVersion = readPointer(CURRENT_FILE);
+
+        if (mCurrentVersion != null
+            && ! getBundleDirectory(mCurrentVersion).isDirectory())
+        {
+            if (Cobalt.DEBUG) Log.e(Cobalt.TAG, TAG + " - bundle " + mCurrentVersion + " not found, falling back to assets.");
+            mCurrentVersion = null;
+        }
+    }
+
+    /**
+     * Returns the bundle manager of the application
+     * @param context the context used to create the bundle manager.
+     * @return the bundle manager of the application.
+     */
+    @NonNull
+    public static synchronized CobaltBundleManager getInstance(@NonNull Context context)
+    {
+        if (sInstance == null)
+        {
+            sInstance = new CobaltBundleManager(context);
+        }
+
+        return sInstance;
+    }
+
+    /***********************************************************************************************
+     *
+     * GETTERS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Returns the version of the bundle the Web content is served from
+     * @return the version of the current bundle, or null if served from the APK assets.
+     */
+    @Nullable
+    public String getCurrentVersion()
+    {
+        return mCurrentVersion;
+    }
+
+    /**
+     * Returns the directory of the bundle the Web content is served from
+     * @return the directory of the current bundle, or null if served from the APK assets.
+     */
+    @Nullable
+    public File getCurrentDirectory()
+    {
+        String currentVersion = mCurrentVersion;
+        return currentVersion != null ? getBundleDirectory(currentVersion) : null;
+    }
+
+    /**
+     * Returns the version of the bundle staged to become current at the next activity start
+     * @return the version of the staged bundle, or null if none.
+     */
+    @Nullable
+    public synchronized String getPendingVersion()
+    {
+        return readPointer(PENDING_FILE);
+    }
+
+    /***********************************************************************************************
+     *
+     * METHODS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Installs the bundle of the specified archive and stages it to become current at the next activity start.
+     * The base of the archive must be the latest bundle installed, staged or current, or the APK assets if none.
+     * Performs disk I/O, must not be called on the main thread.
+     * @param archive the zip archive of the bundle.
+     * @return true if the bundle was installed and staged, false otherwise.
+     */
+    public boolean install(@NonNull File archive)
+    {
+        synchronized (mInstallLock)
+        {
+            return installLocked(archive);
+        }
+    }
+
+    /**
+     * Makes the staged bundle current, if any, and drops the configuration of the previous bundle.
+     * Called by CobaltActivity when the first activity of the task is created,
+     * so that no page of the previous bundle is displayed anymore.
+     * Previous bundles are deleted in the background.
+     * @return true if a staged bundle became current, false otherwise.
+     */
+    public synchronized boolean applyPendingBundle()
+    {
+        String pendingVersion = readPointer(PENDING_FILE);
+        if (pendingVersion == null
+            || pendingVersion.equals(mCurrentVersion))
+        {
+            return false;
+        }
+
+        if (! getBundleDirectory(pendingVersion).isDirectory())
+        {
+            if (Cobalt.DEBUG) Log.e(Cobalt.TAG, TAG + " - applyPendingBundle: bundle " + pendingVersion + " not found.");
+            new File(mBundlesDirectory, PENDING_FILE).delete();
+            return false;
+        }
+
+        // Renaming the pointer is atomic: the current bundle is either the previous or the pending one
+        if (! new File(mBundlesDirectory, PENDING_FILE).renameTo(new File(mBundlesDirectory, CURRENT_FILE)))
+        {
+            if (Cobalt.DEBUG) Log.e(Cobalt.TAG, TAG + " - applyPendingBundle: unable to switch to bundle " + pendingVersion + ".");
+            return false;
+        }
+
+        mCurrentVersion = pendingVersion;
+        Cobalt.getInstance(mContext).resetConfiguration();
+        if (Cobalt.DEBUG) Log.i(Cobalt.TAG, TAG + " - applyPendingBundle: now serving bundle " + pendingVersion + ".");
+
+        CobaltScheduler.getInstance().schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                deleteUnusedBundles();
+            }
+        }, CobaltScheduler.PRIORITY_LOW, CobaltScheduler.Affinity.BACKGROUND);
+
+        return true;
+    }
+
+    /**
+     * Drops installed bundles and serves the Web content from the APK assets again right away,
+     * i.e. from Application.onCreate after an application update shipping newer assets.
+     * Must not be called while pages are displayed.
+     */
+    public synchronized void reset()
+    {
+        new File(mBundlesDirectory, PENDING_FILE).delete();
+        new File(mBundlesDirectory, CURRENT_FILE).delete();
+        mCurrentVersion = null;
+        Cobalt.getInstance(mContext).resetConfiguration();
+
+        CobaltScheduler.getInstance().schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                deleteUnusedBundles();
+            }
+        }, CobaltScheduler.PRIORITY_LOW, CobaltScheduler.Affinity.BACKGROUND);
+    }
+
+    /***********************************************************************************************
+     *
+     * HELPERS
+     *
+     **********************************************************************************************/
+
+    private boolean installLocked(@NonNull File archive)
+    {
+        File stagingDirectory = null;
+
+        try
+        {
+            ZipFile zipFile = new ZipFile(archive);
+            try
+            {
+                JSONObject manifest = readManifest(zipFile);
+                String version = manifest.getString(kVersion);
+                String base = manifest.isNull(kBase) ? null : manifest.getString(kBase);
+                JSONObject files = manifest.getJSONObject(kFiles);
+
+                checkName(version);
+                String latestVersion = getLatestVersion();
+                if (base == null ? latestVersion != null : ! base.equals(latestVersion))
+                {
+                    if (Cobalt.DEBUG) Log.e(Cobalt.TAG, TAG + " - install: " + archive + " is based on " + base + " but latest bundle is " + latestVersion + ".");
+                    return false;
+                }
+                if (version.equals(latestVersion)
+                    || getBundleDirectory(version).exists())
+                {
+                    if (Cobalt.DEBUG) Log.e(Cobalt.TAG, TAG + " - install: bundle " + version + " is already installed.");
+                    return false;
+                }
+
+                stagingDirectory = new File(mBundlesDirectory, STAGING_PREFIX + version);
+                Files.deleteRecursively(stagingDirectory);
+                if (! stagingDirectory.mkdirs())
+                {
+                    throw new IOException("unable to create " + stagingDirectory);
+                }
+
+                Map<String, String> expectedHashes = toMap(files);
+                extractChangedFiles(zipFile, stagingDirectory, expectedHashes);
+                copyUnchangedFiles(base, stagingDirectory, expectedHashes);
+
+                writeFile(new File(stagingDirectory, MANIFEST_FILE), manifest.toString().getBytes(Assets.UTF_8));
+
+                synchronized (this)
+                {
+                    if (base == null ? getLatestVersion() != null : ! base.equals(getLatestVersion()))
+                    {
+                        throw new IOException("bundles were reset during installation");
+                    }
+                    if (! stagingDirectory.renameTo(getBundleDirectory(version)))
+                    {
+                        throw new IOException("unable to move " + stagingDirectory + " to " + getBundleDirectory(version));
+                    }
+                    stagingDirectory = null;
+
+                    // Bundle is complete on disk, it becomes visible by this write only
+                    writePointer(PENDING_FILE, version);
+                }
+                if (Cobalt.DEBUG) Log.i(Cobalt.TAG, TAG + " - install: bundle " + version + " staged, "
+                                                    + expectedHashes.size() + " files.");
+
+                return true;
+            }
+            finally
+            {
+                zipFile.close();
+            }
+        }
+        catch (IOException exception)
+        {
+            if (Cobalt.DEBUG) Log.e(Cobalt.TAG, TAG + " - install: unable to install " + archive + ": " + exception.getMessage());
+            exception.printStackTrace();
+        }
+        catch (JSONException exception)
+        {
+            if (Cobalt.DEBUG) Log.e(Cobalt.TAG, TAG + " - install: " + MANIFEST_FILE + " of " + archive + " is malformed.");
+            exception.printStackTrace();
+        }
+        finally
+        {
+            if (stagingDirectory != null)
+            {
+                Files.deleteRecursively(stagingDirectory);
+            }
+        }
+
+        return false;
+    }
+
+    @NonNull
+    private File getBundleDirectory(@NonNull String version)
+    {
+        return new File(mBundlesDirectory, version);
+    }
+
+    @Nullable
+    private String getLatestVersion()
+    {
+        String pendingVersion = readPointer(PENDING_FILE);
+        return pendingVersion != null ? pendingVersion : mCurrentVersion;
+    }
+
+    @NonNull
+    private static JSONObject readManifest(@NonNull ZipFile zipFile) throws IOException, JSONException
+    {
+        ZipEntry entry = zipFile.getEntry(MANIFEST_FILE);
+        if (entry == null)
+        {
+            throw new IOException(MANIFEST_FILE + " not found");
+        }
+
+        InputStream inputStream = zipFile.getInputStream(entry);
+        try
+        {
+            // Entry size may be unknown
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1)
+            {
+                outputStream.write(buffer, 0, read);
+            }
+
+            return new JSONObject(new String(outputStream.toByteArray(), Assets.UTF_8));
+        }
+        finally
+        {
+            inputStream.close();
+        }
+    }
+
+    @NonNull
+    private static Map<String, String> toMap(@NonNull JSONObject files) throws JSONException, IOException
+    {
+        HashMap<String, String> map = new HashMap<>(files.length());
+        Iterator<String> filesIterator = files.keys();
+        while (filesIterator.hasNext())
+        {
+            String path = filesIterator.next();
+            checkPath(path);
+            map.put(path, files.getString(path).toLowerCase());
+        }
+
+        return map;
+    }
+
+    /**
+     * Extracts the files of the archive to the staging directory, checking their hash
+     */
+    private static void extractChangedFiles(@NonNull ZipFile zipFile, @NonNull File stagingDirectory,
+            @NonNull Map<String, String> expectedHashes) throws IOException
+    {
+        Enumeration<? extends ZipEntry> entries = zipFile.entries();
+        while (entries.hasMoreElements())
+        {
+            ZipEntry entry = entries.nextElement();
+            String path = entry.getName();
+            if (entry.isDirectory()
+                || MANIFEST_FILE.equals(path))
+            {
+                continue;
+            }
+
+            String expectedHash = expectedHashes.get(path);
+            if (expectedHash == null)
+            {
+                throw new IOException(path + " is not listed in " + MANIFEST_FILE);
+            }
+
+            File file = newFile(stagingDirectory, path);
+            MessageDigest digest = Files.newSha256Digest();
+            InputStream inputStream = zipFile.getInputStream(entry);
+            try
+            {
+                Files.copy(inputStream, file, digest);
+            }
+            finally
+            {
+                inputStream.close();
+            }
+
+            checkHash(path, expectedHash, digest);
+        }
+    }
+
+    /**
+     * Links or copies the files not found in the archive from the base bundle or the assets, checking their hash
+     */
+    private void copyUnchangedFiles(@Nullable String base, @NonNull File stagingDirectory,
+            @NonNull Map<String, String> expectedHashes) throws IOException, JSONException
+    {
+        File baseDirectory = base != null ? getBundleDirectory(base) : null;
+        Map<String, String> baseHashes = baseDirectory != null
+                                         ? toMap(new JSONObject(new String(Files.readBytes(new File(baseDirectory, MANIFEST_FILE)),
+                                                                           Assets.UTF_8)).getJSONObject(kFiles))
+                                         : null;
+        String resourcePath = Cobalt.getInstance(mContext).getResourcePathFromAsset();
+
+        for (Map.Entry<String, String> expectedHash : expectedHashes.entrySet())
+        {
+            String path = expectedHash.getKey();
+            File file = new File(stagingDirectory, path);
+            if (file.exists())
+            {
+                continue;
+            }
+
+            if (baseHashes != null)
+            {
+                if (! expectedHash.getValue().equals(baseHashes.get(path)))
+                {
+                    throw new IOException(path + " is missing from the archive and differs from bundle " + base);
+                }
+
+                // Base bundle files were checked when installed, the manifest hash is enough
+                linkOrCopy(new File(baseDirectory, path), newFile(stagingDirectory, path));
+            }
+            else
+            {
+                MessageDigest digest = Files.newSha256Digest();
+                InputStream inputStream = mContext.getAssets().open(resourcePath + path);
+                try
+                {
+                    Files.copy(inputStream, newFile(stagingDirectory, path), digest);
+                }
+                finally
+                {
+                    inputStream.close();
+                }
+
+                checkHash(path, expectedHash.getValue(), digest);
+            }
+        }
+    }
+
+    private static void linkOrCopy(@NonNull File source, @NonNull File destination) throws IOException
+    {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP)
+        {
+            try
+            {
+                Os.link(source.getPath(), destination.getPath());
+                return;
+            }
+            catch (ErrnoException exception)
+            {
+                if (Cobalt.DEBUG) Log.w(Cobalt.TAG, TAG + " - linkOrCopy: unable to link " + source + ", copying it.");
+            }
+        }
+
+        InputStream inputStream = new FileInputStream(source);
+        try
+        {
+            Files.copy(inputStream, destination, null);
+        }
+        finally
+        {
+            inputStream.close();
+        }
+    }
+
+    private static void checkHash(@NonNull String path, @NonNull String expectedHash, @NonNull MessageDigest digest)
+            throws IOException
+    {
+        String hash = Files.toHex(digest.digest());
+        if (! expectedHash.equals(hash))
+        {
+            throw new IOException(path + " hash mismatch, expected " + expectedHash + " but was " + hash);
+        }
+    }
+
+    /**
+     * Returns the file for the specified path in the specified directory, creating its parent directories
+     * @throws IOException if the path escapes the directory.
+     */
+    @NonNull
+    private static File newFile(@NonNull File directory, @NonNull String path) throws IOException
+    {
+        checkPath(path);
+
+        File file = new File(directory, path);
+        if (! file.getCanonicalPath().startsWith(directory.getCanonicalPath() + File.separator))
+        {
+            throw new IOException(path + " is outside of the bundle");
+        }
+
+        File parent = file.getParentFile();
+        if (! parent.isDirectory()
+            && ! parent.mkdirs())
+        {
+            throw new IOException("unable to create " + parent);
+        }
+
+        return file;
+    }
+
+    private static void checkPath(@NonNull String path) throws IOException
+    {
+        if (path.isEmpty()
+            || path.startsWith("/")
+            || path.contains("\\")
+            || ("/" + path + "/").contains("/../"))
+        {
+            throw new IOException("invalid path " + path);
+        }
+    }
+
+    private static void checkName(@NonNull String version) throws IOException
+    {
+        if (version.isEmpty()
+            || version.startsWith(".")
+            || version.contains("/")
+            || version.equals(CURRENT_FILE)
+            || version.equals(PENDING_FILE))
+        {
+            throw new IOException("invalid version " + version);
+        }
+    }
+
+    @Nullable
+    private String readPointer(@NonNull String name)
+    {
+        File file = new File(mBundlesDirectory, name);
+        if (! file.isFile())
+        {
+            return null;
+        }
+
+        try
+        {
+            String version = new String(Files.readBytes(file), Assets.UTF_8).trim();
+            return version.isEmpty() ? null : version;
+        }
+        catch (IOException exception)
+        {
+            if (Cobalt.DEBUG) Log.e(Cobalt.TAG, TAG + " - readPointer: unable to read " + file);
+            exception.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Writes the specified pointer atomically, through a temporary file renamed over the previous one
+     */
+    private void writePointer(@NonNull String name, @NonNull String version) throws IOException
+    {
+        File temporaryFile = new File(mBundlesDirectory, name + TEMPORARY_SUFFIX);
+        writeFile(temporaryFile, version.getBytes(Assets.UTF_8));
+        if (! temporaryFile.renameTo(new File(mBundlesDirectory, name)))
+        {
+            temporaryFile.delete();
+            throw new IOException("unable to write " + name);
+        }
+    }
+
+    private static void writeFile(@NonNull File file, @NonNull byte[] content) throws IOException
+    {
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try
+        {
+            outputStream.write(content);
+            // Makes sure the content is on disk before the file is renamed or referenced
+            outputStream.getFD().sync();
+        }
+        finally
+        {
+            outputStream.close();
+        }
+    }
+
+    private synchronized void deleteUnusedBundles()
+    {
+        String currentVersion = mCurrentVersion;
+        String pendingVersion = readPointer(PENDING_FILE);
+
+        File[] bundles = mBundlesDirectory.listFiles();
+        if (bundles == null)
+        {
+            return;
+        }
+
+        for (File bundle : bundles)
+        {
+            String name = bundle.getName();
+            // Staging directories are cleaned up by their installation
+            if (bundle.isDirectory()
+                && ! name.startsWith(STAGING_PREFIX)
+                && ! name.equals(currentVersion)
+                && ! name.equals(pendingVersion))
+            {
+                Files.deleteRecursively(bundle);
+            }
+        }
+    }
+}
@@ -0,0 +1,366 @@
+/**
+ *
+ * CobaltBinaryConfiguration
+ * Cobalt
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Cobaltians
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+package org.cobaltians.cobalt.configuration;
+
+import org.cobaltians.cobalt.Cobalt;
+import org.cobaltians.cobalt.tools.Assets;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Read-only view of the indexed binary configuration compiled from cobalt.json at build time
+ * by the compileCobaltConfiguration Gradle task (see cobalt-configuration.gradle).
+ * The asset is memory-mapped when stored uncompressed and its entries are decoded on demand,
+ * so no JSON tree is ever built.
+ *
+ * Layout (big-endian):
+ * <pre>
+ * header       int magic, int version, int stringsOffset, int controllersOffset, int pluginsOffset, int fontsOffset
+ * controllers  int count, count * {int name, int android, int bars, int flags, int infiniteScrollOffset, int backgroundColor}, sorted by name
+ * plugins      int count, count * {int name, int android}
+ * fonts        int count, count * {int name, int android}
+ * strings      int count, count * int offset, count * {int length, UTF-8 bytes}
+ * </pre>
+ * Strings are referenced by their index in the string table, -1 standing for null.
+ * infiniteScrollOffset is only meaningful when its flag is set, the default value applying otherwise.
+ */
+public final class CobaltBinaryConfiguration
+{
+    private static final String TAG = CobaltBinaryConfiguration.class.getSimpleName();
+
+    /***********************************************************************************************
+     *
+     * MEMBERS
+     *
+     **********************************************************************************************/
+
+    public static final String CONF_BINARY_FILE = "cobalt.bin";
+
+    private static final int MAGIC = 0x43424C54;    // CBLT
+    private static final int VERSION = 2;
+
+    private static final int CONTROLLER_RECORD_SIZE = 24;
+    private static final int CLASS_RECORD_SIZE = 8;
+
+    private static final int FLAG_PULL_TO_REFRESH = 1;
+    private static final int FLAG_INFINITE_SCROLL = 1 << 1;
+    private static final int FLAG_INFINITE_SCROLL_OFFSET = 1 << 2;
+
+    private final ByteBuffer mBuffer;
+    private final int mStringsOffset;
+    private final int mControllersOffset;
+    private final int mPluginsOffset;
+    private final int mFontsOffset;
+
+    /***********************************************************************************************
+     *
+     * CONTROLLER RECORD
+     *
+     **********************************************************************************************/
+
+    /**
+     * A controller entry decoded from the binary configuration
+     */
+    static final class ControllerRecord
+    {
+        final String android;
+        final String bars;
+        final boolean pullToRefresh;
+        final boolean infiniteScroll;
+        final int infiniteScrollOffset;
+        final String backgroundColor;
+
+        ControllerRecord(String android, String bars, boolean pullToRefresh, boolean infiniteScroll,
+                int infiniteScrollOffset, String backgroundColor)
+        {
+            this.android = android;
+            this.bars = bars;
+            this.pullToRefresh = pullToRefresh;
+            this.infiniteScroll = infiniteScroll;
+            this.infiniteScrollOffset = infiniteScrollOffset;
+            this.backgroundColor = backgroundColor;
+        }
+    }
+
+    /***********************************************************************************************
+     *
+     * CONSTRUCTORS
+     *
+     **********************************************************************************************/
+
+    private CobaltBinaryConfiguration(@NonNull ByteBuffer buffer)
+    {
+        mBuffer = buffer;
+
+        if (buffer.getInt(0) != MAGIC)
+        {
+            throw new IllegalArgumentException("not a compiled Cobalt configuration");
+        }
+        if (buffer.getInt(4) != VERSION)
+        {
+            throw new IllegalArgumentException("unsupported version " + buffer.getInt(4));
+        }
+
+        mStringsOffset = buffer.getInt(8);
+        mControllersOffset = buffer.getInt(12);
+        mPluginsOffset = buffer.getInt(16);
+        mFontsOffset = buffer.getInt(20);
+    }
+
+    /**
+     * Opens the binary configuration found at the specified resource path.
+     * The asset is memory-mapped if it is stored uncompressed in the APK, read at once otherwise.
+     * @param assetManager the AssetManager to open the asset with.
+     * @param resourcePath the resource path, relative to the assets, where cobalt.bin is.
+     * @return the binary configuration, or null if the asset is missing or invalid.
+     */
+    @Nullable
+    public static CobaltBinaryConfiguration open(@NonNull AssetManager assetManager, @NonNull String resourcePath)
+    {
+        String file = resourcePath + CONF_BINARY_FILE;
+
+        try
+        {
+            return new CobaltBinaryConfiguration(map(assetManager, file));
+        }
+        catch (FileNotFoundException exception)
+        {
+            // Not compiled at build time, caller falls back to cobalt.json
+        }
+        catch (IOException exception)
+        {
+            if (Cobalt.DEBUG) Log.w(Cobalt.TAG, TAG + " - open: unable to read " + file + ", falling back to " + Cobalt.CONF_FILE);
+            exception.printStackTrace();
+        }
+        catch (IndexOutOfBoundsException | IllegalArgumentException exception)
+        {
+            if (Cobalt.DEBUG) Log.w(Cobalt.TAG, TAG + " - open: " + file + " is invalid (" + exception.getMessage() + "), falling back to " + Cobalt.CONF_FILE);
+        }
+
+        return null;
+    }
+
+    /**
+     * Opens the binary configuration found in the specified directory of the internal storage.
+     * @param directory the directory where cobalt.bin is, i.e. a content bundle.
+     * @return the binary configuration, or null if the file is missing or invalid.
+     */
+    @Nullable
+    public static CobaltBinaryConfiguration open(@NonNull File directory)
+    {
+        File file = new File(directory, CONF_BINARY_FILE);
+        if (! file.isFile())
+        {
+            return null;
+        }
+
+        try
+        {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+            try
+            {
+                // The mapping stays valid once the file is closed
+                return new CobaltBinaryConfiguration(randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+                                                                                       randomAccessFile.length()));
+            }
+            finally
+            {
+                randomAccessFile.close();
+            }
+        }
+        catch (IOException exception)
+        {
+            if (Cobalt.DEBUG) Log.w(Cobalt.TAG, TAG + " - open: unable to read " + file + ", falling back to " + Cobalt.CONF_FILE);
+            exception.printStackTrace();
+        }
+        catch (IndexOutOfBoundsException | IllegalArgumentException exception)
+        {
+            if (Cobalt.DEBUG) Log.w(Cobalt.TAG, TAG + " - open: " + file + " is invalid (" + exception.getMessage() + "), falling back to " + Cobalt.CONF_FILE);
+        }
+
+        return null;
+    }
+
+    /***********************************************************************************************
+     *
+     * METHODS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Looks up the specified controller with a binary search in the sorted controllers section
+     * @param name the controller name.
+     * @return the controller entry, or null if not found.
+     */
+    @Nullable
+    ControllerRecord findController(@NonNull String name)
+    {
+        int low = 0;
+        int high = mBuffer.getInt(mControllersOffset) - 1;
+
+        while (low <= high)
+        {
+            int middle = (low + high) >>> 1;
+            int record = mControllersOffset + 4 + middle * CONTROLLER_RECORD_SIZE;
+            int comparison = getString(mBuffer.getInt(record)).compareTo(name);
+
+            if (comparison < 0)
+            {
+                low = middle + 1;
+            }
+            else if (comparison > 0)
+            {
+                high = middle - 1;
+            }
+            else
+            {
+                int flags = mBuffer.getInt(record + 12);
+                return new ControllerRecord(getString(mBuffer.getInt(record + 4)),
+                                            getString(mBuffer.getInt(record + 8)),
+                                            (flags & FLAG_PULL_TO_REFRESH) != 0,
+                                            (flags & FLAG_INFINITE_SCROLL) != 0,
+                                            (flags & FLAG_INFINITE_SCROLL_OFFSET) != 0
+                                                ? mBuffer.getInt(record + 16)
+                                                : Cobalt.INFINITE_SCROLL_OFFSET_DEFAULT_VALUE,
+                                            getString(mBuffer.getInt(record + 20)));
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns plugin name:class name tuples
+     * @return plugin name:class name tuples, in declaration order.
+     */
+    @NonNull
+    Map<String, String> getPluginClassNames()
+    {
+        return getClassNames(mPluginsOffset);
+    }
+
+    /**
+     * Returns font key:class name tuples
+     * @return font key:class name tuples, in declaration order.
+     */
+    @NonNull
+    Map<String, String> getFontClassNames()
+    {
+        return getClassNames(mFontsOffset);
+    }
+
+    /***********************************************************************************************
+     *
+     * HELPERS
+     *
+     **********************************************************************************************/
+
+    @NonNull
+    private Map<String, String> getClassNames(int sectionOffset)
+    {
+        int count = mBuffer.getInt(sectionOffset);
+        LinkedHashMap<String, String> classNames = new LinkedHashMap<>(count);
+        for (int i = 0; i < count; i++)
+        {
+            int record = sectionOffset + 4 + i * CLASS_RECORD_SIZE;
+            classNames.put(getString(mBuffer.getInt(record)), getString(mBuffer.getInt(record + 4)));
+        }
+
+        return classNames;
+    }
+
+    @Nullable
+    private String getString(int index)
+    {
+        if (index < 0)
+        {
+            return null;
+        }
+
+        int offset = mBuffer.getInt(mStringsOffset + 4 + index * 4);
+        byte[] bytes = new byte[mBuffer.getInt(offset)];
+
+        // Relative bulk get on a duplicate, so that concurrent readers never share a position
+        ByteBuffer buffer = mBuffer.duplicate();
+        buffer.position(offset + 4);
+        try
+        {
+            buffer.get(bytes);
+        }
+        catch (BufferUnderflowException exception)
+        {
+            throw new IndexOutOfBoundsException("string " + index + " out of bounds");
+        }
+
+        return new String(bytes, Assets.UTF_8);
+    }
+
+    @NonNull
+    private static ByteBuffer map(@NonNull AssetManager assetManager, @NonNull String file) throws IOException
+    {
+        AssetFileDescriptor fileDescriptor;
+        try
+        {
+            fileDescriptor = assetManager.openFd(file);
+        }
+        catch (FileNotFoundException exception)
+        {
+            // Missing or compressed asset, the latter can not be mapped
+            return ByteBuffer.wrap(Assets.readBytes(assetManager, file));
+        }
+
+        try
+        {
+            // The mapping stays valid once the file descriptor is closed
+            FileChannel channel = new FileInputStream(fileDescriptor.getFileDescriptor()).getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, fileDescriptor.getStartOffset(),
+                               fileDescriptor.getLength());
+        }
+        finally
+        {
+            fileDescriptor.close();
+        }
+    }
+}
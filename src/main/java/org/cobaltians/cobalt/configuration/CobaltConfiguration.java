@@ -0,0 +1,389 @@
+/**
+ *
+ * CobaltConfiguration
+ * Cobalt
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Cobaltians
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+package org.cobaltians.cobalt.configuration;
+
+import org.cobaltians.cobalt.Cobalt;
+import org.cobaltians.cobalt.font.CobaltAbstractFontDrawable;
+import org.cobaltians.cobalt.plugin.CobaltAbstractPlugin;
+import org.cobaltians.cobalt.tools.Assets;
+import org.cobaltians.cobalt.tools.Files;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Registry of the configuration declared in cobalt.json, shared by all Cobalt subsystems.
+ * The configuration is read from cobalt.bin when compiled at build time (see {@link CobaltBinaryConfiguration}),
+ * from cobalt.json otherwise. The source is read once, then each typed section (controllers, plugins, fonts)
+ * is built on first access and kept for the lifetime of the registry.
+ * A new registry is loaded by {@link Cobalt} when the resource path changes.
+ */
+public final class CobaltConfiguration
+{
+    private static final String TAG = CobaltConfiguration.class.getSimpleName();
+
+    /***********************************************************************************************
+     *
+     * MEMBERS
+     *
+     **********************************************************************************************/
+
+    public final static String kPlugins = "plugins";
+    public final static String kFonts = "fonts";
+
+    private final Context mContext;
+    private final String mResourcePath;
+    private final JSONObject mConfiguration;
+    private final CobaltBinaryConfiguration mBinaryConfiguration;
+
+    private volatile CobaltControllerIndex mControllerIndex;
+    private volatile Map<String, Class<? extends CobaltAbstractPlugin>> mPlugins;
+    private volatile Map<String, Class<? extends CobaltAbstractFontDrawable>> mFonts;
+
+    /***********************************************************************************************
+     *
+     * CONSTRUCTORS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Creates a registry for the specified parsed configuration
+     * @param context the application context.
+     * @param resourcePath the resource path, relative to the assets, the configuration was read from.
+     * @param configuration the parsed cobalt.json content.
+     */
+    public CobaltConfiguration(@NonNull Context context, @NonNull String resourcePath,
+            @NonNull JSONObject configuration)
+    {
+        mContext = context.getApplicationContext();
+        mResourcePath = resourcePath;
+        mConfiguration = configuration;
+        mBinaryConfiguration = null;
+    }
+
+    /**
+     * Creates a registry for the specified binary configuration compiled at build time
+     * @param context the application context.
+     * @param resourcePath the resource path, relative to the assets, the configuration was read from.
+     * @param binaryConfiguration the binary configuration compiled from cobalt.json.
+     */
+    public CobaltConfiguration(@NonNull Context context, @NonNull String resourcePath,
+            @NonNull CobaltBinaryConfiguration binaryConfiguration)
+    {
+        mContext = context.getApplicationContext();
+        mResourcePath = resourcePath;
+        mConfiguration = null;
+        mBinaryConfiguration = binaryConfiguration;
+    }
+
+    /**
+     * Opens the cobalt.bin file found at the specified resource path, or reads and parses cobalt.json if not compiled
+     * @param context the application context.
+     * @param resourcePath the resource path, relative to the assets, where cobalt.bin or cobalt.json is.
+     * @return the registry for the configuration, empty if both files are missing or cobalt.json is malformed.
+     */
+    @NonNull
+    public static CobaltConfiguration load(@NonNull Context context, @NonNull String resourcePath)
+    {
+        CobaltBinaryConfiguration binaryConfiguration = CobaltBinaryConfiguration.open(context.getAssets(), resourcePath);
+        if (binaryConfiguration != null)
+        {
+            return new CobaltConfiguration(context, resourcePath, binaryConfiguration);
+        }
+
+        String file = resourcePath + Cobalt.CONF_FILE;
+        JSONObject configuration = null;
+
+        try
+        {
+            configuration = Assets.readJSONObject(context.getAssets(), file);
+        }
+        catch (FileNotFoundException exception)
+        {
+            if (Cobalt.DEBUG) Log.e(Cobalt.TAG, TAG + " - load: " + file + " not found.");
+        }
+        catch (IOException exception)
+        {
+            if (Cobalt.DEBUG) Log.e(Cobalt.TAG, TAG + " - load: IOException");
+            exception.printStackTrace();
+        }
+        catch (JSONException exception)
+        {
+            if (Cobalt.DEBUG) Log.e(Cobalt.TAG, TAG + " - load: check cobalt.json. File is malformed at " + file);
+            exception.printStackTrace();
+        }
+
+        return new CobaltConfiguration(context, resourcePath,
+                                       configuration != null ? configuration : new JSONObject());
+    }
+
+    /**
+     * Opens the cobalt.bin file found in the specified directory, or reads and parses cobalt.json if not compiled
+     * @param context the application context.
+     * @param directory the directory of the internal storage where cobalt.bin or cobalt.json is, i.e. a content bundle.
+     * @return the registry for the configuration, empty if both files are missing or cobalt.json is malformed.
+     */
+    @NonNull
+    public static CobaltConfiguration load(@NonNull Context context, @NonNull File directory)
+    {
+        String resourcePath = directory.getPath() + "/";
+
+        CobaltBinaryConfiguration binaryConfiguration = CobaltBinaryConfiguration.open(directory);
+        if (binaryConfiguration != null)
+        {
+            return new CobaltConfiguration(context, resourcePath, binaryConfiguration);
+        }
+
+        File file = new File(directory, Cobalt.CONF_FILE);
+        JSONObject configuration = null;
+
+        try
+        {
+            configuration = new JSONObject(new String(Files.readBytes(file), Assets.UTF_8));
+        }
+        catch (FileNotFoundException exception)
+        {
+            if (Cobalt.DEBUG) Log.e(Cobalt.TAG, TAG + " - load: " + file + " not found.");
+        }
+        catch (IOException exception)
+        {
+            if (Cobalt.DEBUG) Log.e(Cobalt.TAG, TAG + " - load: IOException");
+            exception.printStackTrace();
+        }
+        catch (JSONException exception)
+        {
+            if (Cobalt.DEBUG) Log.e(Cobalt.TAG, TAG + " - load: check cobalt.json. File is malformed at " + file);
+            exception.printStackTrace();
+        }
+
+        return new CobaltConfiguration(context, resourcePath,
+                                       configuration != null ? configuration : new JSONObject());
+    }
+
+    /***********************************************************************************************
+     *
+     * GETTERS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Returns the resource path the configuration was read from
+     * @return the resource path, relative to the assets or absolute for a content bundle, the configuration was read from.
+     */
+    @NonNull
+    public String getResourcePath()
+    {
+        return mResourcePath;
+    }
+
+    /**
+     * Returns the index of the controllers section, building it on first call
+     * @return the index of the controllers section.
+     */
+    @NonNull
+    public CobaltControllerIndex getControllerIndex()
+    {
+        CobaltControllerIndex controllerIndex = mControllerIndex;
+        if (controllerIndex == null)
+        {
+            synchronized (this)
+            {
+                controllerIndex = mControllerIndex;
+                if (controllerIndex == null)
+                {
+                    controllerIndex = mBinaryConfiguration != null
+                                      ? new CobaltControllerIndex(mContext, mBinaryConfiguration)
+                                      : new CobaltControllerIndex(mContext, mConfiguration.optJSONObject(Cobalt.kControllers));
+                    mControllerIndex = controllerIndex;
+                }
+            }
+        }
+
+        return controllerIndex;
+    }
+
+    /**
+     * Returns plugin name:class tuples of the plugins section, resolving classes on first call
+     * @return an unmodifiable map of plugin name:class tuples.
+     */
+    @NonNull
+    public Map<String, Class<? extends CobaltAbstractPlugin>> getPlugins()
+    {
+        Map<String, Class<? extends CobaltAbstractPlugin>> plugins = mPlugins;
+        if (plugins == null)
+        {
+            synchronized (this)
+            {
+                plugins = mPlugins;
+                if (plugins == null)
+                {
+                    plugins = Collections.unmodifiableMap(resolveClasses(kPlugins,
+                                                                            mBinaryConfiguration != null
+                                                                            ? mBinaryConfiguration.getPluginClassNames()
+                                                                            : getClassNames(kPlugins),
+                                                                            CobaltAbstractPlugin.class));
+                    mPlugins = plugins;
+                }
+            }
+        }
+
+        return plugins;
+    }
+
+    /**
+     * Returns font key:class tuples of the fonts section, resolving classes on first call
+     * @return an unmodifiable map of font key:class tuples.
+     */
+    @NonNull
+    public Map<String, Class<? extends CobaltAbstractFontDrawable>> getFonts()
+    {
+        Map<String, Class<? extends CobaltAbstractFontDrawable>> fonts = mFonts;
+        if (fonts == null)
+        {
+            synchronized (this)
+            {
+                fonts = mFonts;
+                if (fonts == null)
+                {
+                    fonts = Collections.unmodifiableMap(resolveClasses(kFonts,
+                                                                          mBinaryConfiguration != null
+                                                                          ? mBinaryConfiguration.getFontClassNames()
+                                                                          : getClassNames(kFonts),
+                                                                          CobaltAbstractFontDrawable.class));
+                    mFonts = fonts;
+                }
+            }
+        }
+
+        return fonts;
+    }
+
+    /***********************************************************************************************
+     *
+     * HELPERS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Extracts the android class name of each entry of the specified section of cobalt.json
+     * @param section the section of cobalt.json, as {name: {android: "class name"}}.
+     * @return name:class name tuples of the well-formed entries, in declaration order.
+     */
+    @NonNull
+    private Map<String, String> getClassNames(@NonNull String section)
+    {
+        LinkedHashMap<String, String> classNames = new LinkedHashMap<>();
+
+        JSONObject entries = mConfiguration.optJSONObject(section);
+        if (entries == null)
+        {
+            if (Cobalt.DEBUG) Log.w(Cobalt.TAG, TAG + " - " + section + " field of cobalt.json not found or not a JSONObject.");
+            return classNames;
+        }
+
+        Iterator<String> entriesIterator = entries.keys();
+        while (entriesIterator.hasNext())
+        {
+            String name = entriesIterator.next();
+            try
+            {
+                classNames.put(name, entries.getJSONObject(name).getString(Cobalt.kAndroid));
+            }
+            catch (JSONException exception)
+            {
+                if (Cobalt.DEBUG)
+                {
+                    Log.e(Cobalt.TAG, TAG + " - " + section + ": " + name + " field is not a JSONObject or does not contain an android field or is not a String.\n"
+                                      + name + " will not be processed.");
+                    exception.printStackTrace();
+                }
+            }
+        }
+
+        return classNames;
+    }
+
+    /**
+     * Resolves the specified class names of a section
+     * @param section the section name, for logging purpose.
+     * @param classNames name:class name tuples of the section.
+     * @param superclass the class each resolved class must inherit from.
+     * @return name:class tuples of the classes found and inheriting from superclass.
+     */
+    @NonNull
+    private static <T> HashMap<String, Class<? extends T>> resolveClasses(@NonNull String section,
+            @NonNull Map<String, String> classNames, @NonNull Class<T> superclass)
+    {
+        HashMap<String, Class<? extends T>> classes = new HashMap<>();
+
+        for (Map.Entry<String, String> entry : classNames.entrySet())
+        {
+            String name = entry.getKey();
+            String className = entry.getValue();
+            try
+            {
+                Class<?> classFromName = Class.forName(className);
+                if (superclass.isAssignableFrom(classFromName))
+                {
+                    classes.put(name, classFromName.asSubclass(superclass));
+                }
+                else if (Cobalt.DEBUG)
+                {
+                    Log.e(Cobalt.TAG, TAG + " - " + section + ": " + className + " does not inherit from "
+                                      + superclass.getSimpleName() + "!\n" + name + " will not be processed.");
+                }
+            }
+            catch (ClassNotFoundException exception)
+            {
+                if (Cobalt.DEBUG)
+                {
+                    Log.e(Cobalt.TAG, TAG + " - " + section + ": " + className + " class not found!\n"
+                                      + name + " will not be processed.");
+                    exception.printStackTrace();
+                }
+            }
+        }
+
+        return classes;
+    }
+}
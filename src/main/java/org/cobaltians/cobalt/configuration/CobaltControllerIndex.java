@@ -0,0 +1,334 @@
+/**
+ *
+ * CobaltControllerIndex
+ * Cobalt
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Cobaltians
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+package org.cobaltians.cobalt.configuration;
+
+import org.cobaltians.cobalt.Cobalt;
+
+import android.app.Activity;
+import android.content.Context;
+import android.os.Bundle;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import org.json.JSONObject;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Index of the controllers declared in cobalt.json.
+ * Each controller is merged with its defaults, its activity class is resolved
+ * and its configuration Bundle is built once, so that a navigation only costs
+ * a map lookup and a Bundle copy.
+ * Built from cobalt.json, the index is immutable. Built from the binary configuration,
+ * controllers are decoded on first lookup and then kept.
+ */
+public final class CobaltControllerIndex
+{
+    private static final String TAG = CobaltControllerIndex.class.getSimpleName();
+
+    private static final String DEFAULT_ACTIVITY = "org.cobaltians.cobalt.activities.CobaltActivity";
+
+    /***********************************************************************************************
+     *
+     * CONTROLLER
+     *
+     **********************************************************************************************/
+
+    /**
+     * The pre-merged configuration of a controller declared in cobalt.json
+     */
+    public static final class Controller
+    {
+        private final String mActivityClassName;
+        private final Class<? extends Activity> mActivityClass;
+        private final Bundle mConfiguration;
+
+        Controller(@NonNull String activityClassName, @Nullable Class<? extends Activity> activityClass,
+                @NonNull Bundle configuration)
+        {
+            mActivityClassName = activityClassName;
+            mActivityClass = activityClass;
+            mConfiguration = configuration;
+        }
+
+        /**
+         * Returns the fully qualified name of the activity to start for this controller
+         * @return the fully qualified name of the activity to start for this controller
+         */
+        @NonNull
+        public String getActivityClassName()
+        {
+            return mActivityClassName;
+        }
+
+        /**
+         * Returns the activity class to start for this controller
+         * @return the activity class, or null if the class was not found or does not inherit from Activity
+         */
+        @Nullable
+        public Class<? extends Activity> getActivityClass()
+        {
+            return mActivityClass;
+        }
+
+        /**
+         * Returns a new copy of the configuration Bundle of this controller
+         * @param controller the controller name to store in the Bundle, as requested by the caller.
+         * @return a new copy of the configuration Bundle of this controller
+         */
+        @NonNull
+        public Bundle newConfiguration(@Nullable String controller)
+        {
+            Bundle configuration = new Bundle(mConfiguration);
+            configuration.putString(Cobalt.kController, controller);
+            return configuration;
+        }
+    }
+
+    /***********************************************************************************************
+     *
+     * MEMBERS
+     *
+     **********************************************************************************************/
+
+    private final Context mContext;
+    private final CobaltBinaryConfiguration mBinaryConfiguration;
+    private final Map<String, Controller> mControllers;
+    private final Map<String, Class<? extends Activity>> mActivityClasses;
+    private final Controller mDefaultController;
+
+    /***********************************************************************************************
+     *
+     * CONSTRUCTORS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Builds the index of the specified controllers field of cobalt.json
+     * @param context the context used to resolve activity names starting with a dot.
+     * @param controllers the controllers field of cobalt.json, may be null.
+     */
+    public CobaltControllerIndex(@NonNull Context context, @Nullable JSONObject controllers)
+    {
+        HashMap<String, Controller> controllersMap = new HashMap<>();
+        HashMap<String, Class<? extends Activity>> activityClasses = new HashMap<>();
+
+        if (controllers != null)
+        {
+            Iterator<String> controllersIterator = controllers.keys();
+            while (controllersIterator.hasNext())
+            {
+                String name = controllersIterator.next();
+                JSONObject controller = controllers.optJSONObject(name);
+                if (controller != null)
+                {
+                    JSONObject bars = controller.optJSONObject(Cobalt.kBars);
+                    controllersMap.put(name, buildController(context,
+                                                             controller.optString(Cobalt.kAndroid, null),
+                                                             bars != null ? bars.toString() : null,
+                                                             controller.optBoolean(Cobalt.kPullToRefresh),
+                                                             controller.optBoolean(Cobalt.kInfiniteScroll),
+                                                             controller.optInt(Cobalt.kInfiniteScrollOffset,
+                                                                               Cobalt.INFINITE_SCROLL_OFFSET_DEFAULT_VALUE),
+                                                             controller.optString(Cobalt.kBackgroundColor, null),
+                                                             activityClasses));
+                }
+                else if (Cobalt.DEBUG)
+                {
+                    Log.e(Cobalt.TAG, TAG + " - " + name + " controller is not a JSONObject.\n"
+                                      + name + " controller will fall back to " + Cobalt.kDefaultController + ".");
+                }
+            }
+        }
+        else if (Cobalt.DEBUG)
+        {
+            Log.e(Cobalt.TAG, TAG + " - check cobalt.json: " + Cobalt.kControllers
+                              + " field not found or not a JSONObject.");
+        }
+
+        mContext = context;
+        mBinaryConfiguration = null;
+        mControllers = Collections.unmodifiableMap(controllersMap);
+        mActivityClasses = Collections.unmodifiableMap(activityClasses);
+        mDefaultController = controllersMap.get(Cobalt.kDefaultController);
+    }
+
+    /**
+     * Builds the index over the controllers section of the binary configuration compiled at build time.
+     * Controllers are decoded from the binary configuration on first lookup only.
+     * @param context the context used to resolve activity names starting with a dot.
+     * @param binaryConfiguration the binary configuration compiled from cobalt.json.
+     */
+    public CobaltControllerIndex(@NonNull Context context, @NonNull CobaltBinaryConfiguration binaryConfiguration)
+    {
+        mContext = context;
+        mBinaryConfiguration = binaryConfiguration;
+        mControllers = Collections.synchronizedMap(new HashMap<String, Controller>());
+        mActivityClasses = Collections.synchronizedMap(new HashMap<String, Class<? extends Activity>>());
+        mDefaultController = findController(Cobalt.kDefaultController);
+    }
+
+    /***********************************************************************************************
+     *
+     * METHODS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Returns the configuration of the specified controller, or the default one if not found
+     * @param controller the controller name, may be null.
+     * @return the configuration of the controller, or null if not found and no default controller is defined.
+     */
+    @Nullable
+    public Controller getController(@Nullable String controller)
+    {
+        if (controller != null)
+        {
+            Controller configuration = findController(controller);
+            if (configuration != null)
+            {
+                return configuration;
+            }
+        }
+
+        return mDefaultController;
+    }
+
+    /**
+     * Returns the activity class for the specified name, resolved from the index when possible
+     * @param className the fully qualified name of the activity.
+     * @return the activity class, or null if the class was not found or does not inherit from Activity
+     */
+    @Nullable
+    public Class<? extends Activity> getActivityClass(@NonNull String className)
+    {
+        Class<? extends Activity> activityClass = mActivityClasses.get(className);
+        if (activityClass == null
+            && ! mActivityClasses.containsKey(className))
+        {
+            activityClass = resolveActivityClass(className);
+        }
+
+        return activityClass;
+    }
+
+    /***********************************************************************************************
+     *
+     * HELPERS
+     *
+     **********************************************************************************************/
+
+    @Nullable
+    private Controller findController(@NonNull String name)
+    {
+        Controller controller = mControllers.get(name);
+        if (controller == null
+            && mBinaryConfiguration != null)
+        {
+            CobaltBinaryConfiguration.ControllerRecord record = mBinaryConfiguration.findController(name);
+            if (record != null)
+            {
+                controller = buildController(mContext, record.android, record.bars, record.pullToRefresh,
+                                             record.infiniteScroll, record.infiniteScrollOffset,
+                                             record.backgroundColor, mActivityClasses);
+                mControllers.put(name, controller);
+            }
+        }
+
+        return controller;
+    }
+
+    private static Controller buildController(@NonNull Context context, @Nullable String activity,
+            @Nullable String bars, boolean pullToRefresh, boolean infiniteScroll, int infiniteScrollOffset,
+            @Nullable String backgroundColor, @NonNull Map<String, Class<? extends Activity>> activityClasses)
+    {
+        if (activity == null)
+        {
+            activity = DEFAULT_ACTIVITY;
+        }
+        else if (activity.startsWith("."))
+        {
+            activity = context.getPackageName() + activity;
+        }
+
+        Class<? extends Activity> activityClass;
+        if (activityClasses.containsKey(activity))
+        {
+            activityClass = activityClasses.get(activity);
+        }
+        else
+        {
+            activityClass = resolveActivityClass(activity);
+            activityClasses.put(activity, activityClass);
+        }
+
+        Bundle configuration = new Bundle();
+        configuration.putString(Cobalt.kActivity, activity);
+        if (bars != null) configuration.putString(Cobalt.kBars, bars);
+        configuration.putBoolean(Cobalt.kPullToRefresh, pullToRefresh);
+        configuration.putBoolean(Cobalt.kInfiniteScroll, infiniteScroll);
+        configuration.putInt(Cobalt.kInfiniteScrollOffset, infiniteScrollOffset);
+        configuration.putString(Cobalt.kBackgroundColor, backgroundColor != null ? backgroundColor
+                                                                                 : Cobalt.BACKGROUND_COLOR_DEFAULT);
+
+        return new Controller(activity, activityClass, configuration);
+    }
+
+    @Nullable
+    private static Class<? extends Activity> resolveActivityClass(@NonNull String className)
+    {
+        try
+        {
+            Class<?> classFromName = Class.forName(className);
+            if (Activity.class.isAssignableFrom(classFromName))
+            {
+                return classFromName.asSubclass(Activity.class);
+            }
+            else if (Cobalt.DEBUG)
+            {
+                Log.e(Cobalt.TAG, TAG + " - " + className + " does not inherit from Activity!");
+            }
+        }
+        catch (ClassNotFoundException exception)
+        {
+            if (Cobalt.DEBUG)
+            {
+                Log.e(Cobalt.TAG, TAG + " - " + className + " class not found!");
+                exception.printStackTrace();
+            }
+        }
+
+        return null;
+    }
+}
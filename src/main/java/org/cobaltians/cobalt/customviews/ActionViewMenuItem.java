@@ -98,7 +98,7 @@ public class ActionViewMenuItem extends RelativeLayout {
     }
 
     protected void init() {
-        mInflater.inflate(R.layout.custom_action_view_menu_item, this, true);
+        addView(LayoutPreInflater.getInstance().obtain(mInflater, R.layout.custom_action_view_menu_item, this));
         try {
             String title = mAction.getString(Cobalt.kActionTitle);
             String icon = mAction.optString(Cobalt.kActionIcon, null);               // must be "fontKey character"
@@ -0,0 +1,242 @@
+/**
+ *
+ * LayoutPreInflater
+ * Cobalt
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Cobaltians
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+package org.cobaltians.cobalt.customviews;
+
+import org.cobaltians.cobalt.Cobalt;
+import org.cobaltians.cobalt.scheduler.CobaltScheduler;
+
+import android.content.Context;
+import android.support.annotation.LayoutRes;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import android.util.SparseArray;
+import android.view.InflateException;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.RelativeLayout;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Inflates layouts of an activity on the background thread of the {@link CobaltScheduler} ahead of time,
+ * so that the view trees are ready when the fragment or the bars need them.
+ * Layouts are inflated with the LayoutInflater of the activity, so that the same widgets are created
+ * as by a synchronous inflation, inside an unattached parent so that their layout params are kept.
+ * Views are only handed to the context they were inflated for; a miss falls back to a synchronous inflation.
+ */
+public final class LayoutPreInflater
+{
+    private static final String TAG = LayoutPreInflater.class.getSimpleName();
+
+    /***********************************************************************************************
+     *
+     * MEMBERS
+     *
+     **********************************************************************************************/
+
+    private static LayoutPreInflater sInstance;
+
+    /**
+     * Views inflated ahead of time by context, then by layout id.
+     * A context is registered from the first preInflate call until clear.
+     */
+    private final HashMap<Context, SparseArray<ArrayDeque<View>>> mViews = new HashMap<>();
+
+    private final AtomicInteger mHits = new AtomicInteger();
+    private final AtomicInteger mMisses = new AtomicInteger();
+
+    /***********************************************************************************************
+     *
+     * CONSTRUCTORS
+     *
+     **********************************************************************************************/
+
+    private LayoutPreInflater() { }
+
+    /**
+     * Returns the pre-inflater of the application
+     * @return the pre-inflater of the application.
+     */
+    @NonNull
+    public static synchronized LayoutPreInflater getInstance()
+    {
+        if (sInstance == null)
+        {
+            sInstance = new LayoutPreInflater();
+        }
+
+        return sInstance;
+    }
+
+    /***********************************************************************************************
+     *
+     * METHODS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Inflates the specified layout in background for the specified context.
+     * Must be called on the main thread, once the content view of the activity is set.
+     * @param context the activity context the views will be displayed in.
+     * @param layout the layout to inflate.
+     * @param count the number of view trees to inflate.
+     */
+    public void preInflate(@NonNull final Context context, @LayoutRes final int layout, int count)
+    {
+        synchronized (mViews)
+        {
+            if (! mViews.containsKey(context))
+            {
+                mViews.put(context, new SparseArray<ArrayDeque<View>>());
+            }
+        }
+
+        final LayoutInflater inflater = LayoutInflater.from(context);
+        for (int i = 0; i < count; i++)
+        {
+            CobaltScheduler.getInstance().schedule(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    View view;
+                    try
+                    {
+                        view = inflater.inflate(layout, new RelativeLayout(context), false);
+                    }
+                    catch (InflateException | IllegalStateException exception)
+                    {
+                        // i.e. a view of the layout requires a Looper, it will be inflated synchronously
+                        if (Cobalt.DEBUG) Log.w(Cobalt.TAG, TAG + " - preInflate: " + context.getResources().getResourceEntryName(layout)
+                                                            + " can not be inflated in background.");
+                        return;
+                    }
+
+                    synchronized (mViews)
+                    {
+                        SparseArray<ArrayDeque<View>> views = mViews.get(context);
+                        // Context was cleared meanwhile
+                        if (views == null)
+                        {
+                            return;
+                        }
+
+                        ArrayDeque<View> layoutViews = views.get(layout);
+                        if (layoutViews == null)
+                        {
+                            layoutViews = new ArrayDeque<>();
+                            views.put(layout, layoutViews);
+                        }
+                        layoutViews.offer(view);
+                    }
+                }
+            }, CobaltScheduler.PRIORITY_HIGH, CobaltScheduler.Affinity.BACKGROUND);
+        }
+    }
+
+    /**
+     * Returns a view tree of the specified layout inflated ahead of time, or inflates it on a miss.
+     * Must be called on the main thread.
+     * @param inflater the inflater to use on a miss.
+     * @param layout the layout to obtain.
+     * @param parent the parent the view will be attached to, used to generate layout params on a miss.
+     * @return the root view of the layout, not attached to parent.
+     */
+    @NonNull
+    public View obtain(@NonNull LayoutInflater inflater, @LayoutRes int layout, @Nullable ViewGroup parent)
+    {
+        View view = poll(inflater.getContext(), layout);
+        if (view != null)
+        {
+            mHits.incrementAndGet();
+            return view;
+        }
+
+        mMisses.incrementAndGet();
+        return inflater.inflate(layout, parent, false);
+    }
+
+    /**
+     * Drops the views inflated ahead of time for the specified context and stops accepting new ones.
+     * Must be called when the activity is destroyed.
+     * @param context the activity context.
+     */
+    public void clear(@NonNull Context context)
+    {
+        synchronized (mViews)
+        {
+            mViews.remove(context);
+        }
+    }
+
+    /**
+     * Returns the number of view trees obtained from those inflated ahead of time
+     * @return the number of view trees obtained from those inflated ahead of time.
+     */
+    public int getHitCount()
+    {
+        return mHits.get();
+    }
+
+    /**
+     * Returns the number of view trees inflated synchronously
+     * @return the number of view trees inflated synchronously.
+     */
+    public int getMissCount()
+    {
+        return mMisses.get();
+    }
+
+    /***********************************************************************************************
+     *
+     * HELPERS
+     *
+     **********************************************************************************************/
+
+    @Nullable
+    private View poll(@NonNull Context context, @LayoutRes int layout)
+    {
+        synchronized (mViews)
+        {
+            SparseArray<ArrayDeque<View>> views = mViews.get(context);
+            if (views == null)
+            {
+                return null;
+            }
+
+            ArrayDeque<View> layoutViews = views.get(layout);
+            return layoutViews != null ? layoutViews.poll() : null;
+        }
+    }
+}
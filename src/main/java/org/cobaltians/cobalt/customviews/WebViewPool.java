@@ -0,0 +1,398 @@
+/**
+ *
+ * WebViewPool
+ * Cobalt
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Cobaltians
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+package org.cobaltians.cobalt.customviews;
+
+import org.cobaltians.cobalt.Cobalt;
+import org.cobaltians.cobalt.database.LocalStorageJavaScriptInterface;
+import org.cobaltians.cobalt.scheduler.CobaltScheduler;
+
+import android.annotation.SuppressLint;
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.MutableContextWrapper;
+import android.content.res.Configuration;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.util.Log;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewGroup;
+import android.webkit.WebSettings;
+import android.webkit.WebView;
+import android.webkit.WebViewClient;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of idle {@link OverScrollingWebView}s with the settings shared by all Cobalt pages already applied.
+ * WebViews are created with a {@link MutableContextWrapper} on the application context,
+ * re-targeted to the activity when acquired, and reset before going back to the pool.
+ * The pool size follows the memory class of the device, and the pool is refilled by the {@link CobaltScheduler}
+ * when the main thread is idle.
+ * All methods must be called on the main thread.
+ */
+public final class WebViewPool implements ComponentCallbacks2
+{
+    private static final String TAG = WebViewPool.class.getSimpleName();
+
+    /***********************************************************************************************
+     *
+     * MEMBERS
+     *
+     **********************************************************************************************/
+
+    private static final String BLANK_PAGE = "about:blank";
+
+    private static WebViewPool sInstance;
+
+    private final Context mContext;
+    private final int mMaxSize;
+    private final ArrayDeque<OverScrollingWebView> mIdleWebViews = new ArrayDeque<>();
+    private boolean mRefillScheduled;
+
+    private final AtomicInteger mHits = new AtomicInteger();
+    private final AtomicInteger mMisses = new AtomicInteger();
+
+    /***********************************************************************************************
+     *
+     * CONSTRUCTORS
+     *
+     **********************************************************************************************/
+
+    private WebViewPool(@NonNull Context context)
+    {
+        mContext = context.getApplicationContext();
+        mMaxSize = computeMaxSize(mContext);
+        mContext.registerComponentCallbacks(this);
+    }
+
+    /**
+     * Returns the WebView pool of the application
+     * @param context the context used to create the pool.
+     * @return the WebView pool of the application.
+     */
+    @NonNull
+    public static WebViewPool getInstance(@NonNull Context context)
+    {
+        if (sInstance == null)
+        {
+            sInstance = new WebViewPool(context);
+        }
+
+        return sInstance;
+    }
+
+    /***********************************************************************************************
+     *
+     * METHODS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Returns an idle WebView bound to the specified context, or a new one if the pool is empty.
+     * The pool is refilled the next time the main thread is idle.
+     * @param context the activity context the WebView is displayed in.
+     * @return a WebView with the shared settings applied.
+     */
+    @NonNull
+    public OverScrollingWebView acquire(@NonNull Context context)
+    {
+        OverScrollingWebView webView = mIdleWebViews.poll();
+        if (webView != null)
+        {
+            mHits.incrementAndGet();
+            // Drops the blank page loaded on release, so that the next page starts with an empty history
+            webView.clearHistory();
+        }
+        else
+        {
+            mMisses.incrementAndGet();
+            webView = create();
+        }
+
+        ((MutableContextWrapper) webView.getContext()).setBaseContext(context);
+        scheduleRefill();
+
+        return webView;
+    }
+
+    /**
+     * Resets the specified WebView and puts it back in the pool, or destroys it if the pool is full.
+     * @param webView a WebView acquired from this pool.
+     */
+    public void release(@NonNull OverScrollingWebView webView)
+    {
+        ViewGroup parent = (ViewGroup) webView.getParent();
+        if (parent != null)
+        {
+            parent.removeView(webView);
+        }
+
+        if (mIdleWebViews.size() >= mMaxSize)
+        {
+            webView.destroy();
+            return;
+        }
+
+        reset(webView);
+        mIdleWebViews.offer(webView);
+    }
+
+    /**
+     * Fills the pool up to its size when the main thread is idle.
+     * May be called once the first activity is shown to speed up the first navigation.
+     */
+    public void prefill()
+    {
+        scheduleRefill();
+    }
+
+    /**
+     * Destroys all idle WebViews
+     */
+    public void clear()
+    {
+        OverScrollingWebView webView;
+        while ((webView = mIdleWebViews.poll()) != null)
+        {
+            webView.destroy();
+        }
+    }
+
+    /**
+     * Returns the number of WebViews acquired from the pool
+     * @return the number of WebViews acquired from the pool.
+     */
+    public int getHitCount()
+    {
+        return mHits.get();
+    }
+
+    /**
+     * Returns the number of WebViews created because the pool was empty
+     * @return the number of WebViews created because the pool was empty.
+     */
+    public int getMissCount()
+    {
+        return mMisses.get();
+    }
+
+    /**
+     * Returns the maximum number of idle WebViews kept by the pool
+     * @return the maximum number of idle WebViews kept by the pool.
+     */
+    public int getMaxSize()
+    {
+        return mMaxSize;
+    }
+
+    /**
+     * Applies the settings shared by all Cobalt pages to the specified WebView.
+     * Settings depending on the page (JavaScript interface of the fragment, WebViewClient, layer type...)
+     * are applied by the fragment.
+     * @param webView the WebView to set up.
+     * @param context the context used to access the application files.
+     */
+    @SuppressLint({"SetJavaScriptEnabled", "AddJavascriptInterface"})
+    public static void applySettings(@NonNull WebView webView, @NonNull Context context)
+    {
+        // Enables JS
+        WebSettings webSettings = webView.getSettings();
+        webSettings.setJavaScriptEnabled(true);
+
+        // Enables and setups JS local storage
+        webSettings.setDomStorageEnabled(true);
+        webSettings.setDatabaseEnabled(true);
+        //@deprecated since API 19. But calling this method have simply no effect for API 19+
+        webSettings.setDatabasePath(context.getFilesDir().getParentFile().getPath() + "/databases/");
+
+        // Enables cross-domain calls for Ajax
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN)
+        {
+            // TODO: see how to restrict only to local files
+            webSettings.setAllowUniversalAccessFromFileURLs(true);
+        }
+
+        // Enable zoom on webview if html meta tag viewport allows it too.
+        webSettings.setSupportZoom(true);
+        webSettings.setBuiltInZoomControls(true);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB)
+        {
+            webSettings.setDisplayZoomControls(false);
+        }
+
+        // Fix some focus issues on old devices like HTC Wildfire
+        // keyboard was not properly showed on input touch.
+        webView.setOnTouchListener(new View.OnTouchListener()
+        {
+            @Override
+            public boolean onTouch(View view, MotionEvent event)
+            {
+                switch (event.getAction())
+                {
+                    case MotionEvent.ACTION_DOWN:
+                    case MotionEvent.ACTION_UP:
+                        if (! view.hasFocus())
+                        {
+                            view.requestFocus();
+                        }
+                        break;
+                    default:
+                        break;
+                }
+
+                return false;
+            }
+        });
+
+        //Enable Webview debugging from chrome desktop
+        if (Cobalt.DEBUG && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT)
+        {
+            WebView.setWebContentsDebuggingEnabled(true);
+        }
+
+        webView.addJavascriptInterface(new LocalStorageJavaScriptInterface(context), "LocalStorage");
+    }
+
+    /***********************************************************************************************
+     *
+     * COMPONENT CALLBACKS
+     *
+     **********************************************************************************************/
+
+    @Override
+    public void onTrimMemory(int level)
+    {
+        if (level >= TRIM_MEMORY_RUNNING_LOW)
+        {
+            clear();
+        }
+    }
+
+    @Override
+    public void onLowMemory()
+    {
+        clear();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration configuration) { }
+
+    /***********************************************************************************************
+     *
+     * HELPERS
+     *
+     **********************************************************************************************/
+
+    @NonNull
+    private OverScrollingWebView create()
+    {
+        OverScrollingWebView webView = new OverScrollingWebView(new MutableContextWrapper(mContext));
+        applySettings(webView, mContext);
+        return webView;
+    }
+
+    private void reset(@NonNull OverScrollingWebView webView)
+    {
+        webView.stopLoading();
+        webView.setScrollListener(null);
+        webView.setWebViewClient(new WebViewClient());
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB)
+        {
+            webView.removeJavascriptInterface("Android");
+        }
+        // Unloads the page and its JavaScript context
+        webView.loadUrl(BLANK_PAGE);
+        webView.scrollTo(0, 0);
+
+        ((MutableContextWrapper) webView.getContext()).setBaseContext(mContext);
+    }
+
+    private void scheduleRefill()
+    {
+        if (mRefillScheduled
+            || mIdleWebViews.size() >= mMaxSize)
+        {
+            return;
+        }
+
+        mRefillScheduled = true;
+        CobaltScheduler.getInstance().schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                // Creates one WebView per task not to hold the main thread too long
+                mRefillScheduled = false;
+                if (mIdleWebViews.size() < mMaxSize)
+                {
+                    mIdleWebViews.offer(create());
+                    scheduleRefill();
+                }
+            }
+        }, CobaltScheduler.PRIORITY_NORMAL, CobaltScheduler.Affinity.MAIN);
+    }
+
+    private static int computeMaxSize(@NonNull Context context)
+    {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        if (activityManager == null)
+        {
+            return 1;
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+            && activityManager.isLowRamDevice())
+        {
+            return 0;
+        }
+
+        int memoryClass = activityManager.getMemoryClass();
+        int maxSize;
+        if (memoryClass < 96)
+        {
+            maxSize = 1;
+        }
+        else if (memoryClass < 192)
+        {
+            maxSize = 2;
+        }
+        else
+        {
+            maxSize = 3;
+        }
+
+        if (Cobalt.DEBUG) Log.d(Cobalt.TAG, TAG + " - memory class " + memoryClass + "MB, keeping up to " + maxSize + " idle WebViews");
+
+        return maxSize;
+    }
+}
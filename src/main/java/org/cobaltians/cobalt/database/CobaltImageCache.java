@@ -83,17 +83,11 @@ public class CobaltImageCache {
             Bitmap bitmap = mMapImages.get(id);
 
             if (bitmap != null) {
-                int quality = 100;
-                //need this loop cause with some new device the length of url exceed 2097152 characters and fail upload
-                do {
-                    // compressing the image
-                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                    bitmap.compress(Bitmap.CompressFormat.JPEG, quality, baos);
-                    // encode image
-                    encodeImage = Base64.encodeToString(baos.toByteArray(), Base64.NO_WRAP);
-                    quality -= 1;
-                }
-                while (encodeImage.length() > 2097152);
+                // Messages too large for one script evaluation are chunked by the bridge, so full quality is kept
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                bitmap.compress(Bitmap.CompressFormat.JPEG, 100, baos);
+                // encode image
+                encodeImage = Base64.encodeToString(baos.toByteArray(), Base64.NO_WRAP);
             }
         }
         else if (Cobalt.DEBUG) Log.e(Cobalt.TAG, TAG + " - toBase64: id could not be null!");
@@ -86,7 +86,7 @@ public class LocalStorage extends SQLiteOpenHelper {
 	 * @param context: context used to create the database
 	 * @return the instance of LocalStorage of the application.
 	 */
-	public static LocalStorage getInstance(Context context) {
+	public static synchronized LocalStorage getInstance(Context context) {
         if (sInstance == null) {
             Assert.assertNotNull(TAG + " - getInstance: context could not be null", context);
             sInstance = new LocalStorage(context.getApplicationContext());
@@ -38,15 +38,28 @@ import android.graphics.PixelFormat;
 import android.graphics.Typeface;
 import android.graphics.drawable.Drawable;
 import android.text.TextPaint;
+import android.util.Log;
+
+import java.util.HashMap;
+
+import org.cobaltians.cobalt.Cobalt;
 
 public abstract class CobaltAbstractFontDrawable extends Drawable {
 
+    // TAG
+    private static final String TAG = CobaltAbstractFontDrawable.class.getSimpleName();
+
     /***********************************************************************************************
      *
      * MEMBERS
      *
      **********************************************************************************************/
 
+    /**
+     * Typefaces already created, by font file path, shared by all font drawables
+     */
+    private static final HashMap<String, Typeface> sTypefaces = new HashMap<>();
+
     protected  Context mContext;
     protected String mIdentifier;
     private TextPaint mPaint;
@@ -70,10 +83,45 @@ public abstract class CobaltAbstractFontDrawable extends Drawable {
         mPaint.setStyle(Paint.Style.FILL);
         mPaint.setTextAlign(Paint.Align.CENTER);
         mPaint.setTextSize(mTextSize);
-        mPaint.setTypeface(Typeface.createFromAsset(mContext.getAssets(), getFontFilePath()));
+        mPaint.setTypeface(getTypeface(mContext, getFontFilePath()));
         mPaint.setColor(color);
     }
 
+    /**
+     * Creates the typeface for the specified font file, if not already, so that the first font drawables do not pay for it
+     * @param context the context used to access assets
+     * @param fontFilePath the font file path in assets folder
+     */
+    public static void preloadTypeface(Context context, String fontFilePath) {
+        try {
+            getTypeface(context, fontFilePath);
+        }
+        catch (RuntimeException exception) {
+            // The drawables will fail the same way, no need to fail the warm-up
+            if (Cobalt.DEBUG) {
+                Log.e(Cobalt.TAG, TAG + " - preloadTypeface: unable to create typeface from " + fontFilePath);
+                exception.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Returns the typeface for the specified font file, creating it on first call only
+     * @param context the context used to access assets
+     * @param fontFilePath the font file path in assets folder
+     * @return the typeface for the font file
+     */
+    private static Typeface getTypeface(Context context, String fontFilePath) {
+        synchronized (sTypefaces) {
+            Typeface typeface = sTypefaces.get(fontFilePath);
+            if (typeface == null) {
+                typeface = Typeface.createFromAsset(context.getAssets(), fontFilePath);
+                sTypefaces.put(fontFilePath, typeface);
+            }
+            return typeface;
+        }
+    }
+
     /***********************************************************************************************
      *
      * ABSTRACT METHODS
@@ -88,7 +136,8 @@ public abstract class CobaltAbstractFontDrawable extends Drawable {
     protected abstract String getStringResource(String identifier);
 
     /**
-     * Returns the font file path in assets folder
+     * Returns the font file path in assets folder.
+     * Annotate the class with {@link CobaltFontFile} and the same path to have its typeface created while Cobalt warms up.
      * @return font file path in assets folder
      */
     protected abstract String getFontFilePath();
@@ -30,21 +30,11 @@
 package org.cobaltians.cobalt.font;
 
 import android.content.Context;
-import android.content.res.AssetManager;
 import android.util.Log;
 
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.Map;
 
 import org.cobaltians.cobalt.Cobalt;
 
@@ -53,12 +43,6 @@ import org.cobaltians.cobalt.Cobalt;
  */
 public class CobaltFontManager {
 
-    /**
-     * the fonts key in cobalt.json
-     */
-    private static final String kFonts = "fonts";
-    private static final  String kAndroid = "android";
-    private static Context mContext;
     // TAG
     public static final String TAG = CobaltFontManager.class.getSimpleName();
 
@@ -72,12 +56,11 @@ public class CobaltFontManager {
     //* @param textSize the text size in sp
     //* @param padding the padding in dp
     public static CobaltAbstractFontDrawable getCobaltFontDrawable(Context context, String identifier, int color) {
-        mContext = context;
         if (identifier != null) {
             if (identifier.contains(" ")) {
                 String[] splitIdentifier = identifier.split(" ");
                 String fontName = splitIdentifier[0];
-                Class<? extends CobaltAbstractFontDrawable> fontClass = getFonts().get(fontName);
+                Class<? extends CobaltAbstractFontDrawable> fontClass = getFonts(context).get(fontName);
                 if (fontClass != null) {
                     try {
                         Class[] argsClass = new Class[] {Context.class, String.class, int.class};
@@ -109,99 +92,28 @@ public class CobaltFontManager {
     }
 
     /**
-     * Returns font key:class tuples as HashMap
-     * @return font key:class tuples as HashMap
+     * Resolves the font classes declared in cobalt.json and creates the typefaces of those annotated with
+     * {@link CobaltFontFile}, so that the first font drawables do not pay for it on the main thread.
+     * The typefaces of the other fonts are created with their first drawable.
+     * @param context the application context
      */
-    private static HashMap<String, Class<? extends CobaltAbstractFontDrawable>> getFonts() {
-        HashMap<String, Class<? extends CobaltAbstractFontDrawable>> fontMap = new HashMap<>();
-
-        try {
-            // TODO: make the Cobalt method public and use it instead of reimplement it
-            JSONObject configuration = getConfiguration();
-            JSONObject fonts = configuration.getJSONObject(kFonts);
-            Iterator<String> fontsIterator = fonts.keys();
-
-            while(fontsIterator.hasNext()) {
-                String fontName = fontsIterator.next();
-                try{
-                    JSONObject font = fonts.getJSONObject(fontName);
-                    String fontClassName = font.getString(kAndroid);
-                    try {
-                        Class<?> fontClass = Class.forName(fontClassName);
-                        if (CobaltAbstractFontDrawable.class.isAssignableFrom(fontClass)) {
-                            fontMap.put(fontName, (Class<? extends CobaltAbstractFontDrawable>) fontClass);
-                        }
-                        else if (Cobalt.DEBUG) Log.e(TAG, TAG + " - getFonts: " + fontClass + " does not inherit from CobaltAbstractFontDrawable!\n" + fontName + " font message will not be processed.");
-
-                    }
-                    catch (ClassNotFoundException e) {
-                        if (Cobalt.DEBUG) {
-                            Log.e(TAG, TAG + " - getFonts: " + fontClassName + " class not found!\n" + fontName + " font message will not be processed.");
-                            e.printStackTrace();
-                        }
-                    }
-                }
-                catch (JSONException e) {
-                    if (Cobalt.DEBUG) {
-                        Log.e(TAG, TAG + " - getFonts: " + fontName + " field is not a JSONObject or does not contain an android field or is not a String.\n" + fontName + " font message will not be processed.");
-                        e.printStackTrace();
-                    }
-                }
-            }
-        }
-        catch (JSONException e) {
-            if (Cobalt.DEBUG) {
-                Log.w(TAG, TAG + " - getFonts: fonts field of cobalt.json not found or not a JSONObject.");
-                e.printStackTrace();
+    public static void preloadFonts(Context context) {
+        for (Map.Entry<String, Class<? extends CobaltAbstractFontDrawable>> font : getFonts(context).entrySet()) {
+            CobaltFontFile fontFile = font.getValue().getAnnotation(CobaltFontFile.class);
+            if (fontFile != null) {
+                CobaltAbstractFontDrawable.preloadTypeface(context, fontFile.value());
             }
+            else if (Cobalt.DEBUG) Log.d(TAG, TAG + " - preloadFonts: " + font.getKey() + " font is not annotated with @CobaltFontFile, not preloaded.");
         }
-        return fontMap;
     }
 
-    /**********************************************************************************************
-     * HELPER METHODS
-     **********************************************************************************************/
-
-    // TODO: remove
-    private static JSONObject getConfiguration() {
-        String mResourcePath = Cobalt.getInstance(mContext).getResourcePathFromAsset();
-        String configuration = readFileFromAssets( mResourcePath + Cobalt.CONF_FILE);
-
-        try {
-            return new JSONObject(configuration);
-        }
-        catch (JSONException exception) {
-            if (Cobalt.DEBUG) Log.e(TAG, TAG + " - getConfiguration: check cobalt.json. File is missing or not at " + mResourcePath + Cobalt.CONF_FILE);
-            exception.printStackTrace();
-        }
-
-        return new JSONObject();
-    }
-
-    // TODO: remove
-    private static String readFileFromAssets(String file) {
-        try {
-            AssetManager assetManager = mContext.getAssets();
-            InputStream inputStream = assetManager.open(file);
-            BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(inputStream));
-            StringBuilder fileContent = new StringBuilder();
-            int character;
-
-            while ((character = bufferedReader.read()) != -1) {
-                fileContent.append((char) character);
-            }
-
-            return fileContent.toString();
-        }
-        catch (FileNotFoundException exception) {
-            if (Cobalt.DEBUG) Log.e(TAG, TAG + " - readFileFromAssets: " + file + "not found.");
-        }
-        catch (IOException exception) {
-            if (Cobalt.DEBUG) Log.e(TAG, TAG + " - readFileFromAssets: IOException");
-            exception.printStackTrace();
-        }
-
-        return "";
+    /**
+     * Returns font key:class tuples from the shared configuration registry
+     * @param context the context
+     * @return font key:class tuples
+     */
+    private static Map<String, Class<? extends CobaltAbstractFontDrawable>> getFonts(Context context) {
+        return Cobalt.getInstance(context).getConfiguration().getFonts();
     }
 
 }
@@ -31,24 +31,44 @@ package org.cobaltians.cobalt.fragments;
 
 import org.apache.commons.lang.RandomStringUtils;
 import org.cobaltians.cobalt.Cobalt;
+import org.cobaltians.cobalt.CobaltMetrics;
 import org.cobaltians.cobalt.R;
 import org.cobaltians.cobalt.activities.CobaltActivity;
+import org.cobaltians.cobalt.bridge.BridgeBootstrap;
+import org.cobaltians.cobalt.bridge.BridgeExecutor;
+import org.cobaltians.cobalt.bridge.BridgeLifecycle;
+import org.cobaltians.cobalt.bridge.BridgeMessage;
+import org.cobaltians.cobalt.bridge.BridgeRecorder;
+import org.cobaltians.cobalt.bridge.BridgeTransport;
+import org.cobaltians.cobalt.bridge.EnvelopeWriter;
+import org.cobaltians.cobalt.bridge.EvaluateJavascriptTransport;
+import org.cobaltians.cobalt.bridge.LoadUrlTransport;
+import org.cobaltians.cobalt.bridge.MessageBatcher;
+import org.cobaltians.cobalt.bridge.MessageChunker;
+import org.cobaltians.cobalt.bridge.MessageDispatcher;
+import org.cobaltians.cobalt.bridge.MessageHandler;
+import org.cobaltians.cobalt.bridge.ScriptEncoder;
+import org.cobaltians.cobalt.bridge.WaitingMessageQueue;
+import org.cobaltians.cobalt.bridge.WebMessagePortTransport;
 import org.cobaltians.cobalt.customviews.CobaltSwipeRefreshLayout;
 import org.cobaltians.cobalt.customviews.IScrollListener;
+import org.cobaltians.cobalt.customviews.LayoutPreInflater;
 import org.cobaltians.cobalt.customviews.OverScrollingWebView;
-import org.cobaltians.cobalt.database.LocalStorageJavaScriptInterface;
+import org.cobaltians.cobalt.customviews.WebViewPool;
+import org.cobaltians.cobalt.navigation.NavigationPayloadStore;
 import org.cobaltians.cobalt.plugin.CobaltPluginManager;
 
-import android.annotation.SuppressLint;
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
+import android.graphics.Bitmap;
 import android.graphics.Color;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.app.Fragment;
@@ -59,12 +79,15 @@ import android.support.v4.widget.SwipeRefreshLayout;
 import android.util.Log;
 import android.view.*;
 import android.webkit.JavascriptInterface;
-import android.webkit.WebSettings;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
 import android.webkit.WebView;
 import android.webkit.WebViewClient;
 import android.widget.Toast;
 
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 
 import org.cobaltians.cobalt.pubsub.PubSub;
 import org.cobaltians.cobalt.pubsub.PubSubInterface;
@@ -93,15 +116,62 @@ public class CobaltFragment extends Fragment implements IScrollListener, SwipeRe
     protected ViewGroup mWebViewContainer;
 
 	protected OverScrollingWebView mWebView;
+    private boolean mWebViewFromPool;
     protected CobaltSwipeRefreshLayout mSwipeRefreshLayout;
 
-	private ArrayList<JSONObject> mToJSWaitingCallsQueue = new ArrayList<>();
-    private ArrayList<String> mFromJSWaitingCallsQueue = new ArrayList<>();
+    private WaitingMessageQueue mToJSWaitingCallsQueue;
+    private MessageBatcher mMessageBatcher;
+    private BridgeTransport mBridgeTransport;
+    private final BridgeTransport.MessageListener mBridgeMessageListener = new BridgeTransport.MessageListener() {
+        @Override
+        public void onMessage(@NonNull String message) {
+            if (message.startsWith("[")) {
+                onCobaltMessages(message);
+            }
+            else {
+                onCobaltMessage(message);
+            }
+        }
+    };
+    private final ScriptEncoder mScriptEncoder = new ScriptEncoder();
+
+    private static final MessageDispatcher sBuiltInMessageDispatcher = new MessageDispatcher(null);
+    private static final MessageDispatcher sApplicationMessageDispatcher = new MessageDispatcher(sBuiltInMessageDispatcher);
+    static {
+        registerBuiltInMessageHandlers(sBuiltInMessageDispatcher);
+    }
+    private MessageDispatcher mMessageDispatcher;
+    private BridgeExecutor mBridgeExecutor;
+    // Keeps the waiting messages in order when several threads drain them
+    private final Object mToJSWaitingCallsLock = new Object();
     private ArrayList<AlertDialog> mPendingAlertDialogs = new ArrayList<>();
-    private boolean mActive = false;
+
+    private final BridgeLifecycle mBridgeLifecycle = new BridgeLifecycle(new BridgeLifecycle.Listener() {
+        @Override
+        public void onAttached() {
+            // Messages received while detached are processed on the executor first, the main thread never waits for it
+            getBridgeExecutor().resume();
+        }
+
+        @Override
+        public void onPageReady() {
+            executeLifecycleWaitingCalls();
+        }
+
+        @Override
+        public void onReady() {
+            executeToJSWaitingCalls();
+        }
+    });
 
 	private boolean mPreloadOnCreate = true;
-	private boolean mCobaltIsReady = false;
+
+    // Time to first delivered message, to compare page loads with and without the bridge bootstrap
+    private long mPageLoadStart = -1;
+    private long mFirstMessageDelay = -1;
+
+    private volatile String mMetricsScope;
+    private volatile BridgeRecorder mBridgeRecorder;
 
 	protected String mFragmentIdentifier;
 
@@ -121,7 +191,7 @@ public class CobaltFragment extends Fragment implements IScrollListener, SwipeRe
     
         PubSub.getInstance().subscribeToChannel(Cobalt.JSEventOnAppStarted, this);
         
-        executeFromJSWaitingCalls();
+        mBridgeLifecycle.attach();
     }
 
     @Override
@@ -137,7 +207,7 @@ public class CobaltFragment extends Fragment implements IScrollListener, SwipeRe
 		super.onCreateView(inflater, container, savedInstanceState);
 
         try {
-            View view = inflater.inflate(getLayoutToInflate(), container, false);
+            View view = LayoutPreInflater.getInstance().obtain(inflater, getLayoutToInflate(), container);
 
             setUpViews(view);
             setUpListeners();
@@ -179,11 +249,17 @@ public class CobaltFragment extends Fragment implements IScrollListener, SwipeRe
     public void onResume() {
         super.onResume();
     
-        JSONObject data = ((CobaltActivity) mContext).getDataNavigation();
-        if (data == null) {
-            data = new JSONObject();
-        }
+        JSONObject dataNavigation = ((CobaltActivity) mContext).getDataNavigation();
+        JSONObject data = new JSONObject();
         try {
+            // Data may be shared with the navigation payload store, it is copied rather than modified
+            if (dataNavigation != null) {
+                Iterator<String> keys = dataNavigation.keys();
+                while (keys.hasNext()) {
+                    String key = keys.next();
+                    data.put(key, dataNavigation.opt(key));
+                }
+            }
             data.put("viewId", mFragmentIdentifier);
         } catch (JSONException e) {
             e.printStackTrace();
@@ -191,14 +267,14 @@ public class CobaltFragment extends Fragment implements IScrollListener, SwipeRe
         sendEvent(Cobalt.JSEventOnPageShown, data, null);
         ((CobaltActivity) mContext).setDataNavigation(null);
     
-        executeToJSWaitingCalls();
+        mBridgeLifecycle.resume();
         
         showPendingAlertDialogs();
     }
 
     @Override
     public void onPause() {
-        mActive = false;
+        mBridgeLifecycle.pause();
 
         super.onPause();
     }
@@ -229,12 +305,24 @@ public class CobaltFragment extends Fragment implements IScrollListener, SwipeRe
     @Override
 	public void onDestroy() {
         super.onDestroy();
+
+        mBridgeLifecycle.pageLoading();
+        if (mMessageBatcher != null) {
+            // Large messages still being streamed are not worth delivering anymore
+            mMessageBatcher.cancelChunkedMessages();
+            mMessageBatcher.clear();
+            mMessageBatcher = null;
+        }
+        releaseWebView();
 	}
 
     @Override
     public void onDetach() {
+        // Paused before the fragment is detached, so that the executor does not spin on messages put back
+        getBridgeExecutor().pause();
+        mBridgeLifecycle.detach();
         mContext = null;
-    
+
         PubSub.getInstance().unsubscribeFromChannel(Cobalt.JSEventOnAppStarted, this);
         
         super.onDetach();
@@ -244,6 +332,15 @@ public class CobaltFragment extends Fragment implements IScrollListener, SwipeRe
 	 * LIFECYCLE HELPERS
 	 ***************************************************************************************/
 
+    /**
+     * Starts inflating the layout of this fragment in background, so that it is ready when its view is created.
+     * Called by CobaltActivity once the arguments of the fragment are set.
+     * @param context the activity context the fragment will be attached to.
+     */
+    public void preInflateLayout(Context context) {
+        LayoutPreInflater.getInstance().preInflate(context, getLayoutToInflate(), 1);
+    }
+
 	/**
 	 * This method should be overridden in subclasses.
 	 * @return Layout id inflated by this fragment
@@ -293,7 +390,8 @@ public class CobaltFragment extends Fragment implements IScrollListener, SwipeRe
 	 */
 	protected void addWebView() {
         if (mWebView == null) {
-            mWebView = new OverScrollingWebView(mContext);
+            mWebView = WebViewPool.getInstance(mContext).acquire(mContext);
+            mWebViewFromPool = true;
             setWebViewSettings(this);
 
             if (isPullToRefreshActive()
@@ -303,6 +401,19 @@ public class CobaltFragment extends Fragment implements IScrollListener, SwipeRe
             }
 		}
 
+        // Subclasses may have created the Web view themselves, the bridge still needs its output path
+        if (mBridgeTransport == null) {
+            mBridgeTransport = createBridgeTransport();
+        }
+        if (mMessageBatcher == null) {
+            mMessageBatcher = new MessageBatcher(new MessageBatcher.MessageSink() {
+                @Override
+                public void deliver(@NonNull List<String> messages) {
+                    deliverMessages(messages);
+                }
+            });
+        }
+
         if (mWebViewContainer != null) {
             mWebViewContainer.addView(mWebView);
         }
@@ -325,81 +436,57 @@ public class CobaltFragment extends Fragment implements IScrollListener, SwipeRe
 
         mWebView.setBackgroundColor(Color.TRANSPARENT);
 
-        // Enables JS
-        WebSettings webSettings = mWebView.getSettings();
-        webSettings.setJavaScriptEnabled(true);
-
-        // Enables and setups JS local storage
-        webSettings.setDomStorageEnabled(true);
-        webSettings.setDatabaseEnabled(true);
-        //@deprecated since API 19. But calling this method have simply no effect for API 19+
-        webSettings.setDatabasePath(mContext.getFilesDir().getParentFile().getPath() + "/databases/");
-
-        // Enables cross-domain calls for Ajax
-        allowAjax();
-		
-        // Enable zoom on webview if html meta tag viewport allows it too.
-        webSettings.setSupportZoom(true);
-        webSettings.setBuiltInZoomControls(true);
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
-            webSettings.setDisplayZoomControls(false);
-        }
-
-        // Fix some focus issues on old devices like HTC Wildfire
-        // keyboard was not properly showed on input touch.
-        // Removed the line below due to unfocus of native component on webLayer appearance
-        //mWebView.requestFocus(View.FOCUS_DOWN);
-        mWebView.setOnTouchListener(new View.OnTouchListener() {
-
-            @Override
-            public boolean onTouch(View view, MotionEvent event) {
-                switch (event.getAction()) {
-                    case MotionEvent.ACTION_DOWN:
-                    case MotionEvent.ACTION_UP:
-                        if (! view.hasFocus()) {
-                            view.requestFocus();
-                        }
-                        break;
-                    default:
-                        break;
-                }
-
-                return false;
-            }
-        });
-        
-        //Enable Webview debugging from chrome desktop
-        if (Cobalt.DEBUG && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
-            WebView.setWebContentsDebuggingEnabled(true);
+        // Shared settings are already applied to Web views acquired from the pool,
+        // Web views created by subclasses still need them
+        if (! mWebViewFromPool) {
+            WebViewPool.applySettings(mWebView, mContext);
         }
 
         // Add JavaScript interface so JavaScript can call native functions.
         mWebView.addJavascriptInterface(javascriptInterface, "Android");
-        mWebView.addJavascriptInterface(new LocalStorageJavaScriptInterface(mContext), "LocalStorage");
 
         WebViewClient webViewClient = new WebViewClient() {
 
+            @Override
+            public void onPageStarted(WebView view, String url, Bitmap favicon) {
+                if (mBridgeTransport instanceof WebMessagePortTransport) {
+                    ((WebMessagePortTransport) mBridgeTransport).close();
+                }
+            }
+
             @Override
             public void onPageFinished(WebView view, String url) {
-                executeToJSWaitingCalls();
+                if (mBridgeTransport instanceof WebMessagePortTransport) {
+                    ((WebMessagePortTransport) mBridgeTransport).open(view);
+                }
+            }
+
+            @Override
+            public WebResourceResponse shouldInterceptRequest(WebView view, WebResourceRequest request) {
+                if (isEarlyBridgeEnabled()
+                    && BridgeBootstrap.isSupported()) {
+                    WebResourceResponse response = BridgeBootstrap.intercept(mContext, request);
+                    if (response != null) {
+                        // A new page is loaded, messages wait for its bootstrap
+                        mBridgeLifecycle.pageLoading();
+                        return response;
+                    }
+                }
+
+                return super.shouldInterceptRequest(view, request);
             }
         };
 
         mWebView.setWebViewClient(webViewClient);
     }
 
-    @SuppressLint("NewApi")
-	private void allowAjax() {
-        if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.JELLY_BEAN) {
-            // TODO: see how to restrict only to local files
-            mWebView.getSettings().setAllowUniversalAccessFromFileURLs(true);
-        }
-    }
-
 	private void preloadContent() {
         String page = (getPage() != null) ? getPage() : "index.html";
 		
 		if (mPreloadOnCreate) {
+            mPageLoadStart = SystemClock.elapsedRealtime();
+            mFirstMessageDelay = -1;
+
 			if (page.startsWith("https://") || page.startsWith("http://")) {
                 mWebView.loadUrl(page);
             } else {
@@ -426,6 +513,32 @@ public class CobaltFragment extends Fragment implements IScrollListener, SwipeRe
             mWebViewContainer.removeView(mWebView);
 		}
 	}
+
+    /**
+     * Called when fragment is destroyed to give the Web view back to the pool it was acquired from,
+     * or to destroy it if it was created by a subclass.
+     */
+    private void releaseWebView() {
+        if (mWebView != null) {
+            if (mSwipeRefreshLayout != null) {
+                mSwipeRefreshLayout.setWebView(null);
+            }
+
+            if (mWebViewFromPool) {
+                WebViewPool.getInstance(mWebView.getContext()).release(mWebView);
+            }
+            else {
+                ViewGroup parent = (ViewGroup) mWebView.getParent();
+                if (parent != null) {
+                    parent.removeView(mWebView);
+                }
+                mWebView.destroy();
+            }
+
+            mWebView = null;
+            mWebViewFromPool = false;
+        }
+    }
 	
 	/****************************************************************************************
 	 * SCRIPT EXECUTION
@@ -435,55 +548,237 @@ public class CobaltFragment extends Fragment implements IScrollListener, SwipeRe
 	 * Sends script to be executed by JavaScript in Web view
 	 * @param jsonObj: JSONObject containing script.
 	 */
-    private void executeScriptInWebView(final JSONObject jsonObj, boolean executeFirst) {
+    private void executeScriptInWebView(final JSONObject jsonObj, boolean immediate) {
         if (jsonObj != null) {
-            Activity activity = getActivity();
+            MessageBatcher messageBatcher = mMessageBatcher;
+            boolean ready = mBridgeLifecycle.isReady();
             if (mWebView != null
-                    && activity != null
-                    && mCobaltIsReady) {
-                activity.runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        // Line & paragraph separators are not JSON compliant but supported by JSONObject
-                        String script = jsonObj.toString().replaceAll("[\u2028\u2029]", "");
-
-                        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
-                            // Since KitKat, messages are automatically urldecoded when received from the web. encoding them to fix this.
-                            script = script.replaceAll("%", "%25");
-                        }
-
-                        String url = "javascript:cobalt.private.execute(" + script + ");";
-                        mWebView.loadUrl(url);
-                    }
-                });
+                    && messageBatcher != null
+                    && getActivity() != null
+                    && ready) {
+                synchronized (mToJSWaitingCallsLock) {
+                    executeToJSWaitingCallsFirst();
+                    encodeScript(messageBatcher, jsonObj, immediate);
+                }
             }
             else {
                 if (Cobalt.DEBUG) Log.i(Cobalt.TAG, TAG + " - executeScriptInWebView: adding message to queue: " + jsonObj);
-                if (executeFirst)
-                {
-                    mToJSWaitingCallsQueue.add(0, jsonObj);
+                WaitingMessageQueue waitingMessageQueue = getWaitingMessageQueue();
+                waitingMessageQueue.offer(jsonObj);
+                // The bridge got ready meanwhile and may have drained the queue already
+                if (mBridgeLifecycle.isReady()) {
+                    if (! ready) {
+                        executeToJSWaitingCalls();
+                    }
                 }
-                else
-                {
-                    mToJSWaitingCallsQueue.add(jsonObj);
+                // Lifecycle messages are delivered while paused, through the queue to keep them in order
+                else if (mBridgeLifecycle.canDeliver(WaitingMessageQueue.laneOf(jsonObj))) {
+                    executeLifecycleWaitingCalls();
                 }
             }
         }
         else if (Cobalt.DEBUG) Log.e(Cobalt.TAG, TAG + " - executeScriptInWebView: jsonObj is null!");
     }
 
+    /**
+     * Serializes the specified message and enqueues it in the message batcher
+     * @param messageBatcher: the message batcher of the fragment.
+     * @param jsonObj: the message.
+     * @param immediate: true to deliver the message without waiting for the next frame.
+     */
+    private void encodeScript(MessageBatcher messageBatcher, JSONObject jsonObj, boolean immediate) {
+        try {
+            String script = mScriptEncoder.encode(jsonObj);
+            if (CobaltMetrics.isEnabled()) {
+                CobaltMetrics.record(CobaltMetrics.Metric.OUTBOUND_SIZE, getMetricsScope(),
+                                     jsonObj.optString(Cobalt.kJSType, null), script.length());
+            }
+            enqueueScript(messageBatcher, script, immediate);
+        }
+        catch (JSONException exception) {
+            if (Cobalt.DEBUG) Log.e(Cobalt.TAG, TAG + " - encodeScript: unable to encode " + jsonObj);
+            exception.printStackTrace();
+        }
+    }
+
+    /**
+     * Enqueues the specified message in the message batcher, split into chunks if longer than the chunk threshold
+     * @param messageBatcher: the message batcher of the fragment.
+     * @param script: the message, serialized and escaped for a script.
+     * @param immediate: true to deliver the message without waiting for the next frame. Ignored for chunked messages.
+     */
+    private void enqueueScript(MessageBatcher messageBatcher, String script, boolean immediate) {
+        BridgeRecorder bridgeRecorder = mBridgeRecorder;
+        if (bridgeRecorder != null) {
+            bridgeRecorder.recordOutbound(getMetricsScope(), script);
+        }
+
+        if (script.length() > getChunkThreshold()) {
+            List<String> chunks = MessageChunker.split(script, MessageChunker.CHUNK_LENGTH);
+            if (Cobalt.DEBUG) Log.d(Cobalt.TAG, TAG + " - enqueueScript: message of " + script.length()
+                                                + " characters split in " + chunks.size() + " chunks");
+            messageBatcher.enqueueAll(chunks);
+        }
+        else {
+            messageBatcher.enqueue(script, immediate);
+        }
+    }
+
+    /**
+     * Returns the length above which messages to the Web are split into chunks delivered over several frames,
+     * and reassembled by the page before being dispatched.
+     * Defaults to MessageChunker.DEFAULT_THRESHOLD, subclasses may override it.
+     * @return the length above which messages are chunked, in characters.
+     */
+    protected int getChunkThreshold() {
+        return MessageChunker.DEFAULT_THRESHOLD;
+    }
+
+    /**
+     * Delivers a batch of the message batcher with the bridge transport, on the main thread
+     * @param messages: the messages to deliver.
+     */
+    private void deliverMessages(List<String> messages) {
+        if (mWebView == null) {
+            return;
+        }
+
+        mBridgeTransport.deliver(mWebView, messages);
+
+        if (mFirstMessageDelay < 0
+            && mPageLoadStart >= 0) {
+            mFirstMessageDelay = SystemClock.elapsedRealtime() - mPageLoadStart;
+            if (Cobalt.DEBUG) Log.d(Cobalt.TAG, TAG + " - deliverMessages: first message delivered "
+                                                + mFirstMessageDelay + "ms after page load start"
+                                                + (isEarlyBridgeEnabled() ? " (early bridge)" : ""));
+        }
+        if (Cobalt.DEBUG && messages.size() > 1) Log.d(Cobalt.TAG, TAG + " - deliverMessages: " + messages.size() + " messages delivered in one batch");
+    }
+
+    /**
+     * Returns the transport delivering messages to the Web view.
+     * Defaults to evaluateJavascript since KitKat, javascript: URLs before,
+     * behind a WebMessagePort if enabled and supported. Subclasses may override it,
+     * i.e. to return a transport delivering to a fake page, which answers through the bridge message listener.
+     * @return the transport delivering messages to the Web view.
+     */
+    @NonNull
+    protected BridgeTransport createBridgeTransport() {
+        BridgeTransport transport;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            transport = new EvaluateJavascriptTransport();
+        }
+        else {
+            transport = new LoadUrlTransport();
+        }
+
+        if (isWebMessagePortEnabled()
+            && WebMessagePortTransport.isSupported()) {
+            transport = new WebMessagePortTransport(transport, getBridgeMessageListener());
+        }
+
+        return transport;
+    }
+
+    /**
+     * Returns the listener for the transports to hand the messages sent by the page to,
+     * as if sent to the JavascriptInterface
+     * @return the listener of the messages sent by the page.
+     */
+    @NonNull
+    protected BridgeTransport.MessageListener getBridgeMessageListener() {
+        return mBridgeMessageListener;
+    }
+
+    /**
+     * Returns whether messages go through a WebMessagePort on supporting Web views.
+     * Defaults to {@link Cobalt#isWebMessagePortEnabled()}, subclasses may override it.
+     * @return true to use a WebMessagePort, false otherwise.
+     */
+    protected boolean isWebMessagePortEnabled() {
+        return Cobalt.getInstance(mContext).isWebMessagePortEnabled();
+    }
+
     public void executeToJSWaitingCalls() {
-        ArrayList<JSONObject> toJSWaitingCallsQueue = new ArrayList<>(mToJSWaitingCallsQueue);
-		int toJSWaitingCallsQueueLength = toJSWaitingCallsQueue.size();
-		
-        mToJSWaitingCallsQueue.clear();
+        if (! mBridgeLifecycle.isReady()) {
+            executeLifecycleWaitingCalls();
+            return;
+        }
 
-		for (int i = 0 ; i < toJSWaitingCallsQueueLength ; i++) {
-			if (Cobalt.DEBUG) Log.i(Cobalt.TAG, TAG + " - executeToJSWaitingCalls: execute " + toJSWaitingCallsQueue.get(i).toString());
-			executeScriptInWebView(toJSWaitingCallsQueue.get(i), false);
-		}
+        synchronized (mToJSWaitingCallsLock) {
+            List<JSONObject> toJSWaitingCallsQueue = getWaitingMessageQueue().drain();
+            int toJSWaitingCallsQueueLength = toJSWaitingCallsQueue.size();
+
+            for (int i = 0 ; i < toJSWaitingCallsQueueLength ; i++) {
+                if (Cobalt.DEBUG) Log.i(Cobalt.TAG, TAG + " - executeToJSWaitingCalls: execute " + toJSWaitingCallsQueue.get(i).toString());
+                executeScriptInWebView(toJSWaitingCallsQueue.get(i), false);
+            }
+        }
 	}
 
+    /**
+     * Delivers the waiting messages before a message sent directly once the bridge is ready,
+     * so that a message sent from another thread right after the transition does not overtake them.
+     * Must be called holding mToJSWaitingCallsLock.
+     */
+    private void executeToJSWaitingCallsFirst() {
+        if (getWaitingMessageQueue().size() > 0) {
+            executeToJSWaitingCalls();
+        }
+    }
+
+    /**
+     * Delivers the waiting messages of the lifecycle lane if the page is ready, even if the fragment is paused,
+     * so that the page receives onAppBackground, which is published once the activity is stopped.
+     */
+    private void executeLifecycleWaitingCalls() {
+        if (! mBridgeLifecycle.isPageReady()) {
+            return;
+        }
+
+        synchronized (mToJSWaitingCallsLock) {
+            WaitingMessageQueue waitingMessageQueue = getWaitingMessageQueue();
+            MessageBatcher messageBatcher = mMessageBatcher;
+            for (JSONObject message : waitingMessageQueue.drain(WaitingMessageQueue.Lane.LIFECYCLE)) {
+                if (mWebView != null
+                        && messageBatcher != null
+                        && getActivity() != null
+                        && mBridgeLifecycle.isPageReady()) {
+                    if (Cobalt.DEBUG) Log.i(Cobalt.TAG, TAG + " - executeLifecycleWaitingCalls: execute " + message);
+                    encodeScript(messageBatcher, message, false);
+                }
+                else {
+                    waitingMessageQueue.offer(message);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the queue of the messages waiting for the page to be ready or the fragment to be resumed, created on first call
+     * @return the queue of the messages waiting to be sent to the Web.
+     */
+    @NonNull
+    public synchronized WaitingMessageQueue getWaitingMessageQueue() {
+        if (mToJSWaitingCallsQueue == null) {
+            mToJSWaitingCallsQueue = createWaitingMessageQueue();
+            mToJSWaitingCallsQueue.setMetricsScope(getMetricsScope());
+        }
+
+        return mToJSWaitingCallsQueue;
+    }
+
+    /**
+     * Returns the queue of the messages waiting for the page to be ready or the fragment to be resumed.
+     * Defaults to a queue of WaitingMessageQueue.DEFAULT_CAPACITY messages, dropping the oldest of the lowest lane when full.
+     * This method may be overridden in subclasses to change the capacity or policy.
+     * @return the queue of the messages waiting to be sent to the Web.
+     */
+    @NonNull
+    protected WaitingMessageQueue createWaitingMessageQueue() {
+        return new WaitingMessageQueue(WaitingMessageQueue.DEFAULT_CAPACITY, WaitingMessageQueue.Policy.DROP_OLDEST);
+    }
+
 	/****************************************************************************************
 	 * MESSAGE SENDING
 	 ***************************************************************************************/
@@ -497,13 +792,18 @@ public class CobaltFragment extends Fragment implements IScrollListener, SwipeRe
     protected void sendEvent(final String event, final JSONObject data, final String callbackID) {
         if (event != null
                 && event.length() > 0) {
+            if (data == null
+                && callbackID == null) {
+                sendRawMessage(EnvelopeWriter.event(event));
+                return;
+            }
+
             try {
-                JSONObject jsonObj = new JSONObject();
-                jsonObj.put(Cobalt.kJSType, Cobalt.JSTypeEvent);
-                jsonObj.put(Cobalt.kJSEvent, event);
-                jsonObj.put(Cobalt.kJSData, data);
-                jsonObj.put(Cobalt.kJSCallback, callbackID);
-                executeScriptInWebView(jsonObj, Cobalt.JSEventOnPageShown.equals(event));
+                sendRawMessage(EnvelopeWriter.obtain().beginMessage(Cobalt.JSTypeEvent)
+                                                      .field(Cobalt.kJSEvent, event)
+                                                      .field(Cobalt.kJSData, data)
+                                                      .field(Cobalt.kJSCallback, callbackID)
+                                                      .finish());
             }
             catch (JSONException exception) {
                 if (Cobalt.DEBUG) Log.e(Cobalt.TAG, TAG + " - sendEvent: JSONException");
@@ -518,8 +818,46 @@ public class CobaltFragment extends Fragment implements IScrollListener, SwipeRe
      * @param message: the object containing response fields
      */
     public void sendMessage(final JSONObject message) {
+        sendMessage(message, false);
+    }
+
+    /**
+     * Sends the specified message, already serialized as JSON, without parsing it when the Web is ready
+     * @param message: the JSON message.
+     */
+    public void sendRawMessage(@NonNull String message) {
+        MessageBatcher messageBatcher = mMessageBatcher;
+        if (mWebView != null
+                && messageBatcher != null
+                && getActivity() != null
+                && mBridgeLifecycle.isReady()) {
+            CobaltMetrics.record(CobaltMetrics.Metric.OUTBOUND_SIZE, getMetricsScope(), null, message.length());
+            synchronized (mToJSWaitingCallsLock) {
+                executeToJSWaitingCallsFirst();
+                enqueueScript(messageBatcher, ScriptEncoder.escapeSeparators(message), false);
+            }
+        }
+        else {
+            try {
+                // Waiting messages are kept as objects
+                executeScriptInWebView(new JSONObject(message), false);
+            }
+            catch (JSONException exception) {
+                if (Cobalt.DEBUG) Log.e(Cobalt.TAG, TAG + " - sendRawMessage: Unable to parse message as JSON.\n" + message);
+                exception.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Calls the Web callback with an object containing response fields
+     * @param message: the object containing response fields
+     * @param immediate: true to deliver the message without waiting for the next frame, for latency-critical messages.
+     *                 Messages sent before are delivered first.
+     */
+    public void sendMessage(final JSONObject message, boolean immediate) {
         if (message != null) {
-            executeScriptInWebView(message, false);
+            executeScriptInWebView(message, immediate);
         }
         else if (Cobalt.DEBUG) Log.e(Cobalt.TAG, TAG + " - sendMessage: message is null !");
     }
@@ -533,305 +871,158 @@ public class CobaltFragment extends Fragment implements IScrollListener, SwipeRe
 	 * @param message : the JSON-message sent by JavaScript.
 	 * @return true if the message was handled by the native, false otherwise
 	 * @details some basic operations are already implemented : navigation, logs, toasts, native alerts, web alerts
-	 * @details this method may be called from a secondary thread.
+	 * @details this method is called from the JavaBridge thread, messages are then processed in order on a thread of
+	 * the bridge executor of the fragment.
 	 */
 	// This method must be public !!!
 	@JavascriptInterface
 	public void onCobaltMessage(String message) {
-        if (mContext == null) {
-            mFromJSWaitingCallsQueue.add(message);
+        if (message != null) {
+            BridgeRecorder bridgeRecorder = mBridgeRecorder;
+            if (bridgeRecorder != null) {
+                bridgeRecorder.recordInbound(getMetricsScope(), message);
+            }
+
+            getBridgeExecutor().submit(message);
+        }
+    }
+
+    /**
+     * This method is called when the JavaScript sends several messages to the native side at once,
+     * to cross the bridge once. Messages are processed in order, as if sent one by one to onCobaltMessage.
+     * @param messages : the JSON array of messages sent by JavaScript, as objects or as strings.
+     * @details this method is called from the JavaBridge thread, the batch is only split there.
+     */
+    // This method must be public !!!
+    @JavascriptInterface
+    public void onCobaltMessages(String messages) {
+        if (messages == null) {
             return;
         }
 
-		try {
-			final JSONObject jsonObj = new JSONObject(message);
-
-            boolean messageHandled = false;
-
-            // TYPE
-            String type = jsonObj.optString(Cobalt.kJSType, null);
-			if (type != null) {
-                final JSONObject data;
-                String action;
-
-                switch (type) {
-                    // COBALT IS READY
-                    case Cobalt.JSTypeCobaltIsReady:
-                        onCobaltIsReady(jsonObj.optString(Cobalt.kJSVersion, null));
-                        messageHandled = true;
-                        break;
-                    // INTENT
-                    case Cobalt.JSTypeIntent:
-                        try {
-                            action = jsonObj.getString(Cobalt.kJSAction);
-                            // OPEN EXTERNAL URL
-                            if (action.equals(Cobalt.JSActionIntentOpenExternalUrl)) {
-                                data = jsonObj.getJSONObject(Cobalt.kJSData);
-                                String url = data.getString(Cobalt.kJSUrl);
-                                openExternalUrl(url);
-                                messageHandled = true;
-                            }
-                        }
-                        catch(JSONException exception) {
-                            if (Cobalt.DEBUG) Log.w(Cobalt.TAG, TAG + " - onCobaltMessage: " +
-                                    Cobalt.kJSAction + ", " + Cobalt.kJSData + " or " +
-                                    Cobalt.kJSData + "." + Cobalt.kJSUrl + " field(s) is/are " +
-                                    "missing.\n" + message);
-                            exception.printStackTrace();
-                        }
-                        break;
-                    // LOG
-                    case Cobalt.JSTypeLog:
-                        try {
-                            String text = jsonObj.getString(Cobalt.kJSValue);
-                            Log.d(Cobalt.TAG, "JS LOG: " + text);
-                            messageHandled = true;
-                        }
-                        catch(JSONException exception) {
-                            if (Cobalt.DEBUG) Log.w(Cobalt.TAG, TAG + " - onCobaltMessage: " +
-                                    Cobalt.kJSValue + " field is missing.\n" + message);
-                            exception.printStackTrace();
-                        }
-                        break;
-                    // NAVIGATION
-                    case Cobalt.JSTypeNavigation:
-                        try {
-                            action = jsonObj.getString(Cobalt.kJSAction);
-
-                            String page;
-                            String controller;
-
-                            switch (action) {
-                                // PUSH
-                                case Cobalt.JSActionNavigationPush:
-                                    try {
-                                        data = jsonObj.getJSONObject(Cobalt.kJSData);
-                                        push(data);
-                                        messageHandled = true;
-                                    }
-                                    catch(JSONException exception) {
-                                        if (Cobalt.DEBUG) Log.w(Cobalt.TAG, TAG + " - " +
-                                                "onCobaltMessage: " + Cobalt.kJSData +
-                                                " field is missing.\n" + message);
-                                        exception.printStackTrace();
-                                    }
-                                    break;
-                                // POP
-                                case Cobalt.JSActionNavigationPop:
-                                    data = jsonObj.optJSONObject(Cobalt.kJSData);
-                                    if (data != null) {
-                                        page = data.optString(Cobalt.kJSPage, null);
-                                        controller = data.optString(Cobalt.kJSController, null);
-                                        JSONObject dataToPop = data.optJSONObject(Cobalt.kJSData);
-                                        if (page != null) {
-                                            pop(controller, page, dataToPop);
-                                        }
-                                        else {
-                                            pop(dataToPop);
-                                        }
-                                    }
-                                    else {
-                                        pop();
-                                    }
-                                    messageHandled = true;
-                                    break;
-                                // MODAL
-                                case Cobalt.JSActionNavigationModal:
-                                    try {
-                                        data = jsonObj.getJSONObject(Cobalt.kJSData);
-                                        presentModal(data);
-                                        messageHandled = true;
-                                    }
-                                    catch(JSONException exception) {
-                                        if (Cobalt.DEBUG) Log.w(Cobalt.TAG, TAG + " - " +
-                                                "onCobaltMessage: " + Cobalt.kJSData +
-                                                " field is missing.\n" + message);
-                                        exception.printStackTrace();
-                                    }
-                                    break;
-                                // DISMISS
-                                case Cobalt.JSActionNavigationDismiss:
-                                    try {
-                                        // TODO: not present in iOS
-                                        data = jsonObj.getJSONObject(Cobalt.kJSData);
-                                        controller = data.getString(Cobalt.kJSController);
-                                        page = data.getString(Cobalt.kJSPage);
-                                        JSONObject dataForDissmiss = data.optJSONObject(Cobalt.kJSData);
-                                        dismissModal(controller, page, dataForDissmiss);
-                                        messageHandled = true;
-                                    }
-                                    catch(JSONException exception) {
-                                        if (Cobalt.DEBUG) Log.w(Cobalt.TAG, TAG + " - " +
-                                                "onCobaltMessage: one or more field(s) is/are " +
-                                                "missing within " + Cobalt.kJSData + ", " +
-                                                Cobalt.kJSData + "." + Cobalt.kJSController +
-                                                " or " + Cobalt.kJSData + "." + Cobalt.kJSPage +
-                                                ".\n" + message);
-                                        exception.printStackTrace();
-                                    }
-                                    break;
-                                // REPLACE
-                                case Cobalt.JSActionNavigationReplace:
-                                    try {
-                                        data = jsonObj.getJSONObject(Cobalt.kJSData);
-                                        replace(data);
-                                        messageHandled = true;
-                                    }
-                                    catch(JSONException exception) {
-                                        if (Cobalt.DEBUG) Log.w(Cobalt.TAG, TAG + " - " +
-                                                "onCobaltMessage: " + Cobalt.kJSData +
-                                                " field is missing.\n" + message);
-                                        exception.printStackTrace();
-                                    }
-                                    break;
-                            }
-                        }
-                        catch(JSONException exception) {
-                            if (Cobalt.DEBUG) Log.w(Cobalt.TAG, TAG + " - onCobaltMessage: " +
-                                        Cobalt.kJSAction + " field is missing.\n" + message);
-                            exception.printStackTrace();
-                        }
-                        break;
-                    // PLUGIN
-                    case Cobalt.JSTypePlugin:
-                        messageHandled = CobaltPluginManager.onMessage(mContext, this, jsonObj);
-                        break;
-                    // PUBSUB
-                    case Cobalt.JSTypePubsub:
-                        try
-                        {
-                            String pubsubAction = jsonObj.getString(Cobalt.kJSAction);
-                            String pubsubChannel = jsonObj.getString(Cobalt.kJSChannel);
-                            
-                            switch(pubsubAction)
-                            {
-                                case Cobalt.JSActionSubscribe:
-                                    PubSub.getInstance().subscribeWebToChannel(this,
-                                                                               pubsubChannel);
-                                    break;
-                                case Cobalt.JSActionUnsubscribe:
-                                    PubSub.getInstance().unsubscribeWebFromChannel(this,
-                                                                                   pubsubChannel);
-                                    break;
-                                case Cobalt.JSActionPublish:
-                                    JSONObject pubsubMessage = jsonObj.getJSONObject(Cobalt.kJSMessage);
-                                    PubSub.getInstance().publishMessage(pubsubMessage, pubsubChannel);
-                                    break;
-                            }
-                            messageHandled = true;
-                        }
-                        catch(JSONException exception)
-                        {
-                            Log.e(TAG, "onCobaltMessage: action, channel and/or message fields are missing or not a string (message: + "  + message + ")");
-                            exception.printStackTrace();
-                        }
-                        break;
-                    // UI
-                    case Cobalt.JSTypeUI:
-                        try {
-                            String control = jsonObj.getString(Cobalt.kJSUIControl);
-                            data = jsonObj.getJSONObject(Cobalt.kJSData);
-                            messageHandled = handleUi(control, data);
-                        }
-                        catch(JSONException exception) {
-                            if (Cobalt.DEBUG) Log.w(Cobalt.TAG, TAG + " - onCobaltMessage: " +
-                                    Cobalt.kJSUIControl + " and/or " + Cobalt.kJSData +
-                                    " field(s) is/are missing.\n" + message);
-                            exception.printStackTrace();
-                        }
-                        break;
-                    // WEB LAYER
-                    case Cobalt.JSTypeWebLayer:
-                        try {
-                            action = jsonObj.getString(Cobalt.kJSAction);
-                            switch (action) {
-                                // SHOW
-                                case Cobalt.JSActionWebLayerShow:
-                                    data = jsonObj.getJSONObject(Cobalt.kJSData);
-                                    showWebLayer(data);
-                                    messageHandled = true;
-                                    break;
-                                // DISMISS
-                                case Cobalt.JSActionWebLayerDismiss:
-                                    if (CobaltActivity.class.isAssignableFrom(mContext.getClass())) {
-                                        CobaltActivity activity = (CobaltActivity) mContext;
-                                        final Fragment currentFragment = activity.getSupportFragmentManager().findFragmentById(activity.getWebLayerFragmentContainerId());
-                                        if (currentFragment != null
-                                                && CobaltWebLayerFragment.class.isAssignableFrom(currentFragment.getClass())) {
-                                            activity.runOnUiThread(new Runnable() {
-                                                @Override
-                                                public void run() {
-                                                    ((CobaltWebLayerFragment) currentFragment).dismissWebLayer(jsonObj);
-                                                }
-                                            });
-                                        }
-                                    }
+        try {
+            for (String message : BridgeMessage.split(messages)) {
+                onCobaltMessage(message);
+            }
+        }
+        catch (JSONException exception) {
+            if (Cobalt.DEBUG) Log.e(Cobalt.TAG, TAG + " - onCobaltMessages: Unable to parse " +
+                    "messages as a JSON array.\n" + messages);
+            exception.printStackTrace();
+        }
+    }
 
-                                    messageHandled = true;
-                                    break;
-                                // BRING TO FRONT
-                                case Cobalt.JSActionWebLayerBringToFront:
-                                    ((Activity) mContext).runOnUiThread(new Runnable() {
-                                        @Override
-                                        public void run() {
-                                            bringWebLayerToFront();
-                                        }
-                                    });
-                                    break;
-                                // SEND TO BACK
-                                case Cobalt.JSActionWebLayerSendToBack:
-                                    ((Activity) mContext).runOnUiThread(new Runnable() {
-                                        @Override
-                                        public void run() {
-                                            sendWebLayerToBack();
-                                        }
-                                    });
-                                    break;
-                            }
-                        }
-                        catch(JSONException exception) {
-                            if (Cobalt.DEBUG) Log.w(Cobalt.TAG, TAG + " - onCobaltMessage: " +
-                                    Cobalt.kJSAction + " and/or " + Cobalt.kJSData +
-                                    " field(s) is/are missing.\n" + message);
-                            exception.printStackTrace();
-                        }
-                        break;
+    /**
+     * Returns the executor processing the messages received from the Web, created on first call
+     * @return the executor processing the messages received from the Web.
+     */
+    @NonNull
+    public synchronized BridgeExecutor getBridgeExecutor() {
+        if (mBridgeExecutor == null) {
+            mBridgeExecutor = createBridgeExecutor(new BridgeExecutor.MessageProcessor() {
+                @Override
+                public void process(@NonNull String message) {
+                    processCobaltMessage(message);
+                }
+
+                @Override
+                public void onDiscarded(@NonNull String message, @NonNull BridgeExecutor.Policy policy) {
+                    if (policy == BridgeExecutor.Policy.REJECT) {
+                        onCobaltMessageRejected(message);
+                    }
                 }
-			}
+            });
+            mBridgeExecutor.setMetricsScope(getMetricsScope());
+            // Messages received before the fragment is attached wait in the executor
+            if (! mBridgeLifecycle.isAttached()) {
+                mBridgeExecutor.pause();
+            }
+        }
+
+        return mBridgeExecutor;
+    }
+
+    /**
+     * Returns the executor processing the messages received from the Web.
+     * Defaults to a queue of BridgeExecutor.DEFAULT_CAPACITY messages, blocking the page when full.
+     * This method may be overridden in subclasses to change the capacity or policy.
+     * @param processor the processor of the messages, to give to the executor.
+     * @return the executor processing the messages received from the Web.
+     */
+    @NonNull
+    protected BridgeExecutor createBridgeExecutor(@NonNull BridgeExecutor.MessageProcessor processor) {
+        return new BridgeExecutor(BridgeExecutor.DEFAULT_CAPACITY, BridgeExecutor.Policy.BLOCK, processor);
+    }
+
+    /**
+     * Notifies the page that the specified message was rejected, on its callback channel if any, with an event otherwise.
+     * @param message: the message rejected.
+     */
+    private void onCobaltMessageRejected(String message) {
+        try {
+            JSONObject jsonObj = new JSONObject(message);
+            String callbackChannel = jsonObj.optString(Cobalt.kJSCallbackChannel, null);
+
+            JSONObject error = new JSONObject();
+            error.put(Cobalt.kJSError, Cobalt.JSErrorBridgeOverflow);
+
+            if (callbackChannel != null) {
+                PubSub.getInstance().publishMessage(error, callbackChannel);
+            }
+            else {
+                error.put(Cobalt.kJSMessage, jsonObj);
+                sendEvent(Cobalt.JSEventOnBridgeOverflow, error, null);
+            }
+        }
+        catch (JSONException exception) {
+            if (Cobalt.DEBUG) Log.e(Cobalt.TAG, TAG + " - onCobaltMessageRejected: Unable to parse " +
+                    "message as JSON.\n" + message);
+            exception.printStackTrace();
+        }
+    }
+
+    private void processCobaltMessage(String message) {
+        // Detached since the message was polled, it waits in the executor, ahead of the following ones
+        if (! mBridgeLifecycle.isAttached()) {
+            getBridgeExecutor().putBack(message);
+            return;
+        }
+
+		try {
+            long parseStart = CobaltMetrics.start();
+			BridgeMessage bridgeMessage = BridgeMessage.parse(message);
+            String type = null;
+            if (parseStart != 0) {
+                type = bridgeMessage.optString(Cobalt.kJSType);
+                CobaltMetrics.recordSince(CobaltMetrics.Metric.PARSE_TIME, getMetricsScope(), type, parseStart);
+                CobaltMetrics.record(CobaltMetrics.Metric.INBOUND_SIZE, getMetricsScope(), type, message.length());
+            }
+
+            long dispatchStart = CobaltMetrics.start();
+            boolean handled = getMessageDispatcher().dispatch(this, bridgeMessage);
+            CobaltMetrics.recordSince(CobaltMetrics.Metric.DISPATCH_TIME, getMetricsScope(), type, dispatchStart);
 
             // UNHANDLED MESSAGE
-            if (! messageHandled &&
+            if (! handled &&
                 Cobalt.DEBUG)
             {
-                Log.e(Cobalt.TAG, TAG + " - onCobaltMessage: message not handled.\n" + message);
+                Log.e(Cobalt.TAG, TAG + " - processCobaltMessage: message not handled.\n" + message);
             }
 		} 
 		catch (JSONException exception) {
-            if (Cobalt.DEBUG) Log.e(Cobalt.TAG, TAG + " - onCobaltMessage: Unable to parse " +
+            if (Cobalt.DEBUG) Log.e(Cobalt.TAG, TAG + " - processCobaltMessage: Unable to parse " +
                     "message as JSON.\n" + message);
 			exception.printStackTrace();
 		}
 
         /*
         catch (NullPointerException exception) {
-            if (Cobalt.DEBUG) Log.e(Cobalt.TAG, TAG + " - onCobaltMessage: NullPointerException");
+            if (Cobalt.DEBUG) Log.e(Cobalt.TAG, TAG + " - processCobaltMessage: NullPointerException");
             exception.printStackTrace();
         }
         */
 	}
 
-    private void executeFromJSWaitingCalls() {
-        ArrayList<String> fromJSWaitingCallsQueue = new ArrayList<>(mFromJSWaitingCallsQueue);
-        int fromJSWaitingCallsQueueLength = fromJSWaitingCallsQueue.size();
-
-        mFromJSWaitingCallsQueue.clear();
-
-        for (int i = 0 ; i < fromJSWaitingCallsQueueLength ; i++) {
-            if (Cobalt.DEBUG) Log.i(Cobalt.TAG, TAG + " - executeFromJSWaitingCalls: execute " + fromJSWaitingCallsQueue.get(i));
-            onCobaltMessage(fromJSWaitingCallsQueue.get(i));
-        }
-    }
-
 	private void onCobaltIsReady(String version) {
         String androidVersion = getResources().getString(R.string.version_name);
         if (! androidVersion.equals(version)) {
@@ -843,8 +1034,7 @@ public class CobaltFragment extends Fragment implements IScrollListener, SwipeRe
             Log.i(Cobalt.TAG, TAG + " - onCobaltIsReady: version " + androidVersion);
         }
 
-		mCobaltIsReady = true;
-        executeToJSWaitingCalls();
+		mBridgeLifecycle.pageReady();
 
         ((Activity) mContext).runOnUiThread(new Runnable() {
             @Override
@@ -854,232 +1044,367 @@ public class CobaltFragment extends Fragment implements IScrollListener, SwipeRe
         });
 	}
 
+    /**
+     * Called when the bridge bootstrap injected at document start runs.
+     * Messages are sent right away from then, the bootstrap buffering them until cobalt.js is loaded.
+     */
+    private void onCobaltBootstrap() {
+        if (Cobalt.DEBUG) Log.i(Cobalt.TAG, TAG + " - onCobaltBootstrap: bridge is ready");
+
+        mBridgeLifecycle.pageReady();
+    }
+
     protected void onReady() { }
 
-	private boolean handleUi(String control, JSONObject data) {
-        boolean messageHandled = false;
-
-        switch (control) {
-            // ALERT
-            case Cobalt.JSControlAlert:
-                showAlertDialog(data);
-                messageHandled = true;
-                break;
-            // TOAST
-            case Cobalt.JSControlToast:
-                try {
-                    final String message = data.getString(Cobalt.kJSMessage);
+    /**
+     * Returns whether the bridge bootstrap is injected in the pages of this fragment.
+     * Defaults to {@link Cobalt#isEarlyBridgeEnabled()}, subclasses may override it.
+     * @return true to inject the bridge bootstrap, false otherwise.
+     */
+    protected boolean isEarlyBridgeEnabled() {
+        return Cobalt.getInstance(mContext).isEarlyBridgeEnabled();
+    }
 
-                    ((Activity) mContext).runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            Toast.makeText(mContext, message, Toast.LENGTH_SHORT).show();
-                        }
-                    });
+    /**
+     * Returns the name the bridge metrics of this fragment are recorded under: its class and page
+     * @return the name the metrics of this fragment are recorded under.
+     */
+    @NonNull
+    public String getMetricsScope() {
+        String metricsScope = mMetricsScope;
+        if (metricsScope == null) {
+            metricsScope = getClass().getSimpleName() + "/" + getPage();
+            mMetricsScope = metricsScope;
+        }
 
-                    messageHandled = true;
-                }
-                catch (JSONException exception) {
-                    if (Cobalt.DEBUG) Log.w(Cobalt.TAG, TAG + " - handleUi: " + Cobalt.kJSMessage +
-                            " field is missing.\n" + data);
-                    exception.printStackTrace();
-                }
-                break;
-            // PULL TO REFRESH
-            case Cobalt.JSControlPullToRefresh:
-                try {
-                    final String action = data.getString(Cobalt.kJSAction);
-                    if (Cobalt.JSActionDismiss.equals(action))
-                    {
-                        ((Activity) mContext).runOnUiThread(new Runnable() {
-                            @Override
-                            public void run() {
-                                onPullToRefreshDidRefresh();
-                            }
-                        });
-                    }
-                    
-                    messageHandled = true;
-                }
-                catch (JSONException exception) {
-                    if (Cobalt.DEBUG) Log.w(Cobalt.TAG, TAG + " - handleUi: " + Cobalt.kJSAction +
-                                                        " field is missing.\n" + data);
-                    exception.printStackTrace();
-                }
-                break;
-            // INFINITE SCROLL
-            case Cobalt.JSControlInfiniteScroll:
-                try {
-                    final String action = data.getString(Cobalt.kJSAction);
-                    if (Cobalt.JSActionDismiss.equals(action))
-                    {
-                        ((Activity) mContext).runOnUiThread(new Runnable() {
-                            @Override
-                            public void run() {
-                                onInfiniteScrollDidRefresh();
-                            }
-                        });
-                    }
-            
-                    messageHandled = true;
-                }
-                catch (JSONException exception) {
-                    if (Cobalt.DEBUG) Log.w(Cobalt.TAG, TAG + " - handleUi: " + Cobalt.kJSAction +
-                                                        " field is missing.\n" + data);
-                    exception.printStackTrace();
-                }
-                break;
-            // BARS
-            case Cobalt.JSControlBars:
-                try {
-                    String action = data.getString(Cobalt.kJSAction);
-                    switch (action) {
-                        // SET BARS
-                        case Cobalt.JSActionSetBars:
-                            JSONObject bars = data.optJSONObject(Cobalt.kJSBars);
-                            setBars(bars);
-                            messageHandled = true;
-                            break;
-                        // SET ACTION BADGE
-                        case Cobalt.JSActionSetActionBadge:
-                            try {
-                                final String name = data.getString(Cobalt.kActionName);
-                                final String badge = data.getString(Cobalt.kActionBadge);
-
-                                ((Activity) mContext).runOnUiThread(new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        ((CobaltActivity) mContext).setBadgeMenuItem(name, badge);
-                                    }
-                                });
+        return metricsScope;
+    }
 
-                                messageHandled = true;
-                            }
-                            catch (JSONException exception) {
-                                if (Cobalt.DEBUG) Log.w(Cobalt.TAG, TAG + " - handleUi: " +
-                                        Cobalt.kActionName + " and/or " + Cobalt.kActionBadge +
-                                        " field(s) is/are missing.\n" + data);
-                                exception.printStackTrace();
-                            }
-                            break;
-                        // SET ACTION CONTENT
-                        case Cobalt.JSActionSetActionContent:
-                            try {
-                                final String nameContent = data.getString(Cobalt.kActionName);
-                                final JSONObject content = data.getJSONObject(Cobalt.kContent);
-
-                                ((Activity) mContext).runOnUiThread(new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        ((CobaltActivity) mContext).setContentMenuItem(nameContent, content);
-                                    }
-                                });
+    /**
+     * Records the messages crossing the bridge of this fragment with the specified recorder, to replay them later.
+     * Messages sent to the Web are recorded when enqueued for delivery, so waiting messages once the bridge is ready.
+     * @param bridgeRecorder the recorder, which may be shared by several fragments, or null to stop recording.
+     */
+    public void setBridgeRecorder(@Nullable BridgeRecorder bridgeRecorder) {
+        mBridgeRecorder = bridgeRecorder;
+    }
 
-                                messageHandled = true;
-                            }
-                            catch (JSONException exception) {
-                                if (Cobalt.DEBUG) Log.w(Cobalt.TAG, TAG + " - handleUi: " +
-                                        Cobalt.kActionName + " and/or " + Cobalt.kContent +
-                                        " field(s) is/are missing.\n" + data);
-                                exception.printStackTrace();
-                            }
-                            break;
-                        // SET BARS VISIBLE
-                        case Cobalt.JSActionSetBarsVisible:
-                            try {
-                                final JSONObject visible = data.getJSONObject(Cobalt.kVisible);
+    /**
+     * Returns the recorder of the messages crossing the bridge of this fragment
+     * @return the recorder, or null if the messages are not recorded.
+     */
+    @Nullable
+    public BridgeRecorder getBridgeRecorder() {
+        return mBridgeRecorder;
+    }
 
-                                ((Activity) mContext).runOnUiThread(new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        ((CobaltActivity) mContext).setActionBarVisible(visible);
-                                    }
-                                });
+    /**
+     * Returns the state of the bridge: messages to the Web are only delivered when READY, others wait
+     * @return the state of the bridge.
+     */
+    @NonNull
+    public BridgeLifecycle.State getBridgeState() {
+        return mBridgeLifecycle.getState();
+    }
 
-                                messageHandled = true;
-                            }
-                            catch (JSONException exception) {
-                                if (Cobalt.DEBUG) Log.w(Cobalt.TAG, TAG + " - handleUi: " +
-                                        Cobalt.kVisible + " field is missing.\n" + data);
-                                exception.printStackTrace();
-                            }
-                            break;
-                        // SET BAR CONTENT
-                        case Cobalt.JSActionSetBarContent:
-                            try {
-                                final JSONObject barsContent = data.getJSONObject(Cobalt.kContent);
+    /**
+     * Returns the delay between the start of the last page load and the delivery of the first message to the Web
+     * @return the delay in milliseconds, or -1 if no message was delivered yet.
+     */
+    public long getFirstMessageDelay() {
+        return mFirstMessageDelay;
+    }
 
-                                ((Activity) mContext).runOnUiThread(new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        ((CobaltActivity) mContext).setBarContent(barsContent);
-                                    }
-                                });
+    /**
+     * Returns the dispatcher application-wide message handlers are registered in.
+     * Its handlers take precedence over the built-in ones, for all fragments.
+     * @return the dispatcher application-wide message handlers are registered in.
+     */
+    @NonNull
+    public static MessageDispatcher getApplicationMessageDispatcher() {
+        return sApplicationMessageDispatcher;
+    }
 
-                                messageHandled = true;
-                            }
-                            catch (JSONException exception) {
-                                if (Cobalt.DEBUG) Log.w(Cobalt.TAG, TAG + " - handleUi: " +
-                                        Cobalt.kContent + " field is missing.\n" + data);
-                                exception.printStackTrace();
-                            }
-                            break;
-                        // SET ACTION VISIBLE
-                        case Cobalt.JSActionSetActionVisible:
-                            try {
-                                final String actionName = data.getString(Cobalt.kActionName);
-                                final boolean actionVisible = data.getBoolean(Cobalt.kVisible);
-
-                                ((Activity) mContext).runOnUiThread(new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        ((CobaltActivity) mContext).setActionItemVisible(actionName, actionVisible);
-                                    }
-                                });
+    /**
+     * Returns the dispatcher of the messages sent to this fragment, created on first call.
+     * Its handlers take precedence over the application-wide ones.
+     * @return the dispatcher of the messages sent to this fragment.
+     */
+    @NonNull
+    protected synchronized MessageDispatcher getMessageDispatcher() {
+        if (mMessageDispatcher == null) {
+            mMessageDispatcher = new MessageDispatcher(sApplicationMessageDispatcher);
+            onRegisterMessageHandlers(mMessageDispatcher);
+        }
 
-                                messageHandled = true;
-                            }
-                            catch (JSONException exception) {
-                                if (Cobalt.DEBUG) Log.w(Cobalt.TAG, TAG + " - handleUi: " +
-                                        Cobalt.kActionName + " and/or " + Cobalt.kVisible +
-                                        " field(s) is/are missing.\n" + data);
-                                exception.printStackTrace();
-                            }
-                            break;
-                        // SET ACTION ENABLED
-                        case Cobalt.JSActionSetActionEnabled:
-                            try {
-                                final String actionNameEnabled = data.getString(Cobalt.kActionName);
-                                final boolean actionEnabled = data.getBoolean(Cobalt.kEnabled);
-
-                                ((Activity) mContext).runOnUiThread(new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        ((CobaltActivity) mContext).setActionItemEnabled(actionNameEnabled, actionEnabled);
-                                    }
-                                });
+        return mMessageDispatcher;
+    }
 
-                                messageHandled = true;
-                            }
-                            catch (JSONException exception) {
-                                if (Cobalt.DEBUG) Log.w(Cobalt.TAG, TAG + " - handleUi: " +
-                                        Cobalt.kActionName + " and/or " + Cobalt.kEnabled +
-                                        " field(s) is/are missing.\n" + data);
-                                exception.printStackTrace();
-                            }
-                            break;
+    /**
+     * Called when the dispatcher of this fragment is created, to add or override message handlers.
+     * This method may be overridden in subclasses.
+     * @param dispatcher the dispatcher of the messages sent to this fragment.
+     */
+    protected void onRegisterMessageHandlers(@NonNull MessageDispatcher dispatcher) { }
+
+    private static void registerBuiltInMessageHandlers(MessageDispatcher dispatcher) {
+        // COBALT IS READY
+        dispatcher.register(Cobalt.JSTypeCobaltIsReady, null, new MessageHandler(MessageHandler.Affinity.BRIDGE) {
+            @Override
+            public boolean handle(@NonNull CobaltFragment fragment, @NonNull BridgeMessage message) {
+                fragment.onCobaltIsReady(message.optString(Cobalt.kJSVersion));
+                return true;
+            }
+        });
+        // BRIDGE BOOTSTRAP
+        dispatcher.register(Cobalt.JSTypeCobaltBootstrap, null, new MessageHandler(MessageHandler.Affinity.BRIDGE) {
+            @Override
+            public boolean handle(@NonNull CobaltFragment fragment, @NonNull BridgeMessage message) {
+                fragment.onCobaltBootstrap();
+                return true;
+            }
+        });
+        // INTENT - OPEN EXTERNAL URL
+        dispatcher.register(Cobalt.JSTypeIntent, Cobalt.JSActionIntentOpenExternalUrl,
+                            new MessageHandler(MessageHandler.Affinity.BRIDGE, Cobalt.kJSData + "." + Cobalt.kJSUrl) {
+            @Override
+            public boolean handle(@NonNull CobaltFragment fragment, @NonNull BridgeMessage message) throws JSONException {
+                fragment.openExternalUrl(message.getJSONObject(Cobalt.kJSData).getString(Cobalt.kJSUrl));
+                return true;
+            }
+        });
+        // LOG
+        dispatcher.register(Cobalt.JSTypeLog, null, new MessageHandler(MessageHandler.Affinity.BRIDGE, Cobalt.kJSValue) {
+            @Override
+            public boolean handle(@NonNull CobaltFragment fragment, @NonNull BridgeMessage message) throws JSONException {
+                Log.d(Cobalt.TAG, "JS LOG: " + message.getString(Cobalt.kJSValue));
+                return true;
+            }
+        });
+        // NAVIGATION - PUSH
+        dispatcher.register(Cobalt.JSTypeNavigation, Cobalt.JSActionNavigationPush,
+                            new MessageHandler(MessageHandler.Affinity.BRIDGE, Cobalt.kJSData) {
+            @Override
+            public boolean handle(@NonNull CobaltFragment fragment, @NonNull BridgeMessage message) throws JSONException {
+                fragment.push(message.getJSONObject(Cobalt.kJSData));
+                return true;
+            }
+        });
+        // NAVIGATION - POP
+        dispatcher.register(Cobalt.JSTypeNavigation, Cobalt.JSActionNavigationPop, new MessageHandler(MessageHandler.Affinity.BRIDGE) {
+            @Override
+            public boolean handle(@NonNull CobaltFragment fragment, @NonNull BridgeMessage message) {
+                JSONObject data = message.optJSONObject(Cobalt.kJSData);
+                if (data != null) {
+                    String page = data.optString(Cobalt.kJSPage, null);
+                    String controller = data.optString(Cobalt.kJSController, null);
+                    JSONObject dataToPop = data.optJSONObject(Cobalt.kJSData);
+                    if (page != null) {
+                        fragment.pop(controller, page, dataToPop);
+                    }
+                    else {
+                        fragment.pop(dataToPop);
                     }
                 }
-                catch(JSONException exception) {
-                    if (Cobalt.DEBUG) Log.w(Cobalt.TAG, TAG + " - handleUi: " + Cobalt.kJSAction +
-                            " field is missing.\n" + data);
-                    exception.printStackTrace();
+                else {
+                    fragment.pop();
+                }
+                return true;
+            }
+        });
+        // NAVIGATION - MODAL
+        dispatcher.register(Cobalt.JSTypeNavigation, Cobalt.JSActionNavigationModal,
+                            new MessageHandler(MessageHandler.Affinity.BRIDGE, Cobalt.kJSData) {
+            @Override
+            public boolean handle(@NonNull CobaltFragment fragment, @NonNull BridgeMessage message) throws JSONException {
+                fragment.presentModal(message.getJSONObject(Cobalt.kJSData));
+                return true;
+            }
+        });
+        // NAVIGATION - DISMISS
+        // TODO: not present in iOS
+        dispatcher.register(Cobalt.JSTypeNavigation, Cobalt.JSActionNavigationDismiss,
+                            new MessageHandler(MessageHandler.Affinity.BRIDGE,
+                                               Cobalt.kJSData + "." + Cobalt.kJSController,
+                                               Cobalt.kJSData + "." + Cobalt.kJSPage) {
+            @Override
+            public boolean handle(@NonNull CobaltFragment fragment, @NonNull BridgeMessage message) throws JSONException {
+                JSONObject data = message.getJSONObject(Cobalt.kJSData);
+                fragment.dismissModal(data.getString(Cobalt.kJSController), data.getString(Cobalt.kJSPage),
+                                      data.optJSONObject(Cobalt.kJSData));
+                return true;
+            }
+        });
+        // NAVIGATION - REPLACE
+        dispatcher.register(Cobalt.JSTypeNavigation, Cobalt.JSActionNavigationReplace,
+                            new MessageHandler(MessageHandler.Affinity.BRIDGE, Cobalt.kJSData) {
+            @Override
+            public boolean handle(@NonNull CobaltFragment fragment, @NonNull BridgeMessage message) throws JSONException {
+                fragment.replace(message.getJSONObject(Cobalt.kJSData));
+                return true;
+            }
+        });
+        // PLUGIN
+        dispatcher.register(Cobalt.JSTypePlugin, null, new MessageHandler(MessageHandler.Affinity.BRIDGE) {
+            @Override
+            public boolean handle(@NonNull CobaltFragment fragment, @NonNull BridgeMessage message) throws JSONException {
+                return CobaltPluginManager.onMessage(fragment.mContext, fragment, message.toJSONObject());
+            }
+        });
+        // PUBSUB
+        dispatcher.register(Cobalt.JSTypePubsub, Cobalt.JSActionSubscribe,
+                            new MessageHandler(MessageHandler.Affinity.BRIDGE, Cobalt.kJSChannel) {
+            @Override
+            public boolean handle(@NonNull CobaltFragment fragment, @NonNull BridgeMessage message) throws JSONException {
+                PubSub.getInstance().subscribeWebToChannel(fragment, message.getString(Cobalt.kJSChannel));
+                return true;
+            }
+        });
+        dispatcher.register(Cobalt.JSTypePubsub, Cobalt.JSActionUnsubscribe,
+                            new MessageHandler(MessageHandler.Affinity.BRIDGE, Cobalt.kJSChannel) {
+            @Override
+            public boolean handle(@NonNull CobaltFragment fragment, @NonNull BridgeMessage message) throws JSONException {
+                PubSub.getInstance().unsubscribeWebFromChannel(fragment, message.getString(Cobalt.kJSChannel));
+                return true;
+            }
+        });
+        dispatcher.register(Cobalt.JSTypePubsub, Cobalt.JSActionPublish,
+                            new MessageHandler(MessageHandler.Affinity.BRIDGE, Cobalt.kJSChannel, Cobalt.kJSMessage) {
+            @Override
+            public boolean handle(@NonNull CobaltFragment fragment, @NonNull BridgeMessage message) throws JSONException {
+                // Forwarded as is to Web subscribers, only parsed for native ones
+                PubSub.getInstance().publishRawMessage(message.getRawObject(Cobalt.kJSMessage), message.getString(Cobalt.kJSChannel));
+                return true;
+            }
+        });
+        // UI - ALERT
+        dispatcher.register(Cobalt.JSTypeUI, Cobalt.JSControlAlert,
+                            new MessageHandler(MessageHandler.Affinity.BRIDGE, Cobalt.kJSData) {
+            @Override
+            public boolean handle(@NonNull CobaltFragment fragment, @NonNull BridgeMessage message) throws JSONException {
+                fragment.showAlertDialog(message.getJSONObject(Cobalt.kJSData));
+                return true;
+            }
+        });
+        // UI - TOAST
+        dispatcher.register(Cobalt.JSTypeUI, Cobalt.JSControlToast,
+                            new MessageHandler(MessageHandler.Affinity.UI, Cobalt.kJSData + "." + Cobalt.kJSMessage) {
+            @Override
+            public boolean handle(@NonNull CobaltFragment fragment, @NonNull BridgeMessage message) throws JSONException {
+                String text = message.getJSONObject(Cobalt.kJSData).getString(Cobalt.kJSMessage);
+                Toast.makeText(fragment.mContext, text, Toast.LENGTH_SHORT).show();
+                return true;
+            }
+        });
+        // UI - PULL TO REFRESH
+        dispatcher.register(Cobalt.JSTypeUI, Cobalt.JSControlPullToRefresh,
+                            new MessageHandler(MessageHandler.Affinity.UI, Cobalt.kJSData + "." + Cobalt.kJSAction) {
+            @Override
+            public boolean handle(@NonNull CobaltFragment fragment, @NonNull BridgeMessage message) throws JSONException {
+                if (Cobalt.JSActionDismiss.equals(message.getJSONObject(Cobalt.kJSData).getString(Cobalt.kJSAction))) {
+                    fragment.onPullToRefreshDidRefresh();
+                }
+                return true;
+            }
+        });
+        // UI - INFINITE SCROLL
+        dispatcher.register(Cobalt.JSTypeUI, Cobalt.JSControlInfiniteScroll,
+                            new MessageHandler(MessageHandler.Affinity.UI, Cobalt.kJSData + "." + Cobalt.kJSAction) {
+            @Override
+            public boolean handle(@NonNull CobaltFragment fragment, @NonNull BridgeMessage message) throws JSONException {
+                if (Cobalt.JSActionDismiss.equals(message.getJSONObject(Cobalt.kJSData).getString(Cobalt.kJSAction))) {
+                    fragment.onInfiniteScrollDidRefresh();
+                }
+                return true;
+            }
+        });
+        // UI - BARS
+        dispatcher.register(Cobalt.JSTypeUI, Cobalt.JSControlBars,
+                            new MessageHandler(MessageHandler.Affinity.UI, Cobalt.kJSData + "." + Cobalt.kJSAction) {
+            @Override
+            public boolean handle(@NonNull CobaltFragment fragment, @NonNull BridgeMessage message) throws JSONException {
+                JSONObject data = message.getJSONObject(Cobalt.kJSData);
+                CobaltActivity activity = (CobaltActivity) fragment.mContext;
+                if (activity == null) {
+                    return false;
                 }
-                break;
-        }
 
-        return messageHandled;
-	}
+                switch (data.getString(Cobalt.kJSAction)) {
+                    // SET BARS
+                    case Cobalt.JSActionSetBars:
+                        fragment.setBars(data.optJSONObject(Cobalt.kJSBars));
+                        return true;
+                    // SET ACTION BADGE
+                    case Cobalt.JSActionSetActionBadge:
+                        activity.setBadgeMenuItem(data.getString(Cobalt.kActionName), data.getString(Cobalt.kActionBadge));
+                        return true;
+                    // SET ACTION CONTENT
+                    case Cobalt.JSActionSetActionContent:
+                        activity.setContentMenuItem(data.getString(Cobalt.kActionName), data.getJSONObject(Cobalt.kContent));
+                        return true;
+                    // SET BARS VISIBLE
+                    case Cobalt.JSActionSetBarsVisible:
+                        activity.setActionBarVisible(data.getJSONObject(Cobalt.kVisible));
+                        return true;
+                    // SET BAR CONTENT
+                    case Cobalt.JSActionSetBarContent:
+                        activity.setBarContent(data.getJSONObject(Cobalt.kContent));
+                        return true;
+                    // SET ACTION VISIBLE
+                    case Cobalt.JSActionSetActionVisible:
+                        activity.setActionItemVisible(data.getString(Cobalt.kActionName), data.getBoolean(Cobalt.kVisible));
+                        return true;
+                    // SET ACTION ENABLED
+                    case Cobalt.JSActionSetActionEnabled:
+                        activity.setActionItemEnabled(data.getString(Cobalt.kActionName), data.getBoolean(Cobalt.kEnabled));
+                        return true;
+                    default:
+                        return false;
+                }
+            }
+        });
+        // WEB LAYER - SHOW
+        dispatcher.register(Cobalt.JSTypeWebLayer, Cobalt.JSActionWebLayerShow,
+                            new MessageHandler(MessageHandler.Affinity.BRIDGE, Cobalt.kJSData) {
+            @Override
+            public boolean handle(@NonNull CobaltFragment fragment, @NonNull BridgeMessage message) throws JSONException {
+                fragment.showWebLayer(message.getJSONObject(Cobalt.kJSData));
+                return true;
+            }
+        });
+        // WEB LAYER - DISMISS
+        dispatcher.register(Cobalt.JSTypeWebLayer, Cobalt.JSActionWebLayerDismiss, new MessageHandler(MessageHandler.Affinity.UI) {
+            @Override
+            public boolean handle(@NonNull CobaltFragment fragment, @NonNull BridgeMessage message) throws JSONException {
+                if (fragment.mContext != null
+                        && CobaltActivity.class.isAssignableFrom(fragment.mContext.getClass())) {
+                    CobaltActivity activity = (CobaltActivity) fragment.mContext;
+                    Fragment currentFragment = activity.getSupportFragmentManager().findFragmentById(activity.getWebLayerFragmentContainerId());
+                    if (currentFragment != null
+                            && CobaltWebLayerFragment.class.isAssignableFrom(currentFragment.getClass())) {
+                        ((CobaltWebLayerFragment) currentFragment).dismissWebLayer(message.toJSONObject());
+                    }
+                }
+                return true;
+            }
+        });
+        // WEB LAYER - BRING TO FRONT
+        dispatcher.register(Cobalt.JSTypeWebLayer, Cobalt.JSActionWebLayerBringToFront, new MessageHandler(MessageHandler.Affinity.UI) {
+            @Override
+            public boolean handle(@NonNull CobaltFragment fragment, @NonNull BridgeMessage message) {
+                fragment.bringWebLayerToFront();
+                return true;
+            }
+        });
+        // WEB LAYER - SEND TO BACK
+        dispatcher.register(Cobalt.JSTypeWebLayer, Cobalt.JSActionWebLayerSendToBack, new MessageHandler(MessageHandler.Affinity.UI) {
+            @Override
+            public boolean handle(@NonNull CobaltFragment fragment, @NonNull BridgeMessage message) {
+                fragment.sendWebLayerToBack();
+                return true;
+            }
+        });
+    }
 
     protected void setBars(final JSONObject actionBar) {
         Intent intent = ((CobaltActivity) mContext).getIntent();
@@ -1093,7 +1418,11 @@ public class CobaltFragment extends Fragment implements IScrollListener, SwipeRe
             bundle.putBundle(Cobalt.kExtras, extras);
         }
 
-        extras.putString(Cobalt.kBars, actionBar.toString());
+        // Bars set by the page replace those passed by the previous one
+        NavigationPayloadStore navigationPayloadStore = NavigationPayloadStore.getInstance(mContext);
+        navigationPayloadStore.remove(extras.getString(Cobalt.kBarsHandle));
+        extras.remove(Cobalt.kBars);
+        extras.putString(Cobalt.kBarsHandle, navigationPayloadStore.put(actionBar));
         intent.putExtras(bundle);
 
         ((CobaltActivity) mContext).runOnUiThread(new Runnable() {
@@ -1131,13 +1460,7 @@ public class CobaltFragment extends Fragment implements IScrollListener, SwipeRe
 
             final Intent intent = Cobalt.getInstance(mContext).getIntentForController(controller, page);
             if (intent != null) {
-                if (bars != null) {
-                    Bundle configuration = intent.getBundleExtra(Cobalt.kExtras);
-                    configuration.putString(Cobalt.kBars, bars.toString());
-                }
-                if (dataToPush != null) {
-                    intent.putExtra(Cobalt.kJSData, dataToPush.toString());
-                }
+                putNavigationPayloads(intent, bars, dataToPush);
 
                 ((Activity) mContext).runOnUiThread(new Runnable() {
                     @Override
@@ -1182,13 +1505,7 @@ public class CobaltFragment extends Fragment implements IScrollListener, SwipeRe
             final Intent intent = Cobalt.getInstance(mContext).getIntentForController(controller, page);
             if (intent != null) {
                 intent.putExtra(Cobalt.kPushAsModal, true);
-                if (bars != null) {
-                    Bundle configuration = intent.getBundleExtra(Cobalt.kExtras);
-                    configuration.putString(Cobalt.kBars, bars.toString());
-                }
-                if (dataForModal != null) {
-                    intent.putExtra(Cobalt.kJSData, dataForModal.toString());
-                }
+                putNavigationPayloads(intent, bars, dataForModal);
     
                 // Sends callback to store current activity & HTML page for dismiss
                 try {
@@ -1227,35 +1544,46 @@ public class CobaltFragment extends Fragment implements IScrollListener, SwipeRe
         }
 	}
 
-	private void dismissModal(String controller, String page, JSONObject dataForDissmiss) {
-		try {
-			Class<?> pClass = Class.forName(controller);
-
-			// Instantiates intent only if class inherits from Activity
-			if (Activity.class.isAssignableFrom(pClass)) {
-				Bundle bundle = new Bundle();
-				bundle.putString(Cobalt.kPage, page);
-
-				final Intent intent = new Intent(mContext, pClass);
-				intent.putExtra(Cobalt.kExtras, bundle);
-                intent.putExtra(Cobalt.kPopAsModal, true);
-                if (dataForDissmiss != null) {
-                    intent.putExtra(Cobalt.kJSData, dataForDissmiss.toString());
-                }
+    /**
+     * Puts the handles of the specified bars and data in the specified Intent, instead of the payloads themselves.
+     * @param intent: the Intent of the controller to navigate to, as returned by Cobalt.getIntentForController.
+     * @param bars: the bars of the controller, or null to keep those of its configuration.
+     * @param data: the data for the page, or null.
+     */
+    private void putNavigationPayloads(Intent intent, JSONObject bars, JSONObject data) {
+        NavigationPayloadStore navigationPayloadStore = NavigationPayloadStore.getInstance(mContext);
+        if (bars != null) {
+            Bundle configuration = intent.getBundleExtra(Cobalt.kExtras);
+            // The default bars of the controller must not stand in for these ones if they are evicted
+            configuration.remove(Cobalt.kBars);
+            configuration.putString(Cobalt.kBarsHandle, navigationPayloadStore.put(bars));
+        }
+        if (data != null) {
+            intent.putExtra(Cobalt.kDataHandle, navigationPayloadStore.put(data));
+        }
+    }
 
-                ((Activity) mContext).runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        NavUtils.navigateUpTo((Activity) mContext, intent);
-                    }
-                });
-			}
-			else if(Cobalt.DEBUG) Log.e(Cobalt.TAG,  TAG + " - dismissModal: unable to dismiss modal since " + controller + " does not inherit from Activity");
-		} 
-		catch (ClassNotFoundException exception) {
-			if (Cobalt.DEBUG) Log.e(Cobalt.TAG,  TAG + " - dismissModal: " + controller + "not found");
-			exception.printStackTrace();
+	private void dismissModal(String controller, String page, JSONObject dataForDissmiss) {
+		Class<? extends Activity> pClass = Cobalt.getInstance(mContext).getActivityClass(controller);
+
+		// Instantiates intent only if class was found and inherits from Activity
+		if (pClass != null) {
+			Bundle bundle = new Bundle();
+			bundle.putString(Cobalt.kPage, page);
+
+			final Intent intent = new Intent(mContext, pClass);
+			intent.putExtra(Cobalt.kExtras, bundle);
+			intent.putExtra(Cobalt.kPopAsModal, true);
+			putNavigationPayloads(intent, null, dataForDissmiss);
+
+			((Activity) mContext).runOnUiThread(new Runnable() {
+				@Override
+				public void run() {
+					NavUtils.navigateUpTo((Activity) mContext, intent);
+				}
+			});
 		}
+		else if(Cobalt.DEBUG) Log.e(Cobalt.TAG,  TAG + " - dismissModal: unable to dismiss modal since " + controller + " was not found or does not inherit from Activity");
 	}
 
     private void replace(JSONObject data) {
@@ -1271,13 +1599,7 @@ public class CobaltFragment extends Fragment implements IScrollListener, SwipeRe
             final Intent intent = Cobalt.getInstance(mContext).getIntentForController(controller, page);
             if (intent != null) {
                 intent.putExtra(Cobalt.kJSAnimated, animated);
-                if (bars != null) {
-                    Bundle configuration = intent.getBundleExtra(Cobalt.kExtras);
-                    configuration.putString(Cobalt.kBars, bars.toString());
-                }
-                if (dataForReplace != null) {
-                    intent.putExtra(Cobalt.kJSData, dataForReplace.toString());
-                }
+                putNavigationPayloads(intent, bars, dataForReplace);
 
 				if (clearHistory) {
 					intent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TASK | Intent.FLAG_ACTIVITY_NEW_TASK);
@@ -1485,22 +1807,12 @@ public class CobaltFragment extends Fragment implements IScrollListener, SwipeRe
                             alertDialog.setButton(DialogInterface.BUTTON_NEGATIVE, "OK", new DialogInterface.OnClickListener() {
                                 @Override
                                 public void onClick(DialogInterface dialog, int which) {
-                                    try {
-                                        JSONObject data = new JSONObject();
-                                        data.put(Cobalt.kJSAlertId, identifier);
-                                        data.put(Cobalt.kJSAlertButtonIndex, 0);
-    
-                                        JSONObject message = new JSONObject();
-                                        message.put(Cobalt.kJSType, Cobalt.JSTypeUI);
-                                        message.put(Cobalt.kJSUIControl, Cobalt.JSControlAlert);
-                                        message.put(Cobalt.kJSData, data);
-    
-                                        sendMessage(message);
-                                    }
-                                    catch (JSONException exception) {
-                                        if (Cobalt.DEBUG) Log.e(Cobalt.TAG, "Alert - onClick: JSONException");
-                                        exception.printStackTrace();
-                                    }
+                                    sendRawMessage(EnvelopeWriter.obtain().beginMessage(Cobalt.JSTypeUI)
+                                                                          .field(Cobalt.kJSUIControl, Cobalt.JSControlAlert)
+                                                                          .beginObject(Cobalt.kJSData)
+                                                                          .field(Cobalt.kJSAlertId, identifier)
+                                                                          .field(Cobalt.kJSAlertButtonIndex, 0)
+                                                                          .finish());
                                 }
                             });
                         }
@@ -1539,28 +1851,18 @@ public class CobaltFragment extends Fragment implements IScrollListener, SwipeRe
                                                 break;
                                         }
 
-                                        try {
-                                            JSONObject data = new JSONObject();
-                                            data.put(Cobalt.kJSAlertId, identifier);
-                                            data.put(Cobalt.kJSAlertButtonIndex, buttonIndex);
-    
-                                            JSONObject message = new JSONObject();
-                                            message.put(Cobalt.kJSType, Cobalt.JSTypeUI);
-                                            message.put(Cobalt.kJSUIControl, Cobalt.JSControlAlert);
-                                            message.put(Cobalt.kJSData, data);
-                                            
-                                            sendMessage(message);
-                                        }
-                                        catch (JSONException exception) {
-                                            if (Cobalt.DEBUG) Log.e(Cobalt.TAG, "Alert - onClick: JSONException");
-                                            exception.printStackTrace();
-                                        }
+                                        sendRawMessage(EnvelopeWriter.obtain().beginMessage(Cobalt.JSTypeUI)
+                                                                              .field(Cobalt.kJSUIControl, Cobalt.JSControlAlert)
+                                                                              .beginObject(Cobalt.kJSData)
+                                                                              .field(Cobalt.kJSAlertId, identifier)
+                                                                              .field(Cobalt.kJSAlertButtonIndex, buttonIndex)
+                                                                              .finish());
                                     }
                                 });
                             }
                         }
 
-                        if (mActive) {
+                        if (mBridgeLifecycle.isResumed()) {
                             alertDialog.show();
                         }
                         else {
@@ -1581,8 +1883,6 @@ public class CobaltFragment extends Fragment implements IScrollListener, SwipeRe
 	}
 
     private void showPendingAlertDialogs() {
-        mActive = true;
-
         ArrayList<AlertDialog> pendingAlertDialogs = new ArrayList<>(mPendingAlertDialogs);
         int pendingAlertDialogsCount = pendingAlertDialogs.size();
 
@@ -0,0 +1,346 @@
+/**
+ *
+ * NavigationPayloadStore
+ * Cobalt
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Cobaltians
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+package org.cobaltians.cobalt.navigation;
+
+import org.cobaltians.cobalt.Cobalt;
+import org.cobaltians.cobalt.scheduler.CobaltScheduler;
+import org.cobaltians.cobalt.tools.Assets;
+import org.cobaltians.cobalt.tools.Files;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds the payloads (data and bars) passed from a page to the controller it navigates to,
+ * so that only an opaque handle goes through the Intent instead of the serialized payload.
+ * The receiving controller gets the very object the sender built, without parcelling nor parsing it.
+ * The most recently used payloads are kept in memory; every payload is also written to disk in background,
+ * so that a controller restored after the death of the process can still read it, parsed from disk then.
+ * Payloads are removed when the controller holding their handle finishes.
+ */
+public final class NavigationPayloadStore
+{
+    private static final String TAG = NavigationPayloadStore.class.getSimpleName();
+
+    /***********************************************************************************************
+     *
+     * MEMBERS
+     *
+     **********************************************************************************************/
+
+    private static final String DIRECTORY = "cobalt_navigation";
+    private static final String EXTENSION = ".json";
+
+    private static final int MAX_MEMORY_ENTRIES = 16;
+    private static final int MAX_DISK_ENTRIES = 64;
+
+    private static NavigationPayloadStore sInstance;
+
+    private final File mDirectory;
+
+    /**
+     * Payloads by handle, least recently used first, guarded by itself.
+     * Payloads evicted from memory are only kept on disk.
+     */
+    private final LinkedHashMap<String, JSONObject> mPayloads = new LinkedHashMap<String, JSONObject>(MAX_MEMORY_ENTRIES, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, JSONObject> eldest)
+        {
+            return size() > MAX_MEMORY_ENTRIES;
+        }
+    };
+
+    /**
+     * Serialized payloads not written to disk yet, by handle, guarded by mPayloads
+     */
+    private final HashMap<String, String> mPendingWrites = new HashMap<>();
+
+    /**
+     * Prefix of the handles of this process, so that they never collide with those of a previous one
+     */
+    private final String mHandlePrefix = Long.toHexString(System.currentTimeMillis()) + "-";
+    private final AtomicLong mSequence = new AtomicLong();
+
+    /***********************************************************************************************
+     *
+     * CONSTRUCTORS
+     *
+     **********************************************************************************************/
+
+    private NavigationPayloadStore(@NonNull Context context)
+    {
+        mDirectory = new File(context.getApplicationContext().getCacheDir(), DIRECTORY);
+    }
+
+    /**
+     * Returns the navigation payload store of the application
+     * @param context the context used to create the store.
+     * @return the navigation payload store of the application.
+     */
+    @NonNull
+    public static synchronized NavigationPayloadStore getInstance(@NonNull Context context)
+    {
+        if (sInstance == null)
+        {
+            sInstance = new NavigationPayloadStore(context);
+        }
+
+        return sInstance;
+    }
+
+    /***********************************************************************************************
+     *
+     * METHODS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Stores the specified payload. May be called from any thread.
+     * The payload is serialized on the calling thread, for its disk copy, so it should not be the main thread,
+     * and must not be modified by the caller afterwards.
+     * @param payload the payload to store.
+     * @return the handle of the payload, to put in the Intent.
+     */
+    @NonNull
+    public String put(@NonNull JSONObject payload)
+    {
+        final String handle = mHandlePrefix + mSequence.incrementAndGet();
+        String serializedPayload = payload.toString();
+
+        synchronized (mPayloads)
+        {
+            mPayloads.put(handle, payload);
+            mPendingWrites.put(handle, serializedPayload);
+        }
+
+        CobaltScheduler.getInstance().schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                write(handle);
+            }
+        }, CobaltScheduler.PRIORITY_HIGH, CobaltScheduler.Affinity.BACKGROUND);
+
+        return handle;
+    }
+
+    /**
+     * Returns the payload of the specified handle, read from disk if it is not in memory anymore.
+     * @param handle the handle of the payload, may be null.
+     * @return the payload, or null if the handle is null or the payload was removed or lost.
+     */
+    @Nullable
+    public JSONObject get(@Nullable String handle)
+    {
+        if (handle == null)
+        {
+            return null;
+        }
+
+        String serializedPayload;
+        synchronized (mPayloads)
+        {
+            JSONObject payload = mPayloads.get(handle);
+            if (payload != null)
+            {
+                return payload;
+            }
+
+            serializedPayload = mPendingWrites.get(handle);
+        }
+
+        File file = getFile(handle);
+        try
+        {
+            if (serializedPayload == null)
+            {
+                serializedPayload = new String(Files.readBytes(file), Assets.UTF_8);
+                // Keeps the file among the most recently used
+                file.setLastModified(System.currentTimeMillis());
+            }
+
+            JSONObject payload = new JSONObject(serializedPayload);
+            synchronized (mPayloads)
+            {
+                mPayloads.put(handle, payload);
+            }
+
+            return payload;
+        }
+        catch (IOException | JSONException exception)
+        {
+            if (Cobalt.DEBUG) Log.e(Cobalt.TAG, TAG + " - get: payload " + handle + " lost.");
+            exception.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Removes the payload of the specified handle from memory and disk. May be called from any thread.
+     * @param handle the handle of the payload, may be null.
+     */
+    public void remove(@Nullable final String handle)
+    {
+        if (handle == null)
+        {
+            return;
+        }
+
+        synchronized (mPayloads)
+        {
+            mPayloads.remove(handle);
+            mPendingWrites.remove(handle);
+        }
+
+        CobaltScheduler.getInstance().schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                getFile(handle).delete();
+            }
+        }, CobaltScheduler.PRIORITY_LOW, CobaltScheduler.Affinity.BACKGROUND);
+    }
+
+    /***********************************************************************************************
+     *
+     * HELPERS
+     *
+     **********************************************************************************************/
+
+    @NonNull
+    private File getFile(@NonNull String handle)
+    {
+        return new File(mDirectory, handle + EXTENSION);
+    }
+
+    /**
+     * Writes the pending payload of the specified handle to disk, then deletes the least recently used files
+     * beyond MAX_DISK_ENTRIES. Runs on the background thread of the scheduler.
+     */
+    private void write(@NonNull String handle)
+    {
+        String serializedPayload;
+        synchronized (mPayloads)
+        {
+            serializedPayload = mPendingWrites.get(handle);
+        }
+        // Removed meanwhile
+        if (serializedPayload == null)
+        {
+            return;
+        }
+
+        File file = getFile(handle);
+        File temporaryFile = new File(mDirectory, handle + ".tmp");
+        try
+        {
+            if (! mDirectory.isDirectory()
+                && ! mDirectory.mkdirs())
+            {
+                throw new IOException("unable to create " + mDirectory);
+            }
+
+            FileOutputStream outputStream = new FileOutputStream(temporaryFile);
+            try
+            {
+                outputStream.write(serializedPayload.getBytes(Assets.UTF_8));
+            }
+            finally
+            {
+                outputStream.close();
+            }
+
+            synchronized (mPayloads)
+            {
+                // Removed while writing, or renamed as a whole so that a restored controller never reads a partial file
+                if (mPendingWrites.remove(handle) == null
+                    || ! temporaryFile.renameTo(file))
+                {
+                    temporaryFile.delete();
+                }
+            }
+        }
+        catch (IOException exception)
+        {
+            if (Cobalt.DEBUG) Log.e(Cobalt.TAG, TAG + " - write: unable to write payload " + handle
+                                                + ", it will not survive the death of the process.");
+            exception.printStackTrace();
+            // The serialized payload stays pending, so that the payload can still be read until the process dies
+            temporaryFile.delete();
+            return;
+        }
+
+        trim();
+    }
+
+    private void trim()
+    {
+        File[] files = mDirectory.listFiles();
+        if (files == null
+            || files.length <= MAX_DISK_ENTRIES)
+        {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>()
+        {
+            @Override
+            public int compare(File file1, File file2)
+            {
+                long lastModified1 = file1.lastModified();
+                long lastModified2 = file2.lastModified();
+                return lastModified1 < lastModified2 ? -1 : (lastModified1 == lastModified2 ? 0 : 1);
+            }
+        });
+
+        for (int i = 0; i < files.length - MAX_DISK_ENTRIES; i++)
+        {
+            files[i].delete();
+        }
+    }
+}
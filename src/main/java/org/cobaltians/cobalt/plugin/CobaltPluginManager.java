@@ -30,6 +30,7 @@
 package org.cobaltians.cobalt.plugin;
 
 import org.cobaltians.cobalt.Cobalt;
+import org.cobaltians.cobalt.CobaltMetrics;
 import org.cobaltians.cobalt.fragments.CobaltFragment;
 
 import android.app.Activity;
@@ -123,13 +124,20 @@ public final class CobaltPluginManager
 				final CobaltPluginWebContainer webContainer = new CobaltPluginWebContainer((Activity) context,
 																						   fragment);
 				final CobaltAbstractPlugin plugin = (CobaltAbstractPlugin) pluginGetInstanceMethod.invoke(null);
+				final String metricsScope = fragment.getMetricsScope();
+				final String metricsType = pluginClassName;
+				final long postTime = CobaltMetrics.start();
 
 				((Activity) context).runOnUiThread(new Runnable()
 				{
 					@Override
 					public void run()
 					{
+						CobaltMetrics.recordSince(CobaltMetrics.Metric.UI_HOP_WAIT, metricsScope, Cobalt.JSTypePlugin, postTime);
+
+						long start = CobaltMetrics.start();
 						plugin.onMessage(webContainer, action, data, callbackChannel);
+						CobaltMetrics.recordSince(CobaltMetrics.Metric.PLUGIN_TIME, metricsScope, metricsType, start);
 					}
 				});
 
@@ -31,8 +31,11 @@ package org.cobaltians.cobalt.pubsub;
 
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.util.Log;
 
+import org.cobaltians.cobalt.Cobalt;
 import org.cobaltians.cobalt.fragments.CobaltFragment;
+import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
@@ -98,6 +101,48 @@ public final class PubSub implements PubSubInternalInterface
 		}
 	}
 
+	/**
+	 * Broadcasts the specified message, serialized as a JSON object, to PubSubReceivers which have subscribed
+	 * to the specified channel. The message is forwarded as is to WebViews, and only parsed, once,
+	 * if native components have subscribed to the channel.
+	 * As it is evaluated as is in the pages, the message must be a valid JSON object, i.e. validated by
+	 * {@link org.cobaltians.cobalt.bridge.BridgeMessage#getRawObject(String)} when it comes from a page.
+	 * @param message the JSON object to broadcast to PubSubReceivers via the channel.
+	 * @param channel the channel to which broadcast the message.
+	 */
+	public final void publishRawMessage(@NonNull String message, @NonNull String channel)
+	{
+		JSONObject parsedMessage = null;
+
+		for (PubSubReceiver receiver : new ArrayList<>(mReceivers))
+		{
+			if (receiver.hasSubscribedToChannel(channel))
+			{
+				if (receiver instanceof PubSubWebReceiver)
+				{
+					((PubSubWebReceiver) receiver).receiveRawMessage(message, channel);
+				}
+				else
+				{
+					if (parsedMessage == null)
+					{
+						try
+						{
+							parsedMessage = new JSONObject(message);
+						}
+						catch (JSONException exception)
+						{
+							if (Cobalt.DEBUG) Log.e(Cobalt.TAG, TAG + " - publishRawMessage: Unable to parse message as JSON.\n" + message);
+							exception.printStackTrace();
+							continue;
+						}
+					}
+					receiver.receiveMessage(parsedMessage, channel);
+				}
+			}
+		}
+	}
+
 	/**
 	 * Subscribes the specified CobaltFragment holding the WebView to messages sent via the specified channel.
 	 * @implNote if no PubSubWebReceiver was created for the specified CobaltFragment, creates it.
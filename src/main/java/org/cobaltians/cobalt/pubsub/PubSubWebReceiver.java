@@ -35,6 +35,8 @@ import android.support.v4.util.SimpleArrayMap;
 import android.util.Log;
 
 import org.cobaltians.cobalt.Cobalt;
+import org.cobaltians.cobalt.bridge.EnvelopeWriter;
+import org.cobaltians.cobalt.bridge.ScriptEncoder;
 import org.cobaltians.cobalt.fragments.CobaltFragment;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -102,6 +104,35 @@ final class PubSubWebReceiver extends PubSubReceiver
      * Helpers
      **********************************************************************************************/
 
+    /**
+     * Sends the specified message, serialized as a JSON object, from the specified channel
+     * to the WebView contained in the fragment, without parsing it
+     * @param message   the JSON object received from the channel.
+     * @param channel   the channel from which the messages come from.
+     */
+    void receiveRawMessage(@NonNull String message, @NonNull String channel)
+    {
+        CobaltFragment fragment = mFragmentReference.get();
+        if (fragment == null)
+        {
+            Log.w(TAG, "receiveRawMessage - CobaltFragment is null.\n"
+                       + "It may be caused by its deallocation or the PubSubWebReceiver was not correctly initialized...");
+
+            mInternalListener.receiverReadyForRemove(this);
+
+            return;
+        }
+
+        StringBuilder cobaltMessage = new StringBuilder(message.length() + channel.length() + 48);
+        cobaltMessage.append("{\"").append(Cobalt.kJSType).append("\":\"").append(Cobalt.JSTypePubsub)
+                     .append("\",\"").append(Cobalt.kJSChannel).append("\":");
+        ScriptEncoder.writeString(cobaltMessage, channel);
+        // Valid JSON only, see PubSub.publishRawMessage, so that it can not carry a script
+        cobaltMessage.append(",\"").append(Cobalt.kJSMessage).append("\":").append(message).append('}');
+
+        fragment.sendRawMessage(cobaltMessage.toString());
+    }
+
     /**
      * If the PubSubWebReceiver has subscribed to the specified channel,
      * sends the specified message from this channel to the WebView contained in the fragment
@@ -125,14 +156,18 @@ final class PubSubWebReceiver extends PubSubReceiver
             return;
         }
         
+        if (message == null)
+        {
+            fragment.sendRawMessage(EnvelopeWriter.pubsub(channel));
+            return;
+        }
+
         try
         {
-            JSONObject cobaltMessage = new JSONObject();
-            cobaltMessage.put(Cobalt.kJSType, Cobalt.JSTypePubsub);
-            cobaltMessage.put(Cobalt.kJSChannel, channel);
-            cobaltMessage.put(Cobalt.kJSMessage, message);
-    
-            fragment.sendMessage(cobaltMessage);
+            fragment.sendRawMessage(EnvelopeWriter.obtain().beginMessage(Cobalt.JSTypePubsub)
+                                                           .field(Cobalt.kJSChannel, channel)
+                                                           .field(Cobalt.kJSMessage, message)
+                                                           .finish());
         }
         catch (JSONException exception)
         {
@@ -0,0 +1,440 @@
+/**
+ *
+ * CobaltScheduler
+ * Cobalt
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Cobaltians
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+package org.cobaltians.cobalt.scheduler;
+
+import org.cobaltians.cobalt.Cobalt;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Defers non-urgent Cobalt work (cache trimming, pool refills, prefetching...) until it can run unnoticed.
+ * Main thread tasks run one at a time when the main looper is idle, so that they never delay
+ * input or frames. Background tasks run on a single low-priority thread.
+ * Tasks are ordered by priority, then by deadline; a main thread task whose deadline has passed
+ * runs even if the looper never gets idle.
+ */
+public final class CobaltScheduler
+{
+    private static final String TAG = CobaltScheduler.class.getSimpleName();
+
+    /***********************************************************************************************
+     *
+     * MEMBERS
+     *
+     **********************************************************************************************/
+
+    public static final int PRIORITY_LOW = 0;
+    public static final int PRIORITY_NORMAL = 1;
+    public static final int PRIORITY_HIGH = 2;
+
+    /**
+     * Deadline of tasks which can wait indefinitely
+     */
+    public static final long NO_DEADLINE = -1;
+
+    /**
+     * The thread a task runs on
+     */
+    public enum Affinity
+    {
+        /**
+         * The main thread, when its looper is idle
+         */
+        MAIN,
+        /**
+         * The background thread of the scheduler
+         */
+        BACKGROUND
+    }
+
+    private static CobaltScheduler sInstance;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final PriorityQueue<Task> mMainTasks = new PriorityQueue<>();
+    private final ThreadPoolExecutor mBackgroundExecutor;
+    private final AtomicLong mSequence = new AtomicLong();
+
+    private final AtomicInteger mExecutedTasks = new AtomicInteger();
+    private final AtomicLong mMainThreadTime = new AtomicLong();
+    private final AtomicLong mBackgroundTime = new AtomicLong();
+
+    private final Runnable mRunDueTasks = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            runDueMainTasks();
+        }
+    };
+
+    /**
+     * Empty message posted to get another idle pass while main thread tasks remain
+     */
+    private final Runnable mWakeUp = new Runnable()
+    {
+        @Override
+        public void run() { }
+    };
+
+    /***********************************************************************************************
+     *
+     * TASK
+     *
+     **********************************************************************************************/
+
+    /**
+     * A task enqueued in the scheduler, which can be cancelled until it starts
+     */
+    public final class Task implements Runnable, Comparable<Task>
+    {
+        private final Runnable mRunnable;
+        private final int mPriority;
+        private final long mDeadline;
+        private final long mSequence;
+        private final Affinity mAffinity;
+        private volatile boolean mCancelled;
+
+        private Task(@NonNull Runnable runnable, int priority, long deadline, @NonNull Affinity affinity)
+        {
+            mRunnable = runnable;
+            mPriority = priority;
+            mDeadline = deadline;
+            mSequence = CobaltScheduler.this.mSequence.getAndIncrement();
+            mAffinity = affinity;
+        }
+
+        /**
+         * Cancels the task if it has not started yet
+         */
+        public void cancel()
+        {
+            mCancelled = true;
+
+            if (mAffinity == Affinity.MAIN)
+            {
+                synchronized (mMainTasks)
+                {
+                    mMainTasks.remove(this);
+                }
+            }
+            else
+            {
+                mBackgroundExecutor.remove(this);
+            }
+        }
+
+        /**
+         * Returns whether the task was cancelled
+         * @return true if the task was cancelled, false otherwise.
+         */
+        public boolean isCancelled()
+        {
+            return mCancelled;
+        }
+
+        @Override
+        public void run()
+        {
+            if (mCancelled)
+            {
+                return;
+            }
+
+            long start = SystemClock.elapsedRealtime();
+            try
+            {
+                mRunnable.run();
+            }
+            catch (RuntimeException exception)
+            {
+                if (Cobalt.DEBUG) Log.e(Cobalt.TAG, TAG + " - run: task " + mRunnable + " failed.");
+                exception.printStackTrace();
+            }
+            long duration = SystemClock.elapsedRealtime() - start;
+
+            mExecutedTasks.incrementAndGet();
+            if (mAffinity == Affinity.MAIN)
+            {
+                mMainThreadTime.addAndGet(duration);
+            }
+            else
+            {
+                mBackgroundTime.addAndGet(duration);
+            }
+        }
+
+        @Override
+        public int compareTo(@NonNull Task task)
+        {
+            if (mPriority != task.mPriority)
+            {
+                return mPriority > task.mPriority ? -1 : 1;
+            }
+            if (mDeadline != task.mDeadline)
+            {
+                return mDeadline < task.mDeadline ? -1 : 1;
+            }
+
+            return mSequence < task.mSequence ? -1 : (mSequence == task.mSequence ? 0 : 1);
+        }
+    }
+
+    /***********************************************************************************************
+     *
+     * CONSTRUCTORS
+     *
+     **********************************************************************************************/
+
+    private CobaltScheduler()
+    {
+        mBackgroundExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                                                     new PriorityBlockingQueue<Runnable>(),
+                                                     new ThreadFactory()
+                                                     {
+                                                         @Override
+                                                         public Thread newThread(@NonNull final Runnable runnable)
+                                                         {
+                                                             return new Thread(new Runnable()
+                                                             {
+                                                                 @Override
+                                                                 public void run()
+                                                                 {
+                                                                     Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                                                     runnable.run();
+                                                                 }
+                                                             }, "CobaltScheduler");
+                                                         }
+                                                     });
+
+        mMainHandler.post(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler()
+                {
+                    @Override
+                    public boolean queueIdle()
+                    {
+                        runNextMainTask();
+                        // Stays registered for the lifetime of the process
+                        return true;
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Returns the scheduler of the application
+     * @return the scheduler of the application.
+     */
+    @NonNull
+    public static synchronized CobaltScheduler getInstance()
+    {
+        if (sInstance == null)
+        {
+            sInstance = new CobaltScheduler();
+        }
+
+        return sInstance;
+    }
+
+    /***********************************************************************************************
+     *
+     * METHODS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Enqueues the specified task. May be called from any thread.
+     * @param runnable the work to run.
+     * @param priority the priority of the task, from PRIORITY_LOW to PRIORITY_HIGH.
+     * @param deadline the maximum delay in milliseconds before a main thread task runs even if the looper is busy,
+     *                 or NO_DEADLINE. Only orders background tasks.
+     * @param affinity the thread the task runs on.
+     * @return the task, which may be cancelled until it starts.
+     */
+    @NonNull
+    public Task schedule(@NonNull Runnable runnable, int priority, long deadline, @NonNull Affinity affinity)
+    {
+        long uptimeDeadline = deadline >= 0 ? SystemClock.uptimeMillis() + deadline : Long.MAX_VALUE;
+        Task task = new Task(runnable, priority, uptimeDeadline, affinity);
+
+        if (affinity == Affinity.MAIN)
+        {
+            synchronized (mMainTasks)
+            {
+                mMainTasks.offer(task);
+            }
+
+            if (deadline >= 0)
+            {
+                mMainHandler.postAtTime(mRunDueTasks, uptimeDeadline);
+            }
+            mMainHandler.post(mWakeUp);
+        }
+        else
+        {
+            mBackgroundExecutor.execute(task);
+        }
+
+        return task;
+    }
+
+    /**
+     * Enqueues the specified task with no deadline. May be called from any thread.
+     * @param runnable the work to run.
+     * @param priority the priority of the task, from PRIORITY_LOW to PRIORITY_HIGH.
+     * @param affinity the thread the task runs on.
+     * @return the task, which may be cancelled until it starts.
+     */
+    @NonNull
+    public Task schedule(@NonNull Runnable runnable, int priority, @NonNull Affinity affinity)
+    {
+        return schedule(runnable, priority, NO_DEADLINE, affinity);
+    }
+
+    /**
+     * Returns the number of tasks waiting to run
+     * @return the number of tasks waiting to run on the main thread and in background.
+     */
+    public int getQueueDepth()
+    {
+        synchronized (mMainTasks)
+        {
+            return mMainTasks.size() + mBackgroundExecutor.getQueue().size();
+        }
+    }
+
+    /**
+     * Returns the number of tasks run since the application started
+     * @return the number of tasks run.
+     */
+    public int getExecutedTaskCount()
+    {
+        return mExecutedTasks.get();
+    }
+
+    /**
+     * Returns the time spent running tasks on the main thread
+     * @return the time spent running tasks on the main thread, in milliseconds.
+     */
+    public long getMainThreadTime()
+    {
+        return mMainThreadTime.get();
+    }
+
+    /**
+     * Returns the time spent running tasks in background
+     * @return the time spent running tasks in background, in milliseconds.
+     */
+    public long getBackgroundTime()
+    {
+        return mBackgroundTime.get();
+    }
+
+    /***********************************************************************************************
+     *
+     * HELPERS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Runs the first main thread task, then asks for another idle pass if tasks remain
+     */
+    private void runNextMainTask()
+    {
+        Task task;
+        boolean remaining;
+        synchronized (mMainTasks)
+        {
+            task = mMainTasks.poll();
+            remaining = ! mMainTasks.isEmpty();
+        }
+
+        if (task != null)
+        {
+            task.run();
+        }
+
+        if (remaining)
+        {
+            mMainHandler.post(mWakeUp);
+        }
+    }
+
+    /**
+     * Runs the main thread tasks whose deadline has passed
+     */
+    private void runDueMainTasks()
+    {
+        long now = SystemClock.uptimeMillis();
+
+        while (true)
+        {
+            Task dueTask = null;
+            synchronized (mMainTasks)
+            {
+                for (Task task : mMainTasks)
+                {
+                    if (task.mDeadline <= now
+                        && (dueTask == null || task.compareTo(dueTask) < 0))
+                    {
+                        dueTask = task;
+                    }
+                }
+
+                if (dueTask == null)
+                {
+                    return;
+                }
+                mMainTasks.remove(dueTask);
+            }
+
+            if (Cobalt.DEBUG) Log.d(Cobalt.TAG, TAG + " - runDueMainTasks: deadline reached for " + dueTask.mRunnable);
+            dueTask.run();
+        }
+    }
+}
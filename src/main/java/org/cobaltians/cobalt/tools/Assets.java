@@ -0,0 +1,197 @@
+/**
+ *
+ * Assets
+ * Cobalt
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Cobaltians
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+package org.cobaltians.cobalt.tools;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.support.annotation.NonNull;
+import android.util.JsonReader;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Helpers to read files from the application assets in bulk.
+ * Files are read at once in a byte buffer sized from the asset length and decoded as UTF-8 in a single pass.
+ */
+public final class Assets
+{
+    /***********************************************************************************************
+     *
+     * MEMBERS
+     *
+     **********************************************************************************************/
+
+    public static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * The buffer size used when the asset length could not be determined
+     */
+    private static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    /***********************************************************************************************
+     *
+     * CONSTRUCTORS
+     *
+     **********************************************************************************************/
+
+    private Assets() { }
+
+    /***********************************************************************************************
+     *
+     * METHODS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Reads the whole content of the specified asset
+     * @param assetManager the AssetManager to open the asset with.
+     * @param file the path of the asset.
+     * @return the content of the asset.
+     * @throws IOException if the asset is missing or could not be read.
+     */
+    @NonNull
+    public static byte[] readBytes(@NonNull AssetManager assetManager, @NonNull String file) throws IOException
+    {
+        long length = getLength(assetManager, file);
+        InputStream inputStream = assetManager.open(file, AssetManager.ACCESS_BUFFER);
+        try
+        {
+            if (length < 0)
+            {
+                length = inputStream.available();
+            }
+
+            byte[] buffer = new byte[length > 0 && length < Integer.MAX_VALUE ? (int) length : DEFAULT_BUFFER_SIZE];
+            int count = 0;
+            int read;
+            while ((read = inputStream.read(buffer, count, buffer.length - count)) != -1)
+            {
+                count += read;
+                if (count == buffer.length)
+                {
+                    // Buffer is full, grows it only if the length was underestimated
+                    int next = inputStream.read();
+                    if (next == -1)
+                    {
+                        break;
+                    }
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                    buffer[count++] = (byte) next;
+                }
+            }
+
+            return count == buffer.length ? buffer : Arrays.copyOf(buffer, count);
+        }
+        finally
+        {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Reads the whole content of the specified asset as an UTF-8 string
+     * @param assetManager the AssetManager to open the asset with.
+     * @param file the path of the asset.
+     * @return the content of the asset.
+     * @throws IOException if the asset is missing or could not be read.
+     */
+    @NonNull
+    public static String readString(@NonNull AssetManager assetManager, @NonNull String file) throws IOException
+    {
+        return new String(readBytes(assetManager, file), UTF_8);
+    }
+
+    /**
+     * Reads and parses the specified asset as a JSONObject
+     * @param assetManager the AssetManager to open the asset with.
+     * @param file the path of the asset.
+     * @return the parsed JSONObject.
+     * @throws IOException if the asset is missing or could not be read.
+     * @throws JSONException if the asset content is not a JSON object.
+     */
+    @NonNull
+    public static JSONObject readJSONObject(@NonNull AssetManager assetManager, @NonNull String file)
+            throws IOException, JSONException
+    {
+        return new JSONObject(readString(assetManager, file));
+    }
+
+    /**
+     * Opens a streaming JsonReader on the specified asset, decoding it as UTF-8.
+     * The caller is responsible for closing the returned reader.
+     * @param assetManager the AssetManager to open the asset with.
+     * @param file the path of the asset.
+     * @return a JsonReader positioned at the beginning of the asset.
+     * @throws IOException if the asset is missing or could not be opened.
+     */
+    @NonNull
+    public static JsonReader openJsonReader(@NonNull AssetManager assetManager, @NonNull String file) throws IOException
+    {
+        return new JsonReader(new InputStreamReader(assetManager.open(file, AssetManager.ACCESS_STREAMING), UTF_8));
+    }
+
+    /***********************************************************************************************
+     *
+     * HELPERS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Returns the length of the specified asset if it is stored uncompressed in the APK
+     * @return the length of the asset, or -1 if unknown (i.e. compressed asset).
+     */
+    private static long getLength(@NonNull AssetManager assetManager, @NonNull String file)
+    {
+        try
+        {
+            AssetFileDescriptor fileDescriptor = assetManager.openFd(file);
+            try
+            {
+                return fileDescriptor.getLength();
+            }
+            finally
+            {
+                fileDescriptor.close();
+            }
+        }
+        catch (IOException exception)
+        {
+            // Compressed assets can not be opened as file descriptors
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/**
+ *
+ * Files
+ * Cobalt
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Cobaltians
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+package org.cobaltians.cobalt.tools;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Helpers to read and write files of the internal storage.
+ */
+public final class Files
+{
+    /***********************************************************************************************
+     *
+     * MEMBERS
+     *
+     **********************************************************************************************/
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /***********************************************************************************************
+     *
+     * CONSTRUCTORS
+     *
+     **********************************************************************************************/
+
+    private Files() { }
+
+    /***********************************************************************************************
+     *
+     * METHODS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Reads the whole content of the specified file
+     * @param file the file to read.
+     * @return the content of the file.
+     * @throws IOException if the file is missing or could not be read.
+     */
+    @NonNull
+    public static byte[] readBytes(@NonNull File file) throws IOException
+    {
+        long length = file.length();
+        if (length > Integer.MAX_VALUE)
+        {
+            throw new IOException(file + " is too large");
+        }
+
+        byte[] buffer = new byte[(int) length];
+        InputStream inputStream = new FileInputStream(file);
+        try
+        {
+            int count = 0;
+            int read;
+            while (count < buffer.length
+                   && (read = inputStream.read(buffer, count, buffer.length - count)) != -1)
+            {
+                count += read;
+            }
+
+            if (count < buffer.length)
+            {
+                throw new IOException(file + " was truncated while reading");
+            }
+
+            return buffer;
+        }
+        finally
+        {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Copies the specified stream to the specified file, updating the specified digest on the fly
+     * @param inputStream the stream to copy, not closed by this method.
+     * @param file the file to write, created or replaced.
+     * @param digest the digest to update with the copied bytes, may be null.
+     * @throws IOException if the stream could not be read or the file could not be written.
+     */
+    public static void copy(@NonNull InputStream inputStream, @NonNull File file, @Nullable MessageDigest digest)
+            throws IOException
+    {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        OutputStream outputStream = new FileOutputStream(file);
+        try
+        {
+            int read;
+            while ((read = inputStream.read(buffer)) != -1)
+            {
+                if (digest != null)
+                {
+                    digest.update(buffer, 0, read);
+                }
+                outputStream.write(buffer, 0, read);
+            }
+        }
+        finally
+        {
+            outputStream.close();
+        }
+    }
+
+    /**
+     * Returns a new SHA-256 digest
+     * @return a new SHA-256 digest.
+     */
+    @NonNull
+    public static MessageDigest newSha256Digest()
+    {
+        try
+        {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException exception)
+        {
+            // SHA-256 is required on all platforms
+            throw new IllegalStateException(exception);
+        }
+    }
+
+    /**
+     * Returns the lowercase hexadecimal representation of the specified bytes
+     * @param bytes the bytes to format.
+     * @return the lowercase hexadecimal representation of the bytes.
+     */
+    @NonNull
+    public static String toHex(@NonNull byte[] bytes)
+    {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++)
+        {
+            hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0x0F];
+            hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0x0F];
+        }
+
+        return new String(hex);
+    }
+
+    /**
+     * Deletes the specified file or directory with its content
+     * @param file the file or directory to delete.
+     * @return true if the file does not exist anymore, false otherwise.
+     */
+    public static boolean deleteRecursively(@NonNull File file)
+    {
+        File[] children = file.listFiles();
+        if (children != null)
+        {
+            for (File child : children)
+            {
+                deleteRecursively(child);
+            }
+        }
+
+        return file.delete() || ! file.exists();
+    }
+}
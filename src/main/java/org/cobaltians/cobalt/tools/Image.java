@@ -263,7 +263,6 @@ public final class Image implements Parcelable {
         return bitmap;
     }
 
-    private static final int BYTE_LIMIT = 2097152;  // 2MB
     private static final int QUALITY = 100;
 
     public @Nullable String toBase64(Context context, int requestedSize) {
@@ -271,55 +270,31 @@ public final class Image implements Parcelable {
 
         Bitmap bitmap = getBitmap(context, requestedSize);
         if (bitmap != null) {
-            ByteArrayOutputStream baos = null;
             int attempts = 1;
             int quality = QUALITY;
-            int base64Length = BYTE_LIMIT;
-            // Need this loop cause with some new device the max length of url is 2M characters (2097152 bytes)
-            // In this loop, we attempt to compress/resize the content to fit this limit.
+            boolean encoded = false;
+            // Messages too large for one script evaluation are chunked by the bridge,
+            // so the quality is only reduced if the encoded image does not fit in memory.
             do {
-                quality = quality * BYTE_LIMIT / base64Length;  // watch for int division!
-                Log.v(TAG, "Base64ImageAtPath: compress(2) w/ quality=" + quality);
-
                 try {
-                    // Compress the image into a JPG. Start with QUALITY.
-                    // In case that the image byte size is still too large
-                    // reduce the quality in proportion to the desired byte size.
-                    if (baos != null) {
-                        try {
-                            baos.close();
-                        }
-                        catch (IOException exception) {
-                            Log.e(TAG, exception.getMessage(), exception);
-                        }
-                    }
-                    baos = new ByteArrayOutputStream();
+                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
                     // compressing the image
                     bitmap.compress(Bitmap.CompressFormat.JPEG, quality, baos);
                     // encode image
                     base64 = Base64.encodeToString(baos.toByteArray(), Base64.NO_WRAP);
-                    base64Length = base64.length();
+                    encoded = true;
                 }
                 catch (OutOfMemoryError exception) {
                     Log.w(TAG, "Base64ImageAtPath - image too big (OutOfMemoryError), "
                             + "will try with smaller quality, cur quality: " + quality);
-                    // fall through and keep trying with a smaller quality.
+                    quality = quality * 3 / 4;
                 }
                 Log.v(TAG, "attempt=" + attempts
-                        + " size=" + base64Length
+                        + " size=" + base64.length()
                         + " quality=" + quality);
                 attempts++;
-            } while (base64Length > BYTE_LIMIT
+            } while (! encoded
                     && attempts < NUMBER_OF_RESIZE_ATTEMPTS);
-
-            if (baos != null) {
-                try {
-                    baos.close();
-                }
-                catch (IOException exception) {
-                    Log.e(TAG, exception.getMessage(), exception);
-                }
-            }
         }
 
         return base64;
@@ -0,0 +1,640 @@
+/**
+ *
+ * BridgeBenchmark
+ * Cobalt
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Cobaltians
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+package org.cobaltians.cobalt.benchmark;
+
+import org.cobaltians.cobalt.Cobalt;
+import org.cobaltians.cobalt.bridge.BridgeMessage;
+import org.cobaltians.cobalt.bridge.EnvelopeWriter;
+import org.cobaltians.cobalt.bridge.LoopbackTransport;
+import org.cobaltians.cobalt.bridge.MessageDispatcher;
+import org.cobaltians.cobalt.bridge.MessageHandler;
+import org.cobaltians.cobalt.bridge.ScriptedPage;
+import org.cobaltians.cobalt.fragments.CobaltFragment;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the round-trip throughput and latency of a {@link Bridge}.
+ * Each round trip sends the messages of a mix with sendRawMessage, which the bridge delivers
+ * over a {@link LoopbackTransport} to its scripted page. The page answers each message as a Cobalt page would,
+ * and a round trip completes once the bridge dispatched all its answers to the handlers registered by
+ * {@link #registerAnswerHandlers(MessageDispatcher, AnswerListener)}.
+ * Round trips are correlated by a benchmarkId field added to the messages.
+ * The bridge is either a {@link BenchmarkFragment} on a device, or a LoopbackBridge on the JVM.
+ * A benchmark runs on the calling thread, which must not be the main thread.
+ */
+public final class BridgeBenchmark
+{
+    private static final String TAG = BridgeBenchmark.class.getSimpleName();
+
+    /***********************************************************************************************
+     *
+     * MEMBERS
+     *
+     **********************************************************************************************/
+
+    /**
+     * The message mixes of a round trip
+     */
+    public enum Mix
+    {
+        /**
+         * onPageShown event, answered by a navigation push
+         */
+        NAVIGATION,
+        /**
+         * A pubsub message sent to fanOut subscribers, each answering with a publish
+         */
+        PUBSUB_FANOUT,
+        /**
+         * A plugin callback on its callback channel, answered by a plugin call
+         */
+        PLUGIN_CALL,
+        /**
+         * An action pressed in the bars, answered by a bars update
+         */
+        BARS_UPDATE
+    }
+
+    /**
+     * The bridge measured by the benchmark
+     */
+    public interface Bridge
+    {
+        /**
+         * Returns the page the messages of the bridge are delivered to, to register its scripts
+         * @return the page of the bridge.
+         */
+        @NonNull
+        ScriptedPage getScriptedPage();
+
+        /**
+         * Returns whether the bridge delivers messages to its page
+         * @return true if the bridge is ready, false otherwise.
+         */
+        boolean isBridgeReady();
+
+        /**
+         * Sends the specified message, already serialized as JSON, to the page
+         * @param message the JSON message.
+         */
+        void sendRawMessage(@NonNull String message);
+
+        /**
+         * Sets the listener of the answers of the page, once dispatched
+         * @param listener the listener, or null to ignore the answers.
+         */
+        void setAnswerListener(@Nullable AnswerListener listener);
+    }
+
+    /**
+     * An Interface to implement to receive the answers of the page, once dispatched
+     */
+    public interface AnswerListener
+    {
+        /**
+         * Called on the thread of the handler of the answer
+         * @param message the answer.
+         * @throws JSONException if the answer is not the one expected.
+         */
+        void onAnswer(@NonNull BridgeMessage message) throws JSONException;
+    }
+
+    static final String kBenchmarkId = "benchmarkId";
+
+    private static final String FANOUT_CHANNEL = "benchmark:fanOut";
+    private static final String ACK_CHANNEL = "benchmark:ack";
+    private static final String PLUGIN_NAME = "benchmark";
+    private static final String PLUGIN_CALLBACK_CHANNEL = "plugin:benchmark:callback";
+    private static final String PLUGIN_ACTION = "compute";
+
+    /**
+     * The outcome of a benchmark
+     */
+    public static final class Result
+    {
+        private final Mix mMix;
+        private final int mRoundTrips;
+        private final int mCompletedRoundTrips;
+        private final long mSentCount;
+        private final long mReceivedCount;
+        private final long mElapsedTime;
+        private final long[] mLatencies;
+
+        Result(@NonNull Mix mix, int roundTrips, long sentCount, long receivedCount, long elapsedTime, @NonNull long[] latencies)
+        {
+            mMix = mix;
+            mRoundTrips = roundTrips;
+            mSentCount = sentCount;
+            mReceivedCount = receivedCount;
+            mElapsedTime = elapsedTime;
+
+            // Round trips which did not complete are left out of the latencies
+            int completed = 0;
+            for (long latency : latencies)
+            {
+                if (latency >= 0) completed++;
+            }
+            mCompletedRoundTrips = completed;
+            mLatencies = new long[completed];
+            for (int i = 0, j = 0; i < latencies.length; i++)
+            {
+                if (latencies[i] >= 0) mLatencies[j++] = latencies[i];
+            }
+            Arrays.sort(mLatencies);
+        }
+
+        /**
+         * Returns the mix of the round trips
+         * @return the mix of the round trips.
+         */
+        @NonNull
+        public Mix getMix()
+        {
+            return mMix;
+        }
+
+        /**
+         * Returns the number of round trips started
+         * @return the number of round trips started.
+         */
+        public int getRoundTrips()
+        {
+            return mRoundTrips;
+        }
+
+        /**
+         * Returns the number of round trips whose answers were all received before the timeout
+         * @return the number of round trips completed.
+         */
+        public int getCompletedRoundTrips()
+        {
+            return mCompletedRoundTrips;
+        }
+
+        /**
+         * Returns the number of messages sent to the page
+         * @return the number of messages sent to the page.
+         */
+        public long getSentCount()
+        {
+            return mSentCount;
+        }
+
+        /**
+         * Returns the number of messages received from the page
+         * @return the number of messages received from the page.
+         */
+        public long getReceivedCount()
+        {
+            return mReceivedCount;
+        }
+
+        /**
+         * Returns the time the benchmark took
+         * @return the time the benchmark took, in nanoseconds.
+         */
+        public long getElapsedTime()
+        {
+            return mElapsedTime;
+        }
+
+        /**
+         * Returns the number of round trips completed per second
+         * @return the number of round trips completed per second.
+         */
+        public double getThroughput()
+        {
+            return mElapsedTime > 0 ? mCompletedRoundTrips * 1e9 / mElapsedTime : 0;
+        }
+
+        /**
+         * Returns the specified percentile of the round-trip latencies
+         * @param percentile the percentile, between 0 and 100.
+         * @return the latency, in nanoseconds, or 0 if no round trip completed.
+         */
+        public long getLatencyPercentile(double percentile)
+        {
+            if (mLatencies.length == 0)
+            {
+                return 0;
+            }
+
+            int index = (int) Math.ceil(percentile / 100 * mLatencies.length) - 1;
+            return mLatencies[Math.max(0, Math.min(index, mLatencies.length - 1))];
+        }
+
+        @Override
+        public String toString()
+        {
+            return mMix + ": " + mCompletedRoundTrips + "/" + mRoundTrips + " round trips ("
+                   + mSentCount + " messages sent, " + mReceivedCount + " received) in "
+                   + TimeUnit.NANOSECONDS.toMillis(mElapsedTime) + "ms, "
+                   + Math.round(getThroughput()) + " round trips/s, latency p50 "
+                   + TimeUnit.NANOSECONDS.toMicros(getLatencyPercentile(50)) + "us, p99 "
+                   + TimeUnit.NANOSECONDS.toMicros(getLatencyPercentile(99)) + "us, max "
+                   + TimeUnit.NANOSECONDS.toMicros(getLatencyPercentile(100)) + "us";
+        }
+    }
+
+    private final Bridge mBridge;
+    private final int mFanOut;
+
+    /***********************************************************************************************
+     *
+     * CONSTRUCTORS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Creates a benchmark, registering the scripts of its mixes on the page of the specified bridge
+     * @param bridge the bridge measured.
+     * @param fanOut the number of subscribers of the PUBSUB_FANOUT mix.
+     */
+    public BridgeBenchmark(@NonNull Bridge bridge, int fanOut)
+    {
+        if (fanOut < 1)
+        {
+            throw new IllegalArgumentException("Fan-out must be positive.");
+        }
+
+        mBridge = bridge;
+        mFanOut = fanOut;
+        registerScripts(bridge.getScriptedPage());
+    }
+
+    /***********************************************************************************************
+     *
+     * METHODS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Runs the specified number of round trips of the specified mix. The bridge must be ready.
+     * @param mix the messages of a round trip.
+     * @param roundTrips the number of round trips.
+     * @param timeout the maximum time to wait for the answers once all messages are sent, in milliseconds.
+     * @return the outcome of the benchmark.
+     * @throws InterruptedException if the thread is interrupted while waiting for the answers.
+     */
+    @NonNull
+    public Result run(@NonNull Mix mix, int roundTrips, long timeout) throws InterruptedException
+    {
+        if (! mBridge.isBridgeReady())
+        {
+            throw new IllegalStateException("The bridge is not ready.");
+        }
+
+        final int messagesPerRoundTrip = mix == Mix.PUBSUB_FANOUT ? mFanOut : 1;
+        final long[] sendTimes = new long[roundTrips];
+        final long[] latencies = new long[roundTrips];
+        Arrays.fill(latencies, -1);
+        final AtomicIntegerArray remainingAnswers = new AtomicIntegerArray(roundTrips);
+        for (int i = 0; i < roundTrips; i++)
+        {
+            remainingAnswers.set(i, messagesPerRoundTrip);
+        }
+        final CountDownLatch completed = new CountDownLatch(roundTrips);
+        final AtomicLong receivedCount = new AtomicLong();
+
+        mBridge.setAnswerListener(new AnswerListener()
+        {
+            @Override
+            public void onAnswer(@NonNull BridgeMessage message)
+            {
+                try
+                {
+                    String benchmarkId = message.getRaw(kBenchmarkId);
+                    if (benchmarkId == null)
+                    {
+                        return;
+                    }
+
+                    receivedCount.incrementAndGet();
+                    int roundTrip = Integer.parseInt(benchmarkId);
+                    if (remainingAnswers.decrementAndGet(roundTrip) == 0)
+                    {
+                        synchronized (latencies)
+                        {
+                            latencies[roundTrip] = System.nanoTime() - sendTimes[roundTrip];
+                        }
+                        completed.countDown();
+                    }
+                }
+                catch (NumberFormatException exception)
+                {
+                    if (Cobalt.DEBUG) Log.e(Cobalt.TAG, TAG + " - onAnswer: unexpected answer " + message);
+                    exception.printStackTrace();
+                }
+            }
+        });
+
+        long sentCount = 0;
+        long start = System.nanoTime();
+        try
+        {
+            for (int i = 0; i < roundTrips; i++)
+            {
+                synchronized (latencies)
+                {
+                    sendTimes[i] = System.nanoTime();
+                }
+                for (int j = 0; j < messagesPerRoundTrip; j++)
+                {
+                    mBridge.sendRawMessage(buildMessage(mix, i, j));
+                    sentCount++;
+                }
+            }
+
+            completed.await(timeout, TimeUnit.MILLISECONDS);
+        }
+        finally
+        {
+            mBridge.setAnswerListener(null);
+        }
+        long elapsedTime = System.nanoTime() - start;
+
+        // Answers received after the timeout are not counted
+        long[] completedLatencies;
+        synchronized (latencies)
+        {
+            completedLatencies = latencies.clone();
+        }
+
+        return new Result(mix, roundTrips, sentCount, receivedCount.get(), elapsedTime, completedLatencies);
+    }
+
+    /**
+     * Runs the specified number of round trips of each mix, and logs the results
+     * @param roundTrips the number of round trips of each mix.
+     * @param timeout the maximum time to wait for the answers of each mix, in milliseconds.
+     * @return the outcomes of the benchmarks, in the order of the mixes.
+     * @throws InterruptedException if the thread is interrupted while waiting for the answers.
+     */
+    @NonNull
+    public Result[] runAll(int roundTrips, long timeout) throws InterruptedException
+    {
+        Mix[] mixes = Mix.values();
+        Result[] results = new Result[mixes.length];
+        for (int i = 0; i < mixes.length; i++)
+        {
+            results[i] = run(mixes[i], roundTrips, timeout);
+            Log.i(Cobalt.TAG, TAG + " - " + results[i]);
+        }
+
+        return results;
+    }
+
+    /**
+     * Registers the handlers of the answers of the page, standing for the built-in ones, whose side effects,
+     * i.e. starting activities, would disturb the measures, on the same threads and with the same required fields
+     * @param dispatcher the dispatcher of the bridge.
+     * @param listener the listener the answers are handed to.
+     */
+    public static void registerAnswerHandlers(@NonNull MessageDispatcher dispatcher, @NonNull AnswerListener listener)
+    {
+        dispatcher.register(Cobalt.JSTypeNavigation, Cobalt.JSActionNavigationPush,
+                            new AnswerHandler(listener, MessageHandler.Affinity.BRIDGE, Cobalt.kJSData));
+        dispatcher.register(Cobalt.JSTypePubsub, Cobalt.JSActionPublish,
+                            new AnswerHandler(listener, MessageHandler.Affinity.BRIDGE, Cobalt.kJSChannel, Cobalt.kJSMessage));
+        dispatcher.register(Cobalt.JSTypePlugin, PLUGIN_ACTION,
+                            new AnswerHandler(listener, MessageHandler.Affinity.BRIDGE));
+        dispatcher.register(Cobalt.JSTypeUI, Cobalt.JSControlBars,
+                            new AnswerHandler(listener, MessageHandler.Affinity.UI, Cobalt.kJSData + "." + Cobalt.kJSAction));
+    }
+
+    /***********************************************************************************************
+     *
+     * HELPERS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Builds the specified message of a round trip, as the native side would send it
+     */
+    @NonNull
+    private static String buildMessage(@NonNull Mix mix, int roundTrip, int index)
+    {
+        EnvelopeWriter writer = EnvelopeWriter.obtain();
+        switch (mix)
+        {
+            case NAVIGATION:
+                writer.beginMessage(Cobalt.JSTypeEvent)
+                      .field(Cobalt.kJSEvent, Cobalt.JSEventOnPageShown)
+                      .beginObject(Cobalt.kJSData)
+                      .field(Cobalt.kJSPage, "list.html")
+                      .endObject();
+                break;
+            case PUBSUB_FANOUT:
+                writer.beginMessage(Cobalt.JSTypePubsub)
+                      .field(Cobalt.kJSChannel, FANOUT_CHANNEL)
+                      .beginObject(Cobalt.kJSMessage)
+                      .field("subscriber", index)
+                      .field("text", "Message " + roundTrip)
+                      .endObject();
+                break;
+            case PLUGIN_CALL:
+                writer.beginMessage(Cobalt.JSTypePubsub)
+                      .field(Cobalt.kJSChannel, PLUGIN_CALLBACK_CHANNEL)
+                      .beginObject(Cobalt.kJSMessage)
+                      .field("result", roundTrip)
+                      .field("success", true)
+                      .endObject();
+                break;
+            case BARS_UPDATE:
+            default:
+                writer.beginMessage(Cobalt.JSTypeUI)
+                      .field(Cobalt.kJSUIControl, Cobalt.JSControlBars)
+                      .beginObject(Cobalt.kJSData)
+                      .field(Cobalt.kJSAction, Cobalt.JSActionActionPressed)
+                      .field(Cobalt.kJSActionName, "refresh")
+                      .endObject();
+                break;
+        }
+
+        return writer.field(kBenchmarkId, roundTrip).finish();
+    }
+
+    /**
+     * Registers the scripts answering the messages of the mixes as a Cobalt page would
+     */
+    private static void registerScripts(@NonNull ScriptedPage page)
+    {
+        page.on(Cobalt.JSTypeEvent, Cobalt.JSEventOnPageShown, new Script()
+            {
+                @Override
+                void onBenchmarkMessage(@NonNull JSONObject message, @NonNull LoopbackTransport.Replier replier) throws JSONException
+                {
+                    JSONObject pageData = new JSONObject();
+                    pageData.put("item", message.getLong(kBenchmarkId));
+                    pageData.put("title", "Item " + message.getLong(kBenchmarkId));
+
+                    JSONObject data = new JSONObject();
+                    data.put(Cobalt.kJSPage, "details.html");
+                    data.put(Cobalt.kJSController, "default");
+                    data.put(Cobalt.kJSData, pageData);
+
+                    replier.reply(answer(message, Cobalt.JSTypeNavigation)
+                                      .put(Cobalt.kJSAction, Cobalt.JSActionNavigationPush)
+                                      .put(Cobalt.kJSData, data)
+                                      .toString());
+                }
+            })
+            .on(Cobalt.JSTypePubsub, FANOUT_CHANNEL, new Script()
+            {
+                @Override
+                void onBenchmarkMessage(@NonNull JSONObject message, @NonNull LoopbackTransport.Replier replier) throws JSONException
+                {
+                    JSONObject ack = new JSONObject();
+                    ack.put("subscriber", message.getJSONObject(Cobalt.kJSMessage).getInt("subscriber"));
+
+                    replier.reply(answer(message, Cobalt.JSTypePubsub)
+                                      .put(Cobalt.kJSAction, Cobalt.JSActionPublish)
+                                      .put(Cobalt.kJSChannel, ACK_CHANNEL)
+                                      .put(Cobalt.kJSMessage, ack)
+                                      .toString());
+                }
+            })
+            .on(Cobalt.JSTypePubsub, PLUGIN_CALLBACK_CHANNEL, new Script()
+            {
+                @Override
+                void onBenchmarkMessage(@NonNull JSONObject message, @NonNull LoopbackTransport.Replier replier) throws JSONException
+                {
+                    JSONObject classes = new JSONObject();
+                    classes.put(Cobalt.kJSPluginAndroid, "org.cobaltians.benchmark.BenchmarkPlugin");
+
+                    JSONObject data = new JSONObject();
+                    data.put("value", message.getJSONObject(Cobalt.kJSMessage).getLong("result") + 1);
+
+                    replier.reply(answer(message, Cobalt.JSTypePlugin)
+                                      .put(Cobalt.kJSPluginName, PLUGIN_NAME)
+                                      .put(Cobalt.kJSPluginClasses, classes)
+                                      .put(Cobalt.kJSAction, PLUGIN_ACTION)
+                                      .put(Cobalt.kJSData, data)
+                                      .put(Cobalt.kJSCallbackChannel, PLUGIN_CALLBACK_CHANNEL)
+                                      .toString());
+                }
+            })
+            .on(Cobalt.JSTypeUI, Cobalt.JSControlBars, new Script()
+            {
+                @Override
+                void onBenchmarkMessage(@NonNull JSONObject message, @NonNull LoopbackTransport.Replier replier) throws JSONException
+                {
+                    JSONArray actions = new JSONArray();
+                    for (String name : new String[] {"refresh", "share", "settings"})
+                    {
+                        JSONObject action = new JSONObject();
+                        action.put(Cobalt.kActionName, name);
+                        action.put(Cobalt.kActionTitle, name);
+                        action.put(Cobalt.kActionAndroidIcon, "ic_" + name);
+                        action.put(Cobalt.kActionPosition, Cobalt.kPositionTop);
+                        actions.put(action);
+                    }
+
+                    JSONObject visible = new JSONObject();
+                    visible.put(Cobalt.kVisibleTop, true);
+                    visible.put(Cobalt.kVisibleBottom, false);
+
+                    JSONObject bars = new JSONObject();
+                    bars.put(Cobalt.kBarsTitle, "Item " + message.getLong(kBenchmarkId));
+                    bars.put(Cobalt.kBarsVisible, visible);
+                    bars.put(Cobalt.kBarsActions, actions);
+
+                    JSONObject data = new JSONObject();
+                    data.put(Cobalt.kJSAction, Cobalt.JSActionSetBars);
+                    data.put(Cobalt.kJSBars, bars);
+
+                    replier.reply(answer(message, Cobalt.JSTypeUI)
+                                      .put(Cobalt.kJSUIControl, Cobalt.JSControlBars)
+                                      .put(Cobalt.kJSData, data)
+                                      .toString());
+                }
+            });
+    }
+
+    /**
+     * A script answering the messages of the benchmark only, i.e. not the onPageShown event sent when the fragment resumes
+     */
+    private abstract static class Script implements LoopbackTransport.Page
+    {
+        @Override
+        public final void onMessage(@NonNull JSONObject message, @NonNull LoopbackTransport.Replier replier) throws JSONException
+        {
+            if (message.has(kBenchmarkId))
+            {
+                onBenchmarkMessage(message, replier);
+            }
+        }
+
+        abstract void onBenchmarkMessage(@NonNull JSONObject message, @NonNull LoopbackTransport.Replier replier) throws JSONException;
+    }
+
+    private static final class AnswerHandler extends MessageHandler
+    {
+        private final AnswerListener mListener;
+
+        private AnswerHandler(@NonNull AnswerListener listener, @NonNull Affinity affinity, @NonNull String... requiredFields)
+        {
+            super(affinity, requiredFields);
+            mListener = listener;
+        }
+
+        @Override
+        public boolean handle(@NonNull CobaltFragment fragment, @NonNull BridgeMessage message) throws JSONException
+        {
+            mListener.onAnswer(message);
+            return true;
+        }
+    }
+
+    /**
+     * Returns an answer of the specified type to the specified message, with its benchmarkId
+     */
+    @NonNull
+    private static JSONObject answer(@NonNull JSONObject message, @NonNull String type) throws JSONException
+    {
+        JSONObject answer = new JSONObject();
+        answer.put(Cobalt.kJSType, type);
+        answer.put(kBenchmarkId, message.getLong(kBenchmarkId));
+        return answer;
+    }
+}
@@ -0,0 +1,282 @@
+/**
+ *
+ * LoopbackTransport
+ * Cobalt
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Cobaltians
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+package org.cobaltians.cobalt.bridge;
+
+import org.cobaltians.cobalt.Cobalt;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+import android.webkit.WebView;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delivers the messages of the bridge to a fake page running in the process instead of a Web view,
+ * so that the bridge can be exercised and benchmarked without one.
+ * Messages are delivered to the page on the calling thread, chunked messages once reassembled,
+ * as cobalt.js would receive them. The messages the page replies with are handed to the listener
+ * on a dedicated thread, as the JavaBridge thread would hand them to the JavascriptInterface.
+ * The Web view given to deliver(WebView, List) is ignored.
+ */
+public final class LoopbackTransport implements BridgeTransport
+{
+    private static final String TAG = LoopbackTransport.class.getSimpleName();
+
+    /***********************************************************************************************
+     *
+     * MEMBERS
+     *
+     **********************************************************************************************/
+
+    /**
+     * The fake page, standing for cobalt.js and the scripts of the page
+     */
+    public interface Page
+    {
+        /**
+         * Called when the native side sends a message to the page
+         * @param message the message, parsed as by cobalt.js.
+         * @param replier the replier to send messages to the native side with.
+         * @throws JSONException if the message is not the one expected.
+         */
+        void onMessage(@NonNull JSONObject message, @NonNull Replier replier) throws JSONException;
+    }
+
+    /**
+     * Sends the messages of the page to the native side
+     */
+    public interface Replier
+    {
+        /**
+         * Sends the specified message to the native side, as Android.onCobaltMessage would
+         * @param message the JSON message.
+         */
+        void reply(@NonNull String message);
+    }
+
+    /**
+     * A page sending every message back as is
+     */
+    public static final Page ECHO_PAGE = new Page()
+    {
+        @Override
+        public void onMessage(@NonNull JSONObject message, @NonNull Replier replier)
+        {
+            replier.reply(message.toString());
+        }
+    };
+
+    private static final String CHUNK_ID = "id";
+    private static final String CHUNK_INDEX = "index";
+    private static final String CHUNK_COUNT = "count";
+    private static final String CHUNK_DATA = "data";
+    private static final String CHUNK_CANCEL = "cancel";
+
+    private final Page mPage;
+    private final MessageListener mListener;
+    private final ExecutorService mBridgeThread;
+
+    /**
+     * Chunked messages being reassembled, by id. Guarded by itself.
+     */
+    private final HashMap<Long, StringBuilder> mChunkedMessages = new HashMap<>();
+
+    private final AtomicLong mDeliveredCount = new AtomicLong();
+    private final AtomicLong mRepliedCount = new AtomicLong();
+
+    private final Replier mReplier = new Replier()
+    {
+        @Override
+        public void reply(@NonNull final String message)
+        {
+            mRepliedCount.incrementAndGet();
+            mBridgeThread.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    mListener.onMessage(message);
+                }
+            });
+        }
+    };
+
+    /***********************************************************************************************
+     *
+     * CONSTRUCTORS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Creates a transport
+     * @param page the fake page to deliver the messages to.
+     * @param listener the listener of the messages the page replies with, i.e. CobaltFragment.getBridgeMessageListener().
+     */
+    public LoopbackTransport(@NonNull Page page, @NonNull MessageListener listener)
+    {
+        mPage = page;
+        mListener = listener;
+        mBridgeThread = Executors.newSingleThreadExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(@NonNull Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "LoopbackBridge");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /***********************************************************************************************
+     *
+     * METHODS
+     *
+     **********************************************************************************************/
+
+    @Override
+    public void deliver(@NonNull WebView webView, @NonNull List<String> messages)
+    {
+        deliver(messages);
+    }
+
+    /**
+     * Delivers the specified messages, in order, to the page. May be called from any thread, one at a time.
+     * @param messages the messages, serialized by {@link ScriptEncoder}.
+     */
+    public void deliver(@NonNull List<String> messages)
+    {
+        for (String message : messages)
+        {
+            try
+            {
+                JSONObject object = new JSONObject(message);
+                if (Cobalt.JSTypeCobaltChunk.equals(object.optString(Cobalt.kJSType, null)))
+                {
+                    object = reassemble(object);
+                    if (object == null)
+                    {
+                        continue;
+                    }
+                }
+
+                mDeliveredCount.incrementAndGet();
+                mPage.onMessage(object, mReplier);
+            }
+            catch (JSONException exception)
+            {
+                if (Cobalt.DEBUG) Log.e(Cobalt.TAG, TAG + " - deliver: unable to handle " + message);
+                exception.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Stops the thread handing the replies to the listener. Replies are ignored from then.
+     */
+    public void close()
+    {
+        mBridgeThread.shutdownNow();
+    }
+
+    /**
+     * Returns the number of messages delivered to the page, chunked messages counting once
+     * @return the number of messages delivered to the page.
+     */
+    public long getDeliveredCount()
+    {
+        return mDeliveredCount.get();
+    }
+
+    /**
+     * Returns the number of messages the page replied with
+     * @return the number of messages the page replied with.
+     */
+    public long getRepliedCount()
+    {
+        return mRepliedCount.get();
+    }
+
+    /***********************************************************************************************
+     *
+     * HELPERS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Adds the specified chunk to its message, as the reassembler of {@link MessageChunker} does
+     * @return the message if the chunk was the last one, null otherwise.
+     */
+    private JSONObject reassemble(@NonNull JSONObject chunk) throws JSONException
+    {
+        long id = chunk.getLong(CHUNK_ID);
+        String message;
+        synchronized (mChunkedMessages)
+        {
+            if (chunk.optBoolean(CHUNK_CANCEL))
+            {
+                mChunkedMessages.remove(id);
+                return null;
+            }
+
+            int index = chunk.getInt(CHUNK_INDEX);
+            StringBuilder builder = mChunkedMessages.get(id);
+            if (index == 0)
+            {
+                builder = new StringBuilder();
+                mChunkedMessages.put(id, builder);
+            }
+            else if (builder == null)
+            {
+                // Earlier chunks were dropped
+                return null;
+            }
+
+            builder.append(chunk.getString(CHUNK_DATA));
+            if (index < chunk.getInt(CHUNK_COUNT) - 1)
+            {
+                return null;
+            }
+
+            mChunkedMessages.remove(id);
+            message = builder.toString();
+        }
+
+        return new JSONObject(message);
+    }
+}
@@ -0,0 +1,158 @@
+/**
+ *
+ * ScriptedPage
+ * Cobalt
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Cobaltians
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+package org.cobaltians.cobalt.bridge;
+
+import org.cobaltians.cobalt.Cobalt;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A fake page for {@link LoopbackTransport} answering each message with the script registered for it.
+ * Scripts are registered by message type and key: the event of events, the channel of pubsub messages,
+ * the control of UI messages and the action of the others. A script registered without key handles the messages
+ * of its type no other script handles. Messages without script are ignored, or handled by the fallback if any.
+ */
+public final class ScriptedPage implements LoopbackTransport.Page
+{
+    /***********************************************************************************************
+     *
+     * MEMBERS
+     *
+     **********************************************************************************************/
+
+    private static final String KEY_SEPARATOR = "/";
+
+    private final ConcurrentHashMap<String, LoopbackTransport.Page> mScripts = new ConcurrentHashMap<>();
+
+    @Nullable
+    private final LoopbackTransport.Page mFallback;
+
+    /***********************************************************************************************
+     *
+     * CONSTRUCTORS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Creates a page ignoring the messages without script
+     */
+    public ScriptedPage()
+    {
+        this(null);
+    }
+
+    /**
+     * Creates a page handing the messages without script to the specified fallback
+     * @param fallback the page handling the messages without script, i.e. LoopbackTransport.ECHO_PAGE, or null to ignore them.
+     */
+    public ScriptedPage(@Nullable LoopbackTransport.Page fallback)
+    {
+        mFallback = fallback;
+    }
+
+    /***********************************************************************************************
+     *
+     * METHODS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Registers the script answering the messages of the specified type and key, replacing any previous one
+     * @param type the type of the messages.
+     * @param key the event, channel, control or action of the messages, or null for all the messages of the type.
+     * @param script the script.
+     * @return this page.
+     */
+    @NonNull
+    public ScriptedPage on(@NonNull String type, @Nullable String key, @NonNull LoopbackTransport.Page script)
+    {
+        mScripts.put(buildKey(type, key), script);
+        return this;
+    }
+
+    @Override
+    public void onMessage(@NonNull JSONObject message, @NonNull LoopbackTransport.Replier replier) throws JSONException
+    {
+        String type = message.optString(Cobalt.kJSType, null);
+        if (type != null)
+        {
+            String key = keyOf(type, message);
+            LoopbackTransport.Page script = key != null ? mScripts.get(buildKey(type, key)) : null;
+            if (script == null)
+            {
+                script = mScripts.get(buildKey(type, null));
+            }
+            if (script != null)
+            {
+                script.onMessage(message, replier);
+                return;
+            }
+        }
+
+        if (mFallback != null)
+        {
+            mFallback.onMessage(message, replier);
+        }
+    }
+
+    /***********************************************************************************************
+     *
+     * HELPERS
+     *
+     **********************************************************************************************/
+
+    @Nullable
+    private static String keyOf(@NonNull String type, @NonNull JSONObject message)
+    {
+        switch (type)
+        {
+            case Cobalt.JSTypeEvent:
+                return message.optString(Cobalt.kJSEvent, null);
+            case Cobalt.JSTypePubsub:
+                return message.optString(Cobalt.kJSChannel, null);
+            case Cobalt.JSTypeUI:
+                return message.optString(Cobalt.kJSUIControl, null);
+            default:
+                return message.optString(Cobalt.kJSAction, null);
+        }
+    }
+
+    @NonNull
+    private static String buildKey(@NonNull String type, @Nullable String key)
+    {
+        return key != null ? type + KEY_SEPARATOR + key : type;
+    }
+}
@@ -0,0 +1,174 @@
+/**
+ *
+ * BridgeExecutorTest
+ * Cobalt
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Cobaltians
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+package org.cobaltians.cobalt.bridge;
+
+import org.cobaltians.cobalt.Cobalt;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BridgeExecutorTest
+{
+    private final List<String> mProcessed = Collections.synchronizedList(new ArrayList<String>());
+    private final List<String> mDiscarded = Collections.synchronizedList(new ArrayList<String>());
+
+    @Before
+    public void setUp()
+    {
+        Cobalt.DEBUG = false;
+    }
+
+    @Test
+    public void pausedExecutorKeepsMessagesInOrderUntilResumed() throws InterruptedException
+    {
+        CountDownLatch latch = new CountDownLatch(3);
+        BridgeExecutor executor = new BridgeExecutor(8, BridgeExecutor.Policy.REJECT, processor(latch, null));
+
+        executor.pause();
+        executor.submit("1");
+        executor.submit("2");
+        executor.submit("3");
+        Thread.sleep(50);
+        assertEquals(0, mProcessed.size());
+        assertEquals(3, executor.getQueueDepth());
+
+        executor.resume();
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("1", "2", "3"), mProcessed);
+    }
+
+    @Test
+    public void pausedExecutorAppliesItsPolicy() throws InterruptedException
+    {
+        CountDownLatch latch = new CountDownLatch(2);
+        BridgeExecutor executor = new BridgeExecutor(2, BridgeExecutor.Policy.DROP_OLDEST, processor(latch, null));
+
+        executor.pause();
+        executor.submit("1");
+        executor.submit("2");
+        executor.submit("3");
+        assertEquals(2, executor.getQueueDepth());
+        assertEquals(Collections.singletonList("1"), mDiscarded);
+
+        executor.resume();
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("2", "3"), mProcessed);
+    }
+
+    @Test
+    public void messagePutBackIsProcessedFirstOnResume() throws InterruptedException
+    {
+        final CountDownLatch latch = new CountDownLatch(3);
+        final CountDownLatch polled = new CountDownLatch(1);
+        final CountDownLatch detached = new CountDownLatch(1);
+        final CountDownLatch putBack = new CountDownLatch(1);
+        final BridgeExecutor[] executor = new BridgeExecutor[1];
+        executor[0] = new BridgeExecutor(8, BridgeExecutor.Policy.REJECT, processor(latch, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                // Detached while the first message was being processed
+                polled.countDown();
+                try
+                {
+                    detached.await(5, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException exception)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                executor[0].pause();
+                executor[0].putBack("1");
+                putBack.countDown();
+            }
+        }));
+
+        executor[0].submit("1");
+        assertTrue(polled.await(5, TimeUnit.SECONDS));
+        executor[0].submit("2");
+        detached.countDown();
+        assertTrue(putBack.await(5, TimeUnit.SECONDS));
+        executor[0].submit("3");
+        Thread.sleep(50);
+        assertEquals(0, mProcessed.size());
+
+        executor[0].resume();
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("1", "2", "3"), mProcessed);
+    }
+
+    /***********************************************************************************************
+     *
+     * HELPERS
+     *
+     **********************************************************************************************/
+
+    private BridgeExecutor.MessageProcessor processor(final CountDownLatch latch, final Runnable onFirstMessage)
+    {
+        return new BridgeExecutor.MessageProcessor()
+        {
+            private boolean mFirst = true;
+
+            @Override
+            public void process(@NonNull String message)
+            {
+                if (mFirst
+                    && onFirstMessage != null)
+                {
+                    mFirst = false;
+                    onFirstMessage.run();
+                    return;
+                }
+
+                mProcessed.add(message);
+                latch.countDown();
+            }
+
+            @Override
+            public void onDiscarded(@NonNull String message, @NonNull BridgeExecutor.Policy policy)
+            {
+                mDiscarded.add(message);
+            }
+        };
+    }
+}
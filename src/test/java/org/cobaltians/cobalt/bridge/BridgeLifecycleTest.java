@@ -0,0 +1,308 @@
+/**
+ *
+ * BridgeLifecycleTest
+ * Cobalt
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Cobaltians
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+package org.cobaltians.cobalt.bridge;
+
+import org.cobaltians.cobalt.Cobalt;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BridgeLifecycleTest
+{
+    private final AtomicInteger mPageReadyCount = new AtomicInteger();
+    private final AtomicInteger mReadyCount = new AtomicInteger();
+
+    private BridgeLifecycle mLifecycle;
+    private WaitingMessageQueue mQueue;
+
+    @Before
+    public void setUp()
+    {
+        Cobalt.DEBUG = false;
+
+        mLifecycle = new BridgeLifecycle(new BridgeLifecycle.Listener()
+        {
+            @Override
+            public void onAttached() { }
+
+            @Override
+            public void onPageReady()
+            {
+                mPageReadyCount.incrementAndGet();
+            }
+
+            @Override
+            public void onReady()
+            {
+                mReadyCount.incrementAndGet();
+            }
+        });
+        mQueue = new WaitingMessageQueue(WaitingMessageQueue.DEFAULT_CAPACITY, WaitingMessageQueue.Policy.DROP_OLDEST);
+    }
+
+    @Test
+    public void appStateIsDeliveredWhilePaused() throws JSONException
+    {
+        mLifecycle.attach();
+        mLifecycle.pageReady();
+        mLifecycle.resume();
+        // The activity is stopped after the fragment is paused
+        mLifecycle.pause();
+
+        assertEquals(BridgeLifecycle.State.PAUSED, mLifecycle.getState());
+        assertTrue(mLifecycle.canDeliver(WaitingMessageQueue.laneOf(pubsub(Cobalt.JSEventOnAppBackground))));
+        assertTrue(mLifecycle.canDeliver(WaitingMessageQueue.laneOf(pubsub(Cobalt.JSEventOnAppForeground))));
+        assertFalse(mLifecycle.canDeliver(WaitingMessageQueue.laneOf(pubsub("channel"))));
+    }
+
+    @Test
+    public void appStateWaitingForThePageIsDeliveredOnceReadyWhilePaused() throws JSONException
+    {
+        mLifecycle.attach();
+        JSONObject background = pubsub(Cobalt.JSEventOnAppBackground);
+        mQueue.offer(background);
+        mQueue.offer(pubsub("channel"));
+
+        mLifecycle.pageReady();
+
+        assertEquals(BridgeLifecycle.State.PAUSED, mLifecycle.getState());
+        assertEquals(1, mPageReadyCount.get());
+        assertEquals(0, mReadyCount.get());
+
+        List<JSONObject> lifecycleMessages = mQueue.drain(WaitingMessageQueue.Lane.LIFECYCLE);
+        assertEquals(1, lifecycleMessages.size());
+        assertTrue(background == lifecycleMessages.get(0));
+        assertEquals(1, mQueue.size());
+
+        // onAppForeground no longer replaces onAppBackground once delivered
+        JSONObject foreground = pubsub(Cobalt.JSEventOnAppForeground);
+        mQueue.offer(foreground);
+        assertEquals(0, mQueue.getConflatedCount());
+
+        mLifecycle.resume();
+
+        assertEquals(1, mReadyCount.get());
+        List<JSONObject> messages = mQueue.drain();
+        assertEquals(2, messages.size());
+        assertTrue(foreground == messages.get(0));
+    }
+
+    @Test
+    public void messagesAreDeliveredExactlyOnceUnderConcurrentTransitions() throws Exception
+    {
+        final int producerCount = 4;
+        final int messagesPerProducer = 5000;
+        final int togglerCount = 4;
+        final int transitionsPerToggler = 20000;
+
+        final WaitingMessageQueue queue = new WaitingMessageQueue(producerCount * messagesPerProducer,
+                                                                  WaitingMessageQueue.Policy.DROP_OLDEST);
+        final List<JSONObject> delivered = new ArrayList<>();
+        final AtomicInteger readyCount = new AtomicInteger();
+        final BridgeLifecycle lifecycle = new BridgeLifecycle(new BridgeLifecycle.Listener()
+        {
+            @Override
+            public void onAttached() { }
+
+            @Override
+            public void onPageReady() { }
+
+            @Override
+            public void onReady()
+            {
+                readyCount.incrementAndGet();
+                deliver(queue, delivered);
+            }
+        });
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Throwable> failures = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < togglerCount; i++)
+        {
+            final Random random = new Random(i);
+            threads.add(new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    await(start);
+                    for (int j = 0; j < transitionsPerToggler; j++)
+                    {
+                        switch (random.nextInt(6))
+                        {
+                            case 0: lifecycle.attach(); break;
+                            case 1: lifecycle.pageReady(); break;
+                            case 2: lifecycle.resume(); break;
+                            case 3: lifecycle.pause(); break;
+                            case 4: lifecycle.pageLoading(); break;
+                            default: lifecycle.detach(); break;
+                        }
+                    }
+                }
+            }));
+        }
+        for (int i = 0; i < producerCount; i++)
+        {
+            final int producer = i;
+            threads.add(new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    await(start);
+                    try
+                    {
+                        for (int j = 0; j < messagesPerProducer; j++)
+                        {
+                            queue.offer(message(producer, j));
+                            // As the fragment does, delivers the waiting messages if it raced with onReady
+                            if (lifecycle.isReady())
+                            {
+                                deliver(queue, delivered);
+                            }
+                        }
+                    }
+                    catch (Throwable throwable)
+                    {
+                        synchronized (failures)
+                        {
+                            failures.add(throwable);
+                        }
+                    }
+                }
+            }));
+        }
+
+        for (Thread thread : threads)
+        {
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+        assertTrue(failures.toString(), failures.isEmpty());
+
+        lifecycle.attach();
+        lifecycle.pageReady();
+        lifecycle.resume();
+        deliver(queue, delivered);
+
+        assertTrue(readyCount.get() > 0);
+        assertEquals(0, queue.size());
+        assertEquals(0, queue.getDroppedCount());
+        assertEquals(0, queue.getConflatedCount());
+        assertEquals(producerCount * messagesPerProducer, delivered.size());
+
+        // Each message once, in the order of its producer within its lane
+        Set<String> ids = new HashSet<>();
+        int[][] next = new int[producerCount][2];
+        for (int[] lanes : next)
+        {
+            lanes[1] = 1;
+        }
+        for (JSONObject message : delivered)
+        {
+            int producer = message.optInt("producer", -1);
+            int index = message.optInt("index", -1);
+            assertTrue(ids.add(producer + ":" + index));
+            assertEquals(next[producer][index % 2], index);
+            next[producer][index % 2] += 2;
+        }
+    }
+
+    /**
+     * Drains the queue as the fragment does, under a lock keeping the messages in order
+     */
+    private static void deliver(WaitingMessageQueue queue, List<JSONObject> delivered)
+    {
+        synchronized (delivered)
+        {
+            delivered.addAll(queue.drain());
+        }
+    }
+
+    private static void await(CountDownLatch latch)
+    {
+        try
+        {
+            latch.await();
+        }
+        catch (InterruptedException exception)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Alternates callbacks and pubsub messages on distinct channels, so that none is conflated
+     */
+    private static JSONObject message(int producer, int index) throws JSONException
+    {
+        JSONObject message;
+        if (index % 2 == 0)
+        {
+            message = new JSONObject();
+            message.put(Cobalt.kJSType, Cobalt.JSTypeCallBack);
+            message.put(Cobalt.kJSCallback, producer + ":" + index);
+        }
+        else
+        {
+            message = pubsub("channel:" + producer + ":" + index);
+        }
+        message.put("producer", producer);
+        message.put("index", index);
+        return message;
+    }
+
+    private static JSONObject pubsub(String channel) throws JSONException
+    {
+        JSONObject message = new JSONObject();
+        message.put(Cobalt.kJSType, Cobalt.JSTypePubsub);
+        message.put(Cobalt.kJSChannel, channel);
+        return message;
+    }
+}
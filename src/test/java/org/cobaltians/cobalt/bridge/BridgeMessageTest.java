@@ -0,0 +1,92 @@
+/**
+ *
+ * BridgeMessageTest
+ * Cobalt
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Cobaltians
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+package org.cobaltians.cobalt.bridge;
+
+import org.json.JSONException;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class BridgeMessageTest
+{
+    @Test
+    public void parseAcceptsValidJSON() throws JSONException
+    {
+        BridgeMessage message = BridgeMessage.parse("{\"type\":\"pubsub\",\"message\":{\"a\":[1,-2.5e+3,0.5,true,false,null,\"x\\u0041\\n\"],\"b\":{}}}");
+
+        assertEquals("{\"a\":[1,-2.5e+3,0.5,true,false,null,\"x\\u0041\\n\"],\"b\":{}}", message.getRawObject("message"));
+    }
+
+    @Test
+    public void parseRejectsScriptsInNestedValues()
+    {
+        assertRejected("{\"message\":{\"a\":(function(){alert(1)})()}}");
+        assertRejected("{\"message\":{\"a\":alert(1)}}");
+        assertRejected("{\"message\":{\"a\":[1,window.name]}}");
+        assertRejected("{\"message\":{a:1}}");
+    }
+
+    @Test
+    public void parseRejectsMalformedValues()
+    {
+        assertRejected("{\"a\":[01]}");
+        assertRejected("{\"a\":1.}");
+        assertRejected("{\"a\":-}");
+        assertRejected("{\"a\":tru}");
+        assertRejected("{\"a\":{\"b\":1,}}");
+        assertRejected("{\"a\":[1 2]}");
+        assertRejected("{\"a\":\"\\x\"}");
+        assertRejected("{\"a\":\"\\u00g0\"}");
+        assertRejected("{\"a\":\"line\nbreak\"}");
+        assertRejected("{\"a\":[[[}");
+    }
+
+    @Test
+    public void parseRejectsDeepNesting()
+    {
+        StringBuilder source = new StringBuilder("{\"a\":");
+        for (int i = 0; i < 10000; i++)
+        {
+            source.append('[');
+        }
+        assertRejected(source.toString());
+    }
+
+    private static void assertRejected(String source)
+    {
+        try
+        {
+            BridgeMessage.parse(source);
+            fail("Accepted " + source);
+        }
+        catch (JSONException expected) { }
+    }
+}
@@ -0,0 +1,450 @@
+/**
+ *
+ * BridgeReplayer
+ * Cobalt
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Cobaltians
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+package org.cobaltians.cobalt.bridge;
+
+import org.cobaltians.cobalt.fragments.CobaltFragment;
+import org.cobaltians.cobalt.tools.Assets;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.json.JSONException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a session recorded by {@link BridgeRecorder}, to reproduce or benchmark the handling of its messages.
+ * The messages received from the Web are fed to a target in order, on the calling thread,
+ * with their recorded timing preserved, compressed or ignored; the messages sent to the Web are kept
+ * as the expected output. Replaying does not depend on a Web view, so that a session can be replayed on the JVM,
+ * i.e. to compare dispatcher, PubSub or queue changes on the same traffic. It is a test tool, not shipped in the library.
+ */
+public final class BridgeReplayer
+{
+    /***********************************************************************************************
+     *
+     * MEMBERS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Replays the messages as fast as possible, ignoring their timing
+     */
+    public static final double SPEED_UNLIMITED = 0;
+
+    /**
+     * Replays the messages with their recorded timing
+     */
+    public static final double SPEED_RECORDED = 1;
+
+    /**
+     * A message of a recording
+     */
+    public static final class Record
+    {
+        private final boolean mInbound;
+        private final long mTime;
+        private final long mThreadId;
+        private final String mScope;
+        private final String mMessage;
+
+        Record(boolean inbound, long time, long threadId, @NonNull String scope, @NonNull String message)
+        {
+            mInbound = inbound;
+            mTime = time;
+            mThreadId = threadId;
+            mScope = scope;
+            mMessage = message;
+        }
+
+        /**
+         * Returns whether the message was received from the Web
+         * @return true if the message was received from the Web, false if it was sent to the Web.
+         */
+        public boolean isInbound()
+        {
+            return mInbound;
+        }
+
+        /**
+         * Returns the time the message was recorded at
+         * @return the time since the recording started, in microseconds.
+         */
+        public long getTime()
+        {
+            return mTime;
+        }
+
+        /**
+         * Returns the id of the thread the message was recorded on
+         * @return the id of the recording thread.
+         */
+        public long getThreadId()
+        {
+            return mThreadId;
+        }
+
+        /**
+         * Returns the metrics scope of the fragment the message crossed the bridge of
+         * @return the metrics scope of the fragment.
+         */
+        @NonNull
+        public String getScope()
+        {
+            return mScope;
+        }
+
+        /**
+         * Returns the JSON message
+         * @return the JSON message.
+         */
+        @NonNull
+        public String getMessage()
+        {
+            return mMessage;
+        }
+    }
+
+    /**
+     * Receives the replayed messages
+     */
+    public interface Target
+    {
+        /**
+         * Handles the specified message received from the Web. Called on the replaying thread.
+         * @param record the message.
+         * @return true if the message was handled, false otherwise.
+         */
+        boolean onMessage(@NonNull Record record);
+    }
+
+    /**
+     * The outcome of a replay
+     */
+    public static final class Result
+    {
+        private final int mMessageCount;
+        private final int mHandledCount;
+        private final long mElapsedTime;
+        private final long mMaxLag;
+
+        Result(int messageCount, int handledCount, long elapsedTime, long maxLag)
+        {
+            mMessageCount = messageCount;
+            mHandledCount = handledCount;
+            mElapsedTime = elapsedTime;
+            mMaxLag = maxLag;
+        }
+
+        /**
+         * Returns the number of messages replayed
+         * @return the number of messages replayed.
+         */
+        public int getMessageCount()
+        {
+            return mMessageCount;
+        }
+
+        /**
+         * Returns the number of messages the target handled
+         * @return the number of messages handled.
+         */
+        public int getHandledCount()
+        {
+            return mHandledCount;
+        }
+
+        /**
+         * Returns the time the replay took
+         * @return the time the replay took, in nanoseconds.
+         */
+        public long getElapsedTime()
+        {
+            return mElapsedTime;
+        }
+
+        /**
+         * Returns the maximum delay a message was fed after its scheduled time, because the target was still busy
+         * @return the maximum delay, in nanoseconds, 0 when replaying as fast as possible.
+         */
+        public long getMaxLag()
+        {
+            return mMaxLag;
+        }
+
+        /**
+         * Returns the number of messages replayed per second
+         * @return the number of messages replayed per second.
+         */
+        public double getThroughput()
+        {
+            return mElapsedTime > 0 ? mMessageCount * 1e9 / mElapsedTime : 0;
+        }
+
+        @Override
+        public String toString()
+        {
+            return mMessageCount + " messages (" + mHandledCount + " handled) in "
+                   + TimeUnit.NANOSECONDS.toMillis(mElapsedTime) + "ms, "
+                   + Math.round(getThroughput()) + " messages/s, max lag "
+                   + TimeUnit.NANOSECONDS.toMicros(mMaxLag) + "us";
+        }
+    }
+
+    private final List<Record> mRecords;
+
+    /***********************************************************************************************
+     *
+     * CONSTRUCTORS
+     *
+     **********************************************************************************************/
+
+    private BridgeReplayer(@NonNull List<Record> records)
+    {
+        mRecords = Collections.unmodifiableList(records);
+    }
+
+    /**
+     * Reads the specified recording
+     * @param file the file written by a BridgeRecorder.
+     * @return the replayer of the recording.
+     * @throws IOException if the file can not be read or is not a recording.
+     */
+    @NonNull
+    public static BridgeReplayer read(@NonNull File file) throws IOException
+    {
+        Reader reader = new InputStreamReader(new FileInputStream(file), Assets.UTF_8);
+        try
+        {
+            return read(reader);
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    /**
+     * Reads the specified recording. The reader is not closed.
+     * @param reader the reader of the recording.
+     * @return the replayer of the recording.
+     * @throws IOException if the recording can not be read or is not a recording.
+     */
+    @NonNull
+    public static BridgeReplayer read(@NonNull Reader reader) throws IOException
+    {
+        BufferedReader bufferedReader = new BufferedReader(reader);
+        String header = bufferedReader.readLine();
+        if (header == null
+            || ! header.startsWith(BridgeRecorder.HEADER + " "))
+        {
+            throw new IOException("Not a bridge recording.");
+        }
+
+        ArrayList<Record> records = new ArrayList<>();
+        // Time of the previous sessions appended to the same file, so that times keep increasing
+        long offset = 0;
+        long lastTime = 0;
+        int lineNumber = 1;
+        String line;
+        while ((line = bufferedReader.readLine()) != null)
+        {
+            lineNumber++;
+            if (line.isEmpty())
+            {
+                continue;
+            }
+            if (line.startsWith(BridgeRecorder.HEADER))
+            {
+                offset = lastTime;
+                continue;
+            }
+
+            String[] fields = line.split("\t", 5);
+            if (fields.length != 5
+                || fields[0].length() != 1)
+            {
+                throw new IOException("Malformed record at line " + lineNumber + ".");
+            }
+
+            char direction = fields[0].charAt(0);
+            if (direction != BridgeRecorder.INBOUND
+                && direction != BridgeRecorder.OUTBOUND)
+            {
+                throw new IOException("Unknown direction " + direction + " at line " + lineNumber + ".");
+            }
+
+            try
+            {
+                lastTime = offset + Long.parseLong(fields[1]);
+                records.add(new Record(direction == BridgeRecorder.INBOUND, lastTime, Long.parseLong(fields[2]), fields[3], fields[4]));
+            }
+            catch (NumberFormatException exception)
+            {
+                throw new IOException("Malformed record at line " + lineNumber + ".", exception);
+            }
+        }
+
+        return new BridgeReplayer(records);
+    }
+
+    /***********************************************************************************************
+     *
+     * METHODS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Returns the messages of the recording, in the order they were recorded
+     * @return the messages of the recording.
+     */
+    @NonNull
+    public List<Record> getRecords()
+    {
+        return mRecords;
+    }
+
+    /**
+     * Feeds the messages received from the Web to the specified target, in order, on the calling thread
+     * @param target the target of the messages.
+     * @param scope the scope of the messages to replay, or null to replay the messages of all scopes.
+     * @param speed the speed factor: SPEED_RECORDED keeps the recorded timing, 10 replays ten times faster,
+     *              SPEED_UNLIMITED ignores the timing.
+     * @return the outcome of the replay.
+     * @throws InterruptedException if the thread is interrupted while waiting for the time of a message.
+     */
+    @NonNull
+    public Result replay(@NonNull Target target, @Nullable String scope, double speed) throws InterruptedException
+    {
+        if (speed < 0
+            || Double.isNaN(speed))
+        {
+            throw new IllegalArgumentException("Speed must be positive or SPEED_UNLIMITED.");
+        }
+
+        int messageCount = 0;
+        int handledCount = 0;
+        long maxLag = 0;
+        long firstTime = -1;
+        long start = System.nanoTime();
+
+        for (Record record : mRecords)
+        {
+            if (! record.isInbound()
+                || (scope != null && ! scope.equals(record.getScope())))
+            {
+                continue;
+            }
+
+            if (firstTime < 0)
+            {
+                firstTime = record.getTime();
+            }
+
+            if (speed != SPEED_UNLIMITED)
+            {
+                long due = start + (long) (TimeUnit.MICROSECONDS.toNanos(record.getTime() - firstTime) / speed);
+                long delay = due - System.nanoTime();
+                if (delay > 0)
+                {
+                    TimeUnit.NANOSECONDS.sleep(delay);
+                }
+                else
+                {
+                    maxLag = Math.max(maxLag, - delay);
+                }
+            }
+
+            messageCount++;
+            if (target.onMessage(record))
+            {
+                handledCount++;
+            }
+        }
+
+        return new Result(messageCount, handledCount, System.nanoTime() - start, maxLag);
+    }
+
+    /**
+     * Returns a target sending the messages to the specified fragment, as if they were sent by its Web view.
+     * They are processed asynchronously by its bridge executor, so they are all considered handled.
+     * @param fragment the fragment to send the messages to.
+     * @return a target sending the messages to the fragment.
+     */
+    @NonNull
+    public static Target toFragment(@NonNull final CobaltFragment fragment)
+    {
+        return new Target()
+        {
+            @Override
+            public boolean onMessage(@NonNull Record record)
+            {
+                fragment.onCobaltMessage(record.getMessage());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Returns a target dispatching the messages with the specified dispatcher on the replaying thread,
+     * bypassing the bridge executor and the lifecycle of the fragment.
+     * @param dispatcher the dispatcher of the messages.
+     * @param fragment the fragment given to the message handlers.
+     * @return a target dispatching the messages.
+     */
+    @NonNull
+    public static Target toDispatcher(@NonNull final MessageDispatcher dispatcher, @NonNull final CobaltFragment fragment)
+    {
+        return new Target()
+        {
+            @Override
+            public boolean onMessage(@NonNull Record record)
+            {
+                try
+                {
+                    return dispatcher.dispatch(fragment, BridgeMessage.parse(record.getMessage()));
+                }
+                catch (JSONException exception)
+                {
+                    return false;
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,205 @@
+/**
+ *
+ * BridgeReplayerTest
+ * Cobalt
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Cobaltians
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+package org.cobaltians.cobalt.bridge;
+
+import org.cobaltians.cobalt.Cobalt;
+import org.cobaltians.cobalt.fragments.CobaltFragment;
+
+import android.support.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BridgeReplayerTest
+{
+    private static final String SCOPE = "replay";
+    private static final String TYPE = "replayTest";
+    private static final String UI_TYPE = "replayUITest";
+
+    /**
+     * Writes the records on the recording thread, so that they are in the file once recorded
+     */
+    private static final Executor DIRECT_EXECUTOR = new Executor()
+    {
+        @Override
+        public void execute(@NonNull Runnable runnable)
+        {
+            runnable.run();
+        }
+    };
+
+    private final List<String> mHandledIds = new ArrayList<>();
+    private File mFile;
+    private MessageDispatcher mDispatcher;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        Cobalt.DEBUG = false;
+
+        mFile = File.createTempFile("bridge", ".rec");
+        mDispatcher = new MessageDispatcher(null);
+        mDispatcher.register(TYPE, null, new MessageHandler(MessageHandler.Affinity.BRIDGE, "id")
+        {
+            @Override
+            public boolean handle(@NonNull CobaltFragment fragment, @NonNull BridgeMessage message)
+            {
+                mHandledIds.add(message.optString("id"));
+                return true;
+            }
+        });
+    }
+
+    @After
+    public void tearDown()
+    {
+        assertTrue(mFile.delete());
+    }
+
+    @Test
+    public void replaysRecordedInboundMessagesInOrder() throws Exception
+    {
+        BridgeRecorder recorder = new BridgeRecorder(mFile, DIRECT_EXECUTOR);
+        recorder.recordInbound(SCOPE, message("1"));
+        recorder.recordOutbound(SCOPE, message("out"));
+        recorder.recordInbound("other", message("other"));
+        recorder.recordInbound(SCOPE, "{\"type\":\"unknown\"}");
+        recorder.recordInbound(SCOPE, message("2"));
+        recorder.recordInbound(SCOPE, message("3"));
+        recorder.stop();
+        assertEquals(6, recorder.getRecordedCount());
+        assertEquals(0, recorder.getDroppedCount());
+
+        BridgeReplayer replayer = BridgeReplayer.read(mFile);
+        List<BridgeReplayer.Record> records = replayer.getRecords();
+        assertEquals(6, records.size());
+        assertFalse(records.get(1).isInbound());
+        assertEquals(message("out"), records.get(1).getMessage());
+
+        BridgeReplayer.Result result = replayer.replay(BridgeReplayer.toDispatcher(mDispatcher, new CobaltFragment()),
+                                                       SCOPE, BridgeReplayer.SPEED_UNLIMITED);
+
+        assertEquals(4, result.getMessageCount());
+        assertEquals(3, result.getHandledCount());
+        assertEquals(Arrays.asList("1", "2", "3"), mHandledIds);
+    }
+
+    @Test
+    public void compressesTheRecordedTiming() throws Exception
+    {
+        BridgeRecorder recorder = new BridgeRecorder(mFile, DIRECT_EXECUTOR);
+        for (int i = 0; i < 5; i++)
+        {
+            if (i > 0)
+            {
+                Thread.sleep(100);
+            }
+            recorder.recordInbound(SCOPE, message(String.valueOf(i)));
+        }
+        recorder.stop();
+
+        BridgeReplayer replayer = BridgeReplayer.read(mFile);
+        List<BridgeReplayer.Record> records = replayer.getRecords();
+        long span = TimeUnit.MICROSECONDS.toNanos(records.get(records.size() - 1).getTime() - records.get(0).getTime());
+        assertTrue(span >= TimeUnit.MILLISECONDS.toNanos(400));
+
+        double speed = 10;
+        BridgeReplayer.Result result = replayer.replay(BridgeReplayer.toDispatcher(mDispatcher, new CobaltFragment()),
+                                                       SCOPE, speed);
+
+        assertEquals(Arrays.asList("0", "1", "2", "3", "4"), mHandledIds);
+        // The last message is fed once its compressed time is reached, well before its recorded time
+        assertTrue(result.getElapsedTime() >= (long) (span / speed));
+        assertTrue(result.getElapsedTime() < span / 2);
+    }
+
+    @Test
+    public void runsHandlersWithAUIAffinity() throws Exception
+    {
+        final List<Runnable> mainThreadTasks = new ArrayList<>();
+        MessageDispatcher dispatcher = new MessageDispatcher(mDispatcher, new Executor()
+        {
+            @Override
+            public void execute(@NonNull Runnable runnable)
+            {
+                mainThreadTasks.add(runnable);
+            }
+        });
+        final List<String> uiHandledIds = new ArrayList<>();
+        dispatcher.register(UI_TYPE, null, new MessageHandler(MessageHandler.Affinity.UI, "id")
+        {
+            @Override
+            public boolean handle(@NonNull CobaltFragment fragment, @NonNull BridgeMessage message)
+            {
+                uiHandledIds.add(message.optString("id"));
+                return true;
+            }
+        });
+
+        BridgeRecorder recorder = new BridgeRecorder(mFile, DIRECT_EXECUTOR);
+        recorder.recordInbound(SCOPE, message("1"));
+        recorder.recordInbound(SCOPE, "{\"type\":\"" + UI_TYPE + "\",\"id\":\"ui\"}");
+        recorder.recordInbound(SCOPE, message("2"));
+        recorder.stop();
+
+        BridgeReplayer.Result result = BridgeReplayer.read(mFile).replay(BridgeReplayer.toDispatcher(dispatcher, new CobaltFragment()),
+                                                                        SCOPE, BridgeReplayer.SPEED_UNLIMITED);
+        assertEquals(3, result.getHandledCount());
+        assertEquals(Arrays.asList("1", "2"), mHandledIds);
+        // Posted to the main thread, not run yet
+        assertTrue(uiHandledIds.isEmpty());
+        assertEquals(1, mainThreadTasks.size());
+
+        for (Runnable task : mainThreadTasks)
+        {
+            task.run();
+        }
+        assertEquals(Arrays.asList("ui"), uiHandledIds);
+        assertEquals(1, dispatcher.getHandledCount(UI_TYPE, null));
+    }
+
+    private static String message(String id)
+    {
+        return "{\"type\":\"" + TYPE + "\",\"id\":\"" + id + "\"}";
+    }
+}
@@ -0,0 +1,211 @@
+/**
+ *
+ * LoopbackBridge
+ * Cobalt
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Cobaltians
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+package org.cobaltians.cobalt.bridge;
+
+import org.cobaltians.cobalt.Cobalt;
+import org.cobaltians.cobalt.benchmark.BridgeBenchmark;
+import org.cobaltians.cobalt.fragments.CobaltFragment;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import org.json.JSONException;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A bridge running on the JVM, without fragment nor Web view, so that {@link BridgeBenchmark} runs on a plain CI.
+ * Messages go through the classes of the bridge of a fragment, on the same kinds of threads:
+ * escaping, chunking and a {@link LoopbackTransport} one way, on a thread standing for the main thread,
+ * a {@link BridgeExecutor} and a {@link MessageDispatcher} the other way, handlers with a UI affinity running
+ * on the same main thread. The message batcher is left out, as it paces deliveries with the frames of the display.
+ */
+public final class LoopbackBridge implements BridgeBenchmark.Bridge
+{
+    private static final String TAG = LoopbackBridge.class.getSimpleName();
+
+    /***********************************************************************************************
+     *
+     * MEMBERS
+     *
+     **********************************************************************************************/
+
+    private final ScriptedPage mPage = new ScriptedPage();
+    private final ExecutorService mMainThread;
+    private final LoopbackTransport mTransport;
+    private final BridgeExecutor mBridgeExecutor;
+    private final MessageDispatcher mDispatcher;
+    // Given to the handlers, never attached
+    private final CobaltFragment mFragment = new CobaltFragment();
+    @Nullable
+    private volatile BridgeBenchmark.AnswerListener mAnswerListener;
+
+    /***********************************************************************************************
+     *
+     * CONSTRUCTORS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Creates a bridge whose executor has the default capacity and policy of a fragment
+     */
+    public LoopbackBridge()
+    {
+        this(BridgeExecutor.DEFAULT_CAPACITY, BridgeExecutor.Policy.BLOCK);
+    }
+
+    /**
+     * Creates a bridge whose executor has the specified capacity and policy
+     * @param capacity the maximum number of messages waiting to be processed.
+     * @param policy what happens to a message received while the queue is full.
+     */
+    public LoopbackBridge(int capacity, @NonNull BridgeExecutor.Policy policy)
+    {
+        mMainThread = Executors.newSingleThreadExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(@NonNull Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "LoopbackMain");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        mDispatcher = new MessageDispatcher(null, mMainThread);
+        BridgeBenchmark.registerAnswerHandlers(mDispatcher, new BridgeBenchmark.AnswerListener()
+        {
+            @Override
+            public void onAnswer(@NonNull BridgeMessage message) throws JSONException
+            {
+                BridgeBenchmark.AnswerListener listener = mAnswerListener;
+                if (listener != null)
+                {
+                    listener.onAnswer(message);
+                }
+            }
+        });
+
+        mBridgeExecutor = new BridgeExecutor(capacity, policy, new BridgeExecutor.MessageProcessor()
+        {
+            @Override
+            public void process(@NonNull String message)
+            {
+                try
+                {
+                    mDispatcher.dispatch(mFragment, BridgeMessage.parse(message));
+                }
+                catch (JSONException exception)
+                {
+                    if (Cobalt.DEBUG) Log.e(Cobalt.TAG, TAG + " - process: Unable to parse message as JSON.\n" + message);
+                    exception.printStackTrace();
+                }
+            }
+
+            @Override
+            public void onDiscarded(@NonNull String message, @NonNull BridgeExecutor.Policy policy) { }
+        });
+
+        mTransport = new LoopbackTransport(mPage, new BridgeTransport.MessageListener()
+        {
+            @Override
+            public void onMessage(@NonNull String message)
+            {
+                mBridgeExecutor.submit(message);
+            }
+        });
+    }
+
+    /***********************************************************************************************
+     *
+     * METHODS
+     *
+     **********************************************************************************************/
+
+    @NonNull
+    @Override
+    public ScriptedPage getScriptedPage()
+    {
+        return mPage;
+    }
+
+    @Override
+    public boolean isBridgeReady()
+    {
+        return ! mMainThread.isShutdown();
+    }
+
+    @Override
+    public void sendRawMessage(@NonNull String message)
+    {
+        final String script = ScriptEncoder.escapeSeparators(message);
+        mMainThread.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                List<String> messages = script.length() > MessageChunker.DEFAULT_THRESHOLD
+                                        ? MessageChunker.split(script, MessageChunker.CHUNK_LENGTH)
+                                        : Collections.singletonList(script);
+                mTransport.deliver(messages);
+            }
+        });
+    }
+
+    @Override
+    public void setAnswerListener(@Nullable BridgeBenchmark.AnswerListener listener)
+    {
+        mAnswerListener = listener;
+    }
+
+    /**
+     * Returns the executor processing the messages the page replies with, i.e. to read its statistics
+     * @return the executor of the bridge.
+     */
+    @NonNull
+    public BridgeExecutor getBridgeExecutor()
+    {
+        return mBridgeExecutor;
+    }
+
+    /**
+     * Stops the threads of the bridge. Messages are ignored from then.
+     */
+    public void close()
+    {
+        mTransport.close();
+        mMainThread.shutdownNow();
+    }
+}